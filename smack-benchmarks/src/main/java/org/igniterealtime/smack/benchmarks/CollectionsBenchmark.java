@@ -0,0 +1,97 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.smack.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.MultiMap;
+import org.jivesoftware.smackx.chatstates.ChatState;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jivesoftware.smackx.receipts.DeliveryReceiptRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link MultiMap}, which holds the extension elements of every stanza, and the extension lookups on top
+ * of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionsBenchmark {
+
+    private static final String[] KEYS = new String[] { "body", "thread", "active", "request", "delay", "x" };
+
+    private MultiMap<String, String> multiMap;
+
+    private Message message;
+
+    @Setup
+    public void setup() {
+        multiMap = new MultiMap<>();
+        for (String key : KEYS) {
+            multiMap.put(key, key);
+        }
+        message = new Message();
+        message.setBody("Wherefore art thou Romeo?");
+        message.addExtension(new ChatStateExtension(ChatState.active));
+        message.addExtension(new DeliveryReceiptRequest());
+        message.addExtension(new DelayInformation(new Date(0)));
+    }
+
+    @Benchmark
+    public int multiMapPutAndRemove() {
+        MultiMap<String, String> map = new MultiMap<>();
+        for (String key : KEYS) {
+            map.put(key, key);
+        }
+        for (String key : KEYS) {
+            map.remove(key);
+        }
+        return map.size();
+    }
+
+    @Benchmark
+    public String multiMapGetFirst() {
+        return multiMap.getFirst("delay");
+    }
+
+    @Benchmark
+    public ExtensionElement getExtension() {
+        return message.getExtension(DelayInformation.ELEMENT, DelayInformation.NAMESPACE);
+    }
+
+    @Benchmark
+    public boolean hasMissingExtension() {
+        return message.hasExtension("x", "jabber:x:oob");
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.ExecutorProviders;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.FromMatchesFilter;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.chatstates.ChatState;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.jxmpp.jid.JidTestUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks dispatching a received stanza to the stanza listeners of a connection. The listeners are invoked inline,
+ * so that the benchmark measures the filter evaluation and dispatch overhead, and not the thread hand-off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int listeners;
+
+    private DummyConnection connection;
+
+    private Message message;
+
+    private long invocations;
+
+    @Setup
+    public void setup() throws Exception {
+        connection = new DummyConnection(DummyConnection.DummyConnectionConfiguration.builder()
+                        .setXmppDomain(JidTestUtil.EXAMPLE_ORG)
+                        .setUsernameAndPassword("benchmark", "benchmark")
+                        .setExecutorProvider(ExecutorProviders.inline())
+                        .build());
+        connection.connect();
+        connection.login();
+
+        StanzaFilter[] filters = new StanzaFilter[] {
+            MessageTypeFilter.CHAT,
+            MessageTypeFilter.GROUPCHAT,
+            new StanzaExtensionFilter(ChatStateExtension.NAMESPACE),
+            new AndFilter(MessageTypeFilter.NORMAL, FromMatchesFilter.create(JidTestUtil.BARE_JID_2)),
+        };
+        // Listeners are registered by identity, hence every registration needs its own instance.
+        for (int i = 0; i < listeners; i++) {
+            connection.addAsyncStanzaListener(new StanzaListener() {
+                @Override
+                public void processPacket(Stanza stanza) {
+                    invocations++;
+                }
+            }, filters[i % filters.length]);
+        }
+
+        message = new Message(connection.getUser(), "Wherefore art thou Romeo?");
+        message.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        message.setType(Message.Type.chat);
+        message.addExtension(new ChatStateExtension(ChatState.active));
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.disconnect();
+    }
+
+    @Benchmark
+    public long dispatchMessage() {
+        connection.processStanza(message);
+        return invocations;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks parsing stanzas, including the creation of the XML pull parser, into their Smack representation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    /**
+     * Whether the extension elements of messages and presences are parsed lazily. The benchmarks do not access the
+     * extension elements, so this shows the cost saved for extension elements nobody is interested in.
+     */
+    @Param({ "false", "true" })
+    public boolean lazyExtensionParsing;
+
+    @Setup
+    public void setup() {
+        // Initialize Smack, which registers the providers of the extension elements contained in the payloads.
+        SmackConfiguration.getVersion();
+        SmackConfiguration.setLazyExtensionParsing(lazyExtensionParsing);
+    }
+
+    @Benchmark
+    public Stanza parseStanza() throws Exception {
+        return PacketParserUtils.parseStanza(Payloads.CHAT_MESSAGE);
+    }
+
+    @Benchmark
+    public Message parseMessage() throws Exception {
+        return PacketParserUtils.parseMessage(PacketParserUtils.getParserFor(Payloads.CHAT_MESSAGE));
+    }
+
+    @Benchmark
+    public Message parsePubSubEventMessage() throws Exception {
+        return PacketParserUtils.parseMessage(PacketParserUtils.getParserFor(Payloads.PUBSUB_EVENT_MESSAGE));
+    }
+
+    @Benchmark
+    public Presence parsePresence() throws Exception {
+        return PacketParserUtils.parsePresence(PacketParserUtils.getParserFor(Payloads.MUC_PRESENCE));
+    }
+
+    @Benchmark
+    public IQ parseRosterIQ() throws Exception {
+        return PacketParserUtils.parseIQ(PacketParserUtils.getParserFor(Payloads.ROSTER_RESULT));
+    }
+
+    @Benchmark
+    public IQ parseDiscoInfoIQ() throws Exception {
+        return PacketParserUtils.parseIQ(PacketParserUtils.getParserFor(Payloads.DISCO_INFO_RESULT));
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.smack.benchmarks;
+
+/**
+ * Realistic stanzas used by the benchmarks, modeled after the examples of the corresponding specifications.
+ */
+final class Payloads {
+
+    static final String CHAT_MESSAGE = "<message xmlns='jabber:client' from='juliet@capulet.example/balcony'"
+                    + " to='romeo@montague.example/orchard' type='chat' id='ktx72v49'>"
+                    + "<body>Art thou not Romeo, and a Montague? What&apos;s in a name? That which we call a rose"
+                    + " &lt;by any other name&gt; would smell as sweet &amp; so Romeo would.</body>"
+                    + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread>"
+                    + "<active xmlns='http://jabber.org/protocol/chatstates'/>"
+                    + "<request xmlns='urn:xmpp:receipts'/>"
+                    + "<delay xmlns='urn:xmpp:delay' from='capulet.example' stamp='2002-09-10T23:08:25Z'>"
+                    + "Offline Storage</delay>"
+                    + "</message>";
+
+    static final String PUBSUB_EVENT_MESSAGE = "<message xmlns='jabber:client' from='pubsub.shakespeare.example'"
+                    + " to='francisco@denmark.example' id='foo'>"
+                    + "<event xmlns='http://jabber.org/protocol/pubsub#event'>"
+                    + "<items node='princely_musings'>"
+                    + "<item id='ae890ac52d0df67ed7cfdf51b644e901'>"
+                    + "<entry xmlns='http://www.w3.org/2005/Atom'>"
+                    + "<title>Soliloquy</title>"
+                    + "<summary>To be, or not to be: that is the question: Whether &apos;tis nobler in the mind to"
+                    + " suffer the slings and arrows of outrageous fortune, or to take arms against a sea of troubles,"
+                    + " and by opposing end them?</summary>"
+                    + "<link rel='alternate' type='text/html'"
+                    + " href='http://denmark.example/2003/12/13/atom03'/>"
+                    + "<id>tag:denmark.example,2003:entry-32397</id>"
+                    + "<published>2003-12-13T18:30:02Z</published>"
+                    + "<updated>2003-12-13T18:30:02Z</updated>"
+                    + "</entry>"
+                    + "</item>"
+                    + "</items>"
+                    + "</event>"
+                    + "</message>";
+
+    static final String MUC_PRESENCE = "<presence xmlns='jabber:client' from='coven@chat.shakespeare.example/thirdwitch'"
+                    + " to='hag66@shakespeare.example/pda' id='n13mt3l'>"
+                    + "<show>away</show>"
+                    + "<status>Away from the cauldron</status>"
+                    + "<priority>5</priority>"
+                    + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='http://code.google.com/p/exodus'"
+                    + " ver='QgayPKawpkPSDYmwT/WM94uAlu0='/>"
+                    + "<x xmlns='http://jabber.org/protocol/muc#user'>"
+                    + "<item affiliation='member' role='participant' jid='hag66@shakespeare.example/pda'/>"
+                    + "<status code='110'/>"
+                    + "</x>"
+                    + "</presence>";
+
+    static final String ROSTER_RESULT = createRosterResult(50);
+
+    static final String DISCO_INFO_RESULT = createDiscoInfoResult(20);
+
+    private Payloads() {
+    }
+
+    private static String createRosterResult(int items) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<iq xmlns='jabber:client' to='juliet@example.com/balcony' type='result' id='bv1bs71f'>");
+        sb.append("<query xmlns='jabber:iq:roster' ver='ver11'>");
+        for (int i = 0; i < items; i++) {
+            sb.append("<item jid='contact").append(i).append("@example.net' name='Contact ").append(i)
+                            .append("' subscription='both'>");
+            sb.append("<group>Friends</group>");
+            if (i % 5 == 0) {
+                sb.append("<group>Work</group>");
+            }
+            sb.append("</item>");
+        }
+        sb.append("</query></iq>");
+        return sb.toString();
+    }
+
+    private static String createDiscoInfoResult(int features) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<iq xmlns='jabber:client' from='benvolio@capulet.lit/230193' to='juliet@capulet.lit/chamber'");
+        sb.append(" type='result' id='disco1'>");
+        sb.append("<query xmlns='http://jabber.org/protocol/disco#info'");
+        sb.append(" node='http://psi-im.org#q07IKJEyjvHSyhy//CH0CxmKi8w='>");
+        sb.append("<identity xml:lang='en' category='client' name='Psi 0.11' type='pc'/>");
+        sb.append("<identity xml:lang='el' category='client' name='Ψ 0.11' type='pc'/>");
+        for (int i = 0; i < features; i++) {
+            sb.append("<feature var='urn:example:feature:").append(i).append("'/>");
+        }
+        sb.append("<x xmlns='jabber:x:data' type='result'>");
+        sb.append("<field var='FORM_TYPE' type='hidden'><value>urn:xmpp:dataforms:softwareinfo</value></field>");
+        sb.append("<field var='ip_version'><value>ipv4</value><value>ipv6</value></field>");
+        sb.append("<field var='os'><value>Mac</value></field>");
+        sb.append("<field var='os_version'><value>10.5.1</value></field>");
+        sb.append("<field var='software'><value>Psi</value></field>");
+        sb.append("<field var='software_version'><value>0.11</value></field>");
+        sb.append("</x>");
+        sb.append("</query></iq>");
+        return sb.toString();
+    }
+}
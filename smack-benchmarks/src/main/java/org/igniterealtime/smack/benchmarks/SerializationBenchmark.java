@@ -0,0 +1,190 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.smack.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Element;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.Utf8OutputBuffer;
+import org.jivesoftware.smackx.chatstates.ChatState;
+import org.jivesoftware.smackx.chatstates.packet.ChatStateExtension;
+import org.jivesoftware.smackx.delay.packet.DelayInformation;
+import org.jivesoftware.smackx.muc.MUCAffiliation;
+import org.jivesoftware.smackx.muc.MUCRole;
+import org.jivesoftware.smackx.muc.packet.MUCItem;
+import org.jivesoftware.smackx.muc.packet.MUCUser;
+import org.jivesoftware.smackx.pubsub.EventElement;
+import org.jivesoftware.smackx.pubsub.EventElementType;
+import org.jivesoftware.smackx.pubsub.ItemsExtension;
+import org.jivesoftware.smackx.pubsub.PayloadItem;
+import org.jivesoftware.smackx.pubsub.SimplePayload;
+import org.jivesoftware.smackx.receipts.DeliveryReceiptRequest;
+import org.jivesoftware.smackx.xdata.FormField;
+import org.jivesoftware.smackx.xdata.packet.DataForm;
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks serializing stanzas and extension elements, either to a String or, like the TCP connection does, into a
+ * UTF-8 byte buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private Message message;
+
+    private Presence presence;
+
+    private DataForm dataForm;
+
+    private DelayInformation delayInformation;
+
+    private MUCUser mucUser;
+
+    private EventElement eventElement;
+
+    private final Utf8OutputBuffer buffer = new Utf8OutputBuffer(4096);
+
+    @Setup
+    public void setup() throws Exception {
+        delayInformation = new DelayInformation(new Date(1031699305000L), "capulet.example", "Offline Storage");
+
+        message = new Message(JidCreate.from("romeo@montague.example/orchard"),
+                        "Art thou not Romeo, and a Montague? What's in a name? That which we call a rose "
+                                        + "<by any other name> would smell as sweet & so Romeo would.");
+        message.setFrom(JidCreate.from("juliet@capulet.example/balcony"));
+        message.setType(Message.Type.chat);
+        message.setStanzaId("ktx72v49");
+        message.setThread("e0ffe42b28561960c6b12b944a092794b9683a38");
+        message.addExtension(new ChatStateExtension(ChatState.active));
+        message.addExtension(new DeliveryReceiptRequest());
+        message.addExtension(delayInformation);
+
+        mucUser = new MUCUser();
+        mucUser.setItem(new MUCItem(MUCAffiliation.member, MUCRole.participant, null, null,
+                        JidCreate.from("hag66@shakespeare.example/pda"), null, null));
+        mucUser.addStatusCode(MUCUser.Status.PRESENCE_TO_SELF_110);
+
+        presence = new Presence(Presence.Type.available, "Away from the cauldron", 5, Presence.Mode.away);
+        presence.setFrom(JidCreate.from("coven@chat.shakespeare.example/thirdwitch"));
+        presence.setTo(JidCreate.from("hag66@shakespeare.example/pda"));
+        presence.setStanzaId("n13mt3l");
+        presence.addExtension(mucUser);
+
+        dataForm = new DataForm(DataForm.Type.submit);
+        FormField formType = new FormField("FORM_TYPE");
+        formType.setType(FormField.Type.hidden);
+        formType.addValue("http://jabber.org/protocol/muc#roomconfig");
+        dataForm.addField(formType);
+        addField(dataForm, "muc#roomconfig_roomname", "A Dark Cave");
+        addField(dataForm, "muc#roomconfig_roomdesc", "The place for all good witches & warlocks!");
+        addField(dataForm, "muc#roomconfig_enablelogging", "0");
+        addField(dataForm, "muc#roomconfig_changesubject", "1");
+        addField(dataForm, "muc#roomconfig_allowinvites", "0");
+        addField(dataForm, "muc#roomconfig_maxusers", "10");
+        addField(dataForm, "muc#roomconfig_publicroom", "0");
+        addField(dataForm, "muc#roomconfig_persistentroom", "0");
+        addField(dataForm, "muc#roomconfig_moderatedroom", "0");
+        addField(dataForm, "muc#roomconfig_membersonly", "0");
+        addField(dataForm, "muc#roomconfig_passwordprotectedroom", "1");
+        addField(dataForm, "muc#roomconfig_roomsecret", "cauldronburn");
+
+        List<ExtensionElement> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            SimplePayload payload = new SimplePayload("entry", "http://www.w3.org/2005/Atom",
+                            "<entry xmlns='http://www.w3.org/2005/Atom'><title>Soliloquy</title>"
+                                            + "<summary>To be, or not to be: that is the question</summary>"
+                                            + "<id>tag:denmark.example,2003:entry-3239" + i + "</id>"
+                                            + "<published>2003-12-13T18:30:02Z</published></entry>");
+            items.add(new PayloadItem<>("ae890ac52d0df67ed7cfdf51b644e90" + i, payload));
+        }
+        eventElement = new EventElement(EventElementType.items,
+                        new ItemsExtension(ItemsExtension.ItemsElementType.items, "princely_musings", items));
+    }
+
+    private static void addField(DataForm dataForm, String variable, String value) {
+        FormField field = new FormField(variable);
+        field.addValue(value);
+        dataForm.addField(field);
+    }
+
+    @Benchmark
+    public String messageToString() {
+        return message.toXML().toString();
+    }
+
+    @Benchmark
+    public int messageToUtf8() {
+        return encode(message);
+    }
+
+    @Benchmark
+    public String presenceToString() {
+        return presence.toXML().toString();
+    }
+
+    @Benchmark
+    public int presenceToUtf8() {
+        return encode(presence);
+    }
+
+    @Benchmark
+    public String dataFormToString() {
+        return dataForm.toXML().toString();
+    }
+
+    @Benchmark
+    public String delayInformationToString() {
+        return delayInformation.toXML().toString();
+    }
+
+    @Benchmark
+    public String mucUserToString() {
+        return mucUser.toXML().toString();
+    }
+
+    @Benchmark
+    public String pubSubEventToString() {
+        return eventElement.toXML().toString();
+    }
+
+    private int encode(Element element) {
+        buffer.reset();
+        buffer.append(element);
+        return buffer.size();
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the string utilities used when serializing and parsing stanzas: XML escaping and Base64.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringsBenchmark {
+
+    private static final String PLAIN_TEXT = "Art thou not Romeo, and a Montague? What's in a name? That which we "
+                    + "call a rose by any other name would smell as sweet, so Romeo would, were he not Romeo call'd";
+
+    private static final String MARKUP_TEXT = "<html xmlns='http://jabber.org/protocol/xhtml-im'><body>"
+                    + "<p style=\"font-weight:bold\">Romeo &amp; Juliet</p></body></html>";
+
+    private byte[] binary;
+
+    private String base64;
+
+    @Setup
+    public void setup() {
+        // Initializes Smack, which sets the Base64 encoder of the runtime.
+        SmackConfiguration.getVersion();
+        binary = new byte[4096];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) (i * 31);
+        }
+        base64 = Base64.encodeToString(binary);
+    }
+
+    @Benchmark
+    public String escapePlainText() {
+        return StringUtils.escapeForXml(PLAIN_TEXT).toString();
+    }
+
+    @Benchmark
+    public String escapeMarkupText() {
+        return StringUtils.escapeForXml(MARKUP_TEXT).toString();
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        return Base64.encodeToString(binary);
+    }
+
+    @Benchmark
+    public byte[] base64Decode() {
+        return Base64.decode(base64);
+    }
+}
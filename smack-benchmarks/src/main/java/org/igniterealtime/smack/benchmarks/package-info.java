@@ -0,0 +1,26 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * JMH microbenchmarks of Smack's hot paths.
+ * <p>
+ * The benchmarks are run with the JMH command line runner, e.g. <code>gradle :smack-benchmarks:run
+ * -PjmhArgs='-f 1 -wi 3 -i 5 Parsing'</code>. Use them to compare a change against its baseline, absolute numbers are
+ * only meaningful on the same machine.
+ * </p>
+ */
+package org.igniterealtime.smack.benchmarks;
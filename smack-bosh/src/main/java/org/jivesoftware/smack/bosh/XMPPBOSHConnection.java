@@ -20,7 +20,6 @@ package org.jivesoftware.smack.bosh;
 import java.io.IOException;
 import java.io.PipedReader;
 import java.io.PipedWriter;
-import java.io.StringReader;
 import java.io.Writer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,10 +40,11 @@ import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.sasl.packet.SaslStreamElements.SASLFailure;
 import org.jivesoftware.smack.sasl.packet.SaslStreamElements.Success;
 import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.XmppElementSplitter;
 import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.parts.Resourcepart;
 import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserFactory;
 import org.igniterealtime.jbosh.AbstractBody;
 import org.igniterealtime.jbosh.BOSHClient;
 import org.igniterealtime.jbosh.BOSHClientConfig;
@@ -458,7 +458,13 @@ public class XMPPBOSHConnection extends AbstractXMPPConnection {
      *
      * @author Guenther Niess
      */
-    private class BOSHPacketReader implements BOSHClientResponseListener {
+    private class BOSHPacketReader implements BOSHClientResponseListener, XmppElementSplitter.Callback {
+
+        /**
+         * The body element takes the role of the stream element, i.e. its children are the top level elements. As
+         * every body is a complete element, the splitter starts over with the next body.
+         */
+        private final XmppElementSplitter splitter = new XmppElementSplitter(this);
 
         /**
          * Parse the received packets and notify the corresponding connection.
@@ -475,52 +481,16 @@ public class XMPPBOSHConnection extends AbstractXMPPConnection {
                     if (streamId == null) {
                         streamId = body.getAttribute(BodyQName.create(XMPPBOSHConnection.BOSH_URI, "authid"));
                     }
-                    final XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
-                    parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
-                    parser.setInput(new StringReader(body.toXML()));
-                    int eventType = parser.getEventType();
-                    do {
-                        eventType = parser.next();
-                        switch (eventType) {
-                        case XmlPullParser.START_TAG:
-                            String name = parser.getName();
-                            switch (name) {
-                            case Message.ELEMENT:
-                            case IQ.IQ_ELEMENT:
-                            case Presence.ELEMENT:
-                                parseAndProcessStanza(parser);
-                                break;
-                            case "challenge":
-                                // The server is challenging the SASL authentication
-                                // made by the client
-                                final String challengeData = parser.nextText();
-                                getSASLAuthentication().challengeReceived(challengeData);
-                                break;
-                            case "success":
-                                send(ComposableBody.builder().setNamespaceDefinition("xmpp",
-                                                XMPPBOSHConnection.XMPP_BOSH_NS).setAttribute(
-                                                BodyQName.createWithPrefix(XMPPBOSHConnection.XMPP_BOSH_NS, "restart",
-                                                                "xmpp"), "true").setAttribute(
-                                                BodyQName.create(XMPPBOSHConnection.BOSH_URI, "to"), getXMPPServiceDomain().toString()).build());
-                                Success success = new Success(parser.nextText());
-                                getSASLAuthentication().authenticated(success);
-                                break;
-                            case "features":
-                                parseFeatures(parser);
-                                break;
-                            case "failure":
-                                if ("urn:ietf:params:xml:ns:xmpp-sasl".equals(parser.getNamespace(null))) {
-                                    final SASLFailure failure = PacketParserUtils.parseSASLFailure(parser);
-                                    getSASLAuthentication().authenticationFailed(failure);
-                                }
-                                break;
-                            case "error":
-                                throw new StreamErrorException(PacketParserUtils.parseStreamError(parser));
-                            }
-                            break;
+                    byte[] bytes = body.toXML().getBytes(StringUtils.UTF8);
+                    synchronized (splitter) {
+                        try {
+                            splitter.write(bytes, 0, bytes.length);
+                        }
+                        finally {
+                            // Do not let a malformed body affect the next one.
+                            splitter.reset();
                         }
                     }
-                    while (eventType != XmlPullParser.END_DOCUMENT);
                 }
                 catch (Exception e) {
                     if (isConnected()) {
@@ -529,5 +499,55 @@ public class XMPPBOSHConnection extends AbstractXMPPConnection {
                 }
             }
         }
+
+        @Override
+        public void onStreamOpen(String streamOpen) {
+        }
+
+        @Override
+        public void onTopLevelElement(String element) throws Exception {
+            parseTopLevelElement(splitter.getParserFor(element));
+        }
+
+        @Override
+        public void onStreamClose() {
+        }
+
+        private void parseTopLevelElement(XmlPullParser parser) throws Exception {
+            String name = parser.getName();
+            switch (name) {
+            case Message.ELEMENT:
+            case IQ.IQ_ELEMENT:
+            case Presence.ELEMENT:
+                parseAndProcessStanza(parser);
+                break;
+            case "challenge":
+                // The server is challenging the SASL authentication
+                // made by the client
+                final String challengeData = parser.nextText();
+                getSASLAuthentication().challengeReceived(challengeData);
+                break;
+            case "success":
+                send(ComposableBody.builder().setNamespaceDefinition("xmpp",
+                                XMPPBOSHConnection.XMPP_BOSH_NS).setAttribute(
+                                BodyQName.createWithPrefix(XMPPBOSHConnection.XMPP_BOSH_NS, "restart",
+                                                "xmpp"), "true").setAttribute(
+                                BodyQName.create(XMPPBOSHConnection.BOSH_URI, "to"), getXMPPServiceDomain().toString()).build());
+                Success success = new Success(parser.nextText());
+                getSASLAuthentication().authenticated(success);
+                break;
+            case "features":
+                parseFeatures(parser);
+                break;
+            case "failure":
+                if ("urn:ietf:params:xml:ns:xmpp-sasl".equals(parser.getNamespace(null))) {
+                    final SASLFailure failure = PacketParserUtils.parseSASLFailure(parser);
+                    getSASLAuthentication().authenticationFailed(failure);
+                }
+                break;
+            case "error":
+                throw new StreamErrorException(PacketParserUtils.parseStreamError(parser));
+            }
+        }
     }
 }
@@ -20,19 +20,13 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -54,6 +48,7 @@ import org.jivesoftware.smack.compression.XMPPInputOutputStream;
 import org.jivesoftware.smack.debugger.SmackDebugger;
 import org.jivesoftware.smack.filter.IQReplyFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaFilterIndex;
 import org.jivesoftware.smack.filter.StanzaIdFilter;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler;
 import org.jivesoftware.smack.packet.Bind;
@@ -73,12 +68,12 @@ import org.jivesoftware.smack.parsing.ParsingExceptionCallback;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.smack.sasl.core.SASLAnonymous;
-import org.jivesoftware.smack.util.BoundedThreadPoolExecutor;
 import org.jivesoftware.smack.util.DNSUtil;
+import org.jivesoftware.smack.util.HashedWheelTimer;
 import org.jivesoftware.smack.util.Objects;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.ParserUtils;
-import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
+import org.jivesoftware.smack.util.SerialExecutor;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.dns.HostAddress;
 import org.jxmpp.jid.DomainBareJid;
@@ -110,27 +105,30 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             new CopyOnWriteArraySet<ConnectionListener>();
 
     /**
-     * A collection of PacketCollectors which collects packets for a specified filter
-     * and perform blocking and polling operations on the result queue.
+     * The PacketCollectors which collect packets for a specified filter and perform blocking and polling operations
+     * on the result queue.
      * <p>
-     * We use a ConcurrentLinkedQueue here, because its Iterator is weakly
-     * consistent and we want {@link #invokePacketCollectors(Stanza)} for-each
-     * loop to be lock free. As drawback, removing a PacketCollector is O(n).
-     * The alternative would be a synchronized HashSet, but this would mean a
-     * synchronized block around every usage of <code>collectors</code>.
+     * We use a StanzaFilterIndex here, so that looking up the collectors of an incoming stanza is lock free and does
+     * not evaluate the filter of every collector. Most collectors wait for the response to a request and are therefore
+     * indexed by the stanza ID.
      * </p>
      */
-    private final Collection<PacketCollector> collectors = new ConcurrentLinkedQueue<PacketCollector>();
+    private final StanzaFilterIndex<PacketCollector> collectors = new StanzaFilterIndex<>();
 
     /**
-     * List of PacketListeners that will be notified synchronously when a new stanza(/packet) was received.
+     * The PacketListeners that will be notified synchronously when a new stanza(/packet) was received.
      */
-    private final Map<StanzaListener, ListenerWrapper> syncRecvListeners = new LinkedHashMap<>();
+    private final StanzaFilterIndex<StanzaListener> syncRecvListeners = new StanzaFilterIndex<>();
 
     /**
-     * List of PacketListeners that will be notified asynchronously when a new stanza(/packet) was received.
+     * The PacketListeners that will be notified asynchronously when a new stanza(/packet) was received.
      */
-    private final Map<StanzaListener, ListenerWrapper> asyncRecvListeners = new LinkedHashMap<>();
+    private final StanzaFilterIndex<StanzaListener> asyncRecvListeners = new StanzaFilterIndex<>();
+
+    /**
+     * The pending IQ requests waiting for their response.
+     */
+    private final IQResponseTable pendingIQs = new IQResponseTable(HashedWheelTimer.getInstance());
 
     /**
      * List of PacketListeners that will be notified when a new stanza(/packet) was sent.
@@ -228,39 +226,32 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     private ParsingExceptionCallback parsingExceptionCallback = SmackConfiguration.getDefaultParsingExceptionCallback();
 
     /**
-     * ExecutorService used to invoke the PacketListeners on newly arrived and parsed stanzas. It is
-     * important that we use a <b>single threaded ExecutorService</b> in order to guarantee that the
-     * PacketListeners are invoked in the same order the stanzas arrived.
+     * The executor provider of this connection and the executor acquired from it. The executor is used for all
+     * asynchronous work of the connection, and may be shared with other connections.
      */
-    private final BoundedThreadPoolExecutor executorService = new BoundedThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
-                    100, new SmackExecutorThreadFactory(this, "Incoming Processor"));
+    private final ExecutorProvider executorProvider;
+    private final Executor executor;
 
     /**
-     * This scheduled thread pool executor is used to remove pending callbacks.
+     * The executor used by {@link #asyncGoDetached(Runnable)}. This is {@link #executor}, unless the executor provider
+     * runs the tasks in the calling thread, as shared threads must never run user code.
      */
-    private final ScheduledExecutorService removeCallbacksService = Executors.newSingleThreadScheduledExecutor(
-                    new SmackExecutorThreadFactory(this, "Remove Callbacks"));
+    private final Executor detachedExecutor;
 
     /**
-     * A cached thread pool executor service with custom thread factory to set meaningful names on the threads and set
-     * them 'daemon'.
-     */
-    private final ExecutorService cachedExecutorService = Executors.newCachedThreadPool(
-                    // @formatter:off
-                    new SmackExecutorThreadFactory(    // threadFactory
-                                    this,
-                                    "Cached Executor"
-                                    )
-                    // @formatter:on
-                    );
+     * Used to invoke the PacketListeners on newly arrived and parsed stanzas. It is important that this is a
+     * <b>serial executor</b> in order to guarantee that the PacketListeners are invoked in the same order the stanzas
+     * arrived. It is bounded, so that the thread reading the stanzas blocks if the stanzas are not processed fast
+     * enough. Threads which must not block use {@link #offerStanza(Stanza)} and pause reading instead.
+     */
+    private final SerialExecutor incomingProcessor;
 
     /**
-     * A executor service used to invoke the callbacks of synchronous stanza(/packet) listeners. We use a executor service to
+     * A executor used to invoke the callbacks of synchronous stanza(/packet) listeners. We use a executor to
      * decouple incoming stanza processing from callback invocation. It is important that order of callback invocation
-     * is the same as the order of the incoming stanzas. Therefore we use a <i>single</i> threaded executor service.
+     * is the same as the order of the incoming stanzas. Therefore we use a <i>serial</i> executor.
      */
-    private final ExecutorService singleThreadedExecutorService = Executors.newSingleThreadExecutor(new SmackExecutorThreadFactory(
-                    this, "Single Threaded Executor"));
+    private final SerialExecutor syncListenerExecutor;
 
     /**
      * The used host to establish the connection to
@@ -294,6 +285,16 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     protected AbstractXMPPConnection(ConnectionConfiguration configuration) {
         saslAuthentication = new SASLAuthentication(this, configuration);
         config = configuration;
+        executorProvider = configuration.getExecutorProvider();
+        executor = executorProvider.acquireExecutor(this);
+        if (executorProvider.runsTasksInCallingThread()) {
+            detachedExecutor = ExecutorProviders.detachedExecutor();
+        }
+        else {
+            detachedExecutor = executor;
+        }
+        incomingProcessor = new SerialExecutor(executor, 100, "Incoming Processor (" + connectionCounterValue + ')');
+        syncListenerExecutor = new SerialExecutor(executor, "Sync Listener Executor (" + connectionCounterValue + ')');
         // Notify listeners that a new connection has been established
         for (ConnectionCreationListener listener : XMPPConnectionRegistry.getConnectionCreationListeners()) {
             listener.connectionCreated(this);
@@ -560,6 +561,40 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         return isAuthenticated() && SASLAnonymous.NAME.equals(getUsedSaslMechansism());
     }
 
+    /**
+     * Returns true if the connection is disconnected, but the previous stream can be resumed, e.g. via Stream
+     * Management. Connections which do not support stream resumption always return false.
+     *
+     * @return true if disconnected but resumption possible.
+     */
+    public boolean isDisconnectedButSmResumptionPossible() {
+        return false;
+    }
+
+    /**
+     * Send a whitespace keepalive to the server, if supported by the connection. Whitespace keepalives keep NAT and
+     * firewall mappings alive at the lowest cost, but unlike an XMPP ping they are not answered by the server.
+     *
+     * @return true if a whitespace keepalive was sent, false if the connection does not support them.
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     */
+    public boolean sendWhitespaceKeepAlive() throws NotConnectedException, InterruptedException {
+        return false;
+    }
+
+    /**
+     * Request an acknowledgement from the server, if the connection supports it, e.g. because Stream Management is
+     * enabled. This is a cheaper alternative to an XMPP ping in order to check if the server is reachable. The
+     * returned future is completed once the server sent the next acknowledgement. It is not completed if the server
+     * never answers, the caller has to apply a timeout.
+     *
+     * @return a future for the acknowledgement or <code>null</code> if acknowledgements are not supported.
+     */
+    public SmackFuture<Void> requestAcknowledgementAsync() {
+        return null;
+    }
+
     /**
      * Get the name of the SASL mechanism that was used to authenticate this connection. This returns the name of
      * mechanism which was used the last time this conneciton was authenticated, and will return <code>null</code> if
@@ -586,7 +621,8 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         // N.B.: Important to use config.serviceName and not AbstractXMPPConnection.serviceName
         if (config.host != null) {
             hostAddresses = new ArrayList<HostAddress>(1);
-            HostAddress hostAddress = DNSUtil.getDNSResolver().lookupHostAddress(config.host, failedAddresses, config.getDnssecMode());
+            HostAddress hostAddress = DNSUtil.getDNSResolver().lookupHostAddress(config.host, config.port, failedAddresses,
+                            config.getDnssecMode());
             hostAddresses.add(hostAddress);
         } else {
             hostAddresses = DNSUtil.resolveXMPPServiceDomain(config.getXMPPServiceDomain().toString(), failedAddresses, config.getDnssecMode());
@@ -721,8 +757,36 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     @Override
     public PacketCollector createPacketCollectorAndSend(IQ packet) throws NotConnectedException, InterruptedException {
         StanzaFilter packetFilter = new IQReplyFilter(packet, this);
-        // Create the packet collector before sending the packet
-        PacketCollector packetCollector = createPacketCollectorAndSend(packetFilter, packet);
+        // There is only one response to an IQ request, so there is no need to allocate a queue of the default size.
+        PacketCollector.Configuration configuration = PacketCollector.newConfiguration().setStanzaFilter(
+                        packetFilter).setSize(1);
+        final PacketCollector packetCollector = new PacketCollector(this, configuration);
+        IQResponseTable.PendingIQ pendingIQ = new IQResponseTable.PendingIQ(packet, packetFilter) {
+            @Override
+            void onResponse(IQ response) {
+                packetCollector.processPacket(response);
+            }
+
+            @Override
+            void onTimeout() {
+                // Collectors are added without timeout, they are removed once they get cancelled.
+            }
+        };
+        // Add the collector before sending the packet
+        if (pendingIQs.add(pendingIQ, 0)) {
+            packetCollector.pendingIQ = pendingIQ;
+        }
+        else {
+            // There is already a pending request with the same stanza ID, fall back to the stanza filter index.
+            collectors.put(packetCollector, packetFilter, packetCollector);
+        }
+        try {
+            sendStanza(packet);
+        }
+        catch (InterruptedException | NotConnectedException | RuntimeException e) {
+            packetCollector.cancel();
+            throw e;
+        }
         return packetCollector;
     }
 
@@ -751,13 +815,18 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     @Override
     public PacketCollector createPacketCollector(PacketCollector.Configuration configuration) {
         PacketCollector collector = new PacketCollector(this, configuration);
-        // Add the collector to the list of active collectors.
-        collectors.add(collector);
+        // Add the collector to the index of active collectors.
+        collectors.put(collector, collector.getStanzaFilter(), collector);
         return collector;
     }
 
     @Override
     public void removePacketCollector(PacketCollector collector) {
+        IQResponseTable.PendingIQ pendingIQ = collector.pendingIQ;
+        if (pendingIQ != null) {
+            pendingIQs.remove(pendingIQ);
+            return;
+        }
         collectors.remove(collector);
     }
 
@@ -778,17 +847,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (packetListener == null) {
             throw new NullPointerException("Packet listener is null.");
         }
-        ListenerWrapper wrapper = new ListenerWrapper(packetListener, packetFilter);
-        synchronized (syncRecvListeners) {
-            syncRecvListeners.put(packetListener, wrapper);
-        }
+        syncRecvListeners.put(packetListener, packetFilter, packetListener);
     }
 
     @Override
     public boolean removeSyncStanzaListener(StanzaListener packetListener) {
-        synchronized (syncRecvListeners) {
-            return syncRecvListeners.remove(packetListener) != null;
-        }
+        return syncRecvListeners.remove(packetListener) != null;
     }
 
     @Override
@@ -796,17 +860,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (packetListener == null) {
             throw new NullPointerException("Packet listener is null.");
         }
-        ListenerWrapper wrapper = new ListenerWrapper(packetListener, packetFilter);
-        synchronized (asyncRecvListeners) {
-            asyncRecvListeners.put(packetListener, wrapper);
-        }
+        asyncRecvListeners.put(packetListener, packetFilter, packetListener);
     }
 
     @Override
     public boolean removeAsyncStanzaListener(StanzaListener packetListener) {
-        synchronized (asyncRecvListeners) {
-            return asyncRecvListeners.remove(packetListener) != null;
-        }
+        return asyncRecvListeners.remove(packetListener) != null;
     }
 
     @Override
@@ -1006,12 +1065,41 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         assert(stanza != null);
         lastStanzaReceived = System.currentTimeMillis();
         // Deliver the incoming packet to listeners.
-        executorService.executeBlocking(new Runnable() {
+        incomingProcessor.executeBlocking(newProcessStanzaTask(stanza));
+    }
+
+    /**
+     * Processes a stanza like {@link #processStanza(Stanza)}, but never blocks. This is meant to be used by threads
+     * which must not block, like a reactor thread performing the I/O of many connections.
+     *
+     * @param stanza the stanza to process.
+     * @return <code>true</code> if the stanza is processed, <code>false</code> if the processing of incoming stanzas
+     *         is saturated and the stanza was not accepted.
+     * @see #whenIncomingStanzasAccepted(Runnable)
+     */
+    protected final boolean offerStanza(Stanza stanza) {
+        assert(stanza != null);
+        lastStanzaReceived = System.currentTimeMillis();
+        return incomingProcessor.tryExecute(newProcessStanzaTask(stanza));
+    }
+
+    /**
+     * Invoke the given callback once incoming stanzas are accepted by {@link #offerStanza(Stanza)} again. The callback
+     * may be invoked by the thread processing the incoming stanzas, hence it must not block.
+     *
+     * @param callback the callback.
+     */
+    protected final void whenIncomingStanzasAccepted(Runnable callback) {
+        incomingProcessor.whenNotFull(callback);
+    }
+
+    private Runnable newProcessStanzaTask(final Stanza stanza) {
+        return new Runnable() {
             @Override
             public void run() {
                 invokePacketCollectorsAndNotifyRecvListeners(stanza);
             }
-        });
+        };
     }
 
     /**
@@ -1058,17 +1146,17 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                         LOGGER.log(Level.WARNING, "Exception while sending error IQ to unkown IQ request", e);
                     }
                 } else {
-                    ExecutorService executorService = null;
+                    Executor iqRequestExecutor = null;
                     switch (iqRequestHandler.getMode()) {
                     case sync:
-                        executorService = singleThreadedExecutorService;
+                        iqRequestExecutor = syncListenerExecutor;
                         break;
                     case async:
-                        executorService = cachedExecutorService;
+                        iqRequestExecutor = executor;
                         break;
                     }
                     final IQRequestHandler finalIqRequestHandler = iqRequestHandler;
-                    executorService.execute(new Runnable() {
+                    iqRequestExecutor.execute(new Runnable() {
                         @Override
                         public void run() {
                             IQ response = finalIqRequestHandler.handleIQRequest(iq);
@@ -1099,19 +1187,16 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             }
         }
 
+        // Complete the pending IQ request this stanza is the response to, if any. The response is also delivered to
+        // all other matching collectors and listeners below.
+        if (packet instanceof IQ) {
+            pendingIQs.processResponse((IQ) packet);
+        }
+
         // First handle the async recv listeners. Note that this code is very similar to what follows a few lines below,
         // the only difference is that asyncRecvListeners is used here and that the packet listeners are started in
         // their own thread.
-        final Collection<StanzaListener> listenersToNotify = new LinkedList<StanzaListener>();
-        synchronized (asyncRecvListeners) {
-            for (ListenerWrapper listenerWrapper : asyncRecvListeners.values()) {
-                if (listenerWrapper.filterMatches(packet)) {
-                    listenersToNotify.add(listenerWrapper.getListener());
-                }
-            }
-        }
-
-        for (final StanzaListener listener : listenersToNotify) {
+        for (final StanzaListener listener : asyncRecvListeners.getMatching(packet)) {
             asyncGo(new Runnable() {
                 @Override
                 public void run() {
@@ -1124,24 +1209,20 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             });
         }
 
-        // Loop through all collectors and notify the appropriate ones.
-        for (PacketCollector collector: collectors) {
+        // Loop through all candidate collectors, they evaluate their filter themselves.
+        for (PacketCollector collector : collectors.getCandidates(packet)) {
             collector.processPacket(packet);
         }
 
         // Notify the receive listeners interested in the packet
-        listenersToNotify.clear();
-        synchronized (syncRecvListeners) {
-            for (ListenerWrapper listenerWrapper : syncRecvListeners.values()) {
-                if (listenerWrapper.filterMatches(packet)) {
-                    listenersToNotify.add(listenerWrapper.getListener());
-                }
-            }
+        final List<StanzaListener> listenersToNotify = syncRecvListeners.getMatching(packet);
+        if (listenersToNotify.isEmpty()) {
+            return;
         }
 
-        // Decouple incoming stanza processing from listener invocation. Unlike async listeners, this uses a single
-        // threaded executor service and therefore keeps the order.
-        singleThreadedExecutorService.execute(new Runnable() {
+        // Decouple incoming stanza processing from listener invocation. Unlike async listeners, this uses a serial
+        // executor and therefore keeps the order.
+        syncListenerExecutor.execute(new Runnable() {
             @Override
             public void run() {
                 for (StanzaListener listener : listenersToNotify) {
@@ -1325,10 +1406,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             // reference to their ExecutorService which prevents the ExecutorService from being
             // gc'ed. It is possible that the XMPPConnection instance is gc'ed while the
             // listenerExecutor ExecutorService call not be gc'ed until it got shut down.
-            executorService.shutdownNow();
-            cachedExecutorService.shutdown();
-            removeCallbacksService.shutdownNow();
-            singleThreadedExecutorService.shutdownNow();
+            executorProvider.releaseExecutor(this, executor);
         } catch (Throwable t) {
             LOGGER.log(Level.WARNING, "finalize() threw trhowable", t);
         }
@@ -1462,21 +1540,14 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                 }
             }
         };
-        removeCallbacksService.schedule(new Runnable() {
+        HashedWheelTimer.getInstance().schedule(new Runnable() {
             @Override
             public void run() {
                 boolean removed = removeAsyncStanzaListener(packetListener);
                 // If the packetListener got removed, then it was never run and
                 // we never received a response, inform the exception callback
                 if (removed && exceptionCallback != null) {
-                    Exception exception;
-                    if (!isConnected()) {
-                        // If the connection is no longer connected, throw a not connected exception.
-                        exception = new NotConnectedException(AbstractXMPPConnection.this, replyFilter);
-                    } else {
-                        exception = NoResponseException.newWith(AbstractXMPPConnection.this, replyFilter);
-                    }
-                    exceptionCallback.processException(exception);
+                    notifyNoResponse(replyFilter, exceptionCallback);
                 }
             }
         }, timeout, TimeUnit.MILLISECONDS);
@@ -1484,6 +1555,27 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         sendStanza(stanza);
     }
 
+    /**
+     * Notify the exception callback that no response was received. The exception callback is invoked asynchronously,
+     * as this method is called by the timer thread.
+     */
+    private void notifyNoResponse(final StanzaFilter replyFilter, final ExceptionCallback exceptionCallback) {
+        asyncGoDetached(new Runnable() {
+            @Override
+            public void run() {
+                exceptionCallback.processException(newNoResponseException(replyFilter));
+            }
+        });
+    }
+
+    private SmackException newNoResponseException(StanzaFilter replyFilter) {
+        if (!isConnected()) {
+            // If the connection is no longer connected, throw a not connected exception.
+            return new NotConnectedException(this, replyFilter);
+        }
+        return NoResponseException.newWith(this, replyFilter);
+    }
+
     @Override
     public void sendIqWithResponseCallback(IQ iqRequest, StanzaListener callback)
                     throws NotConnectedException, InterruptedException {
@@ -1500,8 +1592,143 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     public void sendIqWithResponseCallback(IQ iqRequest, final StanzaListener callback,
                     final ExceptionCallback exceptionCallback, long timeout)
                     throws NotConnectedException, InterruptedException {
-        StanzaFilter replyFilter = new IQReplyFilter(iqRequest, this);
-        sendStanzaWithResponseCallback(iqRequest, replyFilter, callback, exceptionCallback, timeout);
+        Objects.requireNonNull(callback, "callback must not be null");
+        SmackFuture<IQ> future = sendIqRequest(iqRequest, timeout);
+        future.onSuccess(new SuccessCallback<IQ>() {
+            @Override
+            public void onSuccess(IQ response) {
+                try {
+                    callback.processPacket(response);
+                }
+                catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Exception in IQ response callback", e);
+                }
+            }
+        });
+        if (exceptionCallback != null) {
+            future.onError(exceptionCallback);
+        }
+    }
+
+    @Override
+    public <I extends IQ> SmackFuture<I> sendIqRequestAsync(IQ request) {
+        return sendIqRequestAsync(request, getPacketReplyTimeout());
+    }
+
+    @Override
+    public <I extends IQ> SmackFuture<I> sendIqRequestAsync(IQ request, long timeout) {
+        try {
+            return sendIqRequest(request, timeout);
+        }
+        catch (NotConnectedException e) {
+            return SmackFuture.forException(e);
+        }
+        catch (InterruptedException e) {
+            // Keep the interrupted status, as the exception is only delivered via the future.
+            Thread.currentThread().interrupt();
+            return SmackFuture.forException(e);
+        }
+    }
+
+    /**
+     * Send the given IQ request and return a future for its response. The future is completed by an async thread
+     * once the response was received, or exceptionally with an {@link XMPPErrorException} if the response is an
+     * error, or with a {@link NoResponseException} if there was no response within the timeout.
+     *
+     * @param request the IQ request.
+     * @param timeout the timeout in milliseconds.
+     * @return a future for the response.
+     * @throws NotConnectedException if the request could not be sent.
+     * @throws InterruptedException if the sending thread was interrupted.
+     */
+    private <I extends IQ> SmackFuture<I> sendIqRequest(IQ request, long timeout) throws NotConnectedException,
+                    InterruptedException {
+        Objects.requireNonNull(request, "request must not be null");
+        final StanzaFilter replyFilter = new IQReplyFilter(request, this);
+        final SmackFuture<I> future = new SmackFuture<>();
+        IQResponseTable.PendingIQ pendingIQ = new IQResponseTable.PendingIQ(request, replyFilter) {
+            @Override
+            void onResponse(final IQ response) {
+                asyncGo(new Runnable() {
+                    @Override
+                    public void run() {
+                        completeWithResponse(future, response);
+                    }
+                });
+            }
+
+            @Override
+            void onTimeout() {
+                // Invoked by the timer thread, which must never run the continuations of the future.
+                asyncGoDetached(new Runnable() {
+                    @Override
+                    public void run() {
+                        future.completeExceptionally(newNoResponseException(replyFilter));
+                    }
+                });
+            }
+        };
+        if (!pendingIQs.add(pendingIQ, timeout)) {
+            // There is already a pending request with the same stanza ID, fall back to a stanza listener.
+            sendStanzaWithResponseCallback(request, replyFilter, new StanzaListener() {
+                @Override
+                public void processPacket(Stanza response) {
+                    completeWithResponse(future, response);
+                }
+            }, new ExceptionCallback() {
+                @Override
+                public void processException(Exception exception) {
+                    future.completeExceptionally(exception);
+                }
+            }, timeout);
+            return future;
+        }
+        try {
+            sendStanza(request);
+        }
+        catch (InterruptedException | NotConnectedException | RuntimeException e) {
+            pendingIQs.remove(pendingIQ);
+            throw e;
+        }
+        return future;
+    }
+
+    @Override
+    public <S extends Stanza> SmackFuture<S> sendStanzaWithResponseAsync(Stanza stanza, StanzaFilter replyFilter,
+                    long timeout) {
+        final SmackFuture<S> future = new SmackFuture<>();
+        try {
+            sendStanzaWithResponseCallback(stanza, replyFilter, new StanzaListener() {
+                @Override
+                public void processPacket(Stanza response) {
+                    completeWithResponse(future, response);
+                }
+            }, new ExceptionCallback() {
+                @Override
+                public void processException(Exception exception) {
+                    future.completeExceptionally(exception);
+                }
+            }, timeout);
+        }
+        catch (NotConnectedException e) {
+            future.completeExceptionally(e);
+        }
+        catch (InterruptedException e) {
+            // Keep the interrupted status, as the exception is only delivered via the future.
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S extends Stanza> void completeWithResponse(SmackFuture<S> future, Stanza response) {
+        XMPPError error = response.getError();
+        if (error != null) {
+            future.completeExceptionally(new XMPPErrorException(error));
+            return;
+        }
+        future.complete((S) response);
     }
 
     @Override
@@ -1517,7 +1744,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             }
         };
         addSyncStanzaListener(packetListener, packetFilter);
-        removeCallbacksService.schedule(new Runnable() {
+        HashedWheelTimer.getInstance().schedule(new Runnable() {
             @Override
             public void run() {
                 removeSyncStanzaListener(packetListener);
@@ -1598,10 +1825,36 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     }
 
     protected final void asyncGo(Runnable runnable) {
-        cachedExecutorService.execute(runnable);
+        executor.execute(runnable);
+    }
+
+    /**
+     * Run the given task asynchronously. Unlike {@link #asyncGo(Runnable)}, the task is never run by the calling
+     * thread, even if the executor provider {@link ExecutorProvider#runsTasksInCallingThread() runs the tasks in the
+     * calling thread}. Threads which are shared by all connections, like timer threads, use this to invoke code which
+     * may block. Managers use {@link Manager#asyncGoDetached(Runnable)}.
+     *
+     * @param runnable the task.
+     */
+    protected final void asyncGoDetached(Runnable runnable) {
+        detachedExecutor.execute(runnable);
     }
 
-    protected final ScheduledFuture<?> schedule(Runnable runnable, long delay, TimeUnit unit) {
-        return removeCallbacksService.schedule(runnable, delay, unit);
+    /**
+     * Schedule the given task. The delay is tracked by the shared {@link HashedWheelTimer}, which hands the task over
+     * to {@link #asyncGoDetached(Runnable)} once the delay elapsed.
+     *
+     * @param runnable the task.
+     * @param delay the delay.
+     * @param unit the time unit of the delay.
+     * @return the timeout, which may be used to cancel the task.
+     */
+    protected final HashedWheelTimer.Timeout schedule(final Runnable runnable, long delay, TimeUnit unit) {
+        return HashedWheelTimer.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                asyncGoDetached(runnable);
+            }
+        }, delay, unit);
     }
 }
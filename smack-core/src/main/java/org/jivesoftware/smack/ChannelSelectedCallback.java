@@ -0,0 +1,40 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Callback invoked by the {@link SmackReactor} once a registered channel becomes ready for one of its interest
+ * operations.
+ * <p>
+ * The callback is always invoked by the reactor thread the channel was registered with. Implementations must not
+ * block, as this would stall all other channels handled by the same reactor thread.
+ * </p>
+ */
+public interface ChannelSelectedCallback {
+
+    /**
+     * Invoked when the channel is ready for I/O.
+     *
+     * @param channel the selected channel.
+     * @param selectionKey the selection key of the channel, use its ready set to determine the possible operations.
+     */
+    void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey);
+
+}
@@ -114,6 +114,8 @@ public abstract class ConnectionConfiguration {
 
     private final HostnameVerifier hostnameVerifier;
 
+    private final ExecutorProvider executorProvider;
+
     // Holds the proxy information (such as proxyhost, proxyport, username, password etc)
     protected final ProxyInfo proxy;
 
@@ -152,6 +154,7 @@ public abstract class ConnectionConfiguration {
         enabledSSLProtocols = builder.enabledSSLProtocols;
         enabledSSLCiphers = builder.enabledSSLCiphers;
         hostnameVerifier = builder.hostnameVerifier;
+        executorProvider = builder.executorProvider;
         sendPresence = builder.sendPresence;
         legacySessionDisabled = builder.legacySessionDisabled;
         debuggerEnabled = builder.debuggerEnabled;
@@ -276,6 +279,19 @@ public abstract class ConnectionConfiguration {
         return SmackConfiguration.getDefaultHostnameVerifier();
     }
 
+    /**
+     * Returns the configured ExecutorProvider of this ConnectionConfiguration or the Smack default
+     * ExecutorProvider configured with
+     * {@link SmackConfiguration#setDefaultExecutorProvider(ExecutorProvider)}.
+     *
+     * @return the executor provider.
+     */
+    public ExecutorProvider getExecutorProvider() {
+        if (executorProvider != null)
+            return executorProvider;
+        return SmackConfiguration.getDefaultExecutorProvider();
+    }
+
     /**
      * Returns true if the new connection about to be establish is going to be debugged. By
      * default the value of {@link SmackConfiguration#DEBUG} is used.
@@ -498,6 +514,7 @@ public abstract class ConnectionConfiguration {
         private String[] enabledSSLProtocols;
         private String[] enabledSSLCiphers;
         private HostnameVerifier hostnameVerifier;
+        private ExecutorProvider executorProvider;
         private EntityBareJid authzid;
         private CharSequence username;
         private String password;
@@ -731,6 +748,20 @@ public abstract class ConnectionConfiguration {
             return getThis();
         }
 
+        /**
+         * Set the ExecutorProvider used by XMPP connections created with this ConnectionConfiguration to invoke
+         * stanza listeners, IQ request handlers and other callbacks. If not set, the default configured with
+         * {@link SmackConfiguration#setDefaultExecutorProvider(ExecutorProvider)} is used.
+         *
+         * @param executorProvider the executor provider.
+         * @return a reference to this builder.
+         * @see ExecutorProviders
+         */
+        public B setExecutorProvider(ExecutorProvider executorProvider) {
+            this.executorProvider = executorProvider;
+            return getThis();
+        }
+
         /**
          * Sets if a {@link Session} will be requested on login if the server supports
          * it. Although this was mandatory on RFC 3921, RFC 6120/6121 don't even
@@ -0,0 +1,60 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Provides the executor a connection uses to invoke stanza listeners, IQ request handlers and other callbacks.
+ * <p>
+ * A connection acquires its executor once, when it is created, and uses it for all asynchronous work. Work which
+ * must be done in order, like the processing of incoming stanzas and the invocation of synchronous stanza listeners,
+ * is serialized per connection on top of the executor, so that the provided executor may be shared by many
+ * connections and does not need to guarantee any ordering itself.
+ * </p>
+ *
+ * @see ExecutorProviders
+ * @see ConnectionConfiguration.Builder#setExecutorProvider(ExecutorProvider)
+ * @see SmackConfiguration#setDefaultExecutorProvider(ExecutorProvider)
+ */
+public interface ExecutorProvider {
+
+    /**
+     * Acquire the executor for the given connection.
+     *
+     * @param connection the connection.
+     * @return the executor the connection should use.
+     */
+    public Executor acquireExecutor(XMPPConnection connection);
+
+    /**
+     * Release the executor acquired by the given connection. Invoked once the connection is no longer used.
+     *
+     * @param connection the connection.
+     * @param executor the executor acquired by the connection.
+     */
+    public void releaseExecutor(XMPPConnection connection, Executor executor);
+
+    /**
+     * Check if the executors of this provider run the tasks in the calling thread. Connections then run the tasks
+     * which must not be run by shared threads, like timer threads, by a separate executor.
+     *
+     * @return <code>true</code> if the tasks are run in the calling thread.
+     */
+    public boolean runsTasksInCallingThread();
+
+}
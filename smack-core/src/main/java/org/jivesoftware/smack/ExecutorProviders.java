@@ -0,0 +1,229 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.util.Objects;
+import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
+
+/**
+ * The {@link ExecutorProvider}s shipped with Smack.
+ */
+public final class ExecutorProviders {
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutorProviders.class.getName());
+
+    private static final ExecutorProvider PER_CONNECTION = new ExecutorProvider() {
+        @Override
+        public Executor acquireExecutor(XMPPConnection connection) {
+            return Executors.newCachedThreadPool(new SmackExecutorThreadFactory(connection, "Cached Executor"));
+        }
+
+        @Override
+        public void releaseExecutor(XMPPConnection connection, Executor executor) {
+            ((ExecutorService) executor).shutdown();
+        }
+
+        @Override
+        public boolean runsTasksInCallingThread() {
+            return false;
+        }
+    };
+
+    private static final ExecutorProvider INLINE = new SharedExecutorProvider(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }, true);
+
+    private static ExecutorProvider virtualThreads;
+
+    private static Executor detachedExecutor;
+
+    private ExecutorProviders() {
+    }
+
+    /**
+     * Get the executor provider which creates a cached thread pool for every connection. This is the default.
+     *
+     * @return the per connection executor provider.
+     */
+    public static ExecutorProvider perConnection() {
+        return PER_CONNECTION;
+    }
+
+    /**
+     * Get an executor provider which hands out the given executor to all connections. The executor is not shut down
+     * when connections are released. The executor must not run the tasks in the calling thread, use {@link #inline()}
+     * for that.
+     *
+     * @param executor the executor shared by all connections.
+     * @return an executor provider for the given executor.
+     */
+    public static ExecutorProvider shared(Executor executor) {
+        return new SharedExecutorProvider(executor, false);
+    }
+
+    /**
+     * Create an executor provider with a new thread pool, bounded to the given number of threads, which is shared by
+     * all connections. Idle threads of the pool are terminated after one minute.
+     * <p>
+     * Note that a bounded pool can be exhausted by blocking callbacks, e.g. stanza listeners which send an IQ request
+     * and wait for the response. In that case the response can not be processed and the callbacks wait until their
+     * reply timeout elapses.
+     * </p>
+     *
+     * @param maxThreads the maximum number of threads.
+     * @return a new executor provider.
+     */
+    public static ExecutorProvider newBoundedShared(int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 1, TimeUnit.MINUTES,
+                        new LinkedBlockingQueue<Runnable>(), new SharedThreadFactory("Shared Executor"));
+        executor.allowCoreThreadTimeOut(true);
+        return new SharedExecutorProvider(executor, false);
+    }
+
+    /**
+     * Get an executor provider which runs every task in the calling thread, usually the thread reading from the
+     * connection. This has the lowest latency, but callbacks must never block, or else the connection stalls. For
+     * example it is not possible to send an IQ request and wait for its response from within a stanza listener.
+     *
+     * @return the inline executor provider.
+     */
+    public static ExecutorProvider inline() {
+        return INLINE;
+    }
+
+    /**
+     * Check if virtual threads are supported by the runtime, i.e. if the runtime is Java 21 or higher.
+     *
+     * @return <code>true</code> if virtual threads are supported.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return getVirtualThreadPerTaskExecutorMethod() != null;
+    }
+
+    /**
+     * Get an executor provider which runs every task in a new virtual thread. Since Smack has to support Java 7 and
+     * Android, the virtual thread executor is looked up via reflection. If virtual threads are not supported by the
+     * runtime, then {@link #perConnection()} is returned.
+     *
+     * @return the virtual thread executor provider.
+     * @see #isVirtualThreadsSupported()
+     */
+    public static synchronized ExecutorProvider virtualThreads() {
+        if (virtualThreads != null) {
+            return virtualThreads;
+        }
+        Method method = getVirtualThreadPerTaskExecutorMethod();
+        if (method == null) {
+            LOGGER.warning("Virtual threads are not supported by this runtime, using per connection executors");
+            return PER_CONNECTION;
+        }
+        Executor executor;
+        try {
+            executor = (Executor) method.invoke(null);
+        }
+        catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.log(Level.WARNING, "Could not create virtual thread executor, using per connection executors", e);
+            return PER_CONNECTION;
+        }
+        virtualThreads = new SharedExecutorProvider(executor, false);
+        return virtualThreads;
+    }
+
+    /**
+     * Get the executor which runs the tasks that must not be run by the calling thread, even if the connection uses the
+     * {@link #inline()} executor provider. The threads of the pool are created on demand and terminated after being
+     * idle for one minute.
+     *
+     * @return the shared detached executor.
+     */
+    static synchronized Executor detachedExecutor() {
+        if (detachedExecutor == null) {
+            detachedExecutor = Executors.newCachedThreadPool(new SharedThreadFactory("Detached Executor"));
+        }
+        return detachedExecutor;
+    }
+
+    private static Method getVirtualThreadPerTaskExecutorMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static final class SharedExecutorProvider implements ExecutorProvider {
+        private final Executor executor;
+        private final boolean runsTasksInCallingThread;
+
+        private SharedExecutorProvider(Executor executor, boolean runsTasksInCallingThread) {
+            this.executor = Objects.requireNonNull(executor, "Executor must not be null");
+            this.runsTasksInCallingThread = runsTasksInCallingThread;
+        }
+
+        @Override
+        public Executor acquireExecutor(XMPPConnection connection) {
+            return executor;
+        }
+
+        @Override
+        public void releaseExecutor(XMPPConnection connection, Executor executor) {
+        }
+
+        @Override
+        public boolean runsTasksInCallingThread() {
+            return runsTasksInCallingThread;
+        }
+    }
+
+    /**
+     * Creates the daemon threads of pools which are not bound to a connection. Like {@link SmackExecutorThreadFactory},
+     * this is not an anonymous inner class in order to prevent threads from leaking.
+     */
+    static final class SharedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        SharedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setName("Smack-" + name + ' ' + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.util.HashedWheelTimer;
+
+/**
+ * Correlates IQ responses with the pending IQ requests of a connection by their stanza ID. Looking up the request of
+ * a response is O(1), independent of the number of pending requests. The reply filter of the request, usually an
+ * {@link org.jivesoftware.smack.filter.IQReplyFilter}, is still evaluated for the response, so that the 'from'
+ * attribute of the response is verified as before.
+ * <p>
+ * The timeouts of the pending requests are handled by a {@link HashedWheelTimer} instead of one scheduled task per
+ * request.
+ * </p>
+ */
+final class IQResponseTable {
+
+    /**
+     * A pending IQ request.
+     */
+    abstract static class PendingIQ {
+        private final String stanzaId;
+        private final StanzaFilter replyFilter;
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        PendingIQ(IQ request, StanzaFilter replyFilter) {
+            this.stanzaId = request.getStanzaId();
+            this.replyFilter = replyFilter;
+        }
+
+        StanzaFilter getReplyFilter() {
+            return replyFilter;
+        }
+
+        /**
+         * Invoked once a response, accepted by the reply filter, was received. Invoked by the thread processing the
+         * incoming stanzas, implementations must therefore not block.
+         *
+         * @param response the response.
+         */
+        abstract void onResponse(IQ response);
+
+        /**
+         * Invoked if no response was received before the timeout elapsed. Invoked by the timer thread,
+         * implementations must therefore not block.
+         */
+        abstract void onTimeout();
+    }
+
+    private final ConcurrentHashMap<String, PendingIQ> pendingIQs = new ConcurrentHashMap<>();
+
+    private final HashedWheelTimer timer;
+
+    IQResponseTable(HashedWheelTimer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Add a pending IQ request.
+     *
+     * @param pendingIQ the pending IQ request.
+     * @param timeout the timeout in milliseconds, or <code>0</code> if the request should not time out.
+     * @return <code>true</code> if the request was added, <code>false</code> if there is already a pending request
+     *         with the same stanza ID.
+     */
+    boolean add(final PendingIQ pendingIQ, long timeout) {
+        final String stanzaId = pendingIQ.stanzaId;
+        if (stanzaId == null || pendingIQs.putIfAbsent(stanzaId, pendingIQ) != null) {
+            return false;
+        }
+        if (timeout > 0) {
+            // If the response arrives before the timeout was set, then the timeout will expire without effect.
+            pendingIQ.timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (pendingIQs.remove(stanzaId, pendingIQ)) {
+                        pendingIQ.onTimeout();
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a pending IQ request without completing it.
+     *
+     * @param pendingIQ the pending IQ request.
+     * @return <code>true</code> if the request was still pending.
+     */
+    boolean remove(PendingIQ pendingIQ) {
+        if (!pendingIQs.remove(pendingIQ.stanzaId, pendingIQ)) {
+            return false;
+        }
+        cancelTimeout(pendingIQ);
+        return true;
+    }
+
+    /**
+     * Complete the pending IQ request the given IQ is a response to, if any.
+     *
+     * @param iq the IQ.
+     * @return <code>true</code> if a pending request was completed.
+     */
+    boolean processResponse(IQ iq) {
+        final String stanzaId = iq.getStanzaId();
+        if (stanzaId == null) {
+            return false;
+        }
+        PendingIQ pendingIQ = pendingIQs.get(stanzaId);
+        if (pendingIQ == null || !pendingIQ.replyFilter.accept(iq)) {
+            return false;
+        }
+        if (!pendingIQs.remove(stanzaId, pendingIQ)) {
+            // Lost the race against the timeout.
+            return false;
+        }
+        cancelTimeout(pendingIQ);
+        pendingIQ.onResponse(iq);
+        return true;
+    }
+
+    /**
+     * Get the number of pending IQ requests.
+     *
+     * @return the number of pending IQ requests.
+     */
+    int size() {
+        return pendingIQs.size();
+    }
+
+    private static void cancelTimeout(PendingIQ pendingIQ) {
+        HashedWheelTimer.Timeout timeout = pendingIQ.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+}
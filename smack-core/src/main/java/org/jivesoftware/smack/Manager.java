@@ -19,6 +19,7 @@ package org.jivesoftware.smack;
 import java.lang.ref.WeakReference;
 
 import org.jivesoftware.smack.SmackException.NotLoggedInException;
+import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smack.util.Objects;
 
 public abstract class Manager {
@@ -48,4 +49,21 @@ public abstract class Manager {
         }
         return connection;
     }
+
+    /**
+     * Run the given task asynchronously, but never by the calling thread, using the executor of the connection if
+     * possible. Managers use this to invoke code which may block from threads shared by all connections, like timer
+     * threads.
+     *
+     * @param task the task.
+     */
+    protected final void asyncGoDetached(Runnable task) {
+        XMPPConnection connection = connection();
+        if (connection instanceof AbstractXMPPConnection) {
+            ((AbstractXMPPConnection) connection).asyncGoDetached(task);
+        }
+        else {
+            Async.go(task);
+        }
+    }
 }
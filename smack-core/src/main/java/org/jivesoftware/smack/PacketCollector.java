@@ -55,6 +55,12 @@ public class PacketCollector {
 
     private boolean cancelled = false;
 
+    /**
+     * The pending IQ request if this collector waits for the response to an IQ request, which is correlated by the
+     * connection's {@link IQResponseTable} instead of the stanza filter index.
+     */
+    IQResponseTable.PendingIQ pendingIQ;
+
     /**
      * Creates a new stanza(/packet) collector. If the stanza(/packet) filter is <tt>null</tt>, then
      * all packets will match this collector.
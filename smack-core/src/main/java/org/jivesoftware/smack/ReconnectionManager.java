@@ -18,13 +18,14 @@ package org.jivesoftware.smack;
 
 import org.jivesoftware.smack.XMPPException.StreamErrorException;
 import org.jivesoftware.smack.packet.StreamError;
-import org.jivesoftware.smack.util.Async;
+import org.jivesoftware.smack.util.HashedWheelTimer;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.Random;
 import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,7 +34,13 @@ import java.util.logging.Logger;
  * the application explicitly closing it, the manager automatically tries to reconnect to
  * the server.<p>
  *
- * There are two possible reconnection policies:
+ * There are three possible reconnection policies:
+ *
+ * {@link ReconnectionPolicy#DECORRELATED_JITTER} - The default. The delay between the reconnection attempts grows
+ * exponentially, where every delay is chosen randomly between the minimum delay and three times the previous delay,
+ * bounded by the maximum delay. This spreads the reconnection attempts of many connections, which lost their
+ * connection at the same time, e.g. because of a server restart. If the stream of the connection can be resumed, then
+ * the first attempt is made within the minimum delay.
  *
  * {@link ReconnectionPolicy#RANDOM_INCREASING_DELAY} - The reconnection mechanism will try to reconnect periodically:
  * <ol>
@@ -44,6 +51,10 @@ import java.util.logging.Logger;
  *
  * {@link ReconnectionPolicy#FIXED_DELAY} - The reconnection mechanism will try to reconnect after a fixed delay 
  * independently from the number of reconnection attempts already performed
+ * <p>
+ * The reconnection attempts of all connections are run by the shared {@link ReconnectionScheduler}, which limits
+ * the number of concurrent attempts and does not require a thread per reconnecting connection.
+ * </p>
  *
  * @author Francisco Vives
  * @author Luca Stucchi
@@ -53,6 +64,8 @@ public final class ReconnectionManager {
 
     private static final Map<AbstractXMPPConnection, ReconnectionManager> INSTANCES = new WeakHashMap<AbstractXMPPConnection, ReconnectionManager>();
 
+    private static final Random RANDOM = new Random();
+
     /**
      * Get a instance of ReconnectionManager for the given connection.
      * 
@@ -101,13 +114,17 @@ public final class ReconnectionManager {
 
     // Holds the connection to the server
     private final WeakReference<AbstractXMPPConnection> weakRefConnection;
-    private final int randomBase = new Random().nextInt(13) + 2; // between 2 and 15 seconds
-    private final Runnable reconnectionRunnable;
+    private final int randomBase = RANDOM.nextInt(13) + 2; // between 2 and 15 seconds
+    private final ReconnectionScheduler scheduler = ReconnectionScheduler.getInstance();
 
     private static int defaultFixedDelay = 15;
-    private static ReconnectionPolicy defaultReconnectionPolicy = ReconnectionPolicy.RANDOM_INCREASING_DELAY;
+    private static int defaultMinDelay = 1;
+    private static int defaultMaxDelay = 300;
+    private static ReconnectionPolicy defaultReconnectionPolicy = ReconnectionPolicy.DECORRELATED_JITTER;
 
     private volatile int fixedDelay = defaultFixedDelay;
+    private volatile int minDelay = defaultMinDelay;
+    private volatile int maxDelay = defaultMaxDelay;
     private volatile ReconnectionPolicy reconnectionPolicy = defaultReconnectionPolicy;
 
     /**
@@ -121,6 +138,19 @@ public final class ReconnectionManager {
         setDefaultReconnectionPolicy(ReconnectionPolicy.FIXED_DELAY);
     }
 
+    /**
+     * Set the default minimum and maximum delay in seconds between the reconnection attempts of the
+     * {@link ReconnectionPolicy#DECORRELATED_JITTER} policy. The defaults are 1 and 300 seconds.
+     *
+     * @param minDelay the minimum delay in seconds.
+     * @param maxDelay the maximum delay in seconds.
+     */
+    public static void setDefaultJitterDelayBounds(int minDelay, int maxDelay) {
+        checkJitterDelayBounds(minDelay, maxDelay);
+        defaultMinDelay = minDelay;
+        defaultMaxDelay = maxDelay;
+    }
+
     /**
      * Set the default Reconnection Policy to use.
      * 
@@ -141,6 +171,25 @@ public final class ReconnectionManager {
         setReconnectionPolicy(ReconnectionPolicy.FIXED_DELAY);
     }
 
+    /**
+     * Set the minimum and maximum delay in seconds between the reconnection attempts of the
+     * {@link ReconnectionPolicy#DECORRELATED_JITTER} policy.
+     *
+     * @param minDelay the minimum delay in seconds.
+     * @param maxDelay the maximum delay in seconds.
+     */
+    public void setJitterDelayBounds(int minDelay, int maxDelay) {
+        checkJitterDelayBounds(minDelay, maxDelay);
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    private static void checkJitterDelayBounds(int minDelay, int maxDelay) {
+        if (minDelay <= 0 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("minDelay must be positive and maxDelay not less than minDelay");
+        }
+    }
+
     /**
      * Set the Reconnection Policy to use.
      * 
@@ -157,118 +206,32 @@ public final class ReconnectionManager {
 
     boolean done = false;
 
-    private Thread reconnectionThread;
+    // The following fields are guarded by 'this'.
 
-    private ReconnectionManager(AbstractXMPPConnection connection) {
-        weakRefConnection = new WeakReference<AbstractXMPPConnection>(connection);
+    /**
+     * True while reconnection attempts are scheduled or running.
+     */
+    private boolean reconnecting;
 
-        reconnectionRunnable = new Thread() {
-
-            /**
-             * Holds the current number of reconnection attempts
-             */
-            private int attempts = 0;
-
-            /**
-             * Returns the number of seconds until the next reconnection attempt.
-             *
-             * @return the number of seconds until the next reconnection attempt.
-             */
-            private int timeDelay() {
-                attempts++;
-
-                // Delay variable to be assigned
-                int delay;
-                switch (reconnectionPolicy) {
-                case FIXED_DELAY:
-                    delay = fixedDelay;
-                    break;
-                case RANDOM_INCREASING_DELAY:
-                    if (attempts > 13) {
-                        delay = randomBase * 6 * 5; // between 2.5 and 7.5 minutes (~5 minutes)
-                    }
-                    else if (attempts > 7) {
-                        delay = randomBase * 6; // between 30 and 90 seconds (~1 minutes)
-                    }
-                    else {
-                        delay = randomBase; // 10 seconds
-                    }
-                    break;
-                default:
-                    throw new AssertionError("Unknown reconnection policy " + reconnectionPolicy);
-                }
+    /**
+     * Incremented every time reconnecting is started or stopped. Ticks of the countdown and reconnection attempts
+     * scheduled for a previous generation are ignored, so that there is never more than one countdown running.
+     */
+    private int reconnectGeneration;
 
-                return delay;
-            }
+    /**
+     * Holds the current number of reconnection attempts
+     */
+    private int attempts;
 
-            /**
-             * The process will try the reconnection until the connection succeed or the user cancel it
-             */
-            public void run() {
-                final AbstractXMPPConnection connection = weakRefConnection.get();
-                if (connection == null) {
-                    return;
-                }
-                // The process will try to reconnect until the connection is established or
-                // the user cancel the reconnection process AbstractXMPPConnection.disconnect().
-                while (isReconnectionPossible(connection)) {
-                    // Find how much time we should wait until the next reconnection
-                    int remainingSeconds = timeDelay();
-                    // Sleep until we're ready for the next reconnection attempt. Notify
-                    // listeners once per second about how much time remains before the next
-                    // reconnection attempt.
-                    while (isReconnectionPossible(connection) && remainingSeconds > 0) {
-                        try {
-                            Thread.sleep(1000);
-                            remainingSeconds--;
-                            for (ConnectionListener listener : connection.connectionListeners) {
-                                listener.reconnectingIn(remainingSeconds);
-                            }
-                        }
-                        catch (InterruptedException e) {
-                            LOGGER.log(Level.FINE, "waiting for reconnection interrupted", e);
-                            break;
-                        }
-                    }
-
-                    for (ConnectionListener listener : connection.connectionListeners) {
-                        listener.reconnectingIn(0);
-                    }
-
-                    // Makes a reconnection attempt
-                    try {
-                        if (isReconnectionPossible(connection)) {
-                            try {
-                                connection.connect();
-                            } catch (SmackException.AlreadyConnectedException e) {
-                                LOGGER.log(Level.FINER, "Connection was already connected on reconnection attempt", e);
-                            }
-                        }
-                        // TODO Starting with Smack 4.2, connect() will no
-                        // longer login automatically. So change this and the
-                        // previous lines to connection.connect().login() in the
-                        // 4.2, or any later, branch.
-                        if (!connection.isAuthenticated()) {
-                            connection.login();
-                        }
-                        // Successfully reconnected.
-                        attempts = 0;
-                    }
-                    catch (SmackException.AlreadyLoggedInException e) {
-                        // This can happen if another thread concurrently triggers a reconnection
-                        // and/or login. Obviously it should not be handled as a reconnection
-                        // failure. See also SMACK-725.
-                        LOGGER.log(Level.FINER, "Reconnection not required, was already logged in", e);
-                    }
-                    catch (SmackException | IOException | XMPPException | InterruptedException e) {
-                        // Fires the failed reconnection notification
-                        for (ConnectionListener listener : connection.connectionListeners) {
-                            listener.reconnectionFailed(e);
-                        }
-                    }
-                }
-            }
-        };
+    private long previousDelayMillis;
+
+    private long disconnectedAtNanos;
+
+    private HashedWheelTimer.Timeout pendingTimeout;
+
+    private ReconnectionManager(AbstractXMPPConnection connection) {
+        weakRefConnection = new WeakReference<AbstractXMPPConnection>(connection);
 
         // If the reconnection mechanism is enable per default, enable it for this ReconnectionManager instance
         if (getEnabledPerDefault()) {
@@ -276,6 +239,59 @@ public final class ReconnectionManager {
         }
     }
 
+    /**
+     * Returns the number of milliseconds until the next reconnection attempt.
+     *
+     * @param resumable if the stream of the connection can be resumed.
+     * @return the number of milliseconds until the next reconnection attempt.
+     */
+    private long timeDelay(boolean resumable) {
+        attempts++;
+
+        // Delay variable to be assigned
+        long delay;
+        switch (reconnectionPolicy) {
+        case FIXED_DELAY:
+            delay = fixedDelay * 1000L;
+            break;
+        case RANDOM_INCREASING_DELAY:
+            if (attempts > 13) {
+                delay = randomBase * 6 * 5; // between 2.5 and 7.5 minutes (~5 minutes)
+            }
+            else if (attempts > 7) {
+                delay = randomBase * 6; // between 30 and 90 seconds (~1 minutes)
+            }
+            else {
+                delay = randomBase; // 10 seconds
+            }
+            delay *= 1000;
+            break;
+        case DECORRELATED_JITTER:
+            final long minDelayMillis = minDelay * 1000L;
+            if (attempts == 1 && resumable) {
+                // Resumption is only possible for a limited time, try it soon.
+                delay = randomBetween(0, minDelayMillis);
+            }
+            else {
+                long upper = Math.max(minDelayMillis, previousDelayMillis) * 3;
+                delay = Math.min(maxDelay * 1000L, randomBetween(minDelayMillis, upper));
+            }
+            previousDelayMillis = Math.max(delay, minDelayMillis);
+            break;
+        default:
+            throw new AssertionError("Unknown reconnection policy " + reconnectionPolicy);
+        }
+
+        return delay;
+    }
+
+    private static long randomBetween(long lower, long upper) {
+        if (upper <= lower) {
+            return lower;
+        }
+        return lower + (long) (RANDOM.nextDouble() * (upper - lower));
+    }
+
     /**
      * Enable the automatic reconnection mechanism. Does nothing if already enabled.
      */
@@ -304,6 +320,7 @@ public final class ReconnectionManager {
         }
         connection.removeConnectionListener(connectionListener);
         automaticReconnectEnabled = false;
+        stopReconnecting();
     }
 
     /**
@@ -331,19 +348,148 @@ public final class ReconnectionManager {
      * The algorithm is been executed when the first connection error is detected.
      */
     private synchronized void reconnect() {
-        XMPPConnection connection = this.weakRefConnection.get();
+        AbstractXMPPConnection connection = this.weakRefConnection.get();
         if (connection == null) {
             LOGGER.fine("Connection is null, will not reconnect");
             return;
         }
-        // Since there is no thread running, creates a new one to attempt
-        // the reconnection.
-        // avoid to run duplicated reconnectionThread -- fd: 16/09/2010
-        if (reconnectionThread != null && reconnectionThread.isAlive())
+        // Avoid to run duplicated reconnections.
+        if (reconnecting) {
             return;
+        }
+        reconnecting = true;
+        reconnectGeneration++;
+        attempts = 0;
+        previousDelayMillis = 0;
+        disconnectedAtNanos = System.nanoTime();
+        scheduleNextAttempt(connection, reconnectGeneration);
+    }
 
-        reconnectionThread = Async.go(reconnectionRunnable,
-                        "Smack Reconnection Manager (" + connection.getConnectionCounter() + ')');
+    private synchronized void stopReconnecting() {
+        reconnecting = false;
+        reconnectGeneration++;
+        if (pendingTimeout != null) {
+            pendingTimeout.cancel();
+            pendingTimeout = null;
+        }
+    }
+
+    /**
+     * Stop reconnecting, unless reconnecting was restarted since the given generation.
+     */
+    private synchronized void stopReconnecting(int generation) {
+        if (generation == reconnectGeneration) {
+            stopReconnecting();
+        }
+    }
+
+    private synchronized boolean isCurrentGeneration(int generation) {
+        return reconnecting && generation == reconnectGeneration;
+    }
+
+    private synchronized void scheduleNextAttempt(AbstractXMPPConnection connection, int generation) {
+        if (!isCurrentGeneration(generation)) {
+            return;
+        }
+        long delayMillis = timeDelay(connection.isDisconnectedButSmResumptionPossible());
+        // Notify listeners once per second about how much time remains before the next reconnection attempt.
+        int remainingSeconds = (int) ((delayMillis + 999) / 1000);
+        scheduleCountdown(generation, remainingSeconds, delayMillis - Math.max(0, remainingSeconds - 1) * 1000L);
+    }
+
+    private synchronized void scheduleCountdown(final int generation, final int remainingSeconds, long delayMillis) {
+        if (!isCurrentGeneration(generation)) {
+            return;
+        }
+        pendingTimeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                countdown(generation, remainingSeconds - 1);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void countdown(final int generation, int remainingSeconds) {
+        if (!isCurrentGeneration(generation)) {
+            // A stale tick which fired although its timeout was cancelled.
+            return;
+        }
+        final AbstractXMPPConnection connection = weakRefConnection.get();
+        if (connection == null || !isReconnectionPossible(connection)) {
+            stopReconnecting(generation);
+            return;
+        }
+        remainingSeconds = Math.max(0, remainingSeconds);
+        for (ConnectionListener listener : connection.connectionListeners) {
+            listener.reconnectingIn(remainingSeconds);
+        }
+        if (remainingSeconds > 0) {
+            scheduleCountdown(generation, remainingSeconds, 1000);
+            return;
+        }
+        synchronized (this) {
+            if (!isCurrentGeneration(generation)) {
+                return;
+            }
+            pendingTimeout = null;
+        }
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                attemptReconnection(connection, generation);
+            }
+        }, connection.isDisconnectedButSmResumptionPossible());
+    }
+
+    /**
+     * Makes a reconnection attempt and schedules the next one if it failed.
+     */
+    private void attemptReconnection(AbstractXMPPConnection connection, int generation) {
+        if (!isCurrentGeneration(generation)) {
+            return;
+        }
+        if (!isReconnectionPossible(connection)) {
+            stopReconnecting(generation);
+            return;
+        }
+        try {
+            try {
+                connection.connect();
+            } catch (SmackException.AlreadyConnectedException e) {
+                LOGGER.log(Level.FINER, "Connection was already connected on reconnection attempt", e);
+            }
+            // TODO Starting with Smack 4.2, connect() will no
+            // longer login automatically. So change this and the
+            // previous lines to connection.connect().login() in the
+            // 4.2, or any later, branch.
+            if (!connection.isAuthenticated()) {
+                connection.login();
+            }
+            // Successfully reconnected, metrics are recorded by the authenticated() callback.
+            stopReconnecting(generation);
+            return;
+        }
+        catch (SmackException.AlreadyLoggedInException e) {
+            // This can happen if another thread concurrently triggers a reconnection
+            // and/or login. Obviously it should not be handled as a reconnection
+            // failure. See also SMACK-725.
+            LOGGER.log(Level.FINER, "Reconnection not required, was already logged in", e);
+            stopReconnecting(generation);
+            return;
+        }
+        catch (SmackException | IOException | XMPPException | InterruptedException e) {
+            scheduler.attemptFailed();
+            // Fires the failed reconnection notification
+            for (ConnectionListener listener : connection.connectionListeners) {
+                listener.reconnectionFailed(e);
+            }
+        }
+        if (isReconnectionPossible(connection)) {
+            scheduleNextAttempt(connection, generation);
+        }
+        else {
+            stopReconnecting(generation);
+        }
     }
 
     private final ConnectionListener connectionListener = new AbstractConnectionListener() {
@@ -351,11 +497,19 @@ public final class ReconnectionManager {
         @Override
         public void connectionClosed() {
             done = true;
+            stopReconnecting();
         }
 
         @Override
         public void authenticated(XMPPConnection connection, boolean resumed) {
             done = false;
+            synchronized (ReconnectionManager.this) {
+                if (reconnecting) {
+                    long timeToReconnect = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAtNanos);
+                    scheduler.reconnected(timeToReconnect, resumed);
+                }
+            }
+            stopReconnecting();
         }
 
         @Override
@@ -378,12 +532,11 @@ public final class ReconnectionManager {
     };
 
     /**
-     * Reconnection Policy, where {@link ReconnectionPolicy#RANDOM_INCREASING_DELAY} is the default policy used by smack and {@link ReconnectionPolicy#FIXED_DELAY} implies
-     * a fixed amount of time between reconnection attempts.
+     * Reconnection Policy, where {@link ReconnectionPolicy#DECORRELATED_JITTER} is the default policy used by smack.
      */
     public enum ReconnectionPolicy {
         /**
-         * Default policy classically used by smack, having an increasing delay related to the
+         * Policy classically used by smack, having an increasing delay related to the
          * overall number of attempts.
          */
         RANDOM_INCREASING_DELAY,
@@ -392,6 +545,12 @@ public final class ReconnectionManager {
          * Policy using fixed amount of time between reconnection attempts.
          */
         FIXED_DELAY,
+
+        /**
+         * Default policy, using an exponentially increasing delay with decorrelated jitter between reconnection
+         * attempts.
+         */
+        DECORRELATED_JITTER,
         ;
     }
 }
@@ -0,0 +1,278 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.util.HashedWheelTimer;
+
+/**
+ * Runs the reconnection attempts of all {@link ReconnectionManager}s. The delays between the attempts are handled by
+ * the shared {@link HashedWheelTimer}, so that waiting connections do not occupy a thread. The attempts themselves,
+ * i.e. connecting and logging in, are run by a thread pool, where the number of concurrently running attempts is
+ * limited, see {@link #setMaxConcurrentAttempts(int)}. This avoids that thousands of connections, which lost their
+ * connection at the same time, flood the server and the local CPU with connection attempts. Attempts of connections
+ * which are able to resume their stream are preferred, as resumption is cheap and only possible for a limited time.
+ * <p>
+ * The scheduler also records metrics about the attempts and the time it took to reconnect.
+ * </p>
+ */
+public final class ReconnectionScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(ReconnectionScheduler.class.getName());
+
+    /**
+     * The default maximum number of concurrent reconnection attempts: {@value}.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_ATTEMPTS = 16;
+
+    private static ReconnectionScheduler INSTANCE;
+
+    /**
+     * Get the reconnection scheduler shared by all connections.
+     *
+     * @return the shared reconnection scheduler.
+     */
+    public static synchronized ReconnectionScheduler getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ReconnectionScheduler(HashedWheelTimer.getInstance());
+        }
+        return INSTANCE;
+    }
+
+    private final HashedWheelTimer timer;
+
+    private final ExecutorService executor;
+
+    // The following fields are guarded by 'this'.
+    private final PriorityQueue<QueuedAttempt> queuedAttempts = new PriorityQueue<>();
+    private int maxConcurrentAttempts = DEFAULT_MAX_CONCURRENT_ATTEMPTS;
+    private int runningAttempts;
+    private long sequenceNumber;
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong reconnections = new AtomicLong();
+    private final AtomicLong resumedReconnections = new AtomicLong();
+    private final AtomicLong totalTimeToReconnect = new AtomicLong();
+    private final AtomicLong maxTimeToReconnect = new AtomicLong();
+
+    ReconnectionScheduler(HashedWheelTimer timer) {
+        this.timer = timer;
+        // The number of threads is bounded by the number of concurrent attempts, plus a few threads running the
+        // short countdown notifications.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.MINUTES,
+                        new SynchronousQueue<Runnable>(),
+                        new ExecutorProviders.SharedThreadFactory("Reconnection Scheduler"));
+        this.executor = executor;
+    }
+
+    /**
+     * Set the maximum number of reconnection attempts, of all connections, which run concurrently. Further attempts
+     * are queued until a running attempt finished. A value of <code>0</code> does not limit the number of concurrent
+     * attempts.
+     *
+     * @param maxConcurrentAttempts the maximum number of concurrent attempts or <code>0</code>.
+     */
+    public void setMaxConcurrentAttempts(int maxConcurrentAttempts) {
+        if (maxConcurrentAttempts < 0) {
+            throw new IllegalArgumentException("maxConcurrentAttempts must not be negative");
+        }
+        synchronized (this) {
+            this.maxConcurrentAttempts = maxConcurrentAttempts;
+        }
+        dispatch();
+    }
+
+    /**
+     * Get the maximum number of concurrent reconnection attempts.
+     *
+     * @return the maximum number of concurrent attempts or <code>0</code> if it is not limited.
+     */
+    public synchronized int getMaxConcurrentAttempts() {
+        return maxConcurrentAttempts;
+    }
+
+    /**
+     * Get the number of reconnection attempts which are currently running.
+     *
+     * @return the number of running attempts.
+     */
+    public synchronized int getRunningAttempts() {
+        return runningAttempts;
+    }
+
+    /**
+     * Get the number of reconnection attempts which are due, but wait for a running attempt to finish.
+     *
+     * @return the number of queued attempts.
+     */
+    public synchronized int getQueuedAttempts() {
+        return queuedAttempts.size();
+    }
+
+    /**
+     * Get the total number of reconnection attempts.
+     *
+     * @return the number of attempts.
+     */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * Get the number of failed reconnection attempts.
+     *
+     * @return the number of failed attempts.
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    /**
+     * Get the number of successful reconnections.
+     *
+     * @return the number of reconnections.
+     */
+    public long getReconnections() {
+        return reconnections.get();
+    }
+
+    /**
+     * Get the number of successful reconnections which resumed the previous stream.
+     *
+     * @return the number of resumed reconnections.
+     */
+    public long getResumedReconnections() {
+        return resumedReconnections.get();
+    }
+
+    /**
+     * Get the average time between the loss of the connection and the successful reconnection.
+     *
+     * @return the average time to reconnect in milliseconds.
+     */
+    public long getAverageTimeToReconnect() {
+        long reconnections = this.reconnections.get();
+        if (reconnections == 0) {
+            return 0;
+        }
+        return totalTimeToReconnect.get() / reconnections;
+    }
+
+    /**
+     * Get the maximum time between the loss of the connection and the successful reconnection.
+     *
+     * @return the maximum time to reconnect in milliseconds.
+     */
+    public long getMaxTimeToReconnect() {
+        return maxTimeToReconnect.get();
+    }
+
+    HashedWheelTimer.Timeout schedule(final Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // Do not run the task on the timer thread, it may invoke connection listeners.
+                executor.execute(task);
+            }
+        }, delay, unit);
+    }
+
+    void submit(Runnable attempt, boolean resumable) {
+        synchronized (this) {
+            queuedAttempts.add(new QueuedAttempt(attempt, resumable, sequenceNumber++));
+        }
+        dispatch();
+    }
+
+    void attemptFailed() {
+        failedAttempts.incrementAndGet();
+    }
+
+    void reconnected(long timeToReconnectMillis, boolean resumed) {
+        reconnections.incrementAndGet();
+        if (resumed) {
+            resumedReconnections.incrementAndGet();
+        }
+        totalTimeToReconnect.addAndGet(timeToReconnectMillis);
+        long max;
+        do {
+            max = maxTimeToReconnect.get();
+        }
+        while (timeToReconnectMillis > max && !maxTimeToReconnect.compareAndSet(max, timeToReconnectMillis));
+    }
+
+    private void dispatch() {
+        while (true) {
+            final QueuedAttempt queuedAttempt;
+            synchronized (this) {
+                if (queuedAttempts.isEmpty()
+                                || (maxConcurrentAttempts > 0 && runningAttempts >= maxConcurrentAttempts)) {
+                    return;
+                }
+                queuedAttempt = queuedAttempts.poll();
+                runningAttempts++;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    attempts.incrementAndGet();
+                    try {
+                        queuedAttempt.attempt.run();
+                    }
+                    catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Exception in reconnection attempt", e);
+                    }
+                    finally {
+                        synchronized (ReconnectionScheduler.this) {
+                            runningAttempts--;
+                        }
+                        dispatch();
+                    }
+                }
+            });
+        }
+    }
+
+    private static final class QueuedAttempt implements Comparable<QueuedAttempt> {
+        private final Runnable attempt;
+        private final boolean resumable;
+        private final long sequenceNumber;
+
+        private QueuedAttempt(Runnable attempt, boolean resumable, long sequenceNumber) {
+            this.attempt = attempt;
+            this.resumable = resumable;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public int compareTo(QueuedAttempt other) {
+            if (resumable != other.resumable) {
+                return resumable ? -1 : 1;
+            }
+            return sequenceNumber < other.sequenceNumber ? -1 : (sequenceNumber == other.sequenceNumber ? 0 : 1);
+        }
+    }
+}
@@ -65,6 +65,12 @@ public final class SASLAuthentication {
 
     private static final Set<String> BLACKLISTED_MECHANISMS = new HashSet<String>();
 
+    private static final Object AUTHENTICATION_PERMITS_LOCK = new Object();
+
+    // The following fields are guarded by AUTHENTICATION_PERMITS_LOCK.
+    private static int maxConcurrentAuthentications;
+    private static int concurrentAuthentications;
+
     /**
      * Registers a new SASL mechanism.
      *
@@ -77,6 +83,53 @@ public final class SASLAuthentication {
         }
     }
 
+    /**
+     * Set the maximum number of SASL authentications, of all connections, which are performed concurrently. Further
+     * authentications wait until one of the running authentications finished. This spreads the authentications of
+     * many connections which reconnect at the same time, e.g. after a server restart, since mechanisms like SCRAM
+     * derive their keys with thousands of HMAC iterations. A value of <code>0</code>, the default, does not limit the
+     * number of concurrent authentications.
+     *
+     * @param maxConcurrentAuthentications the maximum number of concurrent authentications or <code>0</code>.
+     */
+    public static void setMaxConcurrentAuthentications(int maxConcurrentAuthentications) {
+        if (maxConcurrentAuthentications < 0) {
+            throw new IllegalArgumentException("maxConcurrentAuthentications must not be negative");
+        }
+        synchronized (AUTHENTICATION_PERMITS_LOCK) {
+            SASLAuthentication.maxConcurrentAuthentications = maxConcurrentAuthentications;
+            AUTHENTICATION_PERMITS_LOCK.notifyAll();
+        }
+    }
+
+    /**
+     * Get the maximum number of concurrent SASL authentications.
+     *
+     * @return the maximum number of concurrent authentications or <code>0</code> if it is not limited.
+     * @see #setMaxConcurrentAuthentications(int)
+     */
+    public static int getMaxConcurrentAuthentications() {
+        synchronized (AUTHENTICATION_PERMITS_LOCK) {
+            return maxConcurrentAuthentications;
+        }
+    }
+
+    private static void acquireAuthenticationPermit() throws InterruptedException {
+        synchronized (AUTHENTICATION_PERMITS_LOCK) {
+            while (maxConcurrentAuthentications > 0 && concurrentAuthentications >= maxConcurrentAuthentications) {
+                AUTHENTICATION_PERMITS_LOCK.wait();
+            }
+            concurrentAuthentications++;
+        }
+    }
+
+    private static void releaseAuthenticationPermit() {
+        synchronized (AUTHENTICATION_PERMITS_LOCK) {
+            concurrentAuthentications--;
+            AUTHENTICATION_PERMITS_LOCK.notifyAll();
+        }
+    }
+
     /**
      * Returns the registered SASLMechanism sorted by the level of preference.
      *
@@ -187,21 +240,27 @@ public final class SASLAuthentication {
         final String host = connection.getHost();
         final DomainBareJid xmppServiceDomain = connection.getXMPPServiceDomain();
 
-        synchronized (this) {
-            if (callbackHandler != null) {
-                currentMechanism.authenticate(host, xmppServiceDomain, callbackHandler, authzid);
-            }
-            else {
-                currentMechanism.authenticate(username, host, xmppServiceDomain, password, authzid);
-            }
-            final long deadline = System.currentTimeMillis() + connection.getPacketReplyTimeout();
-            while (!authenticationSuccessful && saslException == null) {
-                final long now = System.currentTimeMillis();
-                if (now > deadline) break;
-                // Wait until SASL negotiation finishes
-                wait(deadline - now);
+        acquireAuthenticationPermit();
+        try {
+            synchronized (this) {
+                if (callbackHandler != null) {
+                    currentMechanism.authenticate(host, xmppServiceDomain, callbackHandler, authzid);
+                }
+                else {
+                    currentMechanism.authenticate(username, host, xmppServiceDomain, password, authzid);
+                }
+                final long deadline = System.currentTimeMillis() + connection.getPacketReplyTimeout();
+                while (!authenticationSuccessful && saslException == null) {
+                    final long now = System.currentTimeMillis();
+                    if (now > deadline) break;
+                    // Wait until SASL negotiation finishes
+                    wait(deadline - now);
+                }
             }
         }
+        finally {
+            releaseAuthenticationPermit();
+        }
 
         if (saslException != null){
             if (saslException instanceof SmackException) {
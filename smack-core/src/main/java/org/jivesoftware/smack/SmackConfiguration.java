@@ -34,6 +34,9 @@ import org.jivesoftware.smack.debugger.SmackDebugger;
 import org.jivesoftware.smack.debugger.SmackDebuggerFactory;
 import org.jivesoftware.smack.parsing.ExceptionThrowingCallback;
 import org.jivesoftware.smack.parsing.ParsingExceptionCallback;
+import org.jivesoftware.smack.util.JidCache;
+import org.jivesoftware.smack.util.Objects;
+import org.jivesoftware.smack.util.ParserUtils;
 
 /**
  * Represents the configuration of Smack. The configuration is used for:
@@ -87,6 +90,10 @@ public final class SmackConfiguration {
 
     private static HostnameVerifier defaultHostnameVerififer;
 
+    private static ExecutorProvider defaultExecutorProvider = ExecutorProviders.perConnection();
+
+    private static boolean lazyExtensionParsing = false;
+
     /**
      * Returns the Smack version information, eg "1.3.0".
      * 
@@ -275,6 +282,77 @@ public final class SmackConfiguration {
         defaultHostnameVerififer = verifier;
     }
 
+    /**
+     * Set the default executor provider used by connections which do not configure their own one with
+     * {@link ConnectionConfiguration.Builder#setExecutorProvider(ExecutorProvider)}. The default is
+     * {@link ExecutorProviders#perConnection()}.
+     *
+     * @param executorProvider the default executor provider.
+     * @see ExecutorProviders
+     */
+    public static void setDefaultExecutorProvider(ExecutorProvider executorProvider) {
+        defaultExecutorProvider = Objects.requireNonNull(executorProvider, "ExecutorProvider must not be null");
+    }
+
+    /**
+     * Get the default executor provider.
+     *
+     * @return the default executor provider.
+     */
+    public static ExecutorProvider getDefaultExecutorProvider() {
+        return defaultExecutorProvider;
+    }
+
+    /**
+     * Enable or disable lazy parsing of the extension elements of messages and presences. If enabled, the XML of
+     * extension elements is retained as {@link org.jivesoftware.smack.packet.LazyExtensionElement} instead of running
+     * the registered provider, which only happens once the extension element is requested from the stanza, e.g. with
+     * {@link org.jivesoftware.smack.packet.Stanza#getExtension(String, String)}. This saves the parsing effort for
+     * extension elements nobody is interested in. Requires an XmlPullParser supporting XML_ROUNDTRIP, otherwise
+     * extension elements are always parsed eagerly. The default is <code>false</code>.
+     * <p>
+     * Note that with lazy parsing enabled, an extension element which can not be parsed is dropped when it is
+     * requested, instead of failing the parsing of the whole stanza.
+     * </p>
+     *
+     * @param lazyExtensionParsing <code>true</code> to enable lazy extension parsing.
+     */
+    public static void setLazyExtensionParsing(boolean lazyExtensionParsing) {
+        SmackConfiguration.lazyExtensionParsing = lazyExtensionParsing;
+    }
+
+    /**
+     * Check if lazy parsing of extension elements is enabled.
+     *
+     * @return <code>true</code> if lazy extension parsing is enabled.
+     * @see #setLazyExtensionParsing(boolean)
+     */
+    public static boolean isLazyExtensionParsing() {
+        return lazyExtensionParsing;
+    }
+
+    /**
+     * Set the maximum number of JIDs cached when parsing the addresses of stanzas and extension elements. Repeatedly
+     * received addresses are then returned as the same JID instance, without running stringprep again. A size of
+     * <code>0</code> disables the cache. The default is {@link JidCache#DEFAULT_MAX_SIZE}.
+     *
+     * @param size the maximum number of cached JIDs.
+     * @see ParserUtils#getJidCache()
+     */
+    public static void setJidCacheSize(int size) {
+        ParserUtils.getJidCache().setMaxSize(size);
+    }
+
+    /**
+     * Get the maximum number of JIDs cached when parsing addresses.
+     *
+     * @return the maximum number of cached JIDs.
+     * @see #setJidCacheSize(int)
+     */
+    public static int getJidCacheSize() {
+        return ParserUtils.getJidCache().getMaxSize();
+    }
+
     /**
      * Convenience method for {@link #addDisabledSmackClass(String)}.
      *
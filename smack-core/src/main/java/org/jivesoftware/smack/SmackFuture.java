@@ -0,0 +1,445 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The result of an asynchronous operation, for example an IQ request sent with
+ * {@link XMPPConnection#sendIqRequestAsync(org.jivesoftware.smack.packet.IQ)}. Unlike the blocking API, no thread is
+ * blocked while the operation is pending, so a single thread is able to keep many operations in flight.
+ * <p>
+ * Callbacks can be registered with {@link #onSuccess(SuccessCallback)} and {@link #onError(ExceptionCallback)}, and
+ * futures can be composed with {@link #thenApply(Transformer)}, {@link #thenCompose(Continuation)} and
+ * {@link #allOf(Collection)}. Callbacks are invoked by the thread completing the future, or by the thread registering
+ * the callback if the future is already completed. They must therefore not block. Of course it is also possible to
+ * wait for the result with {@link #get()} or {@link #getOrThrow()}.
+ * </p>
+ * <p>
+ * This class only requires Java 7 and is therefore also usable on Android.
+ * </p>
+ *
+ * @param <V> the type of the result.
+ */
+public class SmackFuture<V> implements Future<V> {
+
+    private static final Logger LOGGER = Logger.getLogger(SmackFuture.class.getName());
+
+    /**
+     * Transforms the result of a future into the result of another future.
+     *
+     * @param <V> the type of the result of the source future.
+     * @param <R> the type of the result of the transformed future.
+     * @see SmackFuture#thenApply(Transformer)
+     */
+    public interface Transformer<V, R> {
+        R transform(V result) throws Exception;
+    }
+
+    /**
+     * Continues with another asynchronous operation once a future completed successfully.
+     *
+     * @param <V> the type of the result of the source future.
+     * @param <R> the type of the result of the continuation.
+     * @see SmackFuture#thenCompose(Continuation)
+     */
+    public interface Continuation<V, R> {
+        SmackFuture<R> continueWith(V result) throws Exception;
+    }
+
+    // All fields are guarded by 'this'.
+    private boolean done;
+    private boolean cancelled;
+    private V result;
+    private Exception exception;
+    private List<SuccessCallback<? super V>> successCallbacks;
+    private List<ExceptionCallback> exceptionCallbacks;
+
+    /**
+     * Create a new, not yet completed, future.
+     */
+    public SmackFuture() {
+    }
+
+    /**
+     * Create a future which is completed with the given result.
+     *
+     * @param result the result.
+     * @return a completed future.
+     */
+    public static <V> SmackFuture<V> forResult(V result) {
+        SmackFuture<V> future = new SmackFuture<>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Create a future which is completed with the given exception.
+     *
+     * @param exception the exception.
+     * @return a completed future.
+     */
+    public static <V> SmackFuture<V> forException(Exception exception) {
+        SmackFuture<V> future = new SmackFuture<>();
+        future.completeExceptionally(exception);
+        return future;
+    }
+
+    /**
+     * Create a future which completes once all given futures completed successfully, with the list of their results
+     * in the order of the given collection. The future completes exceptionally as soon as one of the futures
+     * completes exceptionally.
+     *
+     * @param futures the futures.
+     * @return a future for the list of results.
+     */
+    public static <V> SmackFuture<List<V>> allOf(Collection<? extends SmackFuture<? extends V>> futures) {
+        final SmackFuture<List<V>> allFuture = new SmackFuture<>();
+        if (futures.isEmpty()) {
+            allFuture.complete(Collections.<V>emptyList());
+            return allFuture;
+        }
+        @SuppressWarnings("unchecked")
+        final V[] results = (V[]) new Object[futures.size()];
+        final AtomicInteger remaining = new AtomicInteger(results.length);
+        final ExceptionCallback exceptionCallback = new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                allFuture.completeExceptionally(exception);
+            }
+        };
+        int i = 0;
+        for (SmackFuture<? extends V> future : futures) {
+            final int index = i++;
+            future.onSuccess(new SuccessCallback<V>() {
+                @Override
+                public void onSuccess(V result) {
+                    results[index] = result;
+                    if (remaining.decrementAndGet() == 0) {
+                        allFuture.complete(Arrays.asList(results));
+                    }
+                }
+            }).onError(exceptionCallback);
+        }
+        return allFuture;
+    }
+
+    /**
+     * Complete this future with the given result.
+     *
+     * @param result the result.
+     * @return <code>true</code> if this future was completed, <code>false</code> if it was already completed.
+     */
+    public final boolean complete(V result) {
+        List<SuccessCallback<? super V>> callbacks;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.result = result;
+            done = true;
+            notifyAll();
+            callbacks = successCallbacks;
+            successCallbacks = null;
+            exceptionCallbacks = null;
+        }
+        if (callbacks != null) {
+            for (SuccessCallback<? super V> callback : callbacks) {
+                invokeSuccessCallback(callback, result);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Complete this future with the given exception.
+     *
+     * @param exception the exception.
+     * @return <code>true</code> if this future was completed, <code>false</code> if it was already completed.
+     */
+    public final boolean completeExceptionally(Exception exception) {
+        List<ExceptionCallback> callbacks;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.exception = exception;
+            done = true;
+            notifyAll();
+            callbacks = exceptionCallbacks;
+            successCallbacks = null;
+            exceptionCallbacks = null;
+        }
+        if (callbacks != null) {
+            for (ExceptionCallback callback : callbacks) {
+                invokeExceptionCallback(callback, exception);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cancel this future. The exception callbacks are invoked with a {@link CancellationException}. Note that this
+     * does not abort the underlying operation, e.g. an IQ request which was already sent, but its result will be
+     * ignored.
+     *
+     * @param mayInterruptIfRunning ignored.
+     * @return <code>true</code> if this future was cancelled.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+        }
+        return completeExceptionally(new CancellationException());
+    }
+
+    @Override
+    public final synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public final synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public final synchronized V get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public final synchronized V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                    TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                throw new TimeoutException();
+            }
+            wait(remainingMillis);
+        }
+        return getResult();
+    }
+
+    private V getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (exception != null) {
+            throw new ExecutionException(exception);
+        }
+        return result;
+    }
+
+    /**
+     * Wait for the result of this future and throw the exception it was completed with, if any. This is the
+     * blocking equivalent of the asynchronous API, e.g. an {@link XMPPException.XMPPErrorException} is thrown if an
+     * IQ request was answered with an error. Exceptions which are neither a {@link SmackException}, an
+     * {@link XMPPException} nor a {@link RuntimeException} are wrapped into a {@link SmackException}.
+     *
+     * @return the result.
+     * @throws SmackException if the future was completed with a SmackException.
+     * @throws XMPPException if the future was completed with a XMPPException.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public final V getOrThrow() throws SmackException, XMPPException, InterruptedException {
+        Exception exception;
+        synchronized (this) {
+            while (!done) {
+                wait();
+            }
+            if (this.exception == null) {
+                return result;
+            }
+            exception = this.exception;
+        }
+        if (exception instanceof SmackException) {
+            throw (SmackException) exception;
+        }
+        if (exception instanceof XMPPException) {
+            throw (XMPPException) exception;
+        }
+        if (exception instanceof InterruptedException) {
+            throw (InterruptedException) exception;
+        }
+        if (exception instanceof RuntimeException) {
+            throw (RuntimeException) exception;
+        }
+        throw new SmackException(exception);
+    }
+
+    /**
+     * Register a callback invoked with the result once this future completed successfully.
+     *
+     * @param callback the callback.
+     * @return a reference to this future.
+     */
+    public SmackFuture<V> onSuccess(SuccessCallback<? super V> callback) {
+        V result;
+        synchronized (this) {
+            if (!done) {
+                if (successCallbacks == null) {
+                    successCallbacks = new ArrayList<>(1);
+                }
+                successCallbacks.add(callback);
+                return this;
+            }
+            if (exception != null) {
+                return this;
+            }
+            result = this.result;
+        }
+        invokeSuccessCallback(callback, result);
+        return this;
+    }
+
+    /**
+     * Register a callback invoked with the exception once this future completed exceptionally.
+     *
+     * @param callback the callback.
+     * @return a reference to this future.
+     */
+    public SmackFuture<V> onError(ExceptionCallback callback) {
+        Exception exception;
+        synchronized (this) {
+            if (!done) {
+                if (exceptionCallbacks == null) {
+                    exceptionCallbacks = new ArrayList<>(1);
+                }
+                exceptionCallbacks.add(callback);
+                return this;
+            }
+            if (this.exception == null) {
+                return this;
+            }
+            exception = this.exception;
+        }
+        invokeExceptionCallback(callback, exception);
+        return this;
+    }
+
+    /**
+     * Create a future which is completed with the transformed result of this future. If this future completes
+     * exceptionally, or if the transformer throws an exception, then the returned future completes exceptionally.
+     *
+     * @param transformer the transformer.
+     * @return a future for the transformed result.
+     */
+    public <R> SmackFuture<R> thenApply(final Transformer<? super V, ? extends R> transformer) {
+        final SmackFuture<R> future = new SmackFuture<>();
+        onSuccess(new SuccessCallback<V>() {
+            @Override
+            public void onSuccess(V result) {
+                R transformedResult;
+                try {
+                    transformedResult = transformer.transform(result);
+                }
+                catch (Exception e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                future.complete(transformedResult);
+            }
+        });
+        onError(new CompleteExceptionally(future));
+        return future;
+    }
+
+    /**
+     * Create a future which is completed with the result of the continuation, which is invoked once this future
+     * completed successfully. This allows to chain asynchronous operations, e.g. to send an IQ request once the
+     * response to a previous request was received.
+     *
+     * @param continuation the continuation.
+     * @return a future for the result of the continuation.
+     */
+    public <R> SmackFuture<R> thenCompose(final Continuation<? super V, R> continuation) {
+        final SmackFuture<R> future = new SmackFuture<>();
+        onSuccess(new SuccessCallback<V>() {
+            @Override
+            public void onSuccess(V result) {
+                SmackFuture<R> continuationFuture;
+                try {
+                    continuationFuture = continuation.continueWith(result);
+                }
+                catch (Exception e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                continuationFuture.onSuccess(new SuccessCallback<R>() {
+                    @Override
+                    public void onSuccess(R result) {
+                        future.complete(result);
+                    }
+                }).onError(new CompleteExceptionally(future));
+            }
+        });
+        onError(new CompleteExceptionally(future));
+        return future;
+    }
+
+    private static <V> void invokeSuccessCallback(SuccessCallback<? super V> callback, V result) {
+        try {
+            callback.onSuccess(result);
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Exception in success callback", e);
+        }
+    }
+
+    private static void invokeExceptionCallback(ExceptionCallback callback, Exception exception) {
+        try {
+            callback.processException(exception);
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Exception in exception callback", e);
+        }
+    }
+
+    private static final class CompleteExceptionally implements ExceptionCallback {
+        private final SmackFuture<?> future;
+
+        private CompleteExceptionally(SmackFuture<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void processException(Exception exception) {
+            future.completeExceptionally(exception);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A reactor multiplexing the I/O of many non-blocking channels over a small, fixed number of threads.
+ * <p>
+ * Every reactor thread owns its own {@link Selector}. Channels are assigned to the reactor threads in a round-robin
+ * fashion when they are registered and stay with their thread for their whole lifetime. This means that the
+ * {@link ChannelSelectedCallback} of a channel is never invoked concurrently, which allows transports to keep their
+ * per-channel state without further synchronization. The reactor is also able to run short, non-blocking actions
+ * after a delay, see {@link #schedule(Runnable, long, TimeUnit)}.
+ * </p>
+ * <p>
+ * Use {@link #getInstance()} to obtain the process wide reactor instance. The number of reactor threads can be set
+ * with {@link #setDefaultReactorThreadCount(int)} before the instance is first used.
+ * </p>
+ */
+public final class SmackReactor {
+
+    private static final Logger LOGGER = Logger.getLogger(SmackReactor.class.getName());
+
+    private static int defaultReactorThreadCount = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    private static SmackReactor INSTANCE;
+
+    /**
+     * Set the number of threads the process wide reactor instance will use. Must be called before the first
+     * invocation of {@link #getInstance()} in order to have an effect.
+     *
+     * @param threadCount the number of reactor threads.
+     */
+    public static synchronized void setDefaultReactorThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The reactor thread count must be at least one");
+        }
+        defaultReactorThreadCount = threadCount;
+    }
+
+    /**
+     * Get the process wide reactor instance.
+     *
+     * @return the reactor.
+     */
+    public static synchronized SmackReactor getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new SmackReactor("Smack Reactor", defaultReactorThreadCount);
+        }
+        return INSTANCE;
+    }
+
+    private final ReactorThread[] reactorThreads;
+
+    private final AtomicInteger nextReactorThread = new AtomicInteger();
+
+    private SmackReactor(String name, int threadCount) {
+        reactorThreads = new ReactorThread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            Selector selector;
+            try {
+                selector = Selector.open();
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            ReactorThread reactorThread = new ReactorThread(selector);
+            reactorThread.setName(name + " Thread #" + i);
+            reactorThread.setDaemon(true);
+            reactorThreads[i] = reactorThread;
+            reactorThread.start();
+        }
+    }
+
+    /**
+     * Get the number of reactor threads used by this reactor.
+     *
+     * @return the number of reactor threads.
+     */
+    public int getReactorThreadCount() {
+        return reactorThreads.length;
+    }
+
+    /**
+     * Register the given channel with one of the reactor threads. The channel must be in non-blocking mode.
+     * <p>
+     * This method blocks until the reactor thread has performed the registration, unless it is called from a reactor
+     * thread, in which case the channel is registered with the calling thread.
+     * </p>
+     *
+     * @param channel the channel to register.
+     * @param ops the initial interest set.
+     * @param callback the callback invoked once the channel is selected.
+     * @return the selection key of the registered channel.
+     * @throws ClosedChannelException if the channel is closed.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public SelectionKey registerWithSelector(final SelectableChannel channel, final int ops,
+                    final ChannelSelectedCallback callback) throws ClosedChannelException, InterruptedException {
+        Thread currentThread = Thread.currentThread();
+        if (isReactorThread(currentThread)) {
+            ReactorThread reactorThread = (ReactorThread) currentThread;
+            return channel.register(reactorThread.selector, ops, callback);
+        }
+
+        final ReactorThread reactorThread = nextReactorThread();
+        final SelectionKey[] selectionKey = new SelectionKey[1];
+        final ClosedChannelException[] exception = new ClosedChannelException[1];
+        final CountDownLatch registered = new CountDownLatch(1);
+        reactorThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    selectionKey[0] = channel.register(reactorThread.selector, ops, callback);
+                }
+                catch (ClosedChannelException e) {
+                    exception[0] = e;
+                }
+                finally {
+                    registered.countDown();
+                }
+            }
+        });
+        registered.await();
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+        return selectionKey[0];
+    }
+
+    /**
+     * Set the interest set of the given selection key. The change is applied by the reactor thread owning the key,
+     * therefore this method never blocks.
+     *
+     * @param selectionKey the selection key.
+     * @param interestOps the new interest set.
+     */
+    public void setInterestOps(final SelectionKey selectionKey, final int interestOps) {
+        execute(selectionKey, new Runnable() {
+            @Override
+            public void run() {
+                if (!selectionKey.isValid()) {
+                    return;
+                }
+                selectionKey.interestOps(interestOps);
+            }
+        });
+    }
+
+    /**
+     * Run the given task on the reactor thread owning the given selection key. If the calling thread is already the
+     * owning reactor thread, the task is run immediately.
+     *
+     * @param selectionKey the selection key.
+     * @param task the task, which must not block.
+     */
+    public void execute(SelectionKey selectionKey, Runnable task) {
+        ReactorThread reactorThread = reactorThreadFor(selectionKey);
+        if (Thread.currentThread() == reactorThread) {
+            task.run();
+            return;
+        }
+        reactorThread.execute(task);
+    }
+
+    /**
+     * Schedule the given action to be run by a reactor thread after the given delay. The action must not block.
+     *
+     * @param action the action to run.
+     * @param delay the delay.
+     * @param unit the unit of the delay.
+     * @return the scheduled action, which can be used to cancel it.
+     */
+    public ScheduledAction schedule(Runnable action, long delay, TimeUnit unit) {
+        ReactorThread reactorThread = nextReactorThread();
+        ScheduledAction scheduledAction = new ScheduledAction(action, delay, unit);
+        reactorThread.schedule(scheduledAction);
+        return scheduledAction;
+    }
+
+    /**
+     * Check if the current thread is one of the threads of this reactor.
+     *
+     * @return true if the current thread is a reactor thread of this reactor.
+     */
+    public boolean isReactorThread() {
+        return isReactorThread(Thread.currentThread());
+    }
+
+    /**
+     * Check if the current thread is the reactor thread owning the given selection key, i.e. the thread which invokes
+     * the {@link ChannelSelectedCallback} of the key.
+     *
+     * @param selectionKey the selection key.
+     * @return true if the current thread is the reactor thread owning the selection key.
+     */
+    public boolean isOwningReactorThread(SelectionKey selectionKey) {
+        return Thread.currentThread() == reactorThreadFor(selectionKey);
+    }
+
+    private boolean isReactorThread(Thread thread) {
+        for (ReactorThread reactorThread : reactorThreads) {
+            if (reactorThread == thread) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ReactorThread nextReactorThread() {
+        int index = (nextReactorThread.getAndIncrement() & Integer.MAX_VALUE) % reactorThreads.length;
+        return reactorThreads[index];
+    }
+
+    private ReactorThread reactorThreadFor(SelectionKey selectionKey) {
+        Selector selector = selectionKey.selector();
+        for (ReactorThread reactorThread : reactorThreads) {
+            if (reactorThread.selector == selector) {
+                return reactorThread;
+            }
+        }
+        throw new IllegalArgumentException("Selection key " + selectionKey + " does not belong to this reactor");
+    }
+
+    /**
+     * An action scheduled with {@link SmackReactor#schedule(Runnable, long, TimeUnit)}.
+     */
+    public static final class ScheduledAction implements Delayed {
+
+        private final Runnable action;
+        private final long releaseTimeMillis;
+        private volatile boolean cancelled;
+
+        private ScheduledAction(Runnable action, long delay, TimeUnit unit) {
+            this.action = action;
+            this.releaseTimeMillis = System.currentTimeMillis() + unit.toMillis(delay);
+        }
+
+        /**
+         * Cancel this action. If the action did not run yet, then it will never run.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Check if this action was cancelled.
+         *
+         * @return true if this action was cancelled.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            long delayMillis = releaseTimeMillis - System.currentTimeMillis();
+            return unit.convert(delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            long otherReleaseTimeMillis;
+            if (other instanceof ScheduledAction) {
+                otherReleaseTimeMillis = ((ScheduledAction) other).releaseTimeMillis;
+            } else {
+                otherReleaseTimeMillis = System.currentTimeMillis() + other.getDelay(TimeUnit.MILLISECONDS);
+            }
+            return releaseTimeMillis < otherReleaseTimeMillis ? -1 : (releaseTimeMillis == otherReleaseTimeMillis ? 0 : 1);
+        }
+    }
+
+    private static final class ReactorThread extends Thread {
+
+        private final Selector selector;
+
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+        private final DelayQueue<ScheduledAction> scheduledActions = new DelayQueue<>();
+
+        private ReactorThread(Selector selector) {
+            this.selector = selector;
+        }
+
+        private void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        private void schedule(ScheduledAction scheduledAction) {
+            scheduledActions.add(scheduledAction);
+            // Wake up the selector if the new action is the next one, so that the select timeout is recalculated.
+            if (scheduledActions.peek() == scheduledAction) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    runPendingTasks();
+
+                    long selectTimeout = 0;
+                    ScheduledAction nextScheduledAction = scheduledActions.peek();
+                    if (nextScheduledAction != null) {
+                        // A timeout of 0 means "no timeout" for select(), therefore use at least 1.
+                        selectTimeout = Math.max(1, nextScheduledAction.getDelay(TimeUnit.MILLISECONDS));
+                    }
+
+                    if (pendingTasks.isEmpty()) {
+                        selector.select(selectTimeout);
+                    } else {
+                        selector.selectNow();
+                    }
+
+                    Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                    for (Iterator<SelectionKey> it = selectedKeys.iterator(); it.hasNext();) {
+                        SelectionKey selectionKey = it.next();
+                        it.remove();
+                        if (!selectionKey.isValid()) {
+                            continue;
+                        }
+                        ChannelSelectedCallback callback = (ChannelSelectedCallback) selectionKey.attachment();
+                        try {
+                            callback.onChannelSelected(selectionKey.channel(), selectionKey);
+                        }
+                        catch (Exception e) {
+                            LOGGER.log(Level.SEVERE, "Exception in channel selected callback", e);
+                        }
+                    }
+
+                    runDueScheduledActions();
+                }
+                catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "IOException in " + getName(), e);
+                }
+                catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Exception in " + getName(), e);
+                }
+            }
+        }
+
+        private void runPendingTasks() {
+            Runnable task;
+            while ((task = pendingTasks.poll()) != null) {
+                try {
+                    task.run();
+                }
+                catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Exception in reactor task", e);
+                }
+            }
+        }
+
+        private void runDueScheduledActions() {
+            ScheduledAction scheduledAction;
+            while ((scheduledAction = scheduledActions.poll()) != null) {
+                if (scheduledAction.isCancelled()) {
+                    continue;
+                }
+                try {
+                    scheduledAction.action.run();
+                }
+                catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Exception in scheduled reactor action", e);
+                }
+            }
+        }
+    }
+}
@@ -581,6 +581,41 @@ public interface XMPPConnection {
                     final ExceptionCallback exceptionCallback, long timeout)
                     throws NotConnectedException, InterruptedException;
 
+    /**
+     * Send an IQ request asynchronously. The returned future is completed with the IQ response, or exceptionally with
+     * a {@link XMPPException.XMPPErrorException} if the response is an error, or with a
+     * {@link SmackException.NoResponseException} if there was no response within the reply timeout of this
+     * connection. This method does not block.
+     *
+     * @param request the IQ request to send.
+     * @return a future for the response.
+     * @see #getPacketReplyTimeout()
+     */
+    public <I extends IQ> SmackFuture<I> sendIqRequestAsync(IQ request);
+
+    /**
+     * Send an IQ request asynchronously with the given timeout.
+     *
+     * @param request the IQ request to send.
+     * @param timeout the timeout in milliseconds to wait for a response.
+     * @return a future for the response.
+     * @see #sendIqRequestAsync(IQ)
+     */
+    public <I extends IQ> SmackFuture<I> sendIqRequestAsync(IQ request, long timeout);
+
+    /**
+     * Send a stanza asynchronously and return a future for the first stanza matching the reply filter. The future is
+     * completed exceptionally with a {@link XMPPException.XMPPErrorException} if the response is an error, or with a
+     * {@link SmackException.NoResponseException} if there was no response within the timeout.
+     *
+     * @param stanza the stanza to send.
+     * @param replyFilter the filter used to determine the response.
+     * @param timeout the timeout in milliseconds to wait for a response.
+     * @return a future for the response.
+     */
+    public <S extends Stanza> SmackFuture<S> sendStanzaWithResponseAsync(Stanza stanza, StanzaFilter replyFilter,
+                    long timeout);
+
     /**
      * Add a callback that is called exactly once and synchronously with the incoming stanza that matches the given
      * stanza(/packet) filter.
@@ -54,6 +54,10 @@ public abstract class AbstractListFilter implements StanzaFilter {
     /**
      * Adds a filter to the filter list. A stanza will pass the filter if all of the filters in the
      * list accept it.
+     * <p>
+     * Filters must not be added once this filter was used to register a listener or collector with a connection, as
+     * the connection's {@link StanzaFilterIndex} derives its index keys at registration time.
+     * </p>
      *
      * @param filter a filter to add to the filter list.
      */
@@ -92,6 +92,14 @@ public class FromMatchesFilter implements StanzaFilter {
         return new FromMatchesFilter(address, false);
     }
 
+    Jid getAddress() {
+        return address;
+    }
+
+    boolean isIgnoreResourcepart() {
+        return ignoreResourcepart;
+    }
+
     public boolean accept(Stanza packet) {
         Jid from = packet.getFrom();
         if (from == null) {
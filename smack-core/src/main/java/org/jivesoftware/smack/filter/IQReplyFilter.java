@@ -108,6 +108,10 @@ public class IQReplyFilter implements StanzaFilter {
         }
     }
 
+    String getStanzaId() {
+        return packetId;
+    }
+
     @Override
     public boolean accept(Stanza packet) {
         // First filter out everything that is not an IQ stanza and does not have the correct ID set.
@@ -65,6 +65,14 @@ public class StanzaExtensionFilter implements StanzaFilter {
         this(packetExtension.getElementName(), packetExtension.getNamespace());
     }
 
+    String getElementName() {
+        return elementName;
+    }
+
+    String getNamespace() {
+        return namespace;
+    }
+
     public boolean accept(Stanza packet) {
         return packet.hasExtension(elementName, namespace);
     }
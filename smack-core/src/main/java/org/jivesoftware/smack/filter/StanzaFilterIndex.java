@@ -0,0 +1,496 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.filter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.util.XmppStringUtils;
+
+/**
+ * An index of values, e.g. stanza listeners or collectors, registered together with a {@link StanzaFilter}. The index
+ * allows to look up the values whose filter may accept a given stanza without evaluating every registered filter.
+ * <p>
+ * The index keys are derived from the well-known filter classes of Smack: {@link StanzaIdFilter},
+ * {@link IQReplyFilter}, {@link FromMatchesFilter}, {@link StanzaExtensionFilter}, {@link StanzaTypeFilter} and
+ * {@link FlexibleStanzaTypeFilter}. An {@link AndFilter} is indexed by its most selective indexable filter, an
+ * {@link OrFilter} by the keys of all its filters if every one of them is indexable. All other filters are opaque,
+ * their values are considered as candidate for every stanza and their filter is evaluated linearly, just like before
+ * the index existed.
+ * </p>
+ * <p>
+ * Lookups are lock-free: every index bucket is an immutable array which is replaced on modification (copy-on-write).
+ * Modifications are synchronized on the index. The values are returned in the order of their registration,
+ * re-registering a key keeps its original position.
+ * </p>
+ *
+ * @param <V> the type of the indexed values.
+ */
+public final class StanzaFilterIndex<V> {
+
+    private static final int RANK_STANZA_ID = 0;
+    private static final int RANK_FULL_FROM = 1;
+    private static final int RANK_BARE_FROM = 2;
+    private static final int RANK_EXTENSION = 3;
+    private static final int RANK_EXTENSION_NAMESPACE = 4;
+    private static final int RANK_STANZA_TYPE = 5;
+
+    /**
+     * Key used for stanzas without a 'from' attribute, as {@link ConcurrentHashMap} does not allow null keys.
+     */
+    private static final Object NO_FROM = new Object();
+
+    private static final Entry<?>[] EMPTY = new Entry<?>[0];
+
+    private static final Comparator<Entry<?>> REGISTRATION_ORDER = new Comparator<Entry<?>>() {
+        @Override
+        public int compare(Entry<?> lhs, Entry<?> rhs) {
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * Caches if a filter class uses the accept() method of one of the indexable base classes.
+     */
+    private static final Map<Class<?>, Boolean> INHERITS_ACCEPT = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Object, Entry<?>[]> byStanzaId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, Entry<?>[]> byFullFrom = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, Entry<?>[]> byBareFrom = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, Entry<?>[]> byExtension = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, Entry<?>[]> byExtensionNamespace = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, Entry<?>[]> byStanzaType = new ConcurrentHashMap<>();
+
+    private volatile Entry<?>[] opaque = EMPTY;
+
+    /**
+     * The registered entries by their key. Guarded by 'this'.
+     */
+    private final Map<Object, Entry<V>> entries = new HashMap<>();
+
+    /**
+     * Guarded by 'this'.
+     */
+    private long nextSequence;
+
+    /**
+     * Register the given value under the given key. If the key is already registered, its value and filter are
+     * replaced, but the key keeps its position in the registration order.
+     *
+     * @param key the key, e.g. the stanza listener.
+     * @param filter the filter or <code>null</code> if the value should match all stanzas.
+     * @param value the value.
+     * @return the previous value of the key or <code>null</code>.
+     */
+    public synchronized V put(Object key, StanzaFilter filter, V value) {
+        Entry<V> previous = entries.get(key);
+        long sequence = previous != null ? previous.sequence : nextSequence++;
+        Entry<V> entry = new Entry<V>(sequence, filter, value, keysFor(filter));
+        entries.put(key, entry);
+        // Link the new entry before the previous one is unlinked, so that concurrent lookups always see one of them.
+        link(entry);
+        if (previous == null) {
+            return null;
+        }
+        unlink(previous);
+        return previous.value;
+    }
+
+    /**
+     * Remove the given key.
+     *
+     * @param key the key.
+     * @return the value of the key or <code>null</code> if the key was not registered.
+     */
+    public synchronized V remove(Object key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        unlink(entry);
+        return entry.value;
+    }
+
+    /**
+     * Get the number of registered keys.
+     *
+     * @return the number of registered keys.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the values whose filter accepts the given stanza, in registration order.
+     *
+     * @param stanza the stanza.
+     * @return the matching values.
+     */
+    public List<V> getMatching(Stanza stanza) {
+        return lookup(stanza, true);
+    }
+
+    /**
+     * Get the values whose filter may accept the given stanza, in registration order. The filters are not evaluated,
+     * the caller has to do so, e.g. because the value evaluates the filter itself like a
+     * {@link org.jivesoftware.smack.PacketCollector}.
+     *
+     * @param stanza the stanza.
+     * @return the candidate values.
+     */
+    public List<V> getCandidates(Stanza stanza) {
+        return lookup(stanza, false);
+    }
+
+    private List<V> lookup(Stanza stanza, boolean evaluateFilters) {
+        List<Entry<?>[]> sources = new ArrayList<>(4);
+        addSource(sources, opaque);
+
+        String stanzaId = stanza.getStanzaId();
+        if (stanzaId != null && !byStanzaId.isEmpty()) {
+            addSource(sources, byStanzaId.get(stanzaId));
+        }
+
+        Jid from = stanza.getFrom();
+        if (!byFullFrom.isEmpty()) {
+            addSource(sources, byFullFrom.get(from != null ? from : NO_FROM));
+        }
+        if (from != null && !byBareFrom.isEmpty()) {
+            addSource(sources, byBareFrom.get(from.asBareJid()));
+        }
+
+        if (!byExtension.isEmpty() || !byExtensionNamespace.isEmpty()) {
+            // Only the element names and namespaces are required, hence lazy extension elements are not parsed.
+            for (ExtensionElement extension : stanza.getRawExtensions()) {
+                String namespace = extension.getNamespace();
+                addSource(sources, byExtension.get(XmppStringUtils.generateKey(extension.getElementName(), namespace)));
+                addSource(sources, byExtensionNamespace.get(namespace));
+            }
+        }
+
+        if (!byStanzaType.isEmpty()) {
+            for (Class<?> clazz = stanza.getClass(); clazz != Stanza.class && clazz != null; clazz = clazz.getSuperclass()) {
+                addSource(sources, byStanzaType.get(clazz));
+            }
+        }
+
+        final List<Entry<?>> candidates;
+        switch (sources.size()) {
+        case 0:
+            return Collections.emptyList();
+        case 1:
+            candidates = Arrays.asList(sources.get(0));
+            break;
+        default:
+            candidates = new ArrayList<>();
+            for (Entry<?>[] source : sources) {
+                candidates.addAll(Arrays.asList(source));
+            }
+            Collections.sort(candidates, REGISTRATION_ORDER);
+            break;
+        }
+
+        List<V> result = new ArrayList<>(candidates.size());
+        long lastSequence = -1;
+        for (Entry<?> candidate : candidates) {
+            // The same entry may be found in multiple buckets, e.g. if it was registered with an OrFilter.
+            if (candidate.sequence == lastSequence) {
+                continue;
+            }
+            lastSequence = candidate.sequence;
+            if (evaluateFilters && candidate.filter != null && !candidate.filter.accept(stanza)) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            V value = (V) candidate.value;
+            result.add(value);
+        }
+        return result;
+    }
+
+    private static void addSource(List<Entry<?>[]> sources, Entry<?>[] source) {
+        if (source != null && source.length > 0) {
+            sources.add(source);
+        }
+    }
+
+    private void link(Entry<V> entry) {
+        if (entry.keys == null) {
+            opaque = insert(opaque, entry);
+            return;
+        }
+        for (IndexKey key : entry.keys) {
+            ConcurrentHashMap<Object, Entry<?>[]> bucket = bucketFor(key.rank);
+            Entry<?>[] entries = bucket.get(key.value);
+            bucket.put(key.value, insert(entries != null ? entries : EMPTY, entry));
+        }
+    }
+
+    private void unlink(Entry<V> entry) {
+        if (entry.keys == null) {
+            opaque = delete(opaque, entry);
+            return;
+        }
+        for (IndexKey key : entry.keys) {
+            ConcurrentHashMap<Object, Entry<?>[]> bucket = bucketFor(key.rank);
+            Entry<?>[] entries = bucket.get(key.value);
+            if (entries == null) {
+                continue;
+            }
+            entries = delete(entries, entry);
+            if (entries.length == 0) {
+                bucket.remove(key.value);
+            } else {
+                bucket.put(key.value, entries);
+            }
+        }
+    }
+
+    private ConcurrentHashMap<Object, Entry<?>[]> bucketFor(int rank) {
+        switch (rank) {
+        case RANK_STANZA_ID:
+            return byStanzaId;
+        case RANK_FULL_FROM:
+            return byFullFrom;
+        case RANK_BARE_FROM:
+            return byBareFrom;
+        case RANK_EXTENSION:
+            return byExtension;
+        case RANK_EXTENSION_NAMESPACE:
+            return byExtensionNamespace;
+        case RANK_STANZA_TYPE:
+            return byStanzaType;
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    /**
+     * Insert the entry into the array, keeping the array sorted by registration order.
+     */
+    private static Entry<?>[] insert(Entry<?>[] entries, Entry<?> entry) {
+        int position = entries.length;
+        while (position > 0 && entries[position - 1].sequence > entry.sequence) {
+            position--;
+        }
+        Entry<?>[] result = new Entry<?>[entries.length + 1];
+        System.arraycopy(entries, 0, result, 0, position);
+        result[position] = entry;
+        System.arraycopy(entries, position, result, position + 1, entries.length - position);
+        return result;
+    }
+
+    private static Entry<?>[] delete(Entry<?>[] entries, Entry<?> entry) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] != entry) {
+                continue;
+            }
+            if (entries.length == 1) {
+                return EMPTY;
+            }
+            Entry<?>[] result = new Entry<?>[entries.length - 1];
+            System.arraycopy(entries, 0, result, 0, i);
+            System.arraycopy(entries, i + 1, result, i, entries.length - i - 1);
+            return result;
+        }
+        return entries;
+    }
+
+    /**
+     * Derive the index keys of the given filter. A stanza accepted by the filter is guaranteed to match at least one
+     * of the returned keys.
+     *
+     * @param filter the filter.
+     * @return the index keys or <code>null</code> if the filter is opaque.
+     */
+    static List<IndexKey> keysFor(StanzaFilter filter) {
+        if (filter == null) {
+            return null;
+        }
+        Class<?> filterClass = filter.getClass();
+        // IQResultReplyFilter only narrows down the result of IQReplyFilter.accept().
+        if (filterClass == IQReplyFilter.class || filterClass == IQResultReplyFilter.class) {
+            return singleKey(RANK_STANZA_ID, ((IQReplyFilter) filter).getStanzaId());
+        }
+        if (filter instanceof FlexibleStanzaTypeFilter) {
+            // FlexibleStanzaTypeFilter.accept() is final and checks the stanza type first.
+            return stanzaTypeKey(((FlexibleStanzaTypeFilter<?>) filter).stanzaType);
+        }
+        if (filterClass == StanzaTypeFilter.class) {
+            return stanzaTypeKey(((StanzaTypeFilter) filter).getStanzaType());
+        }
+        if (inheritsAccept(filter, StanzaIdFilter.class)) {
+            return singleKey(RANK_STANZA_ID, ((StanzaIdFilter) filter).getStanzaId());
+        }
+        if (inheritsAccept(filter, FromMatchesFilter.class)) {
+            FromMatchesFilter fromMatchesFilter = (FromMatchesFilter) filter;
+            Jid address = fromMatchesFilter.getAddress();
+            if (address == null) {
+                return singleKey(RANK_FULL_FROM, NO_FROM);
+            }
+            if (fromMatchesFilter.isIgnoreResourcepart()) {
+                return singleKey(RANK_BARE_FROM, address);
+            }
+            return singleKey(RANK_FULL_FROM, address);
+        }
+        if (inheritsAccept(filter, StanzaExtensionFilter.class)) {
+            StanzaExtensionFilter extensionFilter = (StanzaExtensionFilter) filter;
+            String elementName = extensionFilter.getElementName();
+            String namespace = extensionFilter.getNamespace();
+            if (elementName == null) {
+                return singleKey(RANK_EXTENSION_NAMESPACE, namespace);
+            }
+            return singleKey(RANK_EXTENSION, XmppStringUtils.generateKey(elementName, namespace));
+        }
+        if (inheritsAccept(filter, AndFilter.class)) {
+            // Every filter of an AndFilter must accept the stanza, so the keys of any filter will do. Use the most
+            // selective ones.
+            List<IndexKey> best = null;
+            for (StanzaFilter child : ((AndFilter) filter).filters) {
+                List<IndexKey> keys = keysFor(child);
+                if (keys != null && (best == null || isMoreSelective(keys, best))) {
+                    best = keys;
+                }
+            }
+            return best;
+        }
+        if (inheritsAccept(filter, OrFilter.class)) {
+            List<StanzaFilter> filters = ((OrFilter) filter).filters;
+            if (filters.isEmpty()) {
+                return null;
+            }
+            List<IndexKey> result = new ArrayList<>(filters.size());
+            for (StanzaFilter child : filters) {
+                List<IndexKey> keys = keysFor(child);
+                if (keys == null) {
+                    // A single opaque filter renders the whole OrFilter opaque.
+                    return null;
+                }
+                for (IndexKey key : keys) {
+                    if (!result.contains(key)) {
+                        result.add(key);
+                    }
+                }
+            }
+            return result;
+        }
+        return null;
+    }
+
+    private static List<IndexKey> singleKey(int rank, Object value) {
+        return Collections.singletonList(new IndexKey(rank, value));
+    }
+
+    private static List<IndexKey> stanzaTypeKey(Class<?> stanzaType) {
+        if (stanzaType == Stanza.class) {
+            // Would match every stanza.
+            return null;
+        }
+        return singleKey(RANK_STANZA_TYPE, stanzaType);
+    }
+
+    private static boolean isMoreSelective(List<IndexKey> keys, List<IndexKey> other) {
+        int rank = worstRank(keys);
+        int otherRank = worstRank(other);
+        if (rank != otherRank) {
+            return rank < otherRank;
+        }
+        return keys.size() < other.size();
+    }
+
+    private static int worstRank(List<IndexKey> keys) {
+        int rank = 0;
+        for (IndexKey key : keys) {
+            rank = Math.max(rank, key.rank);
+        }
+        return rank;
+    }
+
+    /**
+     * Check if the filter is an instance of the given base class and does not override its accept() method. Only
+     * then the index keys derived from the base class are valid for the filter.
+     */
+    private static boolean inheritsAccept(StanzaFilter filter, Class<? extends StanzaFilter> baseClass) {
+        Class<?> filterClass = filter.getClass();
+        if (filterClass == baseClass) {
+            return true;
+        }
+        if (!baseClass.isInstance(filter)) {
+            return false;
+        }
+        Boolean inherits = INHERITS_ACCEPT.get(filterClass);
+        if (inherits == null) {
+            try {
+                Method accept = filterClass.getMethod("accept", Stanza.class);
+                inherits = accept.getDeclaringClass() == baseClass;
+            }
+            catch (NoSuchMethodException e) {
+                throw new AssertionError(e);
+            }
+            INHERITS_ACCEPT.put(filterClass, inherits);
+        }
+        return inherits;
+    }
+
+    static final class IndexKey {
+        private final int rank;
+        private final Object value;
+
+        private IndexKey(int rank, Object value) {
+            this.rank = rank;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey otherKey = (IndexKey) other;
+            return rank == otherKey.rank && value.equals(otherKey.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * rank + value.hashCode();
+        }
+    }
+
+    private static final class Entry<V> {
+        private final long sequence;
+        private final StanzaFilter filter;
+        private final V value;
+        private final List<IndexKey> keys;
+
+        private Entry(long sequence, StanzaFilter filter, V value, List<IndexKey> keys) {
+            this.sequence = sequence;
+            this.filter = filter;
+            this.value = value;
+            this.keys = keys;
+        }
+    }
+}
@@ -47,6 +47,10 @@ public class StanzaIdFilter implements StanzaFilter {
         this.stanzaId = StringUtils.requireNotNullOrEmpty(stanzaID, "Stanza ID must not be null or empty.");
     }
 
+    String getStanzaId() {
+        return stanzaId;
+    }
+
     public boolean accept(Stanza stanza) {
         return stanzaId.equals(stanza.getStanzaId());
     }
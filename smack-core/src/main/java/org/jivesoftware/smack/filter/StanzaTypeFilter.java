@@ -51,6 +51,10 @@ public final class StanzaTypeFilter implements StanzaFilter {
         this.packetType = packetType;
     }
 
+    Class<? extends Stanza> getStanzaType() {
+        return packetType;
+    }
+
     public boolean accept(Stanza packet) {
         return packetType.isInstance(packet);
     }
@@ -26,11 +26,13 @@ import java.util.logging.Logger;
 import org.jivesoftware.smack.SmackInitialization;
 import org.jivesoftware.smack.provider.ProviderFileLoader;
 import org.jivesoftware.smack.provider.ProviderManager;
+import org.jivesoftware.smack.provider.ProviderRegistry;
 import org.jivesoftware.smack.util.FileUtils;
 
 /**
  * Loads the provider file defined by the URL returned by {@link #getProvidersUrl()} and the generic
- * smack configuration file returned {@link #getConfigUrl()}.
+ * smack configuration file returned {@link #getConfigUrl()}. If {@link #getProviderRegistry()} returns a provider
+ * registry generated from the provider file at build time, then the registry is used instead of the provider file.
  * 
  * @author Florian Schmaus
  */
@@ -42,8 +44,13 @@ public abstract class UrlInitializer implements SmackInitializer {
         InputStream is;
         final ClassLoader classLoader = this.getClass().getClassLoader();
         final List<Exception> exceptions = new LinkedList<Exception>();
+        final ProviderRegistry providerRegistry = getProviderRegistry();
         final String providerUrl = getProvidersUrl();
-        if (providerUrl != null) {
+        if (providerRegistry != null) {
+            LOGGER.log(Level.FINE, "Registering providers of " + providerRegistry.getClass().getName());
+            providerRegistry.register();
+        }
+        else if (providerUrl != null) {
             try {
                 is = FileUtils.getStreamForUrl(providerUrl, classLoader);
 
@@ -81,6 +88,15 @@ public abstract class UrlInitializer implements SmackInitializer {
         return null;
     }
 
+    /**
+     * Get the provider registry generated from the provider file returned by {@link #getProvidersUrl()}.
+     *
+     * @return the provider registry or <code>null</code> if the provider file should be loaded.
+     */
+    protected ProviderRegistry getProviderRegistry() {
+        return null;
+    }
+
     protected String getConfigUrl() {
         return null;
     }
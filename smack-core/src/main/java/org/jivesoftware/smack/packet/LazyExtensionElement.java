@@ -0,0 +1,77 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.packet;
+
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.StringUtils;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * An extension element which was not parsed yet, but whose XML was retained as it was received. Such extension
+ * elements are created when lazy extension parsing is enabled, see
+ * {@link org.jivesoftware.smack.SmackConfiguration#setLazyExtensionParsing(boolean)}. {@link Stanza} replaces them
+ * with the extension element created by the registered provider the first time the extension element is requested,
+ * e.g. via {@link Stanza#getExtension(String, String)}. Until then the retained XML is used when the stanza is
+ * serialized.
+ */
+public final class LazyExtensionElement implements ExtensionElement {
+
+    private final String elementName;
+
+    private final String namespace;
+
+    private final String xml;
+
+    /**
+     * Create a new lazy extension element.
+     *
+     * @param elementName the name of the element.
+     * @param namespace the namespace of the element.
+     * @param xml the XML of the element, which must declare the namespace as default namespace.
+     */
+    public LazyExtensionElement(String elementName, String namespace, CharSequence xml) {
+        this.elementName = StringUtils.requireNotNullOrEmpty(elementName, "Element name must not be null or empty");
+        this.namespace = StringUtils.requireNotNullOrEmpty(namespace, "Namespace must not be null or empty");
+        this.xml = xml.toString();
+    }
+
+    @Override
+    public String getElementName() {
+        return elementName;
+    }
+
+    @Override
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Parse the retained XML with the extension element provider registered for the element name and namespace.
+     *
+     * @return the parsed extension element.
+     * @throws Exception if the XML could not be parsed.
+     */
+    public ExtensionElement parse() throws Exception {
+        XmlPullParser parser = PacketParserUtils.getParserFor(xml);
+        return PacketParserUtils.parseExtensionElement(elementName, namespace, parser);
+    }
+
+    @Override
+    public String toXML() {
+        return xml;
+    }
+}
@@ -21,16 +21,18 @@ import static org.jivesoftware.smack.util.StringUtils.requireNotNullOrEmpty;
 
 import org.jivesoftware.smack.packet.id.StanzaIdUtil;
 import org.jivesoftware.smack.util.MultiMap;
-import org.jivesoftware.smack.util.PacketUtil;
 import org.jivesoftware.smack.util.XmlStringBuilder;
 import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 import org.jxmpp.util.XmppStringUtils;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Base class for XMPP Stanzas, which are called Stanza(/Packet) in older versions of Smack (i.e. &lt; 4.1).
@@ -49,6 +51,8 @@ import java.util.Locale;
  */
 public abstract class Stanza implements TopLevelStreamElement {
 
+    private static final Logger LOGGER = Logger.getLogger(Stanza.class.getName());
+
     public static final String TEXT = "text";
     public static final String ITEM = "item";
 
@@ -88,8 +92,8 @@ public abstract class Stanza implements TopLevelStreamElement {
         from = p.getFrom();
         error = p.error;
 
-        // Copy extensions
-        for (ExtensionElement pe : p.getExtensions()) {
+        // Copy extensions, lazy extension elements are immutable and can be shared.
+        for (ExtensionElement pe : p.getRawExtensions()) {
             addExtension(pe);
         }
     }
@@ -306,11 +310,27 @@ public abstract class Stanza implements TopLevelStreamElement {
      */
     public List<ExtensionElement> getExtensions() {
         synchronized (packetExtensions) {
+            for (String key : new ArrayList<>(packetExtensions.keySet())) {
+                parseLazyExtensions(key);
+            }
             // No need to create a new list, values() will already create a new one for us
             return packetExtensions.values();
         }
     }
 
+    /**
+     * Returns a list of all extension elements of this stanza, without parsing the ones which were retained as
+     * {@link LazyExtensionElement}. This is meant for code which only needs the element names and namespaces of the
+     * extension elements, like stanza routing, or their XML.
+     *
+     * @return a list of all extension elements of this stanza, some of them possibly not parsed yet.
+     */
+    public List<ExtensionElement> getRawExtensions() {
+        synchronized (packetExtensions) {
+            return packetExtensions.values();
+        }
+    }
+
     /**
      * Return a list of all extensions with the given element name <em>and</em> namespace.
      * <p>
@@ -326,7 +346,10 @@ public abstract class Stanza implements TopLevelStreamElement {
         requireNotNullOrEmpty(elementName, "elementName must not be null or empty");
         requireNotNullOrEmpty(namespace, "namespace must not be null or empty");
         String key = XmppStringUtils.generateKey(elementName, namespace);
-        return packetExtensions.getAll(key);
+        synchronized (packetExtensions) {
+            parseLazyExtensions(key);
+            return packetExtensions.getAll(key);
+        }
     }
 
     /**
@@ -339,7 +362,14 @@ public abstract class Stanza implements TopLevelStreamElement {
      * @return the stanza(/packet) extension with the given namespace.
      */
     public ExtensionElement getExtension(String namespace) {
-        return PacketUtil.extensionElementFrom(getExtensions(), null, namespace);
+        synchronized (packetExtensions) {
+            for (ExtensionElement extension : packetExtensions.values()) {
+                if (extension.getNamespace().equals(namespace)) {
+                    return getExtension(extension.getElementName(), namespace);
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -360,6 +390,7 @@ public abstract class Stanza implements TopLevelStreamElement {
         String key = XmppStringUtils.generateKey(elementName, namespace);
         ExtensionElement packetExtension;
         synchronized (packetExtensions) {
+            parseLazyExtensions(key);
             packetExtension = packetExtensions.getFirst(key);
         }
         if (packetExtension == null) {
@@ -457,10 +488,42 @@ public abstract class Stanza implements TopLevelStreamElement {
     public ExtensionElement removeExtension(String elementName, String namespace) {
         String key = XmppStringUtils.generateKey(elementName, namespace);
         synchronized (packetExtensions) {
+            parseLazyExtensions(key);
             return packetExtensions.remove(key);
         }
     }
 
+    /**
+     * Replace the {@link LazyExtensionElement}s with the given key by the parsed extension elements, keeping their
+     * position. Lazy extension elements which can not be parsed are removed, just like extension elements of
+     * presences which can not be parsed are skipped when parsing eagerly. Must be called while holding the lock of
+     * {@link #packetExtensions}.
+     *
+     * @param key the key of the extension elements.
+     */
+    private void parseLazyExtensions(String key) {
+        List<ExtensionElement> extensions = packetExtensions.getAll(key);
+        for (int i = 0; i < extensions.size(); i++) {
+            ExtensionElement extension = extensions.get(i);
+            if (!(extension instanceof LazyExtensionElement)) {
+                continue;
+            }
+            ExtensionElement parsedExtension;
+            try {
+                parsedExtension = ((LazyExtensionElement) extension).parse();
+            }
+            catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to parse extension element " + key + " of stanza with id '"
+                                + id + "' from '" + from + "', removing it", e);
+                packetExtensions.removeOne(key, extension);
+                // The list may have been removed from the multi map, but it is still the same list object.
+                i--;
+                continue;
+            }
+            extensions.set(i, parsedExtension);
+        }
+    }
+
     /**
      * Removes a stanza(/packet) extension from the packet.
      *
@@ -486,8 +549,8 @@ public abstract class Stanza implements TopLevelStreamElement {
      */
     protected final XmlStringBuilder getExtensionsXML() {
         XmlStringBuilder xml = new XmlStringBuilder();
-        // Add in all standard extension sub-packets.
-        for (ExtensionElement extension : getExtensions()) {
+        // Add in all standard extension sub-packets, the retained XML of not yet parsed ones is reused as it is.
+        for (ExtensionElement extension : getRawExtensions()) {
             xml.append(extension.toXML());
         }
         return xml;
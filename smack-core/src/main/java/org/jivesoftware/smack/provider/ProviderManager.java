@@ -21,6 +21,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.packet.IQ;
@@ -105,13 +108,18 @@ import org.jxmpp.util.XmppStringUtils;
  * store all top-level elements of the sub-packet in DefaultPacketExtension object and then
  * attach it to the packet.<p>
  *
+ * The providers of Smack's own modules are registered by {@link ProviderRegistry}s generated from their providers
+ * files at build time, which create the providers on first lookup.<p>
+ *
  * @author Matt Tucker
  */
 public final class ProviderManager {
 
-    private static final Map<String, ExtensionElementProvider<ExtensionElement>> extensionProviders = new ConcurrentHashMap<String, ExtensionElementProvider<ExtensionElement>>();
-    private static final Map<String, IQProvider<IQ>> iqProviders = new ConcurrentHashMap<String, IQProvider<IQ>>();
-    private static final Map<String, ExtensionElementProvider<ExtensionElement>> streamFeatureProviders = new ConcurrentHashMap<String, ExtensionElementProvider<ExtensionElement>>();
+    private static final Logger LOGGER = Logger.getLogger(ProviderManager.class.getName());
+
+    private static final ConcurrentMap<String, ExtensionElementProvider<ExtensionElement>> extensionProviders = new ConcurrentHashMap<String, ExtensionElementProvider<ExtensionElement>>();
+    private static final ConcurrentMap<String, IQProvider<IQ>> iqProviders = new ConcurrentHashMap<String, IQProvider<IQ>>();
+    private static final ConcurrentMap<String, ExtensionElementProvider<ExtensionElement>> streamFeatureProviders = new ConcurrentHashMap<String, ExtensionElementProvider<ExtensionElement>>();
 
     static {
         // Ensure that Smack is initialized by calling getVersion, so that user
@@ -165,7 +173,7 @@ public final class ProviderManager {
      */
     public static IQProvider<IQ> getIQProvider(String elementName, String namespace) {
         String key = getKey(elementName, namespace);
-        return iqProviders.get(key);
+        return resolve(iqProviders, key, iqProviders.get(key));
     }
 
     /**
@@ -176,9 +184,7 @@ public final class ProviderManager {
      * @return all IQProvider instances.
      */
     public static List<IQProvider<IQ>> getIQProviders() {
-        List<IQProvider<IQ>> providers = new ArrayList<>(iqProviders.size());
-        providers.addAll(iqProviders.values());
-        return providers;
+        return resolveAll(iqProviders);
     }
 
     /**
@@ -240,7 +246,7 @@ public final class ProviderManager {
      */
     public static ExtensionElementProvider<ExtensionElement> getExtensionProvider(String elementName, String namespace) {
         String key = getKey(elementName, namespace);
-        return extensionProviders.get(key);
+        return resolve(extensionProviders, key, extensionProviders.get(key));
     }
 
     /**
@@ -289,14 +295,12 @@ public final class ProviderManager {
      * @return all PacketExtensionProvider instances.
      */
     public static List<ExtensionElementProvider<ExtensionElement>> getExtensionProviders() {
-        List<ExtensionElementProvider<ExtensionElement>> providers = new ArrayList<>(extensionProviders.size());
-        providers.addAll(extensionProviders.values());
-        return providers;
+        return resolveAll(extensionProviders);
     }
 
     public static ExtensionElementProvider<ExtensionElement> getStreamFeatureProvider(String elementName, String namespace) {
         String key = getKey(elementName, namespace);
-        return streamFeatureProviders.get(key);
+        return resolve(streamFeatureProviders, key, streamFeatureProviders.get(key));
     }
 
     public static void addStreamFeatureProvider(String elementName, String namespace, ExtensionElementProvider<ExtensionElement> provider) {
@@ -310,6 +314,40 @@ public final class ProviderManager {
         streamFeatureProviders.remove(key);
     }
 
+    /**
+     * Resolve the given provider if it is a placeholder registered by a {@link ProviderRegistry}, and replace the
+     * placeholder with the resolved provider. If the provider can not be created, then the placeholder is removed.
+     */
+    private static <P extends Provider<?>> P resolve(ConcurrentMap<String, P> providers, String key, P provider) {
+        if (!(provider instanceof ProviderRegistry.LazyProvider)) {
+            return provider;
+        }
+        P resolvedProvider;
+        try {
+            @SuppressWarnings("unchecked")
+            P resolved = (P) ((ProviderRegistry.LazyProvider) provider).resolve();
+            resolvedProvider = resolved;
+        }
+        catch (RuntimeException | LinkageError e) {
+            LOGGER.log(Level.SEVERE, "Could not create provider for " + key, e);
+            providers.remove(key, provider);
+            return null;
+        }
+        providers.replace(key, provider, resolvedProvider);
+        return resolvedProvider;
+    }
+
+    private static <P extends Provider<?>> List<P> resolveAll(ConcurrentMap<String, P> providers) {
+        List<P> res = new ArrayList<>(providers.size());
+        for (Map.Entry<String, P> entry : providers.entrySet()) {
+            P provider = resolve(providers, entry.getKey(), entry.getValue());
+            if (provider != null) {
+                res.add(provider);
+            }
+        }
+        return res;
+    }
+
     private static String getKey(String elementName, String namespace) {
         return XmppStringUtils.generateKey(elementName, namespace);
     }
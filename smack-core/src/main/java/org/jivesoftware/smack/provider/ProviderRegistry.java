@@ -0,0 +1,160 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.provider;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.IQ;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * A static registry of providers, generated at build time from the providers file of a Smack module. Unlike
+ * {@link ProviderFileLoader}, which parses the providers file and instantiates every provider via reflection when
+ * Smack is initialized, a registry registers placeholders with the {@link ProviderManager}. A provider is only
+ * created, without reflection, when it is looked up for the first time.
+ * <p>
+ * Subclasses register their providers in {@link #registerProviders()} using
+ * {@link #iqProvider(String, String, int)}, {@link #extensionProvider(String, String, int)} and
+ * {@link #streamFeatureProvider(String, String, int)}, and create them in {@link #createProvider(int)}. Third-party
+ * providers are still loaded with {@link ProviderFileLoader}.
+ * </p>
+ *
+ * @see org.jivesoftware.smack.initializer.UrlInitializer#getProviderRegistry()
+ */
+public abstract class ProviderRegistry {
+
+    /**
+     * Register the providers of this registry with the {@link ProviderManager}.
+     */
+    public final void register() {
+        registerProviders();
+    }
+
+    /**
+     * Register the providers of this registry.
+     */
+    protected abstract void registerProviders();
+
+    /**
+     * Create the provider with the given index.
+     *
+     * @param index the index the provider was registered with.
+     * @return a new provider.
+     */
+    protected abstract Provider<?> createProvider(int index);
+
+    /**
+     * Register the IQ provider with the given index.
+     *
+     * @param elementName the element name.
+     * @param namespace the namespace.
+     * @param index the index of the provider passed to {@link #createProvider(int)}.
+     */
+    protected final void iqProvider(String elementName, String namespace, int index) {
+        ProviderManager.addIQProvider(elementName, namespace, new LazyIQProvider(this, index));
+    }
+
+    /**
+     * Register the extension element provider with the given index.
+     *
+     * @param elementName the element name.
+     * @param namespace the namespace.
+     * @param index the index of the provider passed to {@link #createProvider(int)}.
+     */
+    protected final void extensionProvider(String elementName, String namespace, int index) {
+        ProviderManager.addExtensionProvider(elementName, namespace, new LazyExtensionElementProvider(this, index));
+    }
+
+    /**
+     * Register the stream feature provider with the given index.
+     *
+     * @param elementName the element name.
+     * @param namespace the namespace.
+     * @param index the index of the provider passed to {@link #createProvider(int)}.
+     */
+    protected final void streamFeatureProvider(String elementName, String namespace, int index) {
+        ProviderManager.addStreamFeatureProvider(elementName, namespace,
+                        new LazyExtensionElementProvider(this, index));
+    }
+
+    /**
+     * A placeholder for a provider which is created on first use. The {@link ProviderManager} replaces placeholders
+     * with the resolved provider when they are looked up.
+     */
+    interface LazyProvider {
+        Provider<?> resolve();
+    }
+
+    static final class LazyIQProvider extends IQProvider<IQ> implements LazyProvider {
+        private final ProviderRegistry registry;
+        private final int index;
+        private IQProvider<IQ> provider;
+
+        private LazyIQProvider(ProviderRegistry registry, int index) {
+            this.registry = registry;
+            this.index = index;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public synchronized IQProvider<IQ> resolve() {
+            if (provider == null) {
+                Provider<?> created = registry.createProvider(index);
+                if (!(created instanceof IQProvider)) {
+                    throw new IllegalStateException(created.getClass().getName() + " is not a IQProvider");
+                }
+                provider = (IQProvider<IQ>) created;
+            }
+            return provider;
+        }
+
+        @Override
+        public IQ parse(XmlPullParser parser, int initialDepth) throws Exception {
+            return resolve().parse(parser, initialDepth);
+        }
+    }
+
+    static final class LazyExtensionElementProvider extends ExtensionElementProvider<ExtensionElement>
+                    implements LazyProvider {
+        private final ProviderRegistry registry;
+        private final int index;
+        private ExtensionElementProvider<ExtensionElement> provider;
+
+        private LazyExtensionElementProvider(ProviderRegistry registry, int index) {
+            this.registry = registry;
+            this.index = index;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public synchronized ExtensionElementProvider<ExtensionElement> resolve() {
+            if (provider == null) {
+                Provider<?> created = registry.createProvider(index);
+                if (!(created instanceof ExtensionElementProvider)) {
+                    throw new IllegalStateException(created.getClass().getName()
+                                    + " is not a ExtensionElementProvider");
+                }
+                provider = (ExtensionElementProvider<ExtensionElement>) created;
+            }
+            return provider;
+        }
+
+        @Override
+        public ExtensionElement parse(XmlPullParser parser, int initialDepth) throws Exception {
+            return resolve().parse(parser, initialDepth);
+        }
+    }
+}
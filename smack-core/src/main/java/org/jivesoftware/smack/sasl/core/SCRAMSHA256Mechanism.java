@@ -0,0 +1,44 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sasl.core;
+
+/**
+ * The SCRAM-SHA-256 SASL mechanism, as specified in RFC 7677.
+ */
+public class SCRAMSHA256Mechanism extends ScramMechanism {
+
+    public static final String NAME = "SCRAM-SHA-256";
+
+    public SCRAMSHA256Mechanism() {
+        super(ScramHmac.SHA_256);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getPriority() {
+        return 105;
+    }
+
+    @Override
+    public SCRAMSHA256Mechanism newInstance() {
+        return new SCRAMSHA256Mechanism();
+    }
+}
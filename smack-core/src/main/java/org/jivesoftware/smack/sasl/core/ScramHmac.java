@@ -0,0 +1,114 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sasl.core;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The hash function H() and the keyed hash function HMAC() of a SCRAM mechanism, see RFC 5802 § 2.2.
+ * <p>
+ * Unlike {@link org.jivesoftware.smack.util.MAC} and {@link org.jivesoftware.smack.util.SHA1}, every invocation uses
+ * its own {@link Mac} or {@link MessageDigest} instance, so that concurrent authentications of many connections do
+ * not serialize on a single shared instance.
+ * </p>
+ */
+public final class ScramHmac {
+
+    public static final ScramHmac SHA_1 = new ScramHmac("HmacSHA1", "SHA-1");
+
+    public static final ScramHmac SHA_256 = new ScramHmac("HmacSHA256", "SHA-256");
+
+    private final String hmacAlgorithm;
+
+    private final String digestAlgorithm;
+
+    /**
+     * Create a new SCRAM hash function.
+     *
+     * @param hmacAlgorithm the JCA name of the HMAC algorithm, e.g. "HmacSHA256".
+     * @param digestAlgorithm the JCA name of the message digest algorithm, e.g. "SHA-256".
+     */
+    public ScramHmac(String hmacAlgorithm, String digestAlgorithm) {
+        this.hmacAlgorithm = hmacAlgorithm;
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * Create a new {@link Mac} initialized with the given key.
+     *
+     * @param key the key.
+     * @return a new initialized Mac.
+     * @throws InvalidKeyException if the key is not valid.
+     */
+    public Mac newMac(byte[] key) throws InvalidKeyException {
+        Mac mac;
+        try {
+            mac = Mac.getInstance(hmacAlgorithm);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        mac.init(new SecretKeySpec(key, hmacAlgorithm));
+        return mac;
+    }
+
+    /**
+     * HMAC(key, str).
+     *
+     * @param key the key.
+     * @param str the input.
+     * @return the HMAC value of the input.
+     * @throws InvalidKeyException if the key is not valid.
+     */
+    public byte[] hmac(byte[] key, byte[] str) throws InvalidKeyException {
+        return newMac(key).doFinal(str);
+    }
+
+    /**
+     * H(str).
+     *
+     * @param str the input.
+     * @return the hash of the input.
+     */
+    public byte[] hash(byte[] str) {
+        try {
+            return MessageDigest.getInstance(digestAlgorithm).digest(str);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the JCA name of the HMAC algorithm.
+     *
+     * @return the name of the HMAC algorithm.
+     */
+    public String getHmacAlgorithm() {
+        return hmacAlgorithm;
+    }
+
+    @Override
+    public String toString() {
+        return hmacAlgorithm;
+    }
+}
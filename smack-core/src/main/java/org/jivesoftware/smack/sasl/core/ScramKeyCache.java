@@ -0,0 +1,207 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sasl.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.smack.util.GenerationalCache;
+import org.jivesoftware.smack.util.StringUtils;
+
+/**
+ * A bounded, concurrent cache of the ClientKey and ServerKey derived by SCRAM mechanisms. Deriving the keys requires
+ * thousands of HMAC iterations, but RFC 5802 § 5.1 allows clients to cache them, as the server is likely to advertise
+ * the same salt upon re-authentication. When many connections reconnect at once, e.g. after a server restart, the
+ * cache avoids that every connection derives its keys again.
+ * <p>
+ * The cache keys are hashes of the mechanism name, the password, the salt and the iteration count, hence the cache
+ * does not retain the password. The keys are held in memory in a {@link GenerationalCache}. Optionally, a
+ * {@link ScramKeyPersistentCache} is consulted on cache misses and updated with newly derived keys.
+ * </p>
+ *
+ * @see ScramMechanism#getKeyCache()
+ */
+public final class ScramKeyCache {
+
+    /**
+     * The default maximum number of cached keys: {@value}.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final GenerationalCache<String, Keys> cache;
+
+    private volatile ScramKeyPersistentCache persistentCache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    ScramKeyCache(int maxSize) {
+        cache = new GenerationalCache<>(maxSize);
+    }
+
+    /**
+     * Get the cache key for the given parameters of a SCRAM authentication.
+     *
+     * @param mechanism the name of the SCRAM mechanism.
+     * @param password the password.
+     * @param salt the Base64 encoded salt advertised by the server.
+     * @param iterations the iteration count advertised by the server.
+     * @return the cache key.
+     */
+    public static String cacheKeyFor(String mechanism, String password, String salt, int iterations) {
+        String input = mechanism + ',' + salt + ',' + iterations + ',' + password;
+        return StringUtils.encodeHex(ScramHmac.SHA_256.hash(StringUtils.toBytes(input)));
+    }
+
+    /**
+     * Lookup the keys cached under the given cache key.
+     *
+     * @param cacheKey the cache key.
+     * @return the cached keys or <code>null</code>.
+     */
+    public Keys lookup(String cacheKey) {
+        Keys keys = cache.get(cacheKey);
+        if (keys == null) {
+            ScramKeyPersistentCache persistentCache = this.persistentCache;
+            if (persistentCache != null) {
+                keys = persistentCache.lookup(cacheKey);
+                if (keys != null) {
+                    cache.put(cacheKey, keys);
+                }
+            }
+        }
+        if (keys == null) {
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        return keys;
+    }
+
+    /**
+     * Add the given keys under the given cache key.
+     *
+     * @param cacheKey the cache key.
+     * @param keys the keys.
+     */
+    public void put(String cacheKey, Keys keys) {
+        cache.put(cacheKey, keys);
+        ScramKeyPersistentCache persistentCache = this.persistentCache;
+        if (persistentCache != null) {
+            persistentCache.addKeys(cacheKey, keys);
+        }
+    }
+
+    /**
+     * Set the persistent cache used in addition to the in-memory cache.
+     *
+     * @param persistentCache the persistent cache or <code>null</code>.
+     */
+    public void setPersistentCache(ScramKeyPersistentCache persistentCache) {
+        this.persistentCache = persistentCache;
+    }
+
+    /**
+     * Set the maximum number of keys cached in memory. A size of <code>0</code> disables the in-memory cache.
+     *
+     * @param maxSize the maximum number of cached keys.
+     */
+    public void setMaxSize(int maxSize) {
+        cache.setMaxSize(maxSize);
+    }
+
+    /**
+     * Get the maximum number of keys cached in memory.
+     *
+     * @return the maximum number of cached keys.
+     */
+    public int getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    /**
+     * Get the approximate number of keys cached in memory.
+     *
+     * @return the number of cached keys.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of lookups which found cached keys.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups which did not find cached keys.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all keys cached in memory. The persistent cache and the hit and miss counters are not affected.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * The ClientKey and ServerKey derived from a salted password.
+     */
+    public static final class Keys {
+        private final byte[] clientKey;
+        private final byte[] serverKey;
+
+        /**
+         * Create new keys.
+         *
+         * @param clientKey the ClientKey.
+         * @param serverKey the ServerKey.
+         */
+        public Keys(byte[] clientKey, byte[] serverKey) {
+            this.clientKey = clientKey.clone();
+            this.serverKey = serverKey.clone();
+        }
+
+        /**
+         * Get the ClientKey.
+         *
+         * @return a copy of the ClientKey.
+         */
+        public byte[] getClientKey() {
+            return clientKey.clone();
+        }
+
+        /**
+         * Get the ServerKey.
+         *
+         * @return a copy of the ServerKey.
+         */
+        public byte[] getServerKey() {
+            return serverKey.clone();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sasl.core;
+
+import org.jivesoftware.smack.sasl.core.ScramKeyCache.Keys;
+
+/**
+ * A persistent store for the keys derived by SCRAM mechanisms, which allows them to survive a restart of the
+ * application.
+ * <p>
+ * Note that the ClientKey is sufficient to authenticate against the server which advertised the salt, and that the
+ * cache keys are fast hashes of the password. An implementation must therefore protect the stored data as well as
+ * the password itself.
+ * </p>
+ *
+ * @see ScramKeyCache#setPersistentCache(ScramKeyPersistentCache)
+ */
+public interface ScramKeyPersistentCache {
+
+    /**
+     * Add the keys stored under the given cache key.
+     *
+     * @param cacheKey the cache key.
+     * @param keys the keys.
+     */
+    void addKeys(String cacheKey, Keys keys);
+
+    /**
+     * Lookup the keys stored under the given cache key.
+     *
+     * @param cacheKey the cache key.
+     * @return the keys or <code>null</code>.
+     */
+    Keys lookup(String cacheKey);
+
+    /**
+     * Empty the cache.
+     */
+    void emptyCache();
+}
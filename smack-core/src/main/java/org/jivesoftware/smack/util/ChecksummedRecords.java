@@ -0,0 +1,185 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes files consisting of a magic number followed by checksummed records, as used by append-only stores.
+ * <p>
+ * Every record consists of the length and the CRC32 checksum of its payload, followed by the payload. When a file is
+ * read, the records following the first incomplete, corrupt or malformed record are ignored, e.g. because the
+ * application crashed while the record was written. The meaning of the payloads is up to the store.
+ * </p>
+ */
+public final class ChecksummedRecords {
+
+    private static final Logger LOGGER = Logger.getLogger(ChecksummedRecords.class.getName());
+
+    /**
+     * The size of the header of a record: the length and the checksum of the record's payload.
+     */
+    public static final int RECORD_HEADER_SIZE = 8;
+
+    private ChecksummedRecords() {
+    }
+
+    /**
+     * Handles the payloads of the records read by {@link ChecksummedRecords#read(File, byte[], RecordHandler)}.
+     */
+    public interface RecordHandler {
+
+        /**
+         * Handle the payload of a record. A malformed payload is signaled by throwing a
+         * {@link BufferUnderflowException} or an {@link IllegalArgumentException}, which stops reading the file.
+         *
+         * @param payload the payload of the record, backed by an array.
+         * @throws UnsupportedEncodingException if a string of the payload could not be decoded.
+         */
+        void handleRecord(ByteBuffer payload) throws UnsupportedEncodingException;
+    }
+
+    /**
+     * Read the given file with a single read and pass the payloads of all valid records to the given handler.
+     *
+     * @param file the file.
+     * @param magic the magic number the file has to start with.
+     * @param handler the handler of the records.
+     * @return the length of the magic number and the valid records, or <code>-1</code> if the file is shorter than the
+     *         magic number.
+     * @throws IOException if the file could not be read or does not start with the given magic number.
+     */
+    public static long read(File file, byte[] magic, RecordHandler handler) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < content.length) {
+                int count = in.read(content, read, content.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+        }
+        finally {
+            in.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        if (buffer.remaining() < magic.length) {
+            return -1;
+        }
+        for (byte b : magic) {
+            if (buffer.get() != b) {
+                throw new IOException(file + " does not start with the expected magic number");
+            }
+        }
+        CRC32 crc = new CRC32();
+        long validLength = buffer.position();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int payloadLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (payloadLength <= 0 || payloadLength > buffer.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(content, buffer.position(), payloadLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(payloadLength);
+            buffer.position(buffer.position() + payloadLength);
+            try {
+                handler.handleRecord(payload);
+            }
+            catch (BufferUnderflowException | IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Malformed record in " + file, e);
+                break;
+            }
+            validLength = buffer.position();
+        }
+        return validLength;
+    }
+
+    /**
+     * Write a record with the given payload.
+     *
+     * @param out the output stream to write the record to.
+     * @param payload the payload of the record.
+     * @throws IOException if an I/O error occurred.
+     */
+    public static void writeRecord(OutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream record = new DataOutputStream(out);
+        record.writeInt(payload.length);
+        record.writeInt((int) crc.getValue());
+        record.write(payload);
+        record.flush();
+    }
+
+    /**
+     * Write the given string as length prefixed UTF-8. Unlike {@link DataOutputStream#writeUTF(String)}, this is not
+     * limited to 64 KiB. A <code>null</code> string is written as length -1.
+     *
+     * @param out the output stream.
+     * @param string the string or <code>null</code>.
+     * @throws IOException if an I/O error occurred.
+     */
+    public static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StringUtils.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)} from the payload of a record.
+     *
+     * @param in the payload, backed by an array.
+     * @return the string or <code>null</code>.
+     * @throws UnsupportedEncodingException if UTF-8 is not supported.
+     * @throws BufferUnderflowException if the payload does not contain the whole string.
+     */
+    public static String readString(ByteBuffer in) throws UnsupportedEncodingException {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String string = new String(in.array(), in.arrayOffset() + in.position(), length, StringUtils.UTF8);
+        in.position(in.position() + length);
+        return string;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded, concurrent cache approximating a LRU cache without locking on lookups.
+ * <p>
+ * The cache consists of two generations, each holding up to half of the maximum size. New entries are added to the
+ * current generation. Once it is full, it becomes the previous generation and the former previous generation is
+ * dropped. Entries found in the previous generation are promoted to the current one.
+ * </p>
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+public final class GenerationalCache<K, V> {
+
+    private volatile int maxSize;
+
+    private volatile Generation<K, V> current = new Generation<>();
+
+    private volatile Generation<K, V> previous = new Generation<>();
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize the maximum number of cached entries, <code>0</code> disables the cache.
+     */
+    public GenerationalCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Get the value cached for the given key. A value found in the previous generation is promoted to the current one.
+     *
+     * @param key the key.
+     * @return the cached value or <code>null</code>.
+     */
+    public V get(K key) {
+        if (maxSize == 0) {
+            return null;
+        }
+        V value = current.map.get(key);
+        if (value == null) {
+            value = previous.map.get(key);
+            if (value != null) {
+                V existing = putIfAbsent(key, value);
+                if (existing != null) {
+                    value = existing;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Add the given value for the given key, unless the current generation already contains a value for the key.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return the value already cached for the key or <code>null</code> if the given value was added.
+     */
+    public V putIfAbsent(K key, V value) {
+        final int maxSize = this.maxSize;
+        if (maxSize == 0) {
+            return null;
+        }
+        Generation<K, V> generation = current;
+        V existing = generation.map.putIfAbsent(key, value);
+        if (existing != null) {
+            return existing;
+        }
+        added(generation, maxSize);
+        return null;
+    }
+
+    /**
+     * Add the given value for the given key, replacing any value the current generation contains for the key.
+     *
+     * @param key the key.
+     * @param value the value.
+     */
+    public void put(K key, V value) {
+        final int maxSize = this.maxSize;
+        if (maxSize == 0) {
+            return;
+        }
+        Generation<K, V> generation = current;
+        if (generation.map.put(key, value) != null) {
+            return;
+        }
+        added(generation, maxSize);
+    }
+
+    private void added(Generation<K, V> generation, int maxSize) {
+        if (generation.size.incrementAndGet() >= Math.max(1, maxSize / 2)) {
+            synchronized (this) {
+                if (current == generation) {
+                    previous = generation;
+                    current = new Generation<>();
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the maximum number of cached entries and remove all cached entries. A size of <code>0</code> disables the
+     * cache.
+     *
+     * @param maxSize the maximum number of cached entries.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        this.maxSize = maxSize;
+        clear();
+    }
+
+    /**
+     * Get the maximum number of cached entries.
+     *
+     * @return the maximum number of cached entries.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the approximate number of cached entries.
+     *
+     * @return the number of cached entries.
+     */
+    public int size() {
+        // Promoted entries are counted twice until the previous generation is dropped.
+        return current.map.size() + previous.map.size();
+    }
+
+    /**
+     * Remove all cached entries.
+     */
+    public synchronized void clear() {
+        current = new Generation<>();
+        previous = new Generation<>();
+    }
+
+    private static final class Generation<K, V> {
+        private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timing wheel for a large number of timeouts which are usually cancelled before they expire, like the
+ * timeouts of pending requests. Scheduling and cancelling a timeout is O(1), and all timeouts are handled by a single
+ * daemon thread, instead of one scheduled task per timeout.
+ * <p>
+ * The precision of the timer is the tick duration, a timeout expires at most one tick after its delay elapsed. The
+ * tasks of expired timeouts are run by the timer thread and must therefore return quickly, e.g. by handing over the
+ * actual work to an executor. The timer thread blocks if there are no pending timeouts.
+ * </p>
+ */
+public final class HashedWheelTimer {
+
+    private static final Logger LOGGER = Logger.getLogger(HashedWheelTimer.class.getName());
+
+    private static final long DEFAULT_TICK_DURATION_MILLIS = 100;
+
+    private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    private static HashedWheelTimer INSTANCE;
+
+    /**
+     * Get the timer instance shared by all connections.
+     *
+     * @return the shared timer instance.
+     */
+    public static synchronized HashedWheelTimer getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new HashedWheelTimer("Smack Timer", DEFAULT_TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS,
+                            DEFAULT_TICKS_PER_WHEEL);
+        }
+        return INSTANCE;
+    }
+
+    private final String name;
+    private final long tickDurationNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTimeouts = new AtomicInteger();
+
+    private final long startTime = System.nanoTime();
+
+    private volatile boolean idle;
+
+    private volatile Thread workerThread;
+
+    /**
+     * Create a new timer. The timer thread is started once the first timeout is scheduled.
+     *
+     * @param name the name of the timer thread.
+     * @param tickDuration the duration of a tick.
+     * @param unit the time unit of the tick duration.
+     * @param ticksPerWheel the number of ticks per wheel, will be rounded up to a power of two.
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30");
+        }
+        this.name = name;
+        this.tickDurationNanos = unit.toNanos(tickDuration);
+        int wheelSize = 1;
+        while (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+        wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = wheelSize - 1;
+    }
+
+    /**
+     * Schedule the given task. The task is run by the timer thread once the delay elapsed, unless the returned
+     * timeout is cancelled before.
+     *
+     * @param task the task to run, must not block.
+     * @param delay the delay.
+     * @param unit the time unit of the delay.
+     * @return the timeout, which may be used to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Objects.requireNonNull(task, "Task must not be null");
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+        Timeout timeout = new Timeout(this, task, deadline / tickDurationNanos);
+        pendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+        startOrWakeUpWorker();
+        return timeout;
+    }
+
+    /**
+     * Get the number of pending, i.e. neither expired nor cancelled, timeouts.
+     *
+     * @return the number of pending timeouts.
+     */
+    public int getPendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    private void startOrWakeUpWorker() {
+        if (workerThread == null) {
+            synchronized (this) {
+                if (workerThread == null) {
+                    Thread thread = new Thread(new Worker(), name);
+                    thread.setDaemon(true);
+                    thread.start();
+                    workerThread = thread;
+                    return;
+                }
+            }
+        }
+        if (idle) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startTime) / tickDurationNanos;
+    }
+
+    private final class Worker implements Runnable {
+
+        /**
+         * The next tick to process. Only accessed by the worker thread.
+         */
+        private long tick;
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    if (pendingTimeouts.get() == 0) {
+                        waitForTimeouts();
+                    }
+                    waitForTickEnd();
+                    removeCancelledTimeouts();
+                    transferNewTimeouts();
+                    expireTimeouts();
+                    tick++;
+                }
+                catch (InterruptedException e) {
+                    LOGGER.log(Level.FINE, name + " interrupted", e);
+                }
+            }
+        }
+
+        private void waitForTimeouts() throws InterruptedException {
+            removeCancelledTimeouts();
+            synchronized (HashedWheelTimer.this) {
+                idle = true;
+                try {
+                    while (pendingTimeouts.get() == 0) {
+                        HashedWheelTimer.this.wait();
+                    }
+                }
+                finally {
+                    idle = false;
+                }
+            }
+            // All buckets are empty, so we are free to skip the ticks passed while we were idle.
+            tick = Math.max(tick, currentTick());
+        }
+
+        private void waitForTickEnd() throws InterruptedException {
+            long tickEnd = (tick + 1) * tickDurationNanos;
+            long sleepNanos = tickEnd - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+        }
+
+        private void removeCancelledTimeouts() {
+            Timeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void transferNewTimeouts() {
+            Timeout timeout;
+            while ((timeout = newTimeouts.poll()) != null) {
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+                // Timeouts whose deadline tick already passed expire with the current tick.
+                long deadlineTick = Math.max(timeout.deadlineTick, tick);
+                timeout.deadlineTick = deadlineTick;
+                wheel[(int) (deadlineTick & mask)].add(timeout);
+            }
+        }
+
+        private void expireTimeouts() {
+            Bucket bucket = wheel[(int) (tick & mask)];
+            Timeout timeout = bucket.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadlineTick <= tick) {
+                    bucket.remove(timeout);
+                    timeout.expire();
+                }
+                timeout = next;
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts. Only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            }
+            else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            }
+            else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    /**
+     * A timeout scheduled with a {@link HashedWheelTimer}.
+     */
+    public static final class Timeout {
+
+        private static final int STATE_PENDING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+        // The following fields are only accessed by the worker thread.
+        private long deadlineTick;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadlineTick) {
+            this.timer = timer;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancel this timeout.
+         *
+         * @return <code>true</code> if the timeout was cancelled, <code>false</code> if it already expired or was
+         *         cancelled before.
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            timer.cancelledTimeouts.add(this);
+            timer.pendingTimeouts.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * Check if this timeout was cancelled.
+         *
+         * @return <code>true</code> if this timeout was cancelled.
+         */
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        /**
+         * Check if this timeout expired, i.e. its task was run.
+         *
+         * @return <code>true</code> if this timeout expired.
+         */
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                return;
+            }
+            timer.pendingTimeouts.decrementAndGet();
+            try {
+                task.run();
+            }
+            catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Exception in task of " + timer.name, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * A bounded, concurrent cache interning the JIDs parsed from XMPP addresses, so that repeatedly received addresses
+ * return the same, immutable, {@link Jid} instance without running stringprep again. The JIDs are held in a
+ * {@link GenerationalCache}, hence lookups do not require locking.
+ *
+ * @see org.jivesoftware.smack.SmackConfiguration#setJidCacheSize(int)
+ */
+public final class JidCache {
+
+    /**
+     * The default maximum number of cached JIDs: {@value}.
+     */
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private final GenerationalCache<String, Jid> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    JidCache(int maxSize) {
+        cache = new GenerationalCache<>(maxSize);
+    }
+
+    /**
+     * Lookup the JID cached for the given address.
+     *
+     * @param address the address.
+     * @return the cached JID or <code>null</code>.
+     */
+    public Jid lookup(String address) {
+        if (cache.getMaxSize() == 0) {
+            return null;
+        }
+        Jid jid = cache.get(address);
+        if (jid == null) {
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        return jid;
+    }
+
+    /**
+     * Add the given JID for the given address to the cache. If another thread added a JID for the same address in the
+     * meantime, then that JID is returned, so that all threads use the same instance.
+     *
+     * @param address the address.
+     * @param jid the JID created from the address.
+     * @return the interned JID.
+     */
+    public Jid intern(String address, Jid jid) {
+        Jid existing = cache.putIfAbsent(address, jid);
+        if (existing != null) {
+            return existing;
+        }
+        return jid;
+    }
+
+    /**
+     * Set the maximum number of cached JIDs. A size of <code>0</code> disables the cache.
+     *
+     * @param maxSize the maximum number of cached JIDs.
+     */
+    public void setMaxSize(int maxSize) {
+        cache.setMaxSize(maxSize);
+    }
+
+    /**
+     * Get the maximum number of cached JIDs.
+     *
+     * @return the maximum number of cached JIDs.
+     */
+    public int getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    /**
+     * Get the approximate number of cached JIDs.
+     *
+     * @return the number of cached JIDs.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of lookups which found a cached JID.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups which did not find a cached JID.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all cached JIDs. The hit and miss counters are not reset.
+     */
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -28,10 +28,12 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.compress.packet.Compress;
 import org.jivesoftware.smack.packet.EmptyResultIQ;
 import org.jivesoftware.smack.packet.ErrorIQ;
 import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.LazyExtensionElement;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.ExtensionElement;
@@ -280,7 +282,7 @@ public class PacketParserUtils {
                     message.setError(parseError(parser));
                     break;
                  default:
-                    PacketParserUtils.addExtensionElement(message, parser, elementName, namespace);
+                    addStanzaExtension(message, parser, elementName, namespace);
                     break;
                 }
                 break;
@@ -576,7 +578,7 @@ public class PacketParserUtils {
                     // Be extra robust: Skip PacketExtensions that cause Exceptions, instead of
                     // failing completely here. See SMACK-390 for more information.
                     try {
-                        PacketParserUtils.addExtensionElement(presence, parser, elementName, namespace);
+                        addStanzaExtension(presence, parser, elementName, namespace);
                     } catch (Exception e) {
                         LOGGER.warning("Failed to parse extension element in Presence stanza: \"" + e + "\" from: '"
                                         + presence.getFrom() + " id: '" + presence.getStanzaId() + "'");
@@ -1026,6 +1028,40 @@ public class PacketParserUtils {
         packet.addExtension(packetExtension);
     }
 
+    /**
+     * Add the extension element the parser is positioned at to the given message or presence. If lazy extension
+     * parsing is enabled, then the XML of the extension element is retained instead of parsing it.
+     *
+     * @see SmackConfiguration#setLazyExtensionParsing(boolean)
+     */
+    private static void addStanzaExtension(Stanza stanza, XmlPullParser parser, String elementName, String namespace)
+                    throws Exception {
+        if (SmackConfiguration.isLazyExtensionParsing() && canRetainXml(parser, namespace)) {
+            stanza.addExtension(new LazyExtensionElement(elementName, namespace, parseElement(parser)));
+            return;
+        }
+        addExtensionElement(stanza, parser, elementName, namespace);
+    }
+
+    /**
+     * Check if the XML of the element the parser is positioned at can be retained as it is, so that it can be parsed
+     * later on its own. This requires XML_ROUNDTRIP and that the element declares its namespace as default namespace,
+     * instead of inheriting it from the stanza or using a prefix.
+     */
+    private static boolean canRetainXml(XmlPullParser parser, String namespace) throws XmlPullParserException {
+        if (StringUtils.isNullOrEmpty(namespace) || parser.getPrefix() != null
+                        || !parser.getFeature(FEATURE_XML_ROUNDTRIP)) {
+            return false;
+        }
+        final int depth = parser.getDepth();
+        for (int i = parser.getNamespaceCount(depth - 1); i < parser.getNamespaceCount(depth); i++) {
+            if (parser.getNamespacePrefix(i) == null && namespace.equals(parser.getNamespaceUri(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static void addExtensionElement(Collection<ExtensionElement> collection,
                     XmlPullParser parser) throws Exception {
         addExtensionElement(collection, parser, parser.getName(), parser.getNamespace());
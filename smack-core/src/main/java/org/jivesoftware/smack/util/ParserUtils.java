@@ -41,6 +41,18 @@ public class ParserUtils {
      */
     public static final String JID = "jid";
 
+    private static final JidCache JID_CACHE = new JidCache(JidCache.DEFAULT_MAX_SIZE);
+
+    /**
+     * Get the cache interning the JIDs parsed by the JID attribute methods of this class.
+     *
+     * @return the JID cache.
+     * @see org.jivesoftware.smack.SmackConfiguration#setJidCacheSize(int)
+     */
+    public static JidCache getJidCache() {
+        return JID_CACHE;
+    }
+
     public static void assertAtStartTag(XmlPullParser parser) throws XmlPullParserException {
         assert(parser.getEventType() == XmlPullParser.START_TAG);
     }
@@ -71,7 +83,20 @@ public class ParserUtils {
         if (jidString == null) {
             return null;
         }
-        return JidCreate.from(jidString);
+        return internJid(jidString);
+    }
+
+    /**
+     * Lookup or intern the JID created by {@link JidCreate#from(String)} for the given address. Only those JIDs are
+     * cached, as the typed factories may create a different JID for the same address, e.g.
+     * {@link JidCreate#entityBareFrom(String)} drops the resource.
+     */
+    private static Jid internJid(String jidString) throws XmppStringprepException {
+        Jid jid = JID_CACHE.lookup(jidString);
+        if (jid != null) {
+            return jid;
+        }
+        return JID_CACHE.intern(jidString, JidCreate.from(jidString));
     }
 
     public static EntityBareJid getBareJidAttribute(XmlPullParser parser) throws XmppStringprepException {
@@ -83,6 +108,11 @@ public class ParserUtils {
         if (jidString == null) {
             return null;
         }
+        Jid jid = internJid(jidString);
+        if (jid instanceof EntityBareJid) {
+            return (EntityBareJid) jid;
+        }
+        // The address is not an entity bare JID, let JidCreate convert it or report that, without caching the result.
         return JidCreate.entityBareFrom(jidString);
     }
 
@@ -95,6 +125,10 @@ public class ParserUtils {
         if (jidString == null) {
             return null;
         }
+        Jid jid = internJid(jidString);
+        if (jid instanceof EntityFullJid) {
+            return (EntityFullJid) jid;
+        }
         return JidCreate.entityFullFrom(jidString);
     }
 
@@ -0,0 +1,260 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An executor which runs the submitted tasks one after another, in the order they were submitted, using an
+ * underlying executor. This allows to provide the ordering guarantee of a single threaded executor service without
+ * dedicating a thread to it, for example on top of a thread pool shared by many connections.
+ * <p>
+ * At most one task of a serial executor is run by the underlying executor at any time. In order to not starve other
+ * users of a shared thread pool, the serial executor hands its remaining tasks back to the underlying executor after
+ * a batch of tasks was run.
+ * </p>
+ */
+public final class SerialExecutor implements Executor {
+
+    private static final Logger LOGGER = Logger.getLogger(SerialExecutor.class.getName());
+
+    private static final int MAX_TASKS_PER_BATCH = 64;
+
+    private final Executor executor;
+
+    private final int bound;
+
+    private final String name;
+
+    private final Drainer drainer = new Drainer();
+
+    // The following fields are guarded by 'tasks'.
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private boolean scheduled;
+    private Thread drainingThread;
+    private final List<Runnable> notFullCallbacks = new ArrayList<>(1);
+
+    /**
+     * Create a new, unbounded, serial executor.
+     *
+     * @param executor the underlying executor.
+     * @param name the name of the serial executor, used for logging.
+     */
+    public SerialExecutor(Executor executor, String name) {
+        this(executor, 0, name);
+    }
+
+    /**
+     * Create a new serial executor.
+     *
+     * @param executor the underlying executor.
+     * @param bound the maximum number of queued tasks before {@link #executeBlocking(Runnable)} blocks, or
+     *        <code>0</code> if the number of queued tasks is not bounded.
+     * @param name the name of the serial executor, used for logging.
+     */
+    public SerialExecutor(Executor executor, int bound, String name) {
+        if (bound < 0) {
+            throw new IllegalArgumentException("bound must not be negative");
+        }
+        this.executor = Objects.requireNonNull(executor, "Executor must not be null");
+        this.bound = bound;
+        this.name = name;
+    }
+
+    /**
+     * Submit the given task. This method never blocks, the bound of this executor is not applied.
+     *
+     * @param task the task.
+     */
+    @Override
+    public void execute(Runnable task) {
+        synchronized (tasks) {
+            tasks.add(task);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Submit the given task, blocking while the number of queued tasks reached the bound of this executor. The bound
+     * is not applied if this method is invoked by a task of this executor, as this would cause a deadlock.
+     *
+     * @param task the task.
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public void executeBlocking(Runnable task) throws InterruptedException {
+        synchronized (tasks) {
+            while (isFull()) {
+                tasks.wait();
+            }
+            tasks.add(task);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Submit the given task if the number of queued tasks did not reach the bound of this executor. This method never
+     * blocks. Like {@link #executeBlocking(Runnable)}, the bound is not applied if this method is invoked by a task of
+     * this executor.
+     *
+     * @param task the task.
+     * @return <code>true</code> if the task was submitted, <code>false</code> if the executor is saturated.
+     * @see #whenNotFull(Runnable)
+     */
+    public boolean tryExecute(Runnable task) {
+        synchronized (tasks) {
+            if (isFull()) {
+                return false;
+            }
+            tasks.add(task);
+            if (scheduled) {
+                return true;
+            }
+            scheduled = true;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Invoke the given callback once this executor accepts tasks again, that is once the number of queued tasks
+     * dropped to half of the bound. If that is already the case, then the callback is invoked immediately by the
+     * calling thread. Otherwise it is invoked once by the thread running the tasks of this executor, hence the callback
+     * must not block.
+     *
+     * @param callback the callback.
+     * @see #tryExecute(Runnable)
+     */
+    public void whenNotFull(Runnable callback) {
+        synchronized (tasks) {
+            if (!hasDrainedToHalf()) {
+                notFullCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    // Must be called with 'tasks' locked.
+    private boolean isFull() {
+        return bound > 0 && tasks.size() >= bound && drainingThread != Thread.currentThread();
+    }
+
+    // Must be called with 'tasks' locked.
+    private boolean hasDrainedToHalf() {
+        return tasks.size() <= bound / 2;
+    }
+
+    /**
+     * Get the number of queued, i.e. not yet started, tasks.
+     *
+     * @return the number of queued tasks.
+     */
+    public int getQueuedTasks() {
+        synchronized (tasks) {
+            return tasks.size();
+        }
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(drainer);
+        }
+        catch (RejectedExecutionException e) {
+            synchronized (tasks) {
+                scheduled = false;
+            }
+            throw e;
+        }
+    }
+
+    private final class Drainer implements Runnable {
+        @Override
+        public void run() {
+            final Thread currentThread = Thread.currentThread();
+            Thread previousDrainingThread;
+            synchronized (tasks) {
+                // Not null if the underlying executor runs the drainer inline from within one of our tasks.
+                previousDrainingThread = drainingThread;
+                drainingThread = currentThread;
+            }
+            try {
+                for (int i = 0; i < MAX_TASKS_PER_BATCH; i++) {
+                    Runnable task;
+                    List<Runnable> callbacks = null;
+                    synchronized (tasks) {
+                        task = tasks.poll();
+                        if (task == null) {
+                            scheduled = false;
+                            return;
+                        }
+                        tasks.notifyAll();
+                        if (!notFullCallbacks.isEmpty() && hasDrainedToHalf()) {
+                            callbacks = new ArrayList<>(notFullCallbacks);
+                            notFullCallbacks.clear();
+                        }
+                    }
+                    if (callbacks != null) {
+                        for (Runnable callback : callbacks) {
+                            try {
+                                callback.run();
+                            }
+                            catch (Throwable t) {
+                                LOGGER.log(Level.SEVERE, "Exception in not full callback of " + name, t);
+                            }
+                        }
+                    }
+                    try {
+                        task.run();
+                    }
+                    catch (Throwable t) {
+                        LOGGER.log(Level.SEVERE, "Exception in task of " + name, t);
+                    }
+                }
+            }
+            finally {
+                synchronized (tasks) {
+                    drainingThread = previousDrainingThread;
+                }
+            }
+            // The batch is exhausted, hand the remaining tasks back to the underlying executor.
+            try {
+                executor.execute(this);
+            }
+            catch (RejectedExecutionException e) {
+                synchronized (tasks) {
+                    scheduled = false;
+                }
+                LOGGER.log(Level.WARNING, name + " could not reschedule its remaining tasks", e);
+            }
+        }
+    }
+}
@@ -101,7 +101,7 @@ public class StringUtils {
         return escapeForXml(input, XmlEscapeMode.forText);
     }
 
-    private enum XmlEscapeMode {
+    enum XmlEscapeMode {
         safe,
         forAttribute,
         forAttributeApos,
@@ -121,104 +121,117 @@ public class StringUtils {
             return null;
         }
         final int len = input.length();
-        final StringBuilder out = new StringBuilder((int)(len*1.3));
-        CharSequence toAppend;
-        char ch;
+        // Only allocate the StringBuilder once a character needs to be escaped, which is usually not the case.
+        StringBuilder out = null;
+        String toAppend;
         int last = 0;
-        int i = 0;
-        while (i < len) {
-            toAppend = null;
-            ch = input.charAt(i);
-            switch (xmlEscapeMode) {
-            case safe:
-                switch (ch) {
-                case '<':
-                    toAppend = LT_ENCODE;
-                    break;
-                case '>':
-                    toAppend = GT_ENCODE;
-                    break;
-                case '&':
-                    toAppend = AMP_ENCODE;
-                    break;
-                case '"':
-                    toAppend = QUOTE_ENCODE;
-                    break;
-                case '\'':
-                    toAppend = APOS_ENCODE;
-                    break;
-                default:
-                    break;
-                }
-                break;
-            case forAttribute:
-                // No need to escape '>' for attributes.
-                switch(ch) {
-                case '<':
-                    toAppend = LT_ENCODE;
-                    break;
-                case '&':
-                    toAppend = AMP_ENCODE;
-                    break;
-                case '"':
-                    toAppend = QUOTE_ENCODE;
-                    break;
-                case '\'':
-                    toAppend = APOS_ENCODE;
-                    break;
-                default:
-                    break;
-                }
-                break;
-            case forAttributeApos:
-                // No need to escape '>' and '"' for attributes using '\'' as quote.
-                switch(ch) {
-                case '<':
-                    toAppend = LT_ENCODE;
-                    break;
-                case '&':
-                    toAppend = AMP_ENCODE;
-                    break;
-                case '\'':
-                    toAppend = APOS_ENCODE;
-                    break;
-                default:
-                    break;
-                }
-                break;
-            case forText:
-                // No need to escape '"', '\'', and '>' for text.
-                switch(ch) {
-                case '<':
-                    toAppend = LT_ENCODE;
-                    break;
-                case '&':
-                    toAppend = AMP_ENCODE;
-                    break;
-                default:
-                    break;
-                }
-                break;
+        for (int i = 0; i < len; i++) {
+            toAppend = escapeForXml(input.charAt(i), xmlEscapeMode);
+            if (toAppend == null) {
+                continue;
             }
-            if (toAppend != null) {
-                if (i > last) {
-                    out.append(input, last, i);
-                }
-                out.append(toAppend);
-                last = ++i;
-            } else {
-                i++;
+            if (out == null) {
+                out = new StringBuilder((int) (len * 1.3));
             }
+            if (i > last) {
+                out.append(input, last, i);
+            }
+            out.append(toAppend);
+            last = i + 1;
         }
-        if (last == 0) {
+        if (out == null) {
             return input;
         }
-        if (i > last) {
-            out.append(input, last, i);
+        if (len > last) {
+            out.append(input, last, len);
         }
         return out;
     }
 
+    /**
+     * Escape <code>input</code> for XML, deferring the actual escaping until the result is written. If no character
+     * of the input needs to be escaped, then the input itself is returned. Otherwise the returned CharSequence is
+     * escaped while it is written to an {@link Utf8OutputBuffer}, without creating an intermediate String.
+     *
+     * @param input the String to escape.
+     * @param xmlEscapeMode the escape mode.
+     * @return the XML escaped variant of <code>input</code>.
+     */
+    static CharSequence escapeForXmlLazily(final String input, final XmlEscapeMode xmlEscapeMode) {
+        final int len = input.length();
+        for (int i = 0; i < len; i++) {
+            if (escapeForXml(input.charAt(i), xmlEscapeMode) != null) {
+                return new XmlEscapedText(input, xmlEscapeMode);
+            }
+        }
+        return input;
+    }
+
+    /**
+     * Get the escaped representation of the given character.
+     *
+     * @param ch the character.
+     * @param xmlEscapeMode the escape mode.
+     * @return the escaped representation of the character, or <code>null</code> if it does not need to be escaped.
+     */
+    static String escapeForXml(final char ch, final XmlEscapeMode xmlEscapeMode) {
+        switch (xmlEscapeMode) {
+        case safe:
+            switch (ch) {
+            case '<':
+                return LT_ENCODE;
+            case '>':
+                return GT_ENCODE;
+            case '&':
+                return AMP_ENCODE;
+            case '"':
+                return QUOTE_ENCODE;
+            case '\'':
+                return APOS_ENCODE;
+            default:
+                return null;
+            }
+        case forAttribute:
+            // No need to escape '>' for attributes.
+            switch (ch) {
+            case '<':
+                return LT_ENCODE;
+            case '&':
+                return AMP_ENCODE;
+            case '"':
+                return QUOTE_ENCODE;
+            case '\'':
+                return APOS_ENCODE;
+            default:
+                return null;
+            }
+        case forAttributeApos:
+            // No need to escape '>' and '"' for attributes using '\'' as quote.
+            switch (ch) {
+            case '<':
+                return LT_ENCODE;
+            case '&':
+                return AMP_ENCODE;
+            case '\'':
+                return APOS_ENCODE;
+            default:
+                return null;
+            }
+        case forText:
+            // No need to escape '"', '\'', and '>' for text.
+            switch (ch) {
+            case '<':
+                return LT_ENCODE;
+            case '&':
+                return AMP_ENCODE;
+            default:
+                return null;
+            }
+        default:
+            throw new AssertionError();
+        }
+    }
+
     /**
      * Hashes a String using the SHA-1 algorithm and returns the result as a
      * String of hexadecimal numbers. This method is synchronized to avoid
@@ -27,6 +27,7 @@ import java.util.Set;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
@@ -127,45 +128,66 @@ public class TLSUtils {
                     String[] enabledProtocols, String[] enabledCiphers)
                     throws SecurityNotPossibleException {
         if (enabledProtocols != null) {
-            Set<String> enabledProtocolsSet = new HashSet<String>(Arrays.asList(enabledProtocols));
-            Set<String> supportedProtocolsSet = new HashSet<String>(
-                            Arrays.asList(sslSocket.getSupportedProtocols()));
-            Set<String> protocolsIntersection = new HashSet<String>(supportedProtocolsSet);
-            protocolsIntersection.retainAll(enabledProtocolsSet);
-            if (protocolsIntersection.isEmpty()) {
-                throw new SecurityNotPossibleException("Request to enable SSL/TLS protocols '"
-                                + StringUtils.collectionToString(enabledProtocolsSet)
-                                + "', but only '"
-                                + StringUtils.collectionToString(supportedProtocolsSet)
-                                + "' are supported.");
-            }
-
-            // Set the enabled protocols
-            enabledProtocols = new String[protocolsIntersection.size()];
-            enabledProtocols = protocolsIntersection.toArray(enabledProtocols);
+            enabledProtocols = intersectProtocols(enabledProtocols, sslSocket.getSupportedProtocols());
             sslSocket.setEnabledProtocols(enabledProtocols);
         }
 
         if (enabledCiphers != null) {
-            Set<String> enabledCiphersSet = new HashSet<String>(Arrays.asList(enabledCiphers));
-            Set<String> supportedCiphersSet = new HashSet<String>(
-                            Arrays.asList(sslSocket.getEnabledCipherSuites()));
-            Set<String> ciphersIntersection = new HashSet<String>(supportedCiphersSet);
-            ciphersIntersection.retainAll(enabledCiphersSet);
-            if (ciphersIntersection.isEmpty()) {
-                throw new SecurityNotPossibleException("Request to enable SSL/TLS ciphers '"
-                                + StringUtils.collectionToString(enabledCiphersSet)
-                                + "', but only '"
-                                + StringUtils.collectionToString(supportedCiphersSet)
-                                + "' are supported.");
-            }
-
-            enabledCiphers = new String[ciphersIntersection.size()];
-            enabledCiphers = ciphersIntersection.toArray(enabledCiphers);
+            enabledCiphers = intersectCiphers(enabledCiphers, sslSocket.getEnabledCipherSuites());
             sslSocket.setEnabledCipherSuites(enabledCiphers);
         }
     }
 
+    public static void setEnabledProtocolsAndCiphers(final SSLEngine sslEngine,
+                    String[] enabledProtocols, String[] enabledCiphers)
+                    throws SecurityNotPossibleException {
+        if (enabledProtocols != null) {
+            enabledProtocols = intersectProtocols(enabledProtocols, sslEngine.getSupportedProtocols());
+            sslEngine.setEnabledProtocols(enabledProtocols);
+        }
+
+        if (enabledCiphers != null) {
+            enabledCiphers = intersectCiphers(enabledCiphers, sslEngine.getEnabledCipherSuites());
+            sslEngine.setEnabledCipherSuites(enabledCiphers);
+        }
+    }
+
+    private static String[] intersectProtocols(String[] enabledProtocols, String[] supportedProtocols)
+                    throws SecurityNotPossibleException {
+        Set<String> enabledProtocolsSet = new HashSet<String>(Arrays.asList(enabledProtocols));
+        Set<String> supportedProtocolsSet = new HashSet<String>(Arrays.asList(supportedProtocols));
+        Set<String> protocolsIntersection = new HashSet<String>(supportedProtocolsSet);
+        protocolsIntersection.retainAll(enabledProtocolsSet);
+        if (protocolsIntersection.isEmpty()) {
+            throw new SecurityNotPossibleException("Request to enable SSL/TLS protocols '"
+                            + StringUtils.collectionToString(enabledProtocolsSet)
+                            + "', but only '"
+                            + StringUtils.collectionToString(supportedProtocolsSet)
+                            + "' are supported.");
+        }
+
+        String[] result = new String[protocolsIntersection.size()];
+        return protocolsIntersection.toArray(result);
+    }
+
+    private static String[] intersectCiphers(String[] enabledCiphers, String[] supportedCiphers)
+                    throws SecurityNotPossibleException {
+        Set<String> enabledCiphersSet = new HashSet<String>(Arrays.asList(enabledCiphers));
+        Set<String> supportedCiphersSet = new HashSet<String>(Arrays.asList(supportedCiphers));
+        Set<String> ciphersIntersection = new HashSet<String>(supportedCiphersSet);
+        ciphersIntersection.retainAll(enabledCiphersSet);
+        if (ciphersIntersection.isEmpty()) {
+            throw new SecurityNotPossibleException("Request to enable SSL/TLS ciphers '"
+                            + StringUtils.collectionToString(enabledCiphersSet)
+                            + "', but only '"
+                            + StringUtils.collectionToString(supportedCiphersSet)
+                            + "' are supported.");
+        }
+
+        String[] result = new String[ciphersIntersection.size()];
+        return ciphersIntersection.toArray(result);
+    }
+
     /**
      * A {@link X509TrustManager} that <b>doesn't validate</b> X.509 certificates.
      * <p>
@@ -0,0 +1,263 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.jivesoftware.smack.packet.Element;
+
+/**
+ * A reusable buffer which UTF-8 encodes the XML of stream elements directly into a byte array. Unlike writing the
+ * result of {@link Element#toXML()} via a {@link java.io.Writer}, no intermediate String or char array of the whole
+ * element is created: the parts of an {@link XmlStringBuilder} are encoded one by one, and text which needs to be
+ * escaped is escaped while it is encoded.
+ * <p>
+ * The buffer is meant to be owned by a single writer and reused for all elements it writes. It is not thread safe.
+ * </p>
+ */
+public final class Utf8OutputBuffer {
+
+    private static final int MAX_RECYCLED_ARRAYS = 4;
+
+    private final int initialCapacity;
+
+    private final int maxRetainedCapacity;
+
+    private final Deque<byte[]> recycledArrays = new ArrayDeque<>(MAX_RECYCLED_ARRAYS);
+
+    private byte[] buffer;
+
+    private int count;
+
+    /**
+     * Create a new buffer.
+     *
+     * @param initialCapacity the initial capacity in bytes.
+     */
+    public Utf8OutputBuffer(int initialCapacity) {
+        this(initialCapacity, 4 * initialCapacity);
+    }
+
+    /**
+     * Create a new buffer.
+     *
+     * @param initialCapacity the initial capacity in bytes.
+     * @param maxRetainedCapacity the maximum capacity in bytes which is retained by {@link #reset()}, a grown buffer
+     *        is replaced by a new one of the initial capacity.
+     */
+    public Utf8OutputBuffer(int initialCapacity, int maxRetainedCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initialCapacity must be greater than 0");
+        }
+        this.initialCapacity = initialCapacity;
+        this.maxRetainedCapacity = Math.max(initialCapacity, maxRetainedCapacity);
+        buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Append the XML representation of the given element.
+     *
+     * @param element the element.
+     * @return a reference to this buffer.
+     */
+    public Utf8OutputBuffer append(Element element) {
+        return append(element.toXML());
+    }
+
+    /**
+     * Append the given characters.
+     *
+     * @param csq the characters.
+     * @return a reference to this buffer.
+     */
+    public Utf8OutputBuffer append(CharSequence csq) {
+        if (csq instanceof XmlStringBuilder) {
+            ((XmlStringBuilder) csq).write(this);
+        }
+        else if (csq instanceof LazyStringBuilder) {
+            for (CharSequence part : ((LazyStringBuilder) csq).getAsList()) {
+                append(part);
+            }
+        }
+        else if (csq instanceof XmlEscapedText) {
+            XmlEscapedText escapedText = (XmlEscapedText) csq;
+            appendEscaped(escapedText.text, escapedText.xmlEscapeMode);
+        }
+        else {
+            encode(csq, 0, csq.length());
+        }
+        return this;
+    }
+
+    private void appendEscaped(String text, StringUtils.XmlEscapeMode xmlEscapeMode) {
+        final int length = text.length();
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            String replacement = StringUtils.escapeForXml(text.charAt(i), xmlEscapeMode);
+            if (replacement != null) {
+                encode(text, last, i);
+                encode(replacement, 0, replacement.length());
+                last = i + 1;
+            }
+        }
+        encode(text, last, length);
+    }
+
+    private void encode(CharSequence csq, int start, int end) {
+        // Every char needs at least one byte.
+        ensureCapacity(end - start);
+        int i = start;
+        // Fast path for ASCII, which is the vast majority of XMPP traffic.
+        for (; i < end; i++) {
+            char c = csq.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            buffer[count++] = (byte) c;
+        }
+        for (; i < end; i++) {
+            char c = csq.charAt(i);
+            // Every char needs at most three bytes, a surrogate pair needs four bytes.
+            ensureCapacity(4);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(csq.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, csq.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            }
+            else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replace it like the UTF-8 encoder of the JRE does.
+                buffer[count++] = (byte) '?';
+            }
+            else {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void ensureCapacity(int additionalBytes) {
+        int required = count + additionalBytes;
+        if (required <= buffer.length) {
+            return;
+        }
+        int newCapacity = Math.max(buffer.length * 2, required);
+        byte[] newBuffer = new byte[newCapacity];
+        System.arraycopy(buffer, 0, newBuffer, 0, count);
+        buffer = newBuffer;
+    }
+
+    /**
+     * Get the number of bytes in this buffer.
+     *
+     * @return the number of bytes.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Check if this buffer is empty.
+     *
+     * @return <code>true</code> if this buffer is empty.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Write the content of this buffer to the given output stream and reset the buffer.
+     *
+     * @param outputStream the output stream.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(buffer, 0, count);
+        reset();
+    }
+
+    /**
+     * Discard the content of this buffer. If the buffer has grown beyond the maximum retained capacity, then it is
+     * replaced by a buffer of the initial capacity.
+     */
+    public void reset() {
+        count = 0;
+        if (buffer.length > maxRetainedCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+    }
+
+    /**
+     * Detach the content of this buffer as byte buffer, without copying it. This buffer continues with a new, or a
+     * recycled, byte array. The returned byte buffer may be returned with {@link #recycle(ByteBuffer)} once it is no
+     * longer used.
+     *
+     * @return a byte buffer containing the content of this buffer.
+     */
+    public ByteBuffer detach() {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, count);
+        byte[] newBuffer = recycledArrays.poll();
+        buffer = newBuffer != null ? newBuffer : new byte[initialCapacity];
+        count = 0;
+        return byteBuffer;
+    }
+
+    /**
+     * Recycle a byte buffer, obtained by {@link #detach()}, which is no longer used.
+     *
+     * @param byteBuffer the byte buffer.
+     */
+    public void recycle(ByteBuffer byteBuffer) {
+        if (!byteBuffer.hasArray() || recycledArrays.size() >= MAX_RECYCLED_ARRAYS) {
+            return;
+        }
+        byte[] array = byteBuffer.array();
+        if (array.length < initialCapacity || array.length > maxRetainedCapacity) {
+            return;
+        }
+        recycledArrays.add(array);
+    }
+
+    /**
+     * Get the content of this buffer decoded as String. Mostly useful for debugging and testing.
+     *
+     * @return the content of this buffer as String.
+     */
+    @Override
+    public String toString() {
+        try {
+            return new String(buffer, 0, count, StringUtils.UTF8);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+/**
+ * A String which still needs to be escaped for XML. It is escaped on demand, i.e. once its String representation is
+ * requested, or while it is written to an {@link Utf8OutputBuffer}.
+ */
+final class XmlEscapedText implements CharSequence {
+
+    final String text;
+
+    final StringUtils.XmlEscapeMode xmlEscapeMode;
+
+    private String escaped;
+
+    XmlEscapedText(String text, StringUtils.XmlEscapeMode xmlEscapeMode) {
+        this.text = text;
+        this.xmlEscapeMode = xmlEscapeMode;
+    }
+
+    @Override
+    public int length() {
+        if (escaped != null) {
+            return escaped.length();
+        }
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement = StringUtils.escapeForXml(text.charAt(i), xmlEscapeMode);
+            length += replacement != null ? replacement.length() : 1;
+        }
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (escaped == null) {
+            StringBuilder sb = new StringBuilder(length());
+            int last = 0;
+            for (int i = 0; i < text.length(); i++) {
+                String replacement = StringUtils.escapeForXml(text.charAt(i), xmlEscapeMode);
+                if (replacement != null) {
+                    sb.append(text, last, i).append(replacement);
+                    last = i + 1;
+                }
+            }
+            sb.append(text, last, text.length());
+            escaped = sb.toString();
+        }
+        return escaped;
+    }
+}
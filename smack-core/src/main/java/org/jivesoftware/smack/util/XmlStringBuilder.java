@@ -361,13 +361,13 @@ public class XmlStringBuilder implements Appendable, CharSequence {
 
     public XmlStringBuilder escape(String text) {
         assert text != null;
-        sb.append(StringUtils.escapeForXml(text));
+        sb.append(StringUtils.escapeForXmlLazily(text, StringUtils.XmlEscapeMode.safe));
         return this;
     }
 
     public XmlStringBuilder escapeAttributeValue(String value) {
         assert value != null;
-        sb.append(StringUtils.escapeForXmlAttributeApos(value));
+        sb.append(StringUtils.escapeForXmlLazily(value, StringUtils.XmlEscapeMode.forAttributeApos));
         return this;
     }
 
@@ -514,4 +514,17 @@ public class XmlStringBuilder implements Appendable, CharSequence {
             }
         }
     }
+
+    /**
+     * Write the contents of this <code>XmlStringBuilder</code> UTF-8 encoded to a {@link Utf8OutputBuffer}. Like
+     * {@link #write(Writer)}, this writes the single parts one-by-one. Additionally text is escaped while it is
+     * written, so no intermediate String is created at all.
+     *
+     * @param buffer the buffer to write to.
+     */
+    public void write(Utf8OutputBuffer buffer) {
+        for (CharSequence csq : sb.getAsList()) {
+            buffer.append(csq);
+        }
+    }
 }
@@ -0,0 +1,411 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * An incremental splitter for UTF-8 encoded XMPP streams. The stream data may be fed to the splitter in arbitrary
+ * chunks, as they arrive e.g. from a non-blocking channel or as BOSH response body, and the splitter invokes its
+ * {@link Callback} once the stream open tag, a complete top level element, or the stream close tag was read.
+ * <p>
+ * The splitter works on the raw bytes. This is possible because all characters relevant for XML markup are ASCII
+ * characters, and in UTF-8 the bytes of multi-byte sequences never collide with ASCII characters. The top level
+ * elements are then parsed with a parser obtained from {@link #getParserFor(String)}, which provides the namespace
+ * context of the stream open tag. This means that {@link PacketParserUtils} and all registered providers can be used
+ * to parse them.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe.
+ * </p>
+ */
+public final class XmppElementSplitter {
+
+    /**
+     * Callback invoked by the {@link XmppElementSplitter}.
+     */
+    public interface Callback {
+
+        /**
+         * Invoked once the stream open tag was read, e.g. <code>&lt;stream:stream ...&gt;</code>.
+         *
+         * @param streamOpen the stream open tag.
+         * @throws Exception
+         */
+        void onStreamOpen(String streamOpen) throws Exception;
+
+        /**
+         * Invoked for every complete top level element of the stream.
+         *
+         * @param element the XML of the top level element.
+         * @throws Exception
+         */
+        void onTopLevelElement(String element) throws Exception;
+
+        /**
+         * Invoked once the stream close tag was read.
+         *
+         * @throws Exception
+         */
+        void onStreamClose() throws Exception;
+    }
+
+    /**
+     * The default maximum size of a top level element in bytes.
+     */
+    public static final int DEFAULT_MAX_ELEMENT_SIZE = 10 * 1024 * 1024;
+
+    private enum State {
+        START,
+        TAG_START,
+        START_TAG,
+        ATTRIBUTE_VALUE,
+        END_TAG,
+        PROCESSING_INSTRUCTION,
+        MARKUP_DECLARATION,
+        COMMENT,
+        CDATA,
+    }
+
+    private final Callback callback;
+
+    private final int maxElementSize;
+
+    private byte[] buffer = new byte[1024];
+    private int bufferLength;
+
+    private State state;
+    private int depth;
+    private byte quote;
+    private byte previous;
+    private int endMarkerMatched;
+
+    private String streamOpen;
+    private String streamClose;
+    private XmlPullParser parser;
+
+    /**
+     * Create a new splitter with {@link #DEFAULT_MAX_ELEMENT_SIZE}.
+     *
+     * @param callback the callback to invoke.
+     */
+    public XmppElementSplitter(Callback callback) {
+        this(callback, DEFAULT_MAX_ELEMENT_SIZE);
+    }
+
+    /**
+     * Create a new splitter.
+     *
+     * @param callback the callback to invoke.
+     * @param maxElementSize the maximum size of a top level element in bytes.
+     */
+    public XmppElementSplitter(Callback callback, int maxElementSize) {
+        this.callback = Objects.requireNonNull(callback, "Callback must not be null");
+        this.maxElementSize = maxElementSize;
+        reset();
+    }
+
+    /**
+     * Reset the splitter. The next bytes must be the start of a new XML stream. It is safe to call this method from
+     * within the callback, e.g. when the stream is restarted after a successful SASL authentication.
+     */
+    public void reset() {
+        bufferLength = 0;
+        state = State.START;
+        depth = 0;
+        previous = 0;
+    }
+
+    /**
+     * Write the remaining bytes of the given buffer to the splitter.
+     *
+     * @param byteBuffer the buffer.
+     * @throws IOException if a top level element exceeds the maximum size.
+     * @throws Exception if the callback throws an exception.
+     */
+    public void write(ByteBuffer byteBuffer) throws Exception {
+        if (byteBuffer.hasArray()) {
+            int position = byteBuffer.position();
+            int length = byteBuffer.remaining();
+            byteBuffer.position(position + length);
+            write(byteBuffer.array(), byteBuffer.arrayOffset() + position, length);
+            return;
+        }
+        while (byteBuffer.hasRemaining()) {
+            process(byteBuffer.get());
+        }
+    }
+
+    /**
+     * Write the given bytes to the splitter.
+     *
+     * @param bytes the bytes.
+     * @param offset the offset of the first byte.
+     * @param length the number of bytes.
+     * @throws IOException if a top level element exceeds the maximum size.
+     * @throws Exception if the callback throws an exception.
+     */
+    public void write(byte[] bytes, int offset, int length) throws Exception {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            process(bytes[i]);
+        }
+    }
+
+    /**
+     * Get the last stream open tag.
+     *
+     * @return the last stream open tag or <code>null</code>.
+     */
+    public String getStreamOpen() {
+        return streamOpen;
+    }
+
+    /**
+     * Get a parser for the given top level element of the stream. The parser is positioned at the start tag of the
+     * element and provides the namespace context of the stream open tag.
+     * <p>
+     * Note that the splitter re-uses the parser instance, the returned parser becomes invalid once this method is
+     * called again.
+     * </p>
+     *
+     * @param element the top level element.
+     * @return a parser positioned at the start tag of the element.
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    public XmlPullParser getParserFor(String element) throws XmlPullParserException, IOException {
+        XmlPullParser parser = getParserForStreamOpen(element);
+        // Advance the parser from the stream open tag to the top level element
+        int event = parser.next();
+        while (event != XmlPullParser.START_TAG) {
+            if (event == XmlPullParser.END_DOCUMENT) {
+                throw new IllegalArgumentException("Element contains no start tag");
+            }
+            event = parser.next();
+        }
+        return parser;
+    }
+
+    /**
+     * Get a parser positioned at the stream open tag. This is useful to process the attributes of the stream open
+     * tag.
+     * <p>
+     * Note that the splitter re-uses the parser instance, the returned parser becomes invalid once this method is
+     * called again.
+     * </p>
+     *
+     * @return a parser positioned at the stream open tag.
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    public XmlPullParser getParserForStreamOpen() throws XmlPullParserException, IOException {
+        return getParserForStreamOpen("");
+    }
+
+    private XmlPullParser getParserForStreamOpen(String element) throws XmlPullParserException, IOException {
+        if (streamOpen == null) {
+            throw new IllegalStateException("No stream open tag received");
+        }
+        if (parser == null) {
+            parser = PacketParserUtils.newXmppParser();
+        }
+        parser.setInput(new StringReader(streamOpen + element + streamClose));
+        int event = parser.getEventType();
+        while (event != XmlPullParser.START_TAG) {
+            event = parser.next();
+        }
+        return parser;
+    }
+
+    private void process(byte b) throws Exception {
+        if (b == '<' && state == State.START) {
+            if (depth <= 1) {
+                // A new top level element, or the stream open/close tag, starts. Begin capturing.
+                bufferLength = 0;
+            }
+            append(b);
+            state = State.TAG_START;
+            previous = b;
+            return;
+        }
+        if (depth > 1 || state != State.START) {
+            append(b);
+        }
+
+        switch (state) {
+        case START:
+            break;
+        case TAG_START:
+            switch (b) {
+            case '/':
+                state = State.END_TAG;
+                break;
+            case '?':
+                state = State.PROCESSING_INSTRUCTION;
+                break;
+            case '!':
+                state = State.MARKUP_DECLARATION;
+                break;
+            default:
+                state = State.START_TAG;
+                break;
+            }
+            break;
+        case START_TAG:
+            switch (b) {
+            case '\'':
+            case '"':
+                quote = b;
+                state = State.ATTRIBUTE_VALUE;
+                break;
+            case '>':
+                state = State.START;
+                if (previous == '/') {
+                    onEmptyElement();
+                } else {
+                    onStartTag();
+                }
+                break;
+            default:
+                break;
+            }
+            break;
+        case ATTRIBUTE_VALUE:
+            if (b == quote) {
+                state = State.START_TAG;
+            }
+            break;
+        case END_TAG:
+            if (b == '>') {
+                state = State.START;
+                onEndTag();
+            }
+            break;
+        case PROCESSING_INSTRUCTION:
+            if (b == '>' && previous == '?') {
+                state = State.START;
+            }
+            break;
+        case MARKUP_DECLARATION:
+            if (b == '-') {
+                state = State.COMMENT;
+            } else if (b == '[') {
+                state = State.CDATA;
+            } else {
+                throw new IOException("Document type declarations are not allowed in XMPP streams");
+            }
+            endMarkerMatched = 0;
+            break;
+        case COMMENT:
+            if (matchEndMarker(b, "-->")) {
+                state = State.START;
+            }
+            break;
+        case CDATA:
+            if (matchEndMarker(b, "]]>")) {
+                state = State.START;
+            }
+            break;
+        }
+        previous = b;
+    }
+
+    private boolean matchEndMarker(byte b, String marker) {
+        final char markerStart = marker.charAt(0);
+        if (b == marker.charAt(endMarkerMatched)) {
+            endMarkerMatched++;
+            return endMarkerMatched == marker.length();
+        }
+        if (endMarkerMatched == marker.length() - 1 && b == markerStart) {
+            // E.g. "--->" or "]]]>", the marker may still match shifted by one.
+            return false;
+        }
+        endMarkerMatched = b == markerStart ? 1 : 0;
+        return false;
+    }
+
+    private void onStartTag() throws Exception {
+        depth++;
+        if (depth == 1) {
+            streamOpen = currentBufferAsString();
+            streamClose = "</" + getQualifiedName(streamOpen) + '>';
+            bufferLength = 0;
+            callback.onStreamOpen(streamOpen);
+        }
+    }
+
+    private void onEmptyElement() throws Exception {
+        if (depth == 1) {
+            onTopLevelElement();
+        }
+    }
+
+    private void onEndTag() throws Exception {
+        depth--;
+        if (depth == 1) {
+            onTopLevelElement();
+        } else if (depth == 0) {
+            bufferLength = 0;
+            callback.onStreamClose();
+        }
+    }
+
+    private void onTopLevelElement() throws Exception {
+        String element = currentBufferAsString();
+        bufferLength = 0;
+        callback.onTopLevelElement(element);
+    }
+
+    private void append(byte b) throws IOException {
+        if (bufferLength == buffer.length) {
+            if (bufferLength >= maxElementSize) {
+                throw new IOException("Top level element exceeds the maximum size of " + maxElementSize + " bytes");
+            }
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxElementSize));
+        }
+        buffer[bufferLength++] = b;
+    }
+
+    private String currentBufferAsString() {
+        try {
+            return new String(buffer, 0, bufferLength, StringUtils.UTF8);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String getQualifiedName(String startTag) {
+        int end = 1;
+        while (end < startTag.length()) {
+            char c = startTag.charAt(end);
+            if (Character.isWhitespace(c) || c == '>' || c == '/') {
+                break;
+            }
+            end++;
+        }
+        return startTag.substring(1, end);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.TestIQ;
+import org.junit.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class IQResponseTableTest {
+
+    private static IQ createRequest() {
+        IQ request = new TestIQ("query", "urn:example:test");
+        request.setTo(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        return request;
+    }
+
+    @Test
+    public void shouldDeliverResponseToCollector() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        IQ request = createRequest();
+        PacketCollector collector = connection.createPacketCollectorAndSend(request);
+
+        IQ response = IQ.createResultIQ(request);
+        connection.processStanza(response);
+
+        assertSame(response, collector.nextResultOrThrow());
+    }
+
+    @Test
+    public void shouldIgnoreSpoofedResponse() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        IQ request = createRequest();
+        PacketCollector collector = connection.createPacketCollectorAndSend(request);
+
+        IQ spoofedResponse = IQ.createResultIQ(request);
+        spoofedResponse.setFrom(JidTestUtil.BARE_JID_2);
+        connection.processStanza(spoofedResponse);
+        assertNull(collector.pollResult());
+
+        IQ response = IQ.createResultIQ(request);
+        connection.processStanza(response);
+        assertSame(response, collector.nextResultOrThrow());
+    }
+
+    @Test
+    public void shouldInvokeResponseCallback() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        IQ request = createRequest();
+        final BlockingQueue<Stanza> responses = new LinkedBlockingQueue<>();
+        connection.sendIqWithResponseCallback(request, new StanzaListener() {
+            @Override
+            public void processPacket(Stanza packet) {
+                responses.add(packet);
+            }
+        });
+
+        IQ response = IQ.createResultIQ(request);
+        connection.processStanza(response);
+        assertSame(response, responses.poll(5, TimeUnit.SECONDS));
+
+        // A second response must not be delivered, the request is no longer pending.
+        connection.processStanza(IQ.createResultIQ(request));
+        assertNull(responses.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldInvokeExceptionCallbackOnTimeout() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        final BlockingQueue<Exception> exceptions = new LinkedBlockingQueue<>();
+        connection.sendIqWithResponseCallback(createRequest(), new StanzaListener() {
+            @Override
+            public void processPacket(Stanza packet) {
+            }
+        }, new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                exceptions.add(exception);
+            }
+        }, 1);
+
+        Exception exception = exceptions.poll(5, TimeUnit.SECONDS);
+        assertTrue(exception instanceof NoResponseException);
+        assertEquals(0, exceptions.size());
+    }
+}
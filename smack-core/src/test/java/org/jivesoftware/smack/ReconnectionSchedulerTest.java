@@ -0,0 +1,88 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.HashedWheelTimer;
+import org.junit.Test;
+
+public class ReconnectionSchedulerTest {
+
+    @Test
+    public void shouldLimitConcurrentAttemptsAndPreferResumableOnes() throws InterruptedException {
+        ReconnectionScheduler scheduler = new ReconnectionScheduler(
+                        new HashedWheelTimer("Test Timer", 10, TimeUnit.MILLISECONDS, 8));
+        scheduler.setMaxConcurrentAttempts(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocking.await();
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                order.add("first");
+                done.countDown();
+            }
+        }, false);
+        scheduler.submit(newAttempt("fresh", order, done), false);
+        scheduler.submit(newAttempt("resumable", order, done), true);
+        assertEquals(1, scheduler.getRunningAttempts());
+        assertEquals(2, scheduler.getQueuedAttempts());
+
+        blocking.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "resumable", "fresh"), order);
+        assertEquals(3, scheduler.getAttempts());
+    }
+
+    @Test
+    public void shouldRecordTimeToReconnect() {
+        ReconnectionScheduler scheduler = new ReconnectionScheduler(
+                        new HashedWheelTimer("Test Timer", 10, TimeUnit.MILLISECONDS, 8));
+        scheduler.reconnected(100, false);
+        scheduler.reconnected(300, true);
+        assertEquals(2, scheduler.getReconnections());
+        assertEquals(1, scheduler.getResumedReconnections());
+        assertEquals(200, scheduler.getAverageTimeToReconnect());
+        assertEquals(300, scheduler.getMaxTimeToReconnect());
+    }
+
+    private static Runnable newAttempt(final String name, final List<String> order, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+}
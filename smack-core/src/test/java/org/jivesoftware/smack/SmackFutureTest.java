@@ -0,0 +1,186 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.TestIQ;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.junit.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class SmackFutureTest {
+
+    @Test
+    public void shouldInvokeCallbacksOnCompletion() {
+        final StringBuilder events = new StringBuilder();
+        SmackFuture<String> future = new SmackFuture<>();
+        future.onSuccess(new SuccessCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                events.append(result);
+            }
+        }).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                events.append("error");
+            }
+        });
+        assertEquals(0, events.length());
+
+        assertTrue(future.complete("foo"));
+        assertFalse(future.complete("bar"));
+        assertFalse(future.completeExceptionally(new Exception()));
+        assertEquals("foo", events.toString());
+
+        // Callbacks registered after the completion are invoked immediately.
+        future.onSuccess(new SuccessCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                events.append(result);
+            }
+        });
+        assertEquals("foofoo", events.toString());
+    }
+
+    @Test
+    public void shouldThrowExceptionFromGet() throws InterruptedException {
+        Exception exception = new Exception();
+        SmackFuture<String> future = SmackFuture.forException(exception);
+        try {
+            future.get();
+            fail("Expected an ExecutionException");
+        }
+        catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        try {
+            future.getOrThrow();
+            fail("Expected a SmackException");
+        }
+        catch (SmackException | XMPPException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @Test
+    public void shouldApplyTransformer() throws Exception {
+        SmackFuture<Integer> future = new SmackFuture<>();
+        SmackFuture<String> transformed = future.thenApply(new SmackFuture.Transformer<Integer, String>() {
+            @Override
+            public String transform(Integer result) {
+                return "#" + result;
+            }
+        });
+        future.complete(42);
+        assertEquals("#42", transformed.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldCompose() throws Exception {
+        SmackFuture<Integer> future = new SmackFuture<>();
+        final SmackFuture<String> continuationFuture = new SmackFuture<>();
+        SmackFuture<String> composed = future.thenCompose(new SmackFuture.Continuation<Integer, String>() {
+            @Override
+            public SmackFuture<String> continueWith(Integer result) {
+                return continuationFuture;
+            }
+        });
+        future.complete(42);
+        assertFalse(composed.isDone());
+
+        continuationFuture.complete("done");
+        assertEquals("done", composed.getOrThrow());
+    }
+
+    @Test
+    public void shouldCombineAll() throws Exception {
+        SmackFuture<String> first = new SmackFuture<>();
+        SmackFuture<String> second = new SmackFuture<>();
+        SmackFuture<List<String>> all = SmackFuture.allOf(Arrays.asList(first, second));
+
+        second.complete("second");
+        assertFalse(all.isDone());
+        first.complete("first");
+        assertEquals(Arrays.asList("first", "second"), all.getOrThrow());
+    }
+
+    @Test
+    public void shouldCompleteIqRequest() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        IQ request = new TestIQ("query", "urn:example:test");
+        request.setTo(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        SmackFuture<IQ> future = connection.sendIqRequestAsync(request);
+        assertFalse(future.isDone());
+
+        IQ response = IQ.createResultIQ(request);
+        connection.processStanza(response);
+        assertSame(response, future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = XMPPErrorException.class)
+    public void shouldFailIqRequestWithErrorResponse() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        IQ request = new TestIQ("query", "urn:example:test");
+        request.setTo(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        SmackFuture<IQ> future = connection.sendIqRequestAsync(request);
+
+        connection.processStanza(IQ.createErrorResponse(request, XMPPError.Condition.item_not_found));
+        future.getOrThrow();
+    }
+
+    @Test(expected = NoResponseException.class)
+    public void shouldFailIqRequestOnTimeout() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        IQ request = new TestIQ("query", "urn:example:test");
+        request.setTo(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        connection.sendIqRequestAsync(request, 1).getOrThrow();
+    }
+
+    @Test
+    public void shouldNotRunTimeoutCallbacksOnTimerThreadWithInlineExecutor() throws Exception {
+        DummyConnection connection = new DummyConnection(DummyConnection.getDummyConfigurationBuilder()
+                        .setExecutorProvider(ExecutorProviders.inline()).build());
+        connection.connect();
+        connection.login();
+        IQ request = new TestIQ("query", "urn:example:test");
+        request.setTo(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        final BlockingQueue<Thread> callbackThreads = new LinkedBlockingQueue<>();
+        connection.sendIqRequestAsync(request, 1).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                callbackThreads.add(Thread.currentThread());
+            }
+        });
+        Thread callbackThread = callbackThreads.poll(5, TimeUnit.SECONDS);
+        assertFalse(callbackThread.getName().startsWith("Smack Timer"));
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.util.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmackReactorTest {
+
+    private final SmackReactor reactor = SmackReactor.getInstance();
+
+    private ServerSocketChannel serverChannel;
+
+    @Before
+    public void bindServerChannel() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void closeServerChannel() throws IOException {
+        serverChannel.close();
+    }
+
+    @Test
+    public void shouldInvokeCallbackOnOwningReactorThreadForEveryPartialRead() throws Exception {
+        SocketChannel client = connect();
+        SocketChannel server = serverChannel.accept();
+        final StringBuilder received = new StringBuilder();
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicBoolean onOwningReactorThread = new AtomicBoolean(true);
+        final CountDownLatch completelyReceived = new CountDownLatch(1);
+        reactor.registerWithSelector(client, SelectionKey.OP_READ, new ChannelSelectedCallback() {
+            private final ByteBuffer buffer = ByteBuffer.allocate(64);
+
+            @Override
+            public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+                if (!reactor.isOwningReactorThread(selectionKey)) {
+                    onOwningReactorThread.set(false);
+                }
+                try {
+                    if (((SocketChannel) channel).read(buffer) <= 0) {
+                        return;
+                    }
+                    reads.incrementAndGet();
+                    buffer.flip();
+                    received.append(new String(buffer.array(), 0, buffer.limit(), StringUtils.UTF8));
+                    buffer.clear();
+                }
+                catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                if ("<message>hello world</message>".equals(received.toString())) {
+                    completelyReceived.countDown();
+                }
+            }
+        });
+
+        write(server, "<message>hel");
+        Thread.sleep(50);
+        write(server, "lo wor");
+        Thread.sleep(50);
+        write(server, "ld</message>");
+
+        assertTrue(completelyReceived.await(5, TimeUnit.SECONDS));
+        assertTrue(reads.get() > 1);
+        assertTrue(onOwningReactorThread.get());
+        assertFalse(reactor.isReactorThread());
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldApplyInterestOpsSetByOtherThreads() throws Exception {
+        SocketChannel client = connect();
+        SocketChannel server = serverChannel.accept();
+        final CountDownLatch writable = new CountDownLatch(1);
+        SelectionKey selectionKey = reactor.registerWithSelector(client, 0, new ChannelSelectedCallback() {
+            @Override
+            public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+                if (selectionKey.isWritable()) {
+                    selectionKey.interestOps(0);
+                    writable.countDown();
+                }
+            }
+        });
+        // A channel without interest operations is never selected.
+        assertFalse(writable.await(100, TimeUnit.MILLISECONDS));
+
+        reactor.setInterestOps(selectionKey, SelectionKey.OP_WRITE);
+        assertTrue(writable.await(5, TimeUnit.SECONDS));
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldKeepServingChannelsAfterChannelIsClosedAndCallbackThrows() throws Exception {
+        SocketChannel client = connect();
+        SocketChannel server = serverChannel.accept();
+        final CountDownLatch selected = new CountDownLatch(1);
+        final SelectionKey selectionKey = reactor.registerWithSelector(client, SelectionKey.OP_READ,
+                        new ChannelSelectedCallback() {
+            @Override
+            public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+                selected.countDown();
+                try {
+                    channel.close();
+                }
+                catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                throw new IllegalStateException("Thrown to verify that the reactor thread survives");
+            }
+        });
+        write(server, "<stream:stream>");
+        assertTrue(selected.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch closed = new CountDownLatch(1);
+        final AtomicBoolean keyValid = new AtomicBoolean(true);
+        reactor.execute(selectionKey, new Runnable() {
+            @Override
+            public void run() {
+                keyValid.set(selectionKey.isValid());
+                closed.countDown();
+            }
+        });
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertFalse(keyValid.get());
+        // The peer sees the end of the stream once the reactor deregistered the closed channel.
+        assertEquals(-1, server.read(ByteBuffer.allocate(16)));
+        server.close();
+
+        // Every reactor thread must still serve new channels.
+        for (int i = 0; i < reactor.getReactorThreadCount(); i++) {
+            SocketChannel otherClient = connect();
+            SocketChannel otherServer = serverChannel.accept();
+            final CountDownLatch otherSelected = new CountDownLatch(1);
+            reactor.registerWithSelector(otherClient, SelectionKey.OP_WRITE, new ChannelSelectedCallback() {
+                @Override
+                public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+                    selectionKey.interestOps(0);
+                    otherSelected.countDown();
+                }
+            });
+            assertTrue(otherSelected.await(5, TimeUnit.SECONDS));
+            otherClient.close();
+            otherServer.close();
+        }
+    }
+
+    @Test
+    public void shouldRunScheduledActionsUnlessCancelled() throws InterruptedException {
+        final CountDownLatch run = new CountDownLatch(1);
+        final AtomicBoolean cancelledRun = new AtomicBoolean();
+        SmackReactor.ScheduledAction cancelled = reactor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelledRun.set(true);
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        reactor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (reactor.isReactorThread()) {
+                    run.countDown();
+                }
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+        cancelled.cancel();
+
+        assertTrue(run.await(5, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+        assertFalse(cancelledRun.get());
+    }
+
+    private SocketChannel connect() throws IOException {
+        SocketChannel client = SocketChannel.open(serverChannel.socket().getLocalSocketAddress());
+        client.configureBlocking(false);
+        return client;
+    }
+
+    private static void write(SocketChannel channel, String string) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(StringUtils.toBytes(string));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.junit.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class StanzaFilterIndexTest {
+
+    @Test
+    public void shouldOnlyMatchIndexedFiltersForTheirKeys() {
+        StanzaFilterIndex<String> index = new StanzaFilterIndex<>();
+        index.put("id", new StanzaIdFilter("foo"), "id");
+        index.put("from", FromMatchesFilter.createBare(JidTestUtil.BARE_JID_1), "from");
+        index.put("extension", new StanzaExtensionFilter("element", "namespace"), "extension");
+        index.put("type", MessageTypeFilter.CHAT, "type");
+
+        Message message = new Message();
+        message.setStanzaId("bar");
+        assertEquals(Collections.emptyList(), index.getMatching(message));
+
+        message.setStanzaId("foo");
+        message.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        message.addExtension(new StandardExtensionElement("element", "namespace"));
+        message.setType(Message.Type.chat);
+        assertEquals(Arrays.asList("id", "from", "extension", "type"), index.getMatching(message));
+
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setStanzaId("foo");
+        presence.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        assertEquals(Arrays.asList("id", "from"), index.getMatching(presence));
+    }
+
+    @Test
+    public void shouldEvaluateOpaqueFilters() {
+        StanzaFilterIndex<String> index = new StanzaFilterIndex<>();
+        index.put("all", null, "all");
+        index.put("not", new NotFilter(new StanzaIdFilter("foo")), "not");
+
+        Message message = new Message();
+        message.setStanzaId("foo");
+        assertEquals(Arrays.asList("all"), index.getMatching(message));
+        assertEquals(Arrays.asList("all", "not"), index.getCandidates(message));
+
+        message.setStanzaId("bar");
+        assertEquals(Arrays.asList("all", "not"), index.getMatching(message));
+    }
+
+    @Test
+    public void shouldKeepRegistrationOrder() {
+        StanzaFilterIndex<String> index = new StanzaFilterIndex<>();
+        index.put("first", StanzaTypeFilter.MESSAGE, "first");
+        index.put("second", null, "second");
+        index.put("third", new StanzaIdFilter("foo"), "third");
+        // Re-registering a key keeps its position, even if the index key changes.
+        index.put("first", new StanzaIdFilter("foo"), "first again");
+
+        Message message = new Message();
+        message.setStanzaId("foo");
+        assertEquals(Arrays.asList("first again", "second", "third"), index.getMatching(message));
+    }
+
+    @Test
+    public void shouldIndexAndFilterBySelectiveFilter() {
+        StanzaFilterIndex<String> index = new StanzaFilterIndex<>();
+        index.put("and", new AndFilter(StanzaTypeFilter.PRESENCE, new StanzaIdFilter("foo")), "and");
+
+        Message message = new Message();
+        message.setStanzaId("foo");
+        // The AndFilter is indexed by the stanza ID, but the type must still be checked.
+        assertEquals(Arrays.asList("and"), index.getCandidates(message));
+        assertEquals(Collections.emptyList(), index.getMatching(message));
+
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setStanzaId("foo");
+        assertEquals(Arrays.asList("and"), index.getMatching(presence));
+    }
+
+    @Test
+    public void shouldReturnOrFilterOnlyOnce() {
+        StanzaFilterIndex<String> index = new StanzaFilterIndex<>();
+        index.put("or", new OrFilter(new StanzaIdFilter("foo"), StanzaTypeFilter.MESSAGE), "or");
+
+        Message message = new Message();
+        message.setStanzaId("foo");
+        assertEquals(Arrays.asList("or"), index.getMatching(message));
+
+        Presence presence = new Presence(Presence.Type.available);
+        assertEquals(Collections.emptyList(), index.getCandidates(presence));
+    }
+
+    @Test
+    public void shouldTreatOverriddenAcceptAsOpaque() {
+        StanzaFilterIndex<String> index = new StanzaFilterIndex<>();
+        index.put("any", new StanzaIdFilter("foo") {
+            @Override
+            public boolean accept(Stanza stanza) {
+                return true;
+            }
+        }, "any");
+
+        Message message = new Message();
+        message.setStanzaId("bar");
+        assertEquals(Arrays.asList("any"), index.getMatching(message));
+    }
+
+    @Test
+    public void shouldRemoveValues() {
+        StanzaFilterIndex<String> index = new StanzaFilterIndex<>();
+        index.put("id", new StanzaIdFilter("foo"), "id");
+        index.put("all", null, "all");
+        assertEquals(2, index.size());
+
+        assertNotNull(index.remove("id"));
+        assertNull(index.remove("id"));
+        assertNotNull(index.remove("all"));
+        assertEquals(0, index.size());
+
+        Message message = new Message();
+        message.setStanzaId("foo");
+        assertTrue(index.getCandidates(message).isEmpty());
+    }
+}
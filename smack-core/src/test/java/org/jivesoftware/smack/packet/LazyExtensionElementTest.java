@@ -0,0 +1,91 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+public class LazyExtensionElementTest {
+
+    private static final String EXTENSION = "<x xmlns='urn:example:lazy' a='1'><y xmlns='urn:example:nested'>"
+                    + "f&amp;o</y></x>";
+
+    private static final String BROKEN_NAMESPACE = "urn:example:broken";
+
+    @Before
+    public void enableLazyParsing() {
+        assumeTrue(PacketParserUtils.XML_PULL_PARSER_SUPPORTS_ROUNDTRIP);
+        SmackConfiguration.setLazyExtensionParsing(true);
+        ProviderManager.addExtensionProvider("broken", BROKEN_NAMESPACE, new ExtensionElementProvider<ExtensionElement>() {
+            @Override
+            public ExtensionElement parse(XmlPullParser parser, int initialDepth) throws SmackException {
+                throw new SmackException("Test Exception");
+            }
+        });
+    }
+
+    @After
+    public void disableLazyParsing() {
+        SmackConfiguration.setLazyExtensionParsing(false);
+        ProviderManager.removeExtensionProvider("broken", BROKEN_NAMESPACE);
+    }
+
+    @Test
+    public void shouldParseExtensionOnFirstAccess() throws Exception {
+        Message message = (Message) PacketParserUtils.parseStanza("<message from='juliet@example.org' id='1'>"
+                        + "<body>Hi</body>" + EXTENSION + "</message>");
+        assertEquals("Hi", message.getBody());
+        assertTrue(message.getRawExtensions().get(0) instanceof LazyExtensionElement);
+        assertTrue(message.hasExtension("x", "urn:example:lazy"));
+        // The retained XML is used for serialization as long as the extension element was not parsed.
+        assertTrue(message.toXML().toString().contains(EXTENSION));
+
+        StandardExtensionElement extension = message.getExtension("x", "urn:example:lazy");
+        assertEquals("1", extension.getAttributeValue("a"));
+        assertEquals("f&o", extension.getFirstElement("y", "urn:example:nested").getText());
+        assertTrue(message.getRawExtensions().get(0) instanceof StandardExtensionElement);
+    }
+
+    @Test
+    public void shouldNotRetainElementWithInheritedNamespace() throws Exception {
+        Message message = (Message) PacketParserUtils.parseStanza(
+                        "<message xmlns='jabber:client' xmlns:e='urn:example:prefixed' id='1'><e:z/></message>");
+        assertFalse(message.getRawExtensions().get(0) instanceof LazyExtensionElement);
+    }
+
+    @Test
+    public void shouldDropExtensionWhichCanNotBeParsed() throws Exception {
+        Presence presence = (Presence) PacketParserUtils.parseStanza("<presence id='1'><broken xmlns='"
+                        + BROKEN_NAMESPACE + "'/>" + EXTENSION + "</presence>");
+        assertEquals(2, presence.getRawExtensions().size());
+        assertNull(presence.getExtension("broken", BROKEN_NAMESPACE));
+        assertEquals(1, presence.getExtensions().size());
+    }
+}
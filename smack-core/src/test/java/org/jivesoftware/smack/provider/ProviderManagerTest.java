@@ -16,6 +16,8 @@
  */
 package org.jivesoftware.smack.provider;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.jivesoftware.smack.SmackConfiguration;
@@ -34,6 +36,46 @@ public class ProviderManagerTest {
         assertTrue(SmackConfiguration.isSmackInitialized());
     }
 
+    @Test
+    public void shouldCreateProvidersOfRegistryOnFirstLookup() {
+        TestProviderRegistry registry = new TestProviderRegistry();
+        registry.register();
+        assertEquals(0, registry.created);
+
+        IQProvider<IQ> provider = ProviderManager.getIQProvider("lazy", "urn:example:registry");
+        assertTrue(provider instanceof TestIQProvider);
+        assertEquals(provider, ProviderManager.getIQProvider("lazy", "urn:example:registry"));
+        assertEquals(1, registry.created);
+
+        // A provider which can not be created is removed.
+        assertNull(ProviderManager.getIQProvider("broken", "urn:example:registry"));
+        assertNull(ProviderManager.getIQProvider("broken", "urn:example:registry"));
+        assertEquals(2, registry.created);
+
+        ProviderManager.removeIQProvider("lazy", "urn:example:registry");
+    }
+
+    private static final class TestProviderRegistry extends ProviderRegistry {
+        private int created;
+
+        @Override
+        protected void registerProviders() {
+            iqProvider("lazy", "urn:example:registry", 0);
+            iqProvider("broken", "urn:example:registry", 1);
+        }
+
+        @Override
+        protected Provider<?> createProvider(int index) {
+            created++;
+            switch (index) {
+            case 0:
+                return new TestIQProvider();
+            default:
+                throw new IllegalStateException("Test Exception");
+            }
+        }
+    }
+
     public static class TestIQProvider extends IQProvider<IQ> {
 
         @Override
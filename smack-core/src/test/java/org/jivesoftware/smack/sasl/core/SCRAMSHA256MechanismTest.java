@@ -0,0 +1,85 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sasl.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.sasl.packet.SaslStreamElements.AuthMechanism;
+import org.jivesoftware.smack.sasl.packet.SaslStreamElements.Response;
+import org.jivesoftware.smack.test.util.SmackTestSuite;
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.junit.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class SCRAMSHA256MechanismTest extends SmackTestSuite {
+
+    // Test vectors of RFC 7677 § 3.
+    public static final String USERNAME = "user";
+    public static final String PASSWORD = "pencil";
+    public static final String CLIENT_NONCE = "rOprNGfwEbeRWgbNEkqO";
+    public static final String CLIENT_FIRST_MESSAGE = "n,,n=user,r=rOprNGfwEbeRWgbNEkqO";
+    public static final String SERVER_FIRST_MESSAGE = "r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,s=W22ZaJ0SNY7soEsUEjb6gQ==,i=4096";
+    public static final String CLIENT_FINAL_MESSAGE = "c=biws,r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,p=dHzbZapWIk4jUhN+Ute9ytag9zjfMHgsqmmiz7AndVQ=";
+    public static final String SERVER_FINAL_MESSAGE = "v=6rriTRBi23WpRR/wtup+mMhUZUn/dB5nLTJRsjl95G4=";
+
+    @Test
+    public void testScramSha256Mechanism() throws NotConnectedException, SmackException, InterruptedException {
+        authenticate();
+    }
+
+    @Test
+    public void shouldUseCachedKeysForReauthentication() throws NotConnectedException, SmackException, InterruptedException {
+        ScramKeyCache keyCache = ScramMechanism.getKeyCache();
+        authenticate();
+        long hits = keyCache.getHits();
+        long misses = keyCache.getMisses();
+
+        authenticate();
+        assertEquals(hits + 1, keyCache.getHits());
+        assertEquals(misses, keyCache.getMisses());
+    }
+
+    private static void authenticate() throws NotConnectedException, SmackException, InterruptedException {
+        final DummyConnection con = new DummyConnection();
+        SCRAMSHA256Mechanism mech = new SCRAMSHA256Mechanism() {
+            @Override
+            public String getRandomAscii() {
+                this.connection = con;
+                return CLIENT_NONCE;
+            }
+        };
+
+        mech.authenticate(USERNAME, "unusedFoo", JidTestUtil.DOMAIN_BARE_JID_1, PASSWORD, null);
+        AuthMechanism authMechanism = con.getSentPacket();
+        assertEquals(SCRAMSHA256Mechanism.NAME, authMechanism.getMechanism());
+        assertEquals(CLIENT_FIRST_MESSAGE, saslLayerString(authMechanism.getAuthenticationText()));
+
+        mech.challengeReceived(Base64.encode(SERVER_FIRST_MESSAGE), false);
+        Response response = con.getSentPacket();
+        assertEquals(CLIENT_FINAL_MESSAGE, saslLayerString(response.getAuthenticationText()));
+
+        mech.challengeReceived(Base64.encode(SERVER_FINAL_MESSAGE), true);
+        mech.checkIfSuccessfulOrThrow();
+    }
+
+    private static String saslLayerString(String string) {
+        return Base64.decodeToString(string);
+    }
+}
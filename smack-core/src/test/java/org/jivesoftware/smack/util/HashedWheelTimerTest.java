@@ -0,0 +1,82 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+    @Test
+    public void shouldExpireTimeouts() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("Test Timer", 10, TimeUnit.MILLISECONDS, 8);
+        final CountDownLatch latch = new CountDownLatch(3);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+        long start = System.nanoTime();
+        // The last timeout requires more than one round of the wheel.
+        timer.schedule(task, 0, TimeUnit.MILLISECONDS);
+        timer.schedule(task, 50, TimeUnit.MILLISECONDS);
+        HashedWheelTimer.Timeout timeout = timer.schedule(task, 200, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+
+    @Test
+    public void shouldNotRunCancelledTimeouts() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("Test Timer", 10, TimeUnit.MILLISECONDS, 8);
+        final AtomicInteger runs = new AtomicInteger();
+        HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        assertEquals(1, timer.getPendingTimeouts());
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertEquals(0, timer.getPendingTimeouts());
+
+        // Let the timer go idle and wake it up again.
+        Thread.sleep(100);
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        assertTrue(timeout.isCancelled());
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.xmlpull.v1.XmlPullParser;
+
+public class JidCacheTest {
+
+    @Test
+    public void shouldInternParsedJids() throws Exception {
+        JidCache cache = ParserUtils.getJidCache();
+        long hits = cache.getHits();
+        XmlPullParser parser = PacketParserUtils.getParserFor(
+                        "<item jid='intern-test@example.org' from='intern-test@example.org/res'/>");
+        Jid first = ParserUtils.getJidAttribute(parser);
+        Jid second = ParserUtils.getJidAttribute(parser);
+        EntityBareJid bare = ParserUtils.getBareJidAttribute(parser);
+        assertSame(first, second);
+        assertSame(first, bare);
+        assertEquals(hits + 2, cache.getHits());
+        assertSame(ParserUtils.getFullJidAttribute(parser, "from"), ParserUtils.getFullJidAttribute(parser, "from"));
+    }
+
+    @Test
+    public void shouldNotCacheTypedJidsDroppingTheResource() throws Exception {
+        XmlPullParser parser = PacketParserUtils.getParserFor("<decline from='resource-test@example.org/c'/>");
+        EntityBareJid bare = ParserUtils.getBareJidAttribute(parser, "from");
+        assertEquals(JidCreate.entityBareFrom("resource-test@example.org"), bare);
+        Jid jid = ParserUtils.getJidAttribute(parser, "from");
+        assertEquals(JidCreate.from("resource-test@example.org/c"), jid);
+        assertFalse(jid.hasNoResource());
+    }
+
+    @Test
+    public void shouldBeBounded() throws Exception {
+        JidCache cache = new JidCache(10);
+        Jid jid = JidCreate.from("first@example.org");
+        cache.intern("first@example.org", jid);
+        for (int i = 0; i < 100; i++) {
+            String address = "user" + i + "@example.org";
+            cache.intern(address, JidCreate.from(address));
+        }
+        assertTrue(cache.size() <= 10);
+        assertNull(cache.lookup("first@example.org"));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shouldPromoteEntriesOfPreviousGeneration() throws Exception {
+        JidCache cache = new JidCache(4);
+        Jid jid = JidCreate.from("a@example.org");
+        cache.intern("a@example.org", jid);
+        cache.intern("b@example.org", JidCreate.from("b@example.org"));
+        // The current generation was full, 'a' is now in the previous generation and gets promoted.
+        assertSame(jid, cache.lookup("a@example.org"));
+        cache.intern("c@example.org", JidCreate.from("c@example.org"));
+        assertSame(jid, cache.lookup("a@example.org"));
+    }
+
+    @Test
+    public void shouldBeDisabledWithSizeZero() throws Exception {
+        JidCache cache = new JidCache(0);
+        Jid jid = JidCreate.from("a@example.org");
+        assertSame(jid, cache.intern("a@example.org", jid));
+        assertNull(cache.lookup("a@example.org"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class SerialExecutorTest {
+
+    @Test
+    public void shouldRunTasksInOrderOnThreadPool() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SerialExecutor serialExecutor = new SerialExecutor(pool, 10, "test");
+            final List<Integer> result = Collections.synchronizedList(new ArrayList<Integer>());
+            final int count = 1000;
+            final CountDownLatch done = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                final int value = i;
+                serialExecutor.executeBlocking(new Runnable() {
+                    @Override
+                    public void run() {
+                        result.add(value);
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, result.get(i).intValue());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldQueueReentrantTasksOfInlineExecutor() throws InterruptedException {
+        Executor inline = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        final SerialExecutor serialExecutor = new SerialExecutor(inline, 1, "test");
+        final List<String> result = new ArrayList<>();
+        serialExecutor.executeBlocking(new Runnable() {
+            @Override
+            public void run() {
+                result.add("outer start");
+                try {
+                    // Must neither block because of the bound nor run the task before the current one finished.
+                    serialExecutor.executeBlocking(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.add("inner");
+                        }
+                    });
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                result.add("outer end");
+            }
+        });
+        assertEquals(Arrays.asList("outer start", "outer end", "inner"), result);
+        assertEquals(0, serialExecutor.getQueuedTasks());
+    }
+
+    @Test
+    public void shouldRejectTasksWhenSaturatedAndNotifyOnceDrained() throws InterruptedException {
+        final List<Runnable> pending = new ArrayList<>();
+        Executor manual = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending.add(command);
+            }
+        };
+        SerialExecutor serialExecutor = new SerialExecutor(manual, 4, "test");
+        Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        for (int i = 0; i < 4; i++) {
+            assertTrue(serialExecutor.tryExecute(noop));
+        }
+        assertFalse(serialExecutor.tryExecute(noop));
+
+        final AtomicBoolean notified = new AtomicBoolean();
+        serialExecutor.whenNotFull(new Runnable() {
+            @Override
+            public void run() {
+                notified.set(true);
+            }
+        });
+        assertFalse(notified.get());
+
+        // Run the drainer, which invokes the callback once half of the tasks were taken.
+        pending.remove(0).run();
+        assertTrue(notified.get());
+        assertEquals(0, serialExecutor.getQueuedTasks());
+        assertTrue(serialExecutor.tryExecute(noop));
+    }
+}
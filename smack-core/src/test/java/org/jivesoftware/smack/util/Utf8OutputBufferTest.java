@@ -0,0 +1,75 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class Utf8OutputBufferTest {
+
+    @Test
+    public void shouldEncodeLikeString() throws IOException {
+        String[] strings = { "hello world", "grüße", "€ 中文", "smile 😀 end" };
+        for (String string : strings) {
+            Utf8OutputBuffer buffer = new Utf8OutputBuffer(4);
+            buffer.append(string);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            buffer.writeTo(outputStream);
+            assertArrayEquals(string.getBytes(StringUtils.UTF8), outputStream.toByteArray());
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldEscapeXmlStringBuilder() {
+        XmlStringBuilder xml = new XmlStringBuilder();
+        xml.halfOpenElement("message").attribute("to", "juliet@example.org/bälcony");
+        xml.rightAngleBracket();
+        xml.element("body", "<wherefore> art thou & \"Romeo\" 😀");
+        xml.closeElement("message");
+
+        Utf8OutputBuffer buffer = new Utf8OutputBuffer(16);
+        buffer.append(xml);
+        assertEquals(xml.toString(), buffer.toString());
+    }
+
+    @Test
+    public void shouldRecycleDetachedArrays() {
+        Utf8OutputBuffer buffer = new Utf8OutputBuffer(16);
+        buffer.append("first");
+        ByteBuffer first = buffer.detach();
+        assertEquals(5, first.remaining());
+        assertTrue(buffer.isEmpty());
+
+        buffer.recycle(first);
+        buffer.append("second");
+        ByteBuffer second = buffer.detach();
+        assertEquals(6, second.remaining());
+
+        // The buffer continues with the recycled array after the second array was detached.
+        buffer.append("third");
+        assertSame(first.array(), buffer.detach().array());
+    }
+}
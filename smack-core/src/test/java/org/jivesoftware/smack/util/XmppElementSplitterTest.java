@@ -0,0 +1,202 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+public class XmppElementSplitterTest {
+
+    private static final String STREAM_OPEN = "<stream:stream xmlns='jabber:client' "
+                    + "xmlns:stream='http://etherx.jabber.org/streams' from='example.org' id='42' version='1.0'>";
+
+    private static final String[] ELEMENTS = new String[] {
+        "<stream:features><mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'><mechanism>PLAIN</mechanism>"
+                        + "</mechanisms></stream:features>",
+        "<message to='foo@example.org' from='bar@example.org/res' type='chat'><body>a &lt; b > c</body></message>",
+        "<message id='a>b'><body>äöü ☃ 😀</body></message>",
+        "<iq type=\"result\" id=\"x/\"/>",
+        "<presence><status><![CDATA[<not><an/>element]]]></status><!-- a <comment/> --></presence>",
+        "<r xmlns='urn:xmpp:sm:3'/>",
+    };
+
+    @Test
+    public void shouldSplitStreamInCompleteChunk() throws Exception {
+        splitAndVerify(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void shouldSplitStreamInSingleBytes() throws Exception {
+        splitAndVerify(1);
+    }
+
+    @Test
+    public void shouldSplitStreamInSmallChunks() throws Exception {
+        for (int chunkSize = 2; chunkSize < 20; chunkSize++) {
+            splitAndVerify(chunkSize);
+        }
+    }
+
+    @Test
+    public void shouldHandleStreamRestart() throws Exception {
+        final List<String> streamOpens = new ArrayList<>();
+        final List<String> elements = new ArrayList<>();
+        final XmppElementSplitter[] splitter = new XmppElementSplitter[1];
+        splitter[0] = new XmppElementSplitter(new XmppElementSplitter.Callback() {
+            @Override
+            public void onStreamOpen(String streamOpen) {
+                streamOpens.add(streamOpen);
+            }
+
+            @Override
+            public void onTopLevelElement(String element) {
+                elements.add(element);
+                if (element.startsWith("<success")) {
+                    splitter[0].reset();
+                }
+            }
+
+            @Override
+            public void onStreamClose() {
+            }
+        });
+        String xml = STREAM_OPEN + "<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>" + "<?xml version='1.0'?>"
+                        + STREAM_OPEN + "<stream:features/>";
+        splitter[0].write(ByteBuffer.wrap(xml.getBytes(StringUtils.UTF8)));
+
+        assertEquals(2, streamOpens.size());
+        assertEquals(2, elements.size());
+        assertEquals("<stream:features/>", elements.get(1));
+    }
+
+    @Test
+    public void shouldProvideParserWithStreamNamespaceContext() throws Exception {
+        final List<Stanza> stanzas = new ArrayList<>();
+        final List<String> features = new ArrayList<>();
+        final XmppElementSplitter[] splitter = new XmppElementSplitter[1];
+        splitter[0] = new XmppElementSplitter(new XmppElementSplitter.Callback() {
+            @Override
+            public void onStreamOpen(String streamOpen) throws Exception {
+                XmlPullParser parser = splitter[0].getParserForStreamOpen();
+                assertEquals("stream", parser.getName());
+                assertEquals("42", parser.getAttributeValue("", "id"));
+            }
+
+            @Override
+            public void onTopLevelElement(String element) throws Exception {
+                XmlPullParser parser = splitter[0].getParserFor(element);
+                if (parser.getName().equals("features")) {
+                    features.add(parser.getNamespace());
+                    return;
+                }
+                stanzas.add(PacketParserUtils.parseStanza(parser));
+            }
+
+            @Override
+            public void onStreamClose() {
+            }
+        });
+        String xml = STREAM_OPEN + ELEMENTS[0] + ELEMENTS[1] + ELEMENTS[3];
+        splitter[0].write(ByteBuffer.wrap(xml.getBytes(StringUtils.UTF8)));
+
+        assertEquals(1, features.size());
+        assertEquals("http://etherx.jabber.org/streams", features.get(0));
+        assertEquals(2, stanzas.size());
+        Message message = (Message) stanzas.get(0);
+        assertEquals("a < b > c", message.getBody());
+        IQ iq = (IQ) stanzas.get(1);
+        assertEquals("x/", iq.getStanzaId());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTooLargeElements() throws Exception {
+        XmppElementSplitter splitter = new XmppElementSplitter(new XmppElementSplitter.Callback() {
+            @Override
+            public void onStreamOpen(String streamOpen) {
+            }
+
+            @Override
+            public void onTopLevelElement(String element) {
+            }
+
+            @Override
+            public void onStreamClose() {
+            }
+        }, 2048);
+        StringBuilder sb = new StringBuilder(STREAM_OPEN).append("<message><body>");
+        for (int i = 0; i < 4096; i++) {
+            sb.append('x');
+        }
+        sb.append("</body></message>");
+        splitter.write(ByteBuffer.wrap(sb.toString().getBytes(StringUtils.UTF8)));
+    }
+
+    private static void splitAndVerify(int chunkSize) throws Exception {
+        final List<String> streamOpens = new ArrayList<>();
+        final List<String> elements = new ArrayList<>();
+        final boolean[] streamClosed = new boolean[1];
+        XmppElementSplitter splitter = new XmppElementSplitter(new XmppElementSplitter.Callback() {
+            @Override
+            public void onStreamOpen(String streamOpen) {
+                streamOpens.add(streamOpen);
+            }
+
+            @Override
+            public void onTopLevelElement(String element) {
+                elements.add(element);
+            }
+
+            @Override
+            public void onStreamClose() {
+                streamClosed[0] = true;
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version='1.0' encoding='UTF-8'?>").append(STREAM_OPEN);
+        for (String element : ELEMENTS) {
+            // Whitespace between top level elements, e.g. whitespace keep alives, must be ignored.
+            sb.append(element).append(' ');
+        }
+        sb.append("</stream:stream>");
+
+        byte[] bytes = sb.toString().getBytes(StringUtils.UTF8);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            int length = Math.min(chunkSize, bytes.length - i);
+            splitter.write(ByteBuffer.wrap(bytes, i, length));
+        }
+
+        assertEquals(1, streamOpens.size());
+        assertEquals(STREAM_OPEN, streamOpens.get(0));
+        assertEquals(ELEMENTS.length, elements.size());
+        for (int i = 0; i < ELEMENTS.length; i++) {
+            assertEquals(ELEMENTS[i], elements.get(i));
+        }
+        assertTrue(streamClosed[0]);
+    }
+}
@@ -17,6 +17,7 @@
 package org.jivesoftware.smack.experimental;
 
 import org.jivesoftware.smack.initializer.UrlInitializer;
+import org.jivesoftware.smack.provider.ProviderRegistry;
 
 /**
  * Initializes the providers in the experimental code stream.
@@ -30,6 +31,11 @@ public class ExperimentalInitializer extends UrlInitializer {
         return "classpath:org.jivesoftware.smack.experimental/experimental.providers";
     }
 
+    @Override
+    protected ProviderRegistry getProviderRegistry() {
+        return new ExperimentalProviderRegistry();
+    }
+
     @Override
     protected String getConfigUrl() {
         return "classpath:org.jivesoftware.smack.experimental/experimental.xml";
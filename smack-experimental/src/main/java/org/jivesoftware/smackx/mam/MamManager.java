@@ -24,11 +24,13 @@ import java.util.UUID;
 import java.util.WeakHashMap;
 
 import org.jivesoftware.smack.ConnectionCreationListener;
+import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.PacketCollector;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.SmackException.NotLoggedInException;
+import org.jivesoftware.smack.SmackFuture;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPConnectionRegistry;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
@@ -214,6 +216,31 @@ public final class MamManager extends Manager {
     public MamQueryResult queryArchive(Integer max, Date start, Date end, Jid withJid, List<FormField> additionalFields)
             throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException,
             NotLoggedInException {
+        MamQueryIQ mamQueryIQ = createMamQueryIQ(max, start, end, withJid, additionalFields);
+        return queryArchive(mamQueryIQ);
+    }
+
+    /**
+     * Query archive asynchronously, applying filters: max count, start date, end date, from/to JID and with
+     * additional fields. This is the non-blocking variant of
+     * {@link #queryArchive(Integer, Date, Date, Jid, List)}. Note that, unlike the blocking variant, the reply
+     * timeout is not reset by the result messages of the query, it applies to the whole query.
+     *
+     * @param max
+     * @param start
+     * @param end
+     * @param withJid
+     * @param additionalFields
+     * @return a future for the MAM query result
+     */
+    public SmackFuture<MamQueryResult> queryArchiveAsync(Integer max, Date start, Date end, Jid withJid,
+                    List<FormField> additionalFields) {
+        MamQueryIQ mamQueryIQ = createMamQueryIQ(max, start, end, withJid, additionalFields);
+        return queryArchiveAsync(mamQueryIQ);
+    }
+
+    private MamQueryIQ createMamQueryIQ(Integer max, Date start, Date end, Jid withJid,
+                    List<FormField> additionalFields) {
         DataForm dataForm = null;
         String queryId = UUID.randomUUID().toString();
 
@@ -229,7 +256,7 @@ public final class MamManager extends Manager {
         mamQueryIQ.setType(IQ.Type.set);
 
         addResultsLimit(max, mamQueryIQ);
-        return queryArchive(mamQueryIQ);
+        return mamQueryIQ;
     }
 
     private static void addAdditionalFields(List<FormField> additionalFields, DataForm dataForm) {
@@ -399,6 +426,37 @@ public final class MamManager extends Manager {
             resultCollector.cancel();
         }
 
+        return createMamQueryResult(resultCollector, mamFinIQ, mamQueryIq);
+    }
+
+    private SmackFuture<MamQueryResult> queryArchiveAsync(final MamQueryIQ mamQueryIq) {
+        final XMPPConnection connection;
+        try {
+            connection = getAuthenticatedConnectionOrThrow();
+        }
+        catch (NotLoggedInException e) {
+            return SmackFuture.forException(e);
+        }
+
+        final PacketCollector resultCollector = connection.createPacketCollector(new MamResultFilter(mamQueryIq));
+        SmackFuture<MamFinIQ> future = connection.sendIqRequestAsync(mamQueryIq);
+        future.onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                resultCollector.cancel();
+            }
+        });
+        return future.thenApply(new SmackFuture.Transformer<MamFinIQ, MamQueryResult>() {
+            @Override
+            public MamQueryResult transform(MamFinIQ mamFinIQ) {
+                resultCollector.cancel();
+                return createMamQueryResult(resultCollector, mamFinIQ, mamQueryIq);
+            }
+        });
+    }
+
+    private static MamQueryResult createMamQueryResult(PacketCollector resultCollector, MamFinIQ mamFinIQ,
+                    MamQueryIQ mamQueryIq) {
         List<Forwarded> forwardedMessages = new ArrayList<>(resultCollector.getCollectedCount());
 
         for (Message resultMessage = resultCollector
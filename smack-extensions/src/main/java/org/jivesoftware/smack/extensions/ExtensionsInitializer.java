@@ -17,6 +17,7 @@
 package org.jivesoftware.smack.extensions;
 
 import org.jivesoftware.smack.initializer.UrlInitializer;
+import org.jivesoftware.smack.provider.ProviderRegistry;
 
 /**
  * Initializes the providers in the experimental code stream.
@@ -30,6 +31,11 @@ public class ExtensionsInitializer extends UrlInitializer {
         return "classpath:org.jivesoftware.smack.extensions/extensions.providers";
     }
 
+    @Override
+    protected ProviderRegistry getProviderRegistry() {
+        return new ExtensionsProviderRegistry();
+    }
+
     @Override
     protected String getConfigUrl() {
         return "classpath:org.jivesoftware.smack.extensions/extensions.xml";
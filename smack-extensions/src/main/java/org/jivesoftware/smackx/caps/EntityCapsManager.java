@@ -63,6 +63,7 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.security.MessageDigest;
@@ -98,10 +99,21 @@ public final class EntityCapsManager extends Manager {
     private static final StanzaFilter PRESENCES_WITH_CAPS = new AndFilter(new StanzaTypeFilter(Presence.class), new StanzaExtensionFilter(
                     ELEMENT, NAMESPACE));
 
+    /**
+     * The default maximum number of DiscoverInfos cached in memory.
+     */
+    public static final int DEFAULT_MAX_CAPS_CACHE_SIZE = 1000;
+
+    /**
+     * The default maximum number of JID to node#ver mappings cached in memory.
+     */
+    public static final int DEFAULT_MAX_JID_TO_NODEVER_CACHE_SIZE = 10000;
+
     /**
      * Map of "node + '#' + hash" to DiscoverInfo data
      */
-    private static final LruCache<String, DiscoverInfo> CAPS_CACHE = new LruCache<String, DiscoverInfo>(1000);
+    private static final LruCache<String, DiscoverInfo> CAPS_CACHE = new LruCache<String, DiscoverInfo>(
+                    DEFAULT_MAX_CAPS_CACHE_SIZE);
 
     /**
      * Map of Full JID -&gt; DiscoverInfo/null. In case of c2s connection the
@@ -109,7 +121,14 @@ public final class EntityCapsManager extends Manager {
      * link-local connection the key is formed as user@host (no resource) In
      * case of a server or component the key is formed as domain
      */
-    private static final LruCache<Jid, NodeVerHash> JID_TO_NODEVER_CACHE = new LruCache<>(10000);
+    private static final LruCache<Jid, NodeVerHash> JID_TO_NODEVER_CACHE = new LruCache<>(
+                    DEFAULT_MAX_JID_TO_NODEVER_CACHE_SIZE);
+
+    private static final AtomicLong PERSISTENT_CACHE_HITS = new AtomicLong();
+
+    private static final AtomicLong CAPS_CACHE_MISSES = new AtomicLong();
+
+    private static final AtomicLong VERIFICATION_FAILURES = new AtomicLong();
 
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(new ConnectionCreationListener() {
@@ -205,9 +224,13 @@ public final class EntityCapsManager extends Manager {
             info = persistentCache.lookup(nodeVer);
             // Promote the information to CAPS_CACHE if one was found
             if (info != null) {
+                PERSISTENT_CACHE_HITS.incrementAndGet();
                 CAPS_CACHE.put(nodeVer, info);
             }
         }
+        if (info == null) {
+            CAPS_CACHE_MISSES.incrementAndGet();
+        }
 
         // If we were able to retrieve information from one of the caches, copy it before returning
         if (info != null)
@@ -236,6 +259,63 @@ public final class EntityCapsManager extends Manager {
         CAPS_CACHE.setMaxCacheSize(maxCapsCacheSize);
     }
 
+    /**
+     * Get the maximum number of JID to node#ver mappings cached in memory.
+     *
+     * @return the maximum size of the JID to node#ver cache.
+     */
+    public static int getMaxJidToNodeVerCacheSize() {
+        return JID_TO_NODEVER_CACHE.getMaxCacheSize();
+    }
+
+    /**
+     * Get the maximum number of DiscoverInfos cached in memory.
+     *
+     * @return the maximum size of the caps cache.
+     */
+    public static int getMaxCapsCacheSize() {
+        return CAPS_CACHE.getMaxCacheSize();
+    }
+
+    /**
+     * Get the number of DiscoverInfo lookups by node#ver which were answered by the memory cache.
+     *
+     * @return the number of memory cache hits.
+     */
+    public static long getCapsCacheHits() {
+        return CAPS_CACHE.getCacheHits();
+    }
+
+    /**
+     * Get the number of DiscoverInfo lookups by node#ver which were answered by the persistent cache.
+     *
+     * @return the number of persistent cache hits.
+     */
+    public static long getPersistentCacheHits() {
+        return PERSISTENT_CACHE_HITS.get();
+    }
+
+    /**
+     * Get the number of DiscoverInfo lookups by node#ver which were answered neither by the memory cache nor by the
+     * persistent cache.
+     *
+     * @return the number of cache misses.
+     */
+    public static long getCapsCacheMisses() {
+        return CAPS_CACHE_MISSES.get();
+    }
+
+    /**
+     * Get the number of DiscoverInfos which did not match the verification string of the entity caps they were
+     * requested for, and hence were not cached.
+     *
+     * @return the number of verification failures.
+     * @see #verifyDiscoverInfoVersion(String, String, DiscoverInfo)
+     */
+    public static long getVerificationFailures() {
+        return VERIFICATION_FAILURES.get();
+    }
+
     /**
      * Clears the memory cache.
      */
@@ -534,6 +614,14 @@ public final class EntityCapsManager extends Manager {
      * @return true if it's valid and should be cache, false if not
      */
     public static boolean verifyDiscoverInfoVersion(String ver, String hash, DiscoverInfo info) {
+        boolean verified = verifyDiscoverInfoVersionInternal(ver, hash, info);
+        if (!verified) {
+            VERIFICATION_FAILURES.incrementAndGet();
+        }
+        return verified;
+    }
+
+    private static boolean verifyDiscoverInfoVersionInternal(String ver, String hash, DiscoverInfo info) {
         // step 3.3 check for duplicate identities
         if (info.containsDuplicateIdentities())
             return false;
@@ -0,0 +1,342 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.caps.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.util.ChecksummedRecords;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jxmpp.jid.Jid;
+
+/**
+ * An EntityCapsPersistentCache which stores the Caps information of all known nodes in a single, append-only file.
+ * <p>
+ * The index of the file is loaded when the cache is created, hence lookups never read from the file. Identical
+ * DiscoverInfo payloads, e.g. of the same client announcing different nodes, are only stored once. New entries are
+ * written asynchronously by a background thread, which appends all entries added in the meantime with a single write.
+ * </p>
+ * <p>
+ * Every record of the file is protected by a checksum. Incomplete records, e.g. because the application crashed
+ * while the record was written, are ignored and overwritten by the next write.
+ * </p>
+ */
+public final class SingleFilePersistentCache implements EntityCapsPersistentCache {
+
+    private static final Logger LOGGER = Logger.getLogger(SingleFilePersistentCache.class.getName());
+
+    private static final byte[] MAGIC = { 'S', 'E', 'C', '1' };
+
+    private static final byte RECORD_PAYLOAD = 'P';
+    private static final byte RECORD_NODE = 'N';
+
+    private final File file;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            writePendingRecords();
+        }
+    };
+
+    // The following fields are guarded by 'this'.
+
+    /**
+     * The IDs of the payloads by node#ver.
+     */
+    private final Map<String, Integer> nodes = new HashMap<>();
+
+    /**
+     * The XML of the DiscoverInfo payloads without stanza attributes and node, the index is the ID of the payload.
+     */
+    private final List<String> payloads = new ArrayList<>();
+
+    private final Map<String, Integer> payloadIds = new HashMap<>();
+
+    private final ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+
+    private boolean writeScheduled;
+
+    private boolean truncate;
+
+    /**
+     * The length of the valid records in the file. Only accessed by the writer thread after the cache was loaded.
+     */
+    private long length;
+
+    /**
+     * Creates a new SingleFilePersistentCache and loads the index of the given file. If the file does not exist, then
+     * it is created when the first entry is added.
+     *
+     * @param file the file of the cache.
+     */
+    public SingleFilePersistentCache(File file) {
+        this.file = file;
+        executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+                        new WriterThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        try {
+            load();
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not load entity caps cache " + file + ", it will be replaced", e);
+            clearIndex();
+            truncate = true;
+        }
+    }
+
+    @Override
+    public void addDiscoverInfoByNodePersistent(String nodeVer, DiscoverInfo info) {
+        // Strip everything which is specific to the response, so that identical payloads can be detected.
+        DiscoverInfo payload = new DiscoverInfo(info);
+        payload.setFrom((Jid) null);
+        payload.setTo((Jid) null);
+        payload.setStanzaId(null);
+        payload.setNode(null);
+        String payloadXml = payload.toXML().toString();
+
+        synchronized (this) {
+            if (nodes.containsKey(nodeVer)) {
+                return;
+            }
+            try {
+                Integer payloadId = payloadIds.get(payloadXml);
+                if (payloadId == null) {
+                    payloadId = payloads.size();
+                    payloads.add(payloadXml);
+                    payloadIds.put(payloadXml, payloadId);
+                    writeRecord(pendingRecords, RECORD_PAYLOAD, payloadId, payloadXml);
+                }
+                nodes.put(nodeVer, payloadId);
+                writeRecord(pendingRecords, RECORD_NODE, payloadId, nodeVer);
+            }
+            catch (IOException e) {
+                // Should never happen when writing to a ByteArrayOutputStream.
+                throw new AssertionError(e);
+            }
+            scheduleWrite();
+        }
+    }
+
+    @Override
+    public DiscoverInfo lookup(String nodeVer) {
+        String payloadXml;
+        synchronized (this) {
+            Integer payloadId = nodes.get(nodeVer);
+            if (payloadId == null) {
+                return null;
+            }
+            payloadXml = payloads.get(payloadId);
+        }
+        DiscoverInfo info;
+        try {
+            info = (DiscoverInfo) PacketParserUtils.parseStanza(payloadXml);
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not restore info of " + nodeVer, e);
+            return null;
+        }
+        info.setNode(nodeVer);
+        return info;
+    }
+
+    @Override
+    public synchronized void emptyCache() {
+        clearIndex();
+        pendingRecords.reset();
+        truncate = true;
+        scheduleWrite();
+    }
+
+    /**
+     * Get the number of node#ver entries in this cache.
+     *
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Get the number of distinct DiscoverInfo payloads in this cache, which is smaller than the number of entries if
+     * nodes with identical payloads are cached.
+     *
+     * @return the number of distinct payloads.
+     */
+    public synchronized int getPayloadCount() {
+        return payloads.size();
+    }
+
+    /**
+     * Wait until all entries added so far were written to the file.
+     *
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            // The writer runs on the single thread of the executor, hence all writes scheduled before are done once
+            // this no-op task has run.
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        }
+        catch (ExecutionException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void clearIndex() {
+        nodes.clear();
+        payloads.clear();
+        payloadIds.clear();
+    }
+
+    private void scheduleWrite() {
+        if (writeScheduled) {
+            return;
+        }
+        writeScheduled = true;
+        executor.execute(writer);
+    }
+
+    private void writePendingRecords() {
+        byte[] records;
+        boolean truncate;
+        synchronized (this) {
+            records = pendingRecords.toByteArray();
+            pendingRecords.reset();
+            truncate = this.truncate;
+            this.truncate = false;
+            writeScheduled = false;
+        }
+        try {
+            if (truncate || length == 0) {
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(MAGIC);
+                }
+                finally {
+                    out.close();
+                }
+                length = MAGIC.length;
+            }
+            if (records.length == 0) {
+                return;
+            }
+            // Overwrite incomplete records which may follow the valid records.
+            FileOutputStream out = new FileOutputStream(file, true);
+            try {
+                out.getChannel().truncate(length);
+                out.getChannel().position(length);
+                out.write(records);
+            }
+            finally {
+                out.close();
+            }
+            length += records.length;
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write entity caps cache " + file, e);
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        long validLength = ChecksummedRecords.read(file, MAGIC, new ChecksummedRecords.RecordHandler() {
+            @Override
+            public void handleRecord(ByteBuffer record) throws UnsupportedEncodingException {
+                readRecord(record);
+            }
+        });
+        // An empty or incomplete file is rewritten by the first write.
+        length = Math.max(0, validLength);
+    }
+
+    private void readRecord(ByteBuffer record) throws UnsupportedEncodingException {
+        byte type = record.get();
+        int payloadId = record.getInt();
+        String string = ChecksummedRecords.readString(record);
+        if (string == null) {
+            throw new IllegalArgumentException("Missing string in record of type " + type);
+        }
+        switch (type) {
+        case RECORD_PAYLOAD:
+            if (payloadId != payloads.size()) {
+                throw new IllegalArgumentException("Unexpected payload ID " + payloadId);
+            }
+            payloads.add(string);
+            payloadIds.put(string, payloadId);
+            break;
+        case RECORD_NODE:
+            if (payloadId < 0 || payloadId >= payloads.size()) {
+                throw new IllegalArgumentException("Unknown payload ID " + payloadId);
+            }
+            nodes.put(string, payloadId);
+            break;
+        default:
+            LOGGER.warning("Ignoring unknown record of type " + type + " in entity caps cache " + file);
+            break;
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, byte type, int payloadId, String string)
+                    throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeByte(type);
+        payload.writeInt(payloadId);
+        ChecksummedRecords.writeString(payload, string);
+        payload.flush();
+        ChecksummedRecords.writeRecord(out, payloadBytes.toByteArray());
+    }
+
+    /**
+     * Like the thread factories of Smack's executors, this is not an anonymous inner class in order to prevent
+     * threads from leaking.
+     */
+    private static final class WriterThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Smack Entity Caps Cache Writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -16,13 +16,20 @@
  */
 package org.jivesoftware.smackx.disco;
 
+import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.ConnectionCreationListener;
+import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.SuccessCallback;
 import org.jivesoftware.smack.XMPPConnectionRegistry;
+import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.filter.PresenceTypeFilter;
 import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler.Mode;
 import org.jivesoftware.smack.packet.IQ;
@@ -45,12 +52,14 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -88,6 +97,25 @@ public final class ServiceDiscoveryManager extends Manager {
     private Map<String, NodeInformationProvider> nodeInformationProviders =
             new ConcurrentHashMap<String, NodeInformationProvider>();
 
+    /**
+     * The default time in milliseconds for which error responses to disco#info requests are cached. The cache is
+     * disabled by default, use {@link #setFailedRequestsExpirationTime(long)} to enable it.
+     */
+    public static final long DEFAULT_FAILED_REQUESTS_EXPIRATION_TIME = 0;
+
+    private final ConcurrentHashMap<DiscoverInfoKey, SmackFuture<DiscoverInfo>> pendingRequests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SmackFuture<DiscoverInfo>> pendingCapsRequests = new ConcurrentHashMap<>();
+
+    // Guarded by 'failedRequests'. Entries are put with 'failedRequestsExpirationTime', the default expiration time
+    // of the cache is never used.
+    private final ExpirationCache<DiscoverInfoKey, XMPPErrorException> failedRequests = new ExpirationCache<>(1000,
+                    5 * 60 * 1000);
+    private long failedRequestsExpirationTime = DEFAULT_FAILED_REQUESTS_EXPIRATION_TIME;
+
+    private final AtomicLong sentDiscoverInfoRequests = new AtomicLong();
+    private final AtomicLong coalescedDiscoverInfoRequests = new AtomicLong();
+    private final AtomicLong failedRequestsCacheHits = new AtomicLong();
+
     // Create a new ServiceDiscoveryManager on every established connection
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(new ConnectionCreationListener() {
@@ -187,6 +215,14 @@ public final class ServiceDiscoveryManager extends Manager {
                 return response;
             }
         });
+
+        // An entity which becomes available may answer differently than before, forget its cached error responses.
+        connection.addAsyncStanzaListener(new StanzaListener() {
+            @Override
+            public void processPacket(Stanza packet) {
+                clearFailedRequests(packet.getFrom());
+            }
+        }, PresenceTypeFilter.AVAILABLE);
     }
 
     /**
@@ -475,6 +511,9 @@ public final class ServiceDiscoveryManager extends Manager {
     /**
      * Returns the discovered information of a given XMPP entity addressed by its JID.
      * Use null as entityID to query the server
+     * <p>
+     * Concurrent lookups share a single disco#info request, see {@link #discoverInfoAsync(Jid)}.
+     * </p>
      * 
      * @param entityID the address of the XMPP entity or null.
      * @return the discovered information.
@@ -484,39 +523,16 @@ public final class ServiceDiscoveryManager extends Manager {
      * @throws InterruptedException 
      */
     public DiscoverInfo discoverInfo(Jid entityID) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        if (entityID == null)
-            return discoverInfo(null, null);
-
-        // Check if the have it cached in the Entity Capabilities Manager
-        DiscoverInfo info = EntityCapsManager.getDiscoverInfoByUser(entityID);
-
-        if (info != null) {
-            // We were able to retrieve the information from Entity Caps and
-            // avoided a disco request, hurray!
-            return info;
-        }
-
-        // Try to get the newest node#version if it's known, otherwise null is
-        // returned
-        EntityCapsManager.NodeVerHash nvh = EntityCapsManager.getNodeVerHashByJid(entityID);
-
-        // Discover by requesting the information from the remote entity
-        // Note that wee need to use NodeVer as argument for Node if it exists
-        info = discoverInfo(entityID, nvh != null ? nvh.getNodeVer() : null);
-
-        // If the node version is known, store the new entry.
-        if (nvh != null) {
-            if (EntityCapsManager.verifyDiscoverInfoVersion(nvh.getVer(), nvh.getHash(), info))
-                EntityCapsManager.addDiscoverInfoByNode(nvh.getNodeVer(), info);
-        }
-
-        return info;
+        return getOrThrow(discoverInfoAsync(entityID));
     }
 
     /**
      * Returns the discovered information of a given XMPP entity addressed by its JID and
      * note attribute. Use this message only when trying to query information which is not 
      * directly addressable.
+     * <p>
+     * Concurrent lookups share a single disco#info request, see {@link #discoverInfoAsync(Jid, String)}.
+     * </p>
      * 
      * @see <a href="http://xmpp.org/extensions/xep-0030.html#info-basic">XEP-30 Basic Protocol</a>
      * @see <a href="http://xmpp.org/extensions/xep-0030.html#info-nodes">XEP-30 Info Nodes</a>
@@ -530,15 +546,320 @@ public final class ServiceDiscoveryManager extends Manager {
      * @throws InterruptedException 
      */
     public DiscoverInfo discoverInfo(Jid entityID, String node) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        // Discover the entity's info
+        return getOrThrow(discoverInfoAsync(entityID, node));
+    }
+
+    private static DiscoverInfo getOrThrow(SmackFuture<DiscoverInfo> future) throws NoResponseException,
+                    XMPPErrorException, NotConnectedException, InterruptedException {
+        try {
+            return future.getOrThrow();
+        }
+        catch (NoResponseException | NotConnectedException | XMPPErrorException e) {
+            throw e;
+        }
+        catch (SmackException | XMPPException e) {
+            // Not thrown by IQ requests.
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns a future for the discovered information of a given XMPP entity addressed by its JID. Like
+     * {@link #discoverInfo(Jid)}, the information is taken from the Entity Capabilities cache if possible.
+     * <p>
+     * If the Entity Capabilities node#ver of the entity is known, then concurrent lookups of all entities announcing
+     * the same node#ver share a single request. Only if the information received for another entity can not be
+     * verified, a lookup falls back to query its own entity.
+     * </p>
+     *
+     * @param entityID the address of the XMPP entity.
+     * @return a future for the discovered information.
+     */
+    public SmackFuture<DiscoverInfo> discoverInfoAsync(final Jid entityID) {
+        if (entityID == null) {
+            return discoverInfoAsync(null, null);
+        }
+
+        DiscoverInfo info = EntityCapsManager.getDiscoverInfoByUser(entityID);
+        if (info != null) {
+            return SmackFuture.forResult(info);
+        }
+
+        final EntityCapsManager.NodeVerHash nvh = EntityCapsManager.getNodeVerHashByJid(entityID);
+        if (nvh == null) {
+            return discoverInfoAsync(entityID, null);
+        }
+
+        final String nodeVer = nvh.getNodeVer();
+        final SmackFuture<DiscoverInfo> capsRequest = new SmackFuture<>();
+        SmackFuture<DiscoverInfo> pendingCapsRequest = pendingCapsRequests.putIfAbsent(nodeVer, capsRequest);
+        if (pendingCapsRequest != null) {
+            coalescedDiscoverInfoRequests.incrementAndGet();
+            final SmackFuture<DiscoverInfo> future = new SmackFuture<>();
+            pendingCapsRequest.onSuccess(new SuccessCallback<DiscoverInfo>() {
+                @Override
+                public void onSuccess(DiscoverInfo info) {
+                    // Every coalesced caller gets a copy of its own, as DiscoverInfo is mutable.
+                    future.complete(new DiscoverInfo(info));
+                }
+            }).onError(new ExceptionCallback() {
+                @Override
+                public void processException(Exception exception) {
+                    // The request for another entity failed, ask this entity itself.
+                    forward(discoverInfoAsync(entityID, nodeVer).thenApply(new VerifyCapsTransformer(nvh)), future);
+                }
+            });
+            return future;
+        }
+
+        final SmackFuture<DiscoverInfo> future = new SmackFuture<>();
+        discoverInfoAsync(entityID, nodeVer).onSuccess(new SuccessCallback<DiscoverInfo>() {
+            @Override
+            public void onSuccess(DiscoverInfo info) {
+                // Add the information to the cache before the pending request is removed, so that subsequent lookups
+                // find it there.
+                boolean verified = EntityCapsManager.verifyDiscoverInfoVersion(nvh.getVer(), nvh.getHash(), info);
+                if (verified) {
+                    EntityCapsManager.addDiscoverInfoByNode(nodeVer, info);
+                }
+                pendingCapsRequests.remove(nodeVer, capsRequest);
+                if (verified) {
+                    capsRequest.complete(new DiscoverInfo(info));
+                }
+                else {
+                    capsRequest.completeExceptionally(new Exception("Could not verify " + nodeVer + " of " + entityID));
+                }
+                future.complete(info);
+            }
+        }).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                pendingCapsRequests.remove(nodeVer, capsRequest);
+                capsRequest.completeExceptionally(exception);
+                future.completeExceptionally(exception);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns a future for the discovered information of a given XMPP entity addressed by its JID and note
+     * attribute. This is the non-blocking variant of {@link #discoverInfo(Jid, String)}.
+     * <p>
+     * Concurrent lookups of the same JID and node share a single request and its result. If the cache of error
+     * responses is enabled with {@link #setFailedRequestsExpirationTime(long)} and the entity responded with an
+     * error, then the error is cached for {@link #getFailedRequestsExpirationTime()} milliseconds, and lookups within
+     * this period fail immediately with the cached error. The cached errors of an entity are forgotten once an
+     * available presence from it is received.
+     * </p>
+     *
+     * @param entityID the address of the XMPP entity.
+     * @param node the optional attribute that supplements the 'jid' attribute.
+     * @return a future for the discovered information.
+     */
+    public SmackFuture<DiscoverInfo> discoverInfoAsync(Jid entityID, String node) {
+        final DiscoverInfoKey key = new DiscoverInfoKey(entityID, node);
+        XMPPErrorException cachedError;
+        synchronized (failedRequests) {
+            cachedError = failedRequests.get(key);
+        }
+        if (cachedError != null) {
+            failedRequestsCacheHits.incrementAndGet();
+            return SmackFuture.forException(cachedError);
+        }
+
+        // Every caller gets a future of its own, so that a caller cancelling its future does not affect the others.
+        SmackFuture<DiscoverInfo> future = new SmackFuture<>();
+        final SmackFuture<DiscoverInfo> request = new SmackFuture<>();
+        SmackFuture<DiscoverInfo> pendingRequest = pendingRequests.putIfAbsent(key, request);
+        if (pendingRequest != null) {
+            coalescedDiscoverInfoRequests.incrementAndGet();
+            forwardCopy(pendingRequest, future);
+            return future;
+        }
+        forwardCopy(request, future);
+
         DiscoverInfo disco = new DiscoverInfo();
         disco.setType(IQ.Type.get);
         disco.setTo(entityID);
         disco.setNode(node);
 
-        Stanza result = connection().createPacketCollectorAndSend(disco).nextResultOrThrow();
+        sentDiscoverInfoRequests.incrementAndGet();
+        connection().<DiscoverInfo>sendIqRequestAsync(disco).onSuccess(new SuccessCallback<DiscoverInfo>() {
+            @Override
+            public void onSuccess(DiscoverInfo info) {
+                pendingRequests.remove(key, request);
+                request.complete(info);
+            }
+        }).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                if (exception instanceof XMPPErrorException) {
+                    // Cache the error before the pending request is removed, so that subsequent lookups find it.
+                    synchronized (failedRequests) {
+                        if (failedRequestsExpirationTime > 0) {
+                            failedRequests.put(key, (XMPPErrorException) exception, failedRequestsExpirationTime);
+                        }
+                    }
+                }
+                pendingRequests.remove(key, request);
+                request.completeExceptionally(exception);
+            }
+        });
+        return future;
+    }
+
+    private static <V> void forward(SmackFuture<V> source, final SmackFuture<V> target) {
+        source.onSuccess(new SuccessCallback<V>() {
+            @Override
+            public void onSuccess(V result) {
+                target.complete(result);
+            }
+        }).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                target.completeExceptionally(exception);
+            }
+        });
+    }
+
+    private static void forwardCopy(SmackFuture<DiscoverInfo> source, final SmackFuture<DiscoverInfo> target) {
+        source.onSuccess(new SuccessCallback<DiscoverInfo>() {
+            @Override
+            public void onSuccess(DiscoverInfo info) {
+                // Every coalesced caller gets a copy of its own, as DiscoverInfo is mutable.
+                target.complete(new DiscoverInfo(info));
+            }
+        }).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                target.completeExceptionally(exception);
+            }
+        });
+    }
+
+    private static final class VerifyCapsTransformer implements SmackFuture.Transformer<DiscoverInfo, DiscoverInfo> {
+        private final EntityCapsManager.NodeVerHash nvh;
+
+        private VerifyCapsTransformer(EntityCapsManager.NodeVerHash nvh) {
+            this.nvh = nvh;
+        }
+
+        @Override
+        public DiscoverInfo transform(DiscoverInfo info) {
+            if (EntityCapsManager.verifyDiscoverInfoVersion(nvh.getVer(), nvh.getHash(), info))
+                EntityCapsManager.addDiscoverInfoByNode(nvh.getNodeVer(), info);
+            return info;
+        }
+    }
+
+    /**
+     * Set the time in milliseconds for which error responses to disco#info requests are cached. A value of
+     * <code>0</code>, which is the default, disables the cache.
+     *
+     * @param expirationTime the expiration time in milliseconds.
+     */
+    public void setFailedRequestsExpirationTime(long expirationTime) {
+        if (expirationTime < 0) {
+            throw new IllegalArgumentException("expirationTime must not be negative");
+        }
+        synchronized (failedRequests) {
+            failedRequestsExpirationTime = expirationTime;
+            if (expirationTime == 0) {
+                failedRequests.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the time in milliseconds for which error responses to disco#info requests are cached.
+     *
+     * @return the expiration time in milliseconds.
+     */
+    public long getFailedRequestsExpirationTime() {
+        synchronized (failedRequests) {
+            return failedRequestsExpirationTime;
+        }
+    }
+
+    /**
+     * Forget all cached error responses to disco#info requests.
+     */
+    public void clearFailedRequests() {
+        synchronized (failedRequests) {
+            failedRequests.clear();
+        }
+    }
+
+    private void clearFailedRequests(Jid entityID) {
+        synchronized (failedRequests) {
+            if (failedRequests.isEmpty()) {
+                return;
+            }
+            Iterator<DiscoverInfoKey> it = failedRequests.keySet().iterator();
+            while (it.hasNext()) {
+                DiscoverInfoKey key = it.next();
+                if (entityID == null ? key.entityID == null : entityID.equals(key.entityID)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of disco#info requests sent by this manager.
+     *
+     * @return the number of sent disco#info requests.
+     */
+    public long getSentDiscoverInfoRequests() {
+        return sentDiscoverInfoRequests.get();
+    }
 
-        return (DiscoverInfo) result;
+    /**
+     * Get the number of disco#info lookups which shared the request of a concurrent lookup, instead of sending a
+     * request of their own.
+     *
+     * @return the number of coalesced disco#info lookups.
+     */
+    public long getCoalescedDiscoverInfoRequests() {
+        return coalescedDiscoverInfoRequests.get();
+    }
+
+    /**
+     * Get the number of disco#info lookups which failed immediately with a cached error response.
+     *
+     * @return the number of lookups answered from the cache of error responses.
+     */
+    public long getFailedRequestsCacheHits() {
+        return failedRequestsCacheHits.get();
+    }
+
+    private static final class DiscoverInfoKey {
+        private final Jid entityID;
+        private final String node;
+
+        private DiscoverInfoKey(Jid entityID, String node) {
+            this.entityID = entityID;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof DiscoverInfoKey)) {
+                return false;
+            }
+            DiscoverInfoKey otherKey = (DiscoverInfoKey) other;
+            return (entityID == null ? otherKey.entityID == null : entityID.equals(otherKey.entityID))
+                            && (node == null ? otherKey.node == null : node.equals(otherKey.node));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (entityID == null ? 0 : entityID.hashCode()) + (node == null ? 0 : node.hashCode());
+        }
     }
 
     /**
@@ -19,9 +19,9 @@ package org.jivesoftware.smackx.muc;
 public interface AutoJoinFailedCallback {
 
     /**
-     * Invoked if the automatic rejoin rooms on reconnect failed.
+     * Invoked if the automatic rejoin of a room on reconnect failed.
      *
-     * @param muc the MultiUserChat which failed first.
+     * @param muc the MultiUserChat which could not be rejoined.
      * @param e the exception causing the failure.
      */
     void autoJoinFailed(MultiUserChat muc, Exception e);
@@ -18,6 +18,7 @@ package org.jivesoftware.smackx.muc;
 
 import java.util.Date;
 
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.util.Objects;
 import org.jivesoftware.smackx.muc.packet.MUCInitialPresence;
@@ -45,6 +46,8 @@ public final class MucEnterConfiguration {
     private final Date since;
     private final long timeout;
     private final Presence joinPresence;
+    private final int messageBufferSize;
+    private final long messageBufferMaxAge;
 
     MucEnterConfiguration(Builder builder) {
         nickname = builder.nickname;
@@ -54,6 +57,8 @@ public final class MucEnterConfiguration {
         seconds = builder.seconds;
         since = builder.since;
         timeout = builder.timeout;
+        messageBufferSize = builder.messageBufferSize;
+        messageBufferMaxAge = builder.messageBufferMaxAge;
 
         if (builder.joinPresence == null) {
             joinPresence = new Presence(Presence.Type.available);
@@ -76,6 +81,14 @@ public final class MucEnterConfiguration {
         return timeout;
     }
 
+    int getMessageBufferSize() {
+        return messageBufferSize;
+    }
+
+    long getMessageBufferMaxAge() {
+        return messageBufferMaxAge;
+    }
+
     public static final class Builder {
         private final Resourcepart nickname;
 
@@ -86,6 +99,8 @@ public final class MucEnterConfiguration {
         private Date since;
         private long timeout;
         private Presence joinPresence;
+        private int messageBufferSize = SmackConfiguration.getPacketCollectorSize();
+        private long messageBufferMaxAge;
 
         Builder(Resourcepart nickname, long timeout) {
             this.nickname = Objects.requireNonNull(nickname, "Nickname must not be null");
@@ -135,6 +150,50 @@ public final class MucEnterConfiguration {
             return this;
         }
 
+        /**
+         * Buffer up to the given number of groupchat messages for {@link MultiUserChat#pollMessage()} and
+         * {@link MultiUserChat#nextMessage()}. Once the buffer is full, the oldest message is dropped. The default is
+         * set by {@link MultiUserChatManager#setDefaultMessageBufferSize(int)}.
+         *
+         * @param maxMessages the maximum number of buffered messages, <code>0</code> disables the buffer.
+         * @return a reference to this builder.
+         * @see #disableMessageBuffer()
+         */
+        public Builder bufferMessages(int maxMessages) {
+            return bufferMessages(maxMessages, 0);
+        }
+
+        /**
+         * Buffer up to the given number of groupchat messages, which are not older than the given age, for
+         * {@link MultiUserChat#pollMessage()} and {@link MultiUserChat#nextMessage()}.
+         *
+         * @param maxMessages the maximum number of buffered messages, <code>0</code> disables the buffer.
+         * @param maxAge the maximum age of buffered messages in milliseconds, <code>0</code> if they do not expire.
+         * @return a reference to this builder.
+         */
+        public Builder bufferMessages(int maxMessages, long maxAge) {
+            if (maxMessages < 0) {
+                throw new IllegalArgumentException("maxMessages must not be negative");
+            }
+            if (maxAge < 0) {
+                throw new IllegalArgumentException("maxAge must not be negative");
+            }
+            messageBufferSize = maxMessages;
+            messageBufferMaxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * Do not buffer groupchat messages. Use this if the room's messages are only processed by
+         * {@link org.jivesoftware.smack.MessageListener}s, {@link MultiUserChat#pollMessage()} and
+         * {@link MultiUserChat#nextMessage()} can then not be used.
+         *
+         * @return a reference to this builder.
+         */
+        public Builder disableMessageBuffer() {
+            return bufferMessages(0);
+        }
+
         /**
          * Request that that MUC is going to sent us no history when joining.
          * 
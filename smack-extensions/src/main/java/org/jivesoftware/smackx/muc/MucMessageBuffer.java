@@ -0,0 +1,132 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.smack.packet.Message;
+
+/**
+ * The buffer of the groupchat messages of a room which were not yet retrieved via {@link MultiUserChat#pollMessage()}
+ * or {@link MultiUserChat#nextMessage()}. The buffer holds at most a given number of messages, once it is full the
+ * oldest message is dropped. Optionally messages are also dropped once they reached a maximum age. Expired messages are
+ * dropped lazily, i.e. when the buffer is accessed.
+ * <p>
+ * The buffer only grows as messages are added, an empty buffer does not retain any memory for its maximum size.
+ * </p>
+ */
+final class MucMessageBuffer {
+
+    private final int maxMessages;
+
+    private final long maxAge;
+
+    private final AtomicLong droppedMessages;
+
+    // The following fields are guarded by 'this'.
+    private final ArrayDeque<Message> messages = new ArrayDeque<>();
+
+    /**
+     * The reception times of the messages in {@link #messages}, or <code>null</code> if the messages do not expire.
+     */
+    private final ArrayDeque<Long> receptionTimes;
+
+    /**
+     * Create a new buffer.
+     *
+     * @param maxMessages the maximum number of buffered messages, <code>0</code> disables the buffer.
+     * @param maxAge the maximum age of buffered messages in milliseconds, <code>0</code> if they do not expire.
+     * @param droppedMessages the counter which is incremented for every dropped message.
+     */
+    MucMessageBuffer(int maxMessages, long maxAge, AtomicLong droppedMessages) {
+        this.maxMessages = maxMessages;
+        this.maxAge = maxAge;
+        this.droppedMessages = droppedMessages;
+        receptionTimes = maxAge > 0 ? new ArrayDeque<Long>() : null;
+    }
+
+    boolean isEnabled() {
+        return maxMessages > 0;
+    }
+
+    synchronized void add(Message message) {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        removeExpired(now);
+        if (messages.size() >= maxMessages) {
+            removeFirst();
+            droppedMessages.incrementAndGet();
+        }
+        messages.addLast(message);
+        if (receptionTimes != null) {
+            receptionTimes.addLast(now);
+        }
+        notifyAll();
+    }
+
+    synchronized Message poll() {
+        removeExpired(System.currentTimeMillis());
+        return removeFirst();
+    }
+
+    synchronized Message poll(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long now = System.currentTimeMillis();
+            removeExpired(now);
+            if (!messages.isEmpty()) {
+                return removeFirst();
+            }
+            if (now >= deadline) {
+                return null;
+            }
+            wait(deadline - now);
+        }
+    }
+
+    synchronized int size() {
+        removeExpired(System.currentTimeMillis());
+        return messages.size();
+    }
+
+    synchronized void clear() {
+        messages.clear();
+        if (receptionTimes != null) {
+            receptionTimes.clear();
+        }
+    }
+
+    private void removeExpired(long now) {
+        if (receptionTimes == null) {
+            return;
+        }
+        while (!receptionTimes.isEmpty() && now - receptionTimes.peekFirst() > maxAge) {
+            removeFirst();
+            droppedMessages.incrementAndGet();
+        }
+    }
+
+    private Message removeFirst() {
+        if (receptionTimes != null) {
+            receptionTimes.pollFirst();
+        }
+        return messages.pollFirst();
+    }
+}
@@ -20,13 +20,12 @@ package org.jivesoftware.smackx.muc;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.MessageListener;
 import org.jivesoftware.smack.PacketCollector;
 import org.jivesoftware.smack.StanzaListener;
@@ -34,6 +33,7 @@ import org.jivesoftware.smack.PresenceListener;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackFuture;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
@@ -43,12 +43,8 @@ import org.jivesoftware.smack.chat.ChatMessageListener;
 import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.FromMatchesFilter;
 import org.jivesoftware.smack.filter.MessageTypeFilter;
-import org.jivesoftware.smack.filter.MessageWithSubjectFilter;
-import org.jivesoftware.smack.filter.NotFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
-import org.jivesoftware.smack.filter.StanzaExtensionFilter;
 import org.jivesoftware.smack.filter.StanzaTypeFilter;
-import org.jivesoftware.smack.filter.ToFilter;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
@@ -73,13 +69,11 @@ import org.jivesoftware.smackx.xdata.Form;
 import org.jivesoftware.smackx.xdata.FormField;
 import org.jivesoftware.smackx.xdata.packet.DataForm;
 import org.jxmpp.jid.EntityBareJid;
-import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.EntityFullJid;
 import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.EntityJid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.jid.parts.Resourcepart;
-import org.jxmpp.util.cache.ExpirationCache;
 
 /**
  * A MultiUserChat room (XEP-45), created with {@link MultiUserChatManager#getMultiUserChat(EntityBareJid)}.
@@ -103,13 +97,10 @@ import org.jxmpp.util.cache.ExpirationCache;
 public class MultiUserChat {
     private static final Logger LOGGER = Logger.getLogger(MultiUserChat.class.getName());
 
-    private static final ExpirationCache<DomainBareJid, Void> KNOWN_MUC_SERVICES = new ExpirationCache<>(
-                    100, 1000 * 60 * 60 * 24);
-
     private final XMPPConnection connection;
     private final EntityBareJid room;
     private final MultiUserChatManager multiUserChatManager;
-    private final Map<EntityFullJid, Presence> occupantsMap = new ConcurrentHashMap<>();
+    private final OccupantIndex occupantIndex = new OccupantIndex();
 
     private final Set<InvitationRejectionListener> invitationRejectionListeners = new CopyOnWriteArraySet<InvitationRejectionListener>();
     private final Set<SubjectUpdatedListener> subjectUpdatedListeners = new CopyOnWriteArraySet<SubjectUpdatedListener>();
@@ -131,7 +122,6 @@ public class MultiUserChat {
      */
     private final StanzaFilter fromRoomGroupchatFilter;
 
-    private final StanzaListener presenceInterceptor;
     private final StanzaListener messageListener;
     private final StanzaListener presenceListener;
     private final StanzaListener subjectListener;
@@ -140,7 +130,12 @@ public class MultiUserChat {
     private String subject;
     private Resourcepart nickname;
     private boolean joined = false;
-    private PacketCollector messageCollector;
+
+    /**
+     * The groupchat messages of the room which have not yet been retrieved via {@link #nextMessage()} or
+     * {@link #pollMessage()}, or <code>null</code> if the room is not entered.
+     */
+    private volatile MucMessageBuffer messageBuffer;
 
     MultiUserChat(XMPPConnection connection, EntityBareJid room, MultiUserChatManager multiUserChatManager) {
         this.connection = connection;
@@ -191,16 +186,18 @@ public class MultiUserChat {
                 boolean isUserStatusModification = presence.getFrom().equals(myRoomJID);
                 switch (presence.getType()) {
                 case available:
-                    Presence oldPresence = occupantsMap.put(from, presence);
-                    if (oldPresence != null) {
-                        // Get the previous occupant's affiliation & role
-                        MUCUser mucExtension = MUCUser.from(oldPresence);
-                        MUCAffiliation oldAffiliation = mucExtension.getItem().getAffiliation();
-                        MUCRole oldRole = mucExtension.getItem().getRole();
-                        // Get the new occupant's affiliation & role
-                        mucExtension = MUCUser.from(packet);
-                        MUCAffiliation newAffiliation = mucExtension.getItem().getAffiliation();
-                        MUCRole newRole = mucExtension.getItem().getRole();
+                    OccupantIndex.Entry oldEntry = occupantIndex.put(from, presence);
+                    if (oldEntry != null) {
+                        // Get the previous and the new occupant's affiliation & role
+                        OccupantIndex.Entry newEntry = occupantIndex.get(from);
+                        if (oldEntry.occupant == null || newEntry.occupant == null) {
+                            LOGGER.warning("Presence without MUC user item: " + presence.toXML());
+                            break;
+                        }
+                        MUCAffiliation oldAffiliation = oldEntry.getAffiliation();
+                        MUCRole oldRole = oldEntry.getRole();
+                        MUCAffiliation newAffiliation = newEntry.getAffiliation();
+                        MUCRole newRole = newEntry.getRole();
                         // Fire role modification events
                         checkRoleModifications(oldRole, newRole, isUserStatusModification, from);
                         // Fire affiliation modification events
@@ -220,7 +217,7 @@ public class MultiUserChat {
                     }
                     break;
                 case unavailable:
-                    occupantsMap.remove(from);
+                    occupantIndex.remove(from);
                     MUCUser mucUser = MUCUser.from(packet);
                     if (mucUser != null && mucUser.hasStatus()) {
                         // Fire events according to the received presence code
@@ -263,16 +260,6 @@ public class MultiUserChat {
                 fireInvitationRejectionListeners(message, rejection);
             }
         };
-
-        presenceInterceptor = new StanzaListener() {
-            @Override
-            public void processPacket(Stanza packet) {
-                Presence presence = (Presence) packet;
-                for (PresenceListener interceptor : presenceInterceptors) {
-                    interceptor.processPresence(presence);
-                }
-            }
-        };
     }
 
 
@@ -299,37 +286,20 @@ public class MultiUserChat {
      */
     private Presence enter(MucEnterConfiguration conf) throws NotConnectedException, NoResponseException,
                     XMPPErrorException, InterruptedException, NotAMucServiceException {
-        final DomainBareJid mucService = room.asDomainBareJid();
-        if (!KNOWN_MUC_SERVICES.containsKey(mucService)) {
-            if (multiUserChatManager.providesMucService(mucService)) {
-                KNOWN_MUC_SERVICES.put(mucService, null);
-            } else {
-                throw new NotAMucServiceException(this);
-            }
+        if (!multiUserChatManager.providesMucService(room.asDomainBareJid())) {
+            throw new NotAMucServiceException(this);
         }
         // We enter a room by sending a presence packet where the "to"
         // field is in the form "roomName@service/nickname"
         Presence joinPresence = conf.getJoinPresence(this);
 
         // Setup the messageListeners and presenceListeners *before* the join presence is send.
-        connection.addSyncStanzaListener(messageListener, fromRoomGroupchatFilter);
-        connection.addSyncStanzaListener(presenceListener, new AndFilter(fromRoomFilter,
-                        StanzaTypeFilter.PRESENCE));
-        connection.addSyncStanzaListener(subjectListener, new AndFilter(fromRoomFilter,
-                        MessageWithSubjectFilter.INSTANCE, new NotFilter(MessageTypeFilter.ERROR)));
-        connection.addSyncStanzaListener(declinesListener, new AndFilter(new StanzaExtensionFilter(MUCUser.ELEMENT,
-                        MUCUser.NAMESPACE), new NotFilter(MessageTypeFilter.ERROR)));
-        connection.addPacketInterceptor(presenceInterceptor, new AndFilter(new ToFilter(room),
-                        StanzaTypeFilter.PRESENCE));
-        messageCollector = connection.createPacketCollector(fromRoomGroupchatFilter);
+        addConnectionCallbacks(conf);
 
         // Wait for a presence packet back from the server.
-        // Use a bare JID filter, since the room may rewrite the nickname.
-        StanzaFilter responseFilter = new AndFilter(FromMatchesFilter.createBare(getRoom()), new StanzaTypeFilter(
-                        Presence.class), MUCUserStatusCodeFilter.STATUS_110_PRESENCE_TO_SELF);
         Presence presence;
         try {
-            presence = connection.createPacketCollectorAndSend(responseFilter, joinPresence).nextResultOrThrow(conf.getTimeout());
+            presence = connection.createPacketCollectorAndSend(createEnterResponseFilter(), joinPresence).nextResultOrThrow(conf.getTimeout());
         }
         catch (InterruptedException | NoResponseException | XMPPErrorException e) {
             // Ensure that all callbacks are removed if there is an exception
@@ -337,6 +307,112 @@ public class MultiUserChat {
             throw e;
         }
 
+        entered(presence);
+        return presence;
+    }
+
+    /**
+     * Enter the room asynchronously. This is the non-blocking variant of {@link #enter(MucEnterConfiguration)}.
+     *
+     * @param conf the configuration used to enter the room.
+     * @return a future for the self-presence of the room.
+     */
+    private SmackFuture<Presence> enterAsync(final MucEnterConfiguration conf) {
+        SmackFuture<Void> mucServiceChecked = multiUserChatManager.providesMucServiceAsync(room.asDomainBareJid())
+                        .thenApply(new SmackFuture.Transformer<Boolean, Void>() {
+            @Override
+            public Void transform(Boolean providesMucService) throws NotAMucServiceException {
+                if (!providesMucService) {
+                    throw new NotAMucServiceException(MultiUserChat.this);
+                }
+                return null;
+            }
+        });
+        return mucServiceChecked.thenCompose(new SmackFuture.Continuation<Void, Presence>() {
+            @Override
+            public SmackFuture<Presence> continueWith(Void result) {
+                Presence joinPresence = conf.getJoinPresence(MultiUserChat.this);
+                addConnectionCallbacks(conf);
+                SmackFuture<Presence> presence = connection.sendStanzaWithResponseAsync(joinPresence,
+                                createEnterResponseFilter(), conf.getTimeout());
+                presence.onError(new ExceptionCallback() {
+                    @Override
+                    public void processException(Exception exception) {
+                        // Ensure that all callbacks are removed if there is an exception
+                        removeConnectionCallbacks();
+                    }
+                });
+                return presence.thenApply(new SmackFuture.Transformer<Presence, Presence>() {
+                    @Override
+                    public Presence transform(Presence presence) {
+                        entered(presence);
+                        return presence;
+                    }
+                });
+            }
+        });
+    }
+
+    private void addConnectionCallbacks(MucEnterConfiguration conf) {
+        messageBuffer = multiUserChatManager.createMessageBuffer(conf);
+        // Instead of registering listeners for every room with the connection, the manager routes the stanzas of all
+        // entered rooms by their bare JID.
+        multiUserChatManager.addEnteredRoom(this);
+    }
+
+    /**
+     * Process a stanza received from this room, i.e. from the bare JID of the room or from one of its occupants.
+     * Invoked by the stanza router of the {@link MultiUserChatManager}.
+     *
+     * @param stanza the stanza received from this room.
+     * @throws NotConnectedException
+     * @throws InterruptedException
+     */
+    void processStanza(Stanza stanza) throws NotConnectedException, InterruptedException {
+        if (stanza instanceof Presence) {
+            presenceListener.processPacket(stanza);
+            return;
+        }
+        if (!(stanza instanceof Message)) {
+            return;
+        }
+        Message message = (Message) stanza;
+        if (message.getType() == Message.Type.error) {
+            return;
+        }
+        if (message.getType() == Message.Type.groupchat) {
+            MucMessageBuffer messageBuffer = this.messageBuffer;
+            if (messageBuffer != null) {
+                messageBuffer.add(message);
+            }
+            messageListener.processPacket(message);
+        }
+        if (message.getSubject() != null) {
+            subjectListener.processPacket(message);
+        }
+        if (MUCUser.from(message) != null) {
+            declinesListener.processPacket(message);
+        }
+    }
+
+    /**
+     * Invoke the presence interceptors with a presence sent to this room. Invoked by the {@link MultiUserChatManager}.
+     *
+     * @param presence the presence sent to this room.
+     */
+    void interceptPresence(Presence presence) {
+        for (PresenceListener interceptor : presenceInterceptors) {
+            interceptor.processPresence(presence);
+        }
+    }
+
+    private StanzaFilter createEnterResponseFilter() {
+        // Use a bare JID filter, since the room may rewrite the nickname.
+        return new AndFilter(FromMatchesFilter.createBare(getRoom()), new StanzaTypeFilter(
+                        Presence.class), MUCUserStatusCodeFilter.STATUS_110_PRESENCE_TO_SELF);
+    }
+
+    private void entered(Presence presence) {
         // This presence must be send from a full JID. We use the resourcepart of this JID as nick, since the room may
         // performed roomnick rewriting
         this.nickname = presence.getFrom().asEntityFullJidIfPossible().getResourcepart();
@@ -344,7 +420,6 @@ public class MultiUserChat {
 
         // Update the list of joined rooms
         multiUserChatManager.addJoinedRoom(room);
-        return presence;
     }
 
     /**
@@ -355,7 +430,9 @@ public class MultiUserChat {
      * @since 4.2
      */
     public MucEnterConfiguration.Builder getEnterConfigurationBuilder(Resourcepart nickname) {
-        return new MucEnterConfiguration.Builder(nickname, connection.getPacketReplyTimeout());
+        return new MucEnterConfiguration.Builder(nickname, connection.getPacketReplyTimeout()).bufferMessages(
+                        multiUserChatManager.getDefaultMessageBufferSize(),
+                        multiUserChatManager.getDefaultMessageBufferMaxAge());
     }
 
     /**
@@ -688,6 +765,22 @@ public class MultiUserChat {
         enter(mucEnterConfiguration);
     }
 
+    /**
+     * Joins the chat room asynchronously. This is the non-blocking variant of {@link #join(MucEnterConfiguration)},
+     * the returned future is completed with the self-presence of the room once the room was joined. Unlike
+     * {@link #join(MucEnterConfiguration)}, this method does not leave the room if it is already joined, instead
+     * the returned future is completed with a {@link MucAlreadyJoinedException}.
+     *
+     * @param mucEnterConfiguration the configuration used to enter the MUC.
+     * @return a future for the self-presence of the room.
+     */
+    public synchronized SmackFuture<Presence> joinAsync(MucEnterConfiguration mucEnterConfiguration) {
+        if (joined) {
+            return SmackFuture.forException(new MucAlreadyJoinedException());
+        }
+        return enterAsync(mucEnterConfiguration);
+    }
+
     /**
      * Returns true if currently in the multi user chat (after calling the {@link
      * #join(Resourcepart)} method).
@@ -714,7 +807,7 @@ public class MultiUserChat {
         leavePresence.setTo(JidCreate.fullFrom(room, nickname));
         connection.sendStanza(leavePresence);
         // Reset occupant information.
-        occupantsMap.clear();
+        occupantIndex.clear();
         nickname = null;
         joined = false;
         userHasLeft();
@@ -858,7 +951,7 @@ public class MultiUserChat {
         connection.createPacketCollectorAndSend(iq).nextResultOrThrow();
 
         // Reset occupant information.
-        occupantsMap.clear();
+        occupantIndex.clear();
         nickname = null;
         joined = false;
         userHasLeft();
@@ -1613,7 +1706,7 @@ public class MultiUserChat {
      * @return the number of occupants in the group chat.
      */
     public int getOccupantsCount() {
-        return occupantsMap.size();
+        return occupantIndex.size();
     }
 
     /**
@@ -1628,7 +1721,7 @@ public class MultiUserChat {
      * @return a List of the occupants in the group chat.
      */
     public List<EntityFullJid> getOccupants() {
-        return new ArrayList<>(occupantsMap.keySet());
+        return occupantIndex.getOccupantJids();
     }
 
     /**
@@ -1641,7 +1734,8 @@ public class MultiUserChat {
      *      or if no presence information is available.
      */
     public Presence getOccupantPresence(EntityFullJid user) {
-        return occupantsMap.get(user);
+        OccupantIndex.Entry entry = occupantIndex.get(user);
+        return entry != null ? entry.presence : null;
     }
 
     /**
@@ -1654,11 +1748,42 @@ public class MultiUserChat {
      * @return the Occupant or <tt>null</tt> if the user is unavailable (i.e. not in the room).
      */
     public Occupant getOccupant(EntityFullJid user) {
-        Presence presence = getOccupantPresence(user);
-        if (presence != null) {
-            return new Occupant(presence);
-        }
-        return null;
+        OccupantIndex.Entry entry = occupantIndex.get(user);
+        return entry != null ? entry.occupant : null;
+    }
+
+    /**
+     * Returns the occupants of the room with the given role, as known from the presences received from the room.
+     * Unlike {@link #getModerators()} and {@link #getParticipants()}, this does not query the room.
+     *
+     * @param role the role.
+     * @return the occupants with the given role.
+     */
+    public List<Occupant> getOccupantsWithRole(MUCRole role) {
+        return occupantIndex.getOccupantsWithRole(role);
+    }
+
+    /**
+     * Returns the occupants of the room with the given affiliation, as known from the presences received from the
+     * room. Unlike {@link #getOwners()}, {@link #getAdmins()} and {@link #getMembers()}, this does not query the room
+     * and only returns the affiliated users which are currently in the room.
+     *
+     * @param affiliation the affiliation.
+     * @return the occupants with the given affiliation.
+     */
+    public List<Occupant> getOccupantsWithAffiliation(MUCAffiliation affiliation) {
+        return occupantIndex.getOccupantsWithAffiliation(affiliation);
+    }
+
+    /**
+     * Returns the occupant JIDs used by the user with the given real JID in this room. The real JIDs of the occupants
+     * are only known in non-anonymous rooms, or if the user is a moderator of a semi-anonymous room.
+     *
+     * @param realJid the real JID of the user, only its bare JID is considered.
+     * @return the occupant JIDs of the user, e.g. darkcave@macbeth.shakespeare.lit/thirdwitch.
+     */
+    public List<EntityFullJid> getOccupantsByRealJid(Jid realJid) {
+        return occupantIndex.getOccupantJidsOf(realJid.asBareJid());
     }
 
     /**
@@ -1794,7 +1919,9 @@ public class MultiUserChat {
     }
 
     /**
-     * Returns a list of <code>Occupant</code> that have the specified room role.
+     * Returns a list of <code>Occupant</code> that have the specified room role. Roles only exist while an occupant is
+     * in the room, so if the room is joined and the real JIDs of the occupants with the role are known, then the
+     * occupants are taken from the local occupant index instead of querying the room.
      *
      * @param role the role of the occupant in the room.
      * @return a list of <code>Occupant</code> that have the specified room role.
@@ -1805,6 +1932,19 @@ public class MultiUserChat {
      * @throws InterruptedException 
      */
     private List<Occupant> getOccupants(MUCRole role) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
+        if (joined) {
+            List<Occupant> occupants = occupantIndex.getOccupantsWithRole(role);
+            boolean realJidsKnown = true;
+            for (Occupant occupant : occupants) {
+                if (occupant.getJid() == null) {
+                    realJidsKnown = false;
+                    break;
+                }
+            }
+            if (realJidsKnown) {
+                return occupants;
+            }
+        }
         MUCAdmin iq = new MUCAdmin();
         iq.setTo(room);
         iq.setType(IQ.Type.get);
@@ -1882,12 +2022,11 @@ public class MultiUserChat {
     * @return the next message if one is immediately available and
     *      <tt>null</tt> otherwise.
      * @throws MucNotJoinedException 
+     * @throws IllegalStateException if the messages of this room are not buffered.
+     * @see MucEnterConfiguration.Builder#bufferMessages(int, long)
     */
     public Message pollMessage() throws MucNotJoinedException {
-        if (messageCollector == null) {
-            throw new MucNotJoinedException(this);
-        }
-        return messageCollector.pollResult();
+        return getMessageBuffer().poll();
     }
 
     /**
@@ -1899,10 +2038,7 @@ public class MultiUserChat {
      * @throws InterruptedException 
      */
     public Message nextMessage() throws MucNotJoinedException, InterruptedException {
-        if (messageCollector == null) {
-            throw new MucNotJoinedException(this);
-        }
-        return  messageCollector.nextResult();
+        return nextMessage(connection.getPacketReplyTimeout());
     }
 
     /**
@@ -1915,12 +2051,36 @@ public class MultiUserChat {
      *      message becoming available.
      * @throws MucNotJoinedException 
      * @throws InterruptedException 
+     * @throws IllegalStateException if the messages of this room are not buffered.
      */
     public Message nextMessage(long timeout) throws MucNotJoinedException, InterruptedException {
-        if (messageCollector == null) {
+        return getMessageBuffer().poll(timeout);
+    }
+
+    private MucMessageBuffer getMessageBuffer() throws MucNotJoinedException {
+        MucMessageBuffer messageBuffer = this.messageBuffer;
+        if (messageBuffer == null) {
             throw new MucNotJoinedException(this);
         }
-        return messageCollector.nextResult(timeout);
+        if (!messageBuffer.isEnabled()) {
+            throw new IllegalStateException("Messages of " + room + " are not buffered");
+        }
+        return messageBuffer;
+    }
+
+    /**
+     * Get the number of buffered groupchat messages, which were not yet retrieved via {@link #pollMessage()} or
+     * {@link #nextMessage()}.
+     *
+     * @return the number of buffered messages.
+     * @see MucEnterConfiguration.Builder#bufferMessages(int, long)
+     */
+    public int getBufferedMessageCount() {
+        MucMessageBuffer messageBuffer = this.messageBuffer;
+        if (messageBuffer == null) {
+            return 0;
+        }
+        return messageBuffer.size();
     }
 
     /**
@@ -1979,18 +2139,11 @@ public class MultiUserChat {
     }
 
     /**
-     * Remove the connection callbacks (PacketListener, PacketInterceptor, PacketCollector) used by this MUC from the
-     * connection.
+     * Stop routing the stanzas of this room to this MUC and discard the queued messages.
      */
     private void removeConnectionCallbacks() {
-        connection.removeSyncStanzaListener(messageListener);
-        connection.removeSyncStanzaListener(presenceListener);
-        connection.removeSyncStanzaListener(declinesListener);
-        connection.removePacketInterceptor(presenceInterceptor);
-        if (messageCollector != null) {
-            messageCollector.cancel();
-            messageCollector = null;
-        }
+        multiUserChatManager.removeEnteredRoom(this);
+        messageBuffer = null;
     }
 
     /**
@@ -2320,7 +2473,7 @@ public class MultiUserChat {
                 }
 
                 // Reset occupant information.
-                occupantsMap.clear();
+                occupantIndex.clear();
                 nickname = null;
                 userHasLeft();
             }
@@ -2340,7 +2493,7 @@ public class MultiUserChat {
                 }
 
                 // Reset occupant information.
-                occupantsMap.clear();
+                occupantIndex.clear();
                 nickname = null;
                 userHasLeft();
             }
@@ -2360,7 +2513,7 @@ public class MultiUserChat {
                 }
 
                 // Reset occupant information.
-                occupantsMap.clear();
+                occupantIndex.clear();
                 nickname = null;
                 userHasLeft();
             }
@@ -2379,7 +2532,7 @@ public class MultiUserChat {
             }
 
             // Reset occupant information.
-            occupantsMap.clear();
+            occupantIndex.clear();
             nickname = null;
             userHasLeft();
         }
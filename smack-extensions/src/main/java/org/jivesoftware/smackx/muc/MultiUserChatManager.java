@@ -21,18 +21,26 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.AbstractConnectionListener;
 import org.jivesoftware.smack.ConnectionCreationListener;
+import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.SmackFuture;
 import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.SuccessCallback;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPConnectionRegistry;
 import org.jivesoftware.smack.SmackException.NoResponseException;
@@ -45,6 +53,7 @@ import org.jivesoftware.smack.filter.StanzaFilter;
 import org.jivesoftware.smack.filter.NotFilter;
 import org.jivesoftware.smack.filter.StanzaTypeFilter;
 import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smackx.disco.AbstractNodeInformationProvider;
@@ -59,6 +68,7 @@ import org.jxmpp.jid.EntityFullJid;
 import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.util.cache.ExpirationCache;
 import org.jxmpp.jid.EntityJid;
 
 /**
@@ -70,8 +80,8 @@ import org.jxmpp.jid.EntityJid;
  * <b>Automatic rejoin:</b> The manager supports automatic rejoin of MultiUserChat rooms once the connection got
  * re-established. This mechanism is disabled by default. To enable it, use {@link #setAutoJoinOnReconnect(boolean)}.
  * You can set a {@link AutoJoinFailedCallback} via {@link #setAutoJoinFailedCallback(AutoJoinFailedCallback)} to get
- * notified if this mechanism failed for some reason. Note that as soon as rejoining for a single room failed, no
- * further attempts will be made for the other rooms.
+ * notified if this mechanism failed for some reason. The rooms are rejoined concurrently via {@link #joinRooms(Map)},
+ * the callback is invoked for every room which could not be rejoined.
  * </p>
  * 
  * @see <a href="http://xmpp.org/extensions/xep-0045.html">XEP-0045: Multi-User Chat</a>
@@ -141,6 +151,47 @@ public final class MultiUserChatManager extends Manager {
      */
     private final Map<EntityBareJid, WeakReference<MultiUserChat>> multiUserChats = new HashMap<>();
 
+    /**
+     * The entered rooms by their bare JID. The stanzas received from those rooms, and the presences sent to them, are
+     * routed to the {@link MultiUserChat} instances via this map, so that the cost per stanza does not depend on the
+     * number of entered rooms.
+     */
+    private final Map<EntityBareJid, MultiUserChat> enteredRooms = new ConcurrentHashMap<>();
+
+    private final StanzaFilter fromEnteredRoomFilter = new StanzaFilter() {
+        @Override
+        public boolean accept(Stanza stanza) {
+            if (!(stanza instanceof Message || stanza instanceof Presence)) {
+                return false;
+            }
+            return getEnteredRoom(stanza.getFrom()) != null;
+        }
+    };
+
+    private final StanzaFilter toEnteredRoomFilter = new StanzaFilter() {
+        @Override
+        public boolean accept(Stanza stanza) {
+            return stanza instanceof Presence && getEnteredRoom(stanza.getTo()) != null;
+        }
+    };
+
+    private int defaultMessageBufferSize = SmackConfiguration.getPacketCollectorSize();
+
+    private long defaultMessageBufferMaxAge;
+
+    private final AtomicLong droppedBufferedMessages = new AtomicLong();
+
+    /**
+     * The default maximum number of joins in flight of {@link #joinRooms(Map)}.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_JOINS = 50;
+
+    /**
+     * The domains known to provide a MUC service. Guarded by itself.
+     */
+    private static final ExpirationCache<DomainBareJid, Void> KNOWN_MUC_SERVICES = new ExpirationCache<>(
+                    100, 1000 * 60 * 60 * 24);
+
     private boolean autoJoinOnReconnect;
 
     private AutoJoinFailedCallback autoJoinFailedCallback;
@@ -176,6 +227,25 @@ public final class MultiUserChatManager extends Manager {
         };
         connection.addAsyncStanzaListener(invitationPacketListener, INVITATION_FILTER);
 
+        connection.addSyncStanzaListener(new StanzaListener() {
+            @Override
+            public void processPacket(Stanza stanza) throws NotConnectedException, InterruptedException {
+                MultiUserChat muc = getEnteredRoom(stanza.getFrom());
+                if (muc != null) {
+                    muc.processStanza(stanza);
+                }
+            }
+        }, fromEnteredRoomFilter);
+        connection.addPacketInterceptor(new StanzaListener() {
+            @Override
+            public void processPacket(Stanza stanza) {
+                MultiUserChat muc = getEnteredRoom(stanza.getTo());
+                if (muc != null) {
+                    muc.interceptPresence((Presence) stanza);
+                }
+            }
+        }, toEnteredRoomFilter);
+
         connection.addConnectionListener(new AbstractConnectionListener() {
             @Override
             public void authenticated(XMPPConnection connection, boolean resumed) {
@@ -188,44 +258,160 @@ public final class MultiUserChatManager extends Manager {
                 Async.go(new Runnable() {
                     @Override
                     public void run() {
-                        final AutoJoinFailedCallback failedCallback = autoJoinFailedCallback;
-                        for (EntityBareJid mucJid : mucs) {
-                            MultiUserChat muc = getMultiUserChat(mucJid);
-
-                            if (!muc.isJoined()) return;
-
-                            Resourcepart nickname = muc.getNickname();
-                            if (nickname == null) return;
-
-                            try {
-                                muc.leave();
-                            } catch (NotConnectedException | InterruptedException e) {
-                                if (failedCallback != null) {
-                                    failedCallback.autoJoinFailed(muc, e);
-                                } else {
-                                    LOGGER.log(Level.WARNING, "Could not leave room", e);
-                                }
-                                return;
-                            }
-                            try {
-                                muc.join(nickname);
-                            } catch (NotAMucServiceException | NoResponseException | XMPPErrorException
-                                    | NotConnectedException | InterruptedException e) {
-                                if (failedCallback != null) {
-                                    failedCallback.autoJoinFailed(muc, e);
-                                } else {
-                                    LOGGER.log(Level.WARNING, "Could not leave room", e);
-                                }
-                                return;
-                            }
-                        }
+                        rejoinRooms(mucs);
                     }
-
                 });
             }
         });
     }
 
+    private void rejoinRooms(Set<EntityBareJid> mucs) {
+        final AutoJoinFailedCallback failedCallback = autoJoinFailedCallback;
+        Map<EntityBareJid, MucEnterConfiguration> rooms = new LinkedHashMap<>(mucs.size());
+        for (EntityBareJid mucJid : mucs) {
+            MultiUserChat muc = getMultiUserChat(mucJid);
+
+            if (!muc.isJoined()) continue;
+
+            Resourcepart nickname = muc.getNickname();
+            if (nickname == null) continue;
+
+            try {
+                muc.leave();
+            } catch (NotConnectedException | InterruptedException e) {
+                if (failedCallback != null) {
+                    failedCallback.autoJoinFailed(muc, e);
+                } else {
+                    LOGGER.log(Level.WARNING, "Could not leave room " + muc.getRoom(), e);
+                }
+                // Still rejoin the other rooms.
+                continue;
+            }
+            rooms.put(mucJid, muc.getEnterConfigurationBuilder(nickname).build());
+        }
+
+        for (Map.Entry<EntityBareJid, SmackFuture<Presence>> entry : joinRooms(rooms).entrySet()) {
+            final MultiUserChat muc = getMultiUserChat(entry.getKey());
+            entry.getValue().onError(new ExceptionCallback() {
+                @Override
+                public void processException(Exception exception) {
+                    if (failedCallback != null) {
+                        failedCallback.autoJoinFailed(muc, exception);
+                    } else {
+                        LOGGER.log(Level.WARNING, "Could not rejoin room " + muc.getRoom(), exception);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Join the given rooms, with at most {@link #DEFAULT_MAX_CONCURRENT_JOINS} joins in flight.
+     *
+     * @param rooms the rooms to join and the configurations used to enter them.
+     * @return the futures for the self-presences of the rooms, in the iteration order of the given map.
+     * @see #joinRooms(Map, int)
+     */
+    public Map<EntityBareJid, SmackFuture<Presence>> joinRooms(Map<EntityBareJid, MucEnterConfiguration> rooms) {
+        return joinRooms(rooms, DEFAULT_MAX_CONCURRENT_JOINS);
+    }
+
+    /**
+     * Join the given rooms. Unlike joining the rooms one after another, the join presences are sent without waiting
+     * for the self-presences of the rooms already joining, only the number of joins in flight is bounded. The MUC
+     * services of the rooms are verified once per domain.
+     * <p>
+     * Every room gets a future of its own, which is completed like the future returned by
+     * {@link MultiUserChat#joinAsync(MucEnterConfiguration)}, so a failing room does not affect the other rooms.
+     * </p>
+     *
+     * @param rooms the rooms to join and the configurations used to enter them.
+     * @param maxConcurrentJoins the maximum number of joins in flight.
+     * @return the futures for the self-presences of the rooms, in the iteration order of the given map.
+     */
+    public Map<EntityBareJid, SmackFuture<Presence>> joinRooms(Map<EntityBareJid, MucEnterConfiguration> rooms,
+                    int maxConcurrentJoins) {
+        if (maxConcurrentJoins <= 0) {
+            throw new IllegalArgumentException("maxConcurrentJoins must be positive");
+        }
+        Map<EntityBareJid, SmackFuture<Presence>> results = new LinkedHashMap<>(rooms.size());
+        List<PendingJoin> pendingJoins = new ArrayList<>(rooms.size());
+        for (Map.Entry<EntityBareJid, MucEnterConfiguration> entry : rooms.entrySet()) {
+            SmackFuture<Presence> future = new SmackFuture<>();
+            results.put(entry.getKey(), future);
+            pendingJoins.add(new PendingJoin(getMultiUserChat(entry.getKey()), entry.getValue(), future));
+        }
+        new BulkJoin(pendingJoins, maxConcurrentJoins).startJoins();
+        return results;
+    }
+
+    private static final class PendingJoin {
+        private final MultiUserChat muc;
+        private final MucEnterConfiguration conf;
+        private final SmackFuture<Presence> future;
+
+        private PendingJoin(MultiUserChat muc, MucEnterConfiguration conf, SmackFuture<Presence> future) {
+            this.muc = muc;
+            this.conf = conf;
+            this.future = future;
+        }
+    }
+
+    private static final class BulkJoin {
+        private final Iterator<PendingJoin> pendingJoins;
+        private final int maxConcurrentJoins;
+
+        // The following fields are guarded by 'this'.
+        private int joinsInFlight;
+        private boolean starting;
+
+        private BulkJoin(List<PendingJoin> pendingJoins, int maxConcurrentJoins) {
+            this.pendingJoins = pendingJoins.iterator();
+            this.maxConcurrentJoins = maxConcurrentJoins;
+        }
+
+        private void startJoins() {
+            synchronized (this) {
+                // Joins which complete immediately invoke this method again, the loop below picks up their slots.
+                if (starting) {
+                    return;
+                }
+                starting = true;
+            }
+            while (true) {
+                final PendingJoin pendingJoin;
+                synchronized (this) {
+                    if (joinsInFlight >= maxConcurrentJoins || !pendingJoins.hasNext()) {
+                        starting = false;
+                        return;
+                    }
+                    pendingJoin = pendingJoins.next();
+                    joinsInFlight++;
+                }
+                pendingJoin.muc.joinAsync(pendingJoin.conf).onSuccess(new SuccessCallback<Presence>() {
+                    @Override
+                    public void onSuccess(Presence presence) {
+                        joinCompleted();
+                        pendingJoin.future.complete(presence);
+                    }
+                }).onError(new ExceptionCallback() {
+                    @Override
+                    public void processException(Exception exception) {
+                        joinCompleted();
+                        pendingJoin.future.completeExceptionally(exception);
+                    }
+                });
+            }
+        }
+
+        private void joinCompleted() {
+            synchronized (this) {
+                joinsInFlight--;
+            }
+            startJoins();
+        }
+    }
+
     /**
      * Creates a multi user chat. Note: no information is sent to or received from the server until you attempt to
      * {@link MultiUserChat#join(org.jxmpp.jid.parts.Resourcepart) join} the chat room. On some server implementations, the room will not be
@@ -353,8 +539,53 @@ public final class MultiUserChatManager extends Manager {
      */
     public boolean providesMucService(DomainBareJid domainBareJid) throws NoResponseException,
                     XMPPErrorException, NotConnectedException, InterruptedException {
-        return ServiceDiscoveryManager.getInstanceFor(connection()).supportsFeature(domainBareJid,
-                        MUCInitialPresence.NAMESPACE);
+        if (isKnownMucService(domainBareJid)) {
+            return true;
+        }
+        boolean providesMucService = ServiceDiscoveryManager.getInstanceFor(connection()).supportsFeature(
+                        domainBareJid, MUCInitialPresence.NAMESPACE);
+        if (providesMucService) {
+            addKnownMucService(domainBareJid);
+        }
+        return providesMucService;
+    }
+
+    /**
+     * Check asynchronously if the provided domain bare JID provides a MUC service. This is the non-blocking variant
+     * of {@link #providesMucService(DomainBareJid)}. The result is cached per domain.
+     *
+     * @param domainBareJid the domain bare JID to check.
+     * @return a future for <code>true</code> if the provided JID provides a MUC service, <code>false</code> otherwise.
+     */
+    public SmackFuture<Boolean> providesMucServiceAsync(final DomainBareJid domainBareJid) {
+        if (isKnownMucService(domainBareJid)) {
+            return SmackFuture.forResult(true);
+        }
+        // Concurrent lookups of the same domain share a single disco#info request.
+        SmackFuture<DiscoverInfo> discoverInfo = ServiceDiscoveryManager.getInstanceFor(connection()).discoverInfoAsync(
+                        domainBareJid);
+        return discoverInfo.thenApply(new SmackFuture.Transformer<DiscoverInfo, Boolean>() {
+            @Override
+            public Boolean transform(DiscoverInfo info) {
+                boolean providesMucService = info.containsFeature(MUCInitialPresence.NAMESPACE);
+                if (providesMucService) {
+                    addKnownMucService(domainBareJid);
+                }
+                return providesMucService;
+            }
+        });
+    }
+
+    private static boolean isKnownMucService(DomainBareJid domainBareJid) {
+        synchronized (KNOWN_MUC_SERVICES) {
+            return KNOWN_MUC_SERVICES.containsKey(domainBareJid);
+        }
+    }
+
+    private static void addKnownMucService(DomainBareJid domainBareJid) {
+        synchronized (KNOWN_MUC_SERVICES) {
+            KNOWN_MUC_SERVICES.put(domainBareJid, null);
+        }
     }
 
     /**
@@ -456,4 +687,98 @@ public final class MultiUserChatManager extends Manager {
     void removeJoinedRoom(EntityBareJid room) {
         joinedRooms.remove(room);
     }
+
+    /**
+     * Set the default maximum number of groupchat messages buffered per room for
+     * {@link MultiUserChat#pollMessage()} and {@link MultiUserChat#nextMessage()}. If the messages of the rooms are
+     * only processed by {@link org.jivesoftware.smack.MessageListener}s, then the buffers can be disabled by setting
+     * this to <code>0</code>. The default is {@link SmackConfiguration#getPacketCollectorSize()}.
+     *
+     * @param maxMessages the maximum number of buffered messages per room, <code>0</code> disables the buffers.
+     * @see MucEnterConfiguration.Builder#bufferMessages(int, long)
+     */
+    public void setDefaultMessageBufferSize(int maxMessages) {
+        if (maxMessages < 0) {
+            throw new IllegalArgumentException("maxMessages must not be negative");
+        }
+        defaultMessageBufferSize = maxMessages;
+    }
+
+    /**
+     * Get the default maximum number of groupchat messages buffered per room.
+     *
+     * @return the maximum number of buffered messages per room.
+     */
+    public int getDefaultMessageBufferSize() {
+        return defaultMessageBufferSize;
+    }
+
+    /**
+     * Set the default maximum age in milliseconds of groupchat messages buffered per room. Older messages are
+     * dropped. The default is <code>0</code>, i.e. buffered messages do not expire.
+     *
+     * @param maxAge the maximum age of buffered messages in milliseconds, <code>0</code> if they do not expire.
+     */
+    public void setDefaultMessageBufferMaxAge(long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("maxAge must not be negative");
+        }
+        defaultMessageBufferMaxAge = maxAge;
+    }
+
+    /**
+     * Get the default maximum age in milliseconds of groupchat messages buffered per room.
+     *
+     * @return the maximum age of buffered messages in milliseconds, <code>0</code> if they do not expire.
+     */
+    public long getDefaultMessageBufferMaxAge() {
+        return defaultMessageBufferMaxAge;
+    }
+
+    /**
+     * Get the number of groupchat messages currently buffered by all entered rooms.
+     *
+     * @return the number of buffered messages.
+     */
+    public long getBufferedMessageCount() {
+        long count = 0;
+        for (MultiUserChat muc : enteredRooms.values()) {
+            count += muc.getBufferedMessageCount();
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of buffered groupchat messages which were dropped, because the buffer of their room was full or
+     * because they expired, before they were retrieved.
+     *
+     * @return the number of dropped buffered messages.
+     */
+    public long getDroppedBufferedMessageCount() {
+        return droppedBufferedMessages.get();
+    }
+
+    MucMessageBuffer createMessageBuffer(MucEnterConfiguration conf) {
+        return new MucMessageBuffer(conf.getMessageBufferSize(), conf.getMessageBufferMaxAge(),
+                        droppedBufferedMessages);
+    }
+
+    void addEnteredRoom(MultiUserChat muc) {
+        enteredRooms.put(muc.getRoom(), muc);
+    }
+
+    void removeEnteredRoom(MultiUserChat muc) {
+        enteredRooms.remove(muc.getRoom(), muc);
+    }
+
+    private MultiUserChat getEnteredRoom(Jid jid) {
+        if (jid == null) {
+            return null;
+        }
+        EntityBareJid room = jid.asEntityBareJidIfPossible();
+        if (room == null) {
+            return null;
+        }
+        return enteredRooms.get(room);
+    }
 }
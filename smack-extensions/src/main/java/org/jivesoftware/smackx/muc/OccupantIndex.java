@@ -0,0 +1,227 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smackx.muc.packet.MUCUser;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.EntityFullJid;
+import org.jxmpp.jid.Jid;
+
+/**
+ * The occupants of a room, indexed by their occupant JID, and additionally by their role, their affiliation and their
+ * real bare JID, if known. The index is updated incrementally with every presence received from the room, so that
+ * queries never have to extract the MUC user extension from presences again.
+ * <p>
+ * Updates must be performed by a single thread at a time, queries may be performed concurrently.
+ * </p>
+ */
+final class OccupantIndex {
+
+    /**
+     * An occupant together with its last presence.
+     */
+    static final class Entry {
+        final Presence presence;
+
+        /**
+         * The occupant, or <code>null</code> if the presence did not contain a MUC user item.
+         */
+        final Occupant occupant;
+
+        private Entry(Presence presence, Occupant occupant) {
+            this.presence = presence;
+            this.occupant = occupant;
+        }
+
+        MUCRole getRole() {
+            return occupant != null ? occupant.getRole() : null;
+        }
+
+        MUCAffiliation getAffiliation() {
+            return occupant != null ? occupant.getAffiliation() : null;
+        }
+
+        BareJid getRealBareJid() {
+            if (occupant == null) {
+                return null;
+            }
+            Jid jid = occupant.getJid();
+            return jid != null ? jid.asBareJid() : null;
+        }
+    }
+
+    private final Map<EntityFullJid, Entry> occupants = new ConcurrentHashMap<>();
+
+    private final Map<MUCRole, Set<EntityFullJid>> byRole = new EnumMap<>(MUCRole.class);
+
+    private final Map<MUCAffiliation, Set<EntityFullJid>> byAffiliation = new EnumMap<>(MUCAffiliation.class);
+
+    private final Map<BareJid, Set<EntityFullJid>> byRealJid = new ConcurrentHashMap<>();
+
+    OccupantIndex() {
+        // The secondary indexes for roles and affiliations are created upfront, so that they can be read without
+        // synchronization.
+        for (MUCRole role : MUCRole.values()) {
+            byRole.put(role, newSet());
+        }
+        for (MUCAffiliation affiliation : MUCAffiliation.values()) {
+            byAffiliation.put(affiliation, newSet());
+        }
+    }
+
+    /**
+     * Add or update the occupant with the given occupant JID.
+     *
+     * @param occupantJid the occupant JID.
+     * @param presence the available presence of the occupant.
+     * @return the previous entry of the occupant, or <code>null</code> if the occupant is new.
+     */
+    synchronized Entry put(EntityFullJid occupantJid, Presence presence) {
+        Occupant occupant = null;
+        MUCUser mucUser = MUCUser.from(presence);
+        if (mucUser != null && mucUser.getItem() != null) {
+            occupant = new Occupant(presence);
+        }
+        Entry entry = new Entry(presence, occupant);
+        Entry previous = occupants.put(occupantJid, entry);
+        if (previous != null) {
+            removeFromSecondaryIndexes(occupantJid, previous);
+        }
+        MUCRole role = entry.getRole();
+        if (role != null) {
+            byRole.get(role).add(occupantJid);
+        }
+        MUCAffiliation affiliation = entry.getAffiliation();
+        if (affiliation != null) {
+            byAffiliation.get(affiliation).add(occupantJid);
+        }
+        BareJid realJid = entry.getRealBareJid();
+        if (realJid != null) {
+            Set<EntityFullJid> occupantJids = byRealJid.get(realJid);
+            if (occupantJids == null) {
+                occupantJids = newSet();
+                byRealJid.put(realJid, occupantJids);
+            }
+            occupantJids.add(occupantJid);
+        }
+        return previous;
+    }
+
+    /**
+     * Remove the occupant with the given occupant JID.
+     *
+     * @param occupantJid the occupant JID.
+     * @return the removed entry, or <code>null</code> if there was no such occupant.
+     */
+    synchronized Entry remove(EntityFullJid occupantJid) {
+        Entry previous = occupants.remove(occupantJid);
+        if (previous != null) {
+            removeFromSecondaryIndexes(occupantJid, previous);
+        }
+        return previous;
+    }
+
+    synchronized void clear() {
+        occupants.clear();
+        for (Set<EntityFullJid> occupantJids : byRole.values()) {
+            occupantJids.clear();
+        }
+        for (Set<EntityFullJid> occupantJids : byAffiliation.values()) {
+            occupantJids.clear();
+        }
+        byRealJid.clear();
+    }
+
+    private void removeFromSecondaryIndexes(EntityFullJid occupantJid, Entry entry) {
+        MUCRole role = entry.getRole();
+        if (role != null) {
+            byRole.get(role).remove(occupantJid);
+        }
+        MUCAffiliation affiliation = entry.getAffiliation();
+        if (affiliation != null) {
+            byAffiliation.get(affiliation).remove(occupantJid);
+        }
+        BareJid realJid = entry.getRealBareJid();
+        if (realJid != null) {
+            Set<EntityFullJid> occupantJids = byRealJid.get(realJid);
+            if (occupantJids != null) {
+                occupantJids.remove(occupantJid);
+                if (occupantJids.isEmpty()) {
+                    byRealJid.remove(realJid);
+                }
+            }
+        }
+    }
+
+    Entry get(EntityFullJid occupantJid) {
+        return occupants.get(occupantJid);
+    }
+
+    int size() {
+        return occupants.size();
+    }
+
+    List<EntityFullJid> getOccupantJids() {
+        return new ArrayList<>(occupants.keySet());
+    }
+
+    List<Occupant> getOccupantsWithRole(MUCRole role) {
+        return getOccupants(byRole.get(role), role, null);
+    }
+
+    List<Occupant> getOccupantsWithAffiliation(MUCAffiliation affiliation) {
+        return getOccupants(byAffiliation.get(affiliation), null, affiliation);
+    }
+
+    List<EntityFullJid> getOccupantJidsOf(BareJid realJid) {
+        Set<EntityFullJid> occupantJids = byRealJid.get(realJid);
+        if (occupantJids == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(occupantJids);
+    }
+
+    private List<Occupant> getOccupants(Set<EntityFullJid> occupantJids, MUCRole role, MUCAffiliation affiliation) {
+        List<Occupant> result = new ArrayList<>(occupantJids.size());
+        for (EntityFullJid occupantJid : occupantJids) {
+            Entry entry = occupants.get(occupantJid);
+            // The occupant may have been removed or updated concurrently.
+            if (entry == null || entry.occupant == null) {
+                continue;
+            }
+            if ((role != null && entry.getRole() != role)
+                            || (affiliation != null && entry.getAffiliation() != affiliation)) {
+                continue;
+            }
+            result.add(entry.occupant);
+        }
+        return result;
+    }
+
+    private static Set<EntityFullJid> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<EntityFullJid, Boolean>());
+    }
+}
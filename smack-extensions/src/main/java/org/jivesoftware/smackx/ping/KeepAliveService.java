@@ -0,0 +1,197 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.ping;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.util.HashedWheelTimer;
+
+/**
+ * The process wide service which schedules the automatic server pings of all {@link PingManager}s. Instead of a
+ * thread and a timer per connection, the next keepalive of every connection is a timeout of the shared
+ * {@link HashedWheelTimer}. Keepalives which become due in the same tick of the timer are handed over as one batch to
+ * a single thread, which only checks if they are still due. The keepalives are sent, and the failures are reported,
+ * by the executor of each connection, so that a connection which blocks does not delay the keepalives of the others.
+ */
+public final class KeepAliveService {
+
+    private static final Logger LOGGER = Logger.getLogger(KeepAliveService.class.getName());
+
+    private static KeepAliveService INSTANCE;
+
+    /**
+     * Get the keepalive service shared by all connections.
+     *
+     * @return the shared keepalive service.
+     */
+    public static synchronized KeepAliveService getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new KeepAliveService(HashedWheelTimer.getInstance());
+        }
+        return INSTANCE;
+    }
+
+    private final HashedWheelTimer timer;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Queue<Runnable> dueTasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private final AtomicLong pings = new AtomicLong();
+
+    private final AtomicLong acknowledgementRequests = new AtomicLong();
+
+    private final AtomicLong whitespaceKeepAlives = new AtomicLong();
+
+    private final AtomicLong failedKeepAlives = new AtomicLong();
+
+    KeepAliveService(HashedWheelTimer timer) {
+        this.timer = timer;
+        executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+                        new KeepAliveThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the number of XMPP pings sent as keepalive.
+     *
+     * @return the number of pings.
+     */
+    public long getPings() {
+        return pings.get();
+    }
+
+    /**
+     * Get the number of Stream Management acknowledgement requests sent as keepalive.
+     *
+     * @return the number of acknowledgement requests.
+     */
+    public long getAcknowledgementRequests() {
+        return acknowledgementRequests.get();
+    }
+
+    /**
+     * Get the number of whitespace keepalives sent.
+     *
+     * @return the number of whitespace keepalives.
+     */
+    public long getWhitespaceKeepAlives() {
+        return whitespaceKeepAlives.get();
+    }
+
+    /**
+     * Get the number of keepalives which were not answered or could not be sent.
+     *
+     * @return the number of failed keepalives.
+     */
+    public long getFailedKeepAlives() {
+        return failedKeepAlives.get();
+    }
+
+    /**
+     * Schedule the given task, which is run by the thread of this service together with all other tasks which became
+     * due in the same tick. The task must not block.
+     */
+    HashedWheelTimer.Timeout schedule(final Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dueTasks.add(task);
+                if (drainScheduled.compareAndSet(false, true)) {
+                    executor.execute(drainer);
+                }
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Complete the given future with a {@link NoResponseException} if it was not completed within the given timeout.
+     */
+    void applyTimeout(final SmackFuture<?> future, final XMPPConnection connection, long timeout) {
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!future.isDone()) {
+                    future.completeExceptionally(NoResponseException.newWith(connection, "keepalive acknowledgement"));
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    void pingSent() {
+        pings.incrementAndGet();
+    }
+
+    void acknowledgementRequestSent() {
+        acknowledgementRequests.incrementAndGet();
+    }
+
+    void whitespaceKeepAliveSent() {
+        whitespaceKeepAlives.incrementAndGet();
+    }
+
+    void keepAliveFailed() {
+        failedKeepAlives.incrementAndGet();
+    }
+
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = dueTasks.poll()) != null) {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Exception in keepalive task", e);
+                }
+            }
+            drainScheduled.set(false);
+            // A task may have been added after the queue was found empty, but before the flag was reset.
+            if (!dueTasks.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+    };
+
+    /**
+     * Like the thread factory of shared executors in smack-core, this is not an anonymous inner class in order to
+     * prevent threads from leaking.
+     */
+    private static final class KeepAliveThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Smack Keepalive Service");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -21,17 +21,17 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jivesoftware.smack.AbstractConnectionClosedListener;
-import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SuccessCallback;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.ConnectionCreationListener;
 import org.jivesoftware.smack.Manager;
@@ -42,7 +42,7 @@ import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler.Mode;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.IQ.Type;
-import org.jivesoftware.smack.util.SmackExecutorThreadFactory;
+import org.jivesoftware.smack.util.HashedWheelTimer;
 import org.jivesoftware.smackx.disco.ServiceDiscoveryManager;
 import org.jivesoftware.smackx.ping.packet.Ping;
 import org.jxmpp.jid.Jid;
@@ -56,6 +56,12 @@ import org.jxmpp.jid.Jid;
  * The default server ping interval is 30 minutes and can be modified with
  * {@link #setDefaultPingInterval(int)} and {@link #setPingInterval(int)}.
  * </p>
+ * <p>
+ * The automatic server pings of all connections are scheduled by the shared {@link KeepAliveService}. Depending on
+ * the {@link KeepAliveMode}, a Stream Management acknowledgement request or a whitespace keepalive is sent instead of
+ * an XMPP ping, if supported by the connection. The round trip times of the answered keepalives and server pings are
+ * available via {@link #getLastRoundTripTime()} and related methods.
+ * </p>
  * 
  * @author Florian Schmaus
  * @see <a href="http://www.xmpp.org/extensions/xep-0199.html">XEP-0199:XMPP Ping</a>
@@ -104,22 +110,51 @@ public final class PingManager extends Manager {
         defaultPingInterval = interval;
     }
 
+    private static KeepAliveMode defaultKeepAliveMode = KeepAliveMode.ACKNOWLEDGEMENT_REQUEST;
+
+    /**
+     * Set the default keepalive mode which will be used for new connections.
+     *
+     * @param keepAliveMode the keepalive mode.
+     */
+    public static void setDefaultKeepAliveMode(KeepAliveMode keepAliveMode) {
+        defaultKeepAliveMode = keepAliveMode;
+    }
+
+    private static final int KEEP_ALIVE_TRIES = 3;
+
+    private static final long KEEP_ALIVE_RETRY_DELAY_MILLIS = 1000;
+
     private final Set<PingFailedListener> pingFailedListeners = Collections
                     .synchronizedSet(new HashSet<PingFailedListener>());
 
-    private final ScheduledExecutorService executorService;
+    private final KeepAliveService keepAliveService = KeepAliveService.getInstance();
 
     /**
      * The interval in seconds between pings are send to the users server.
      */
     private int pingInterval = defaultPingInterval;
 
-    private ScheduledFuture<?> nextAutomaticPing;
+    private volatile KeepAliveMode keepAliveMode = defaultKeepAliveMode;
+
+    // The following fields are guarded by 'this'.
+    private HashedWheelTimer.Timeout nextAutomaticPing;
+
+    /**
+     * Incremented whenever the automatic ping is rescheduled or stopped, in order to ignore outdated keepalives.
+     */
+    private int keepAliveGeneration;
+
+    private int failedKeepAlives;
+
+    private long lastRoundTripTime = -1;
+    private long smoothedRoundTripTime = -1;
+    private long minRoundTripTime = -1;
+    private long maxRoundTripTime = -1;
+    private long roundTripTimeSamples;
 
     private PingManager(XMPPConnection connection) {
         super(connection);
-        executorService = Executors.newSingleThreadScheduledExecutor(
-                        new SmackExecutorThreadFactory(connection, "Ping"));
         ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
         sdm.addFeature(Ping.NAMESPACE);
 
@@ -175,6 +210,52 @@ public final class PingManager extends Manager {
         return true;
     }
 
+    /**
+     * Pings the given jid asynchronously. This is the non-blocking variant of {@link #ping(Jid, long)}: the returned
+     * future is completed with the result of the ping, or exceptionally with a {@link NoResponseException} if there
+     * was no response within the timeout.
+     *
+     * @param jid The id of the entity the ping is being sent to
+     * @param pingTimeout The time to wait for a reply in milliseconds
+     * @return a future for the result of the ping.
+     */
+    public SmackFuture<Boolean> pingAsync(final Jid jid, long pingTimeout) {
+        final XMPPConnection connection = connection();
+        // See ping(Jid, long) why the connection must have been authenticated.
+        if (!connection.isAuthenticated()) {
+            return SmackFuture.forException(new NotConnectedException());
+        }
+        final SmackFuture<Boolean> future = new SmackFuture<>();
+        Ping ping = new Ping(jid);
+        connection.sendIqRequestAsync(ping, pingTimeout).onSuccess(new SuccessCallback<IQ>() {
+            @Override
+            public void onSuccess(IQ result) {
+                future.complete(true);
+            }
+        }).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                if (exception instanceof XMPPException) {
+                    future.complete(jid.equals(connection.getXMPPServiceDomain()));
+                }
+                else {
+                    future.completeExceptionally(exception);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Same as calling {@link #pingAsync(Jid, long)} with the default packet reply timeout.
+     *
+     * @param jid The id of the entity the ping is being sent to
+     * @return a future for the result of the ping.
+     */
+    public SmackFuture<Boolean> pingAsync(Jid jid) {
+        return pingAsync(jid, connection().getPacketReplyTimeout());
+    }
+
     /**
      * Same as calling {@link #ping(Jid, long)} with the defaultpacket reply 
      * timeout.
@@ -249,12 +330,16 @@ public final class PingManager extends Manager {
      */
     public boolean pingMyServer(boolean notifyListeners, long pingTimeout) throws NotConnectedException, InterruptedException {
         boolean res;
+        final long start = System.nanoTime();
         try {
             res = ping(connection().getXMPPServiceDomain(), pingTimeout);
         }
         catch (NoResponseException e) {
             res = false;
         }
+        if (res) {
+            recordRoundTripTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
         if (!res && notifyListeners) {
             for (PingFailedListener l : pingFailedListeners)
                 l.pingFailed();
@@ -305,29 +390,115 @@ public final class PingManager extends Manager {
         pingFailedListeners.remove(listener);
     }
 
+    /**
+     * Set the keepalive mode used for the automatic server pings of this connection.
+     *
+     * @param keepAliveMode the keepalive mode.
+     */
+    public void setKeepAliveMode(KeepAliveMode keepAliveMode) {
+        this.keepAliveMode = keepAliveMode;
+    }
+
+    /**
+     * Get the keepalive mode used for the automatic server pings of this connection.
+     *
+     * @return the keepalive mode.
+     */
+    public KeepAliveMode getKeepAliveMode() {
+        return keepAliveMode;
+    }
+
+    /**
+     * Get the round trip time of the last answered server ping or keepalive.
+     *
+     * @return the round trip time in milliseconds or -1 if there was no answered ping yet.
+     */
+    public synchronized long getLastRoundTripTime() {
+        return lastRoundTripTime;
+    }
+
+    /**
+     * Get the smoothed round trip time of the answered server pings and keepalives, calculated like the smoothed round
+     * trip time of TCP (RFC 6298).
+     *
+     * @return the smoothed round trip time in milliseconds or -1 if there was no answered ping yet.
+     */
+    public synchronized long getSmoothedRoundTripTime() {
+        return smoothedRoundTripTime;
+    }
+
+    /**
+     * Get the minimum round trip time of the answered server pings and keepalives.
+     *
+     * @return the minimum round trip time in milliseconds or -1 if there was no answered ping yet.
+     */
+    public synchronized long getMinRoundTripTime() {
+        return minRoundTripTime;
+    }
+
+    /**
+     * Get the maximum round trip time of the answered server pings and keepalives.
+     *
+     * @return the maximum round trip time in milliseconds or -1 if there was no answered ping yet.
+     */
+    public synchronized long getMaxRoundTripTime() {
+        return maxRoundTripTime;
+    }
+
+    /**
+     * Get the number of answered server pings and keepalives, which contributed to the round trip time statistics.
+     *
+     * @return the number of round trip time samples.
+     */
+    public synchronized long getRoundTripTimeSamples() {
+        return roundTripTimeSamples;
+    }
+
+    private synchronized void recordRoundTripTime(long roundTripTime) {
+        lastRoundTripTime = roundTripTime;
+        if (roundTripTimeSamples == 0) {
+            smoothedRoundTripTime = roundTripTime;
+            minRoundTripTime = roundTripTime;
+            maxRoundTripTime = roundTripTime;
+        }
+        else {
+            smoothedRoundTripTime += (roundTripTime - smoothedRoundTripTime) / 8;
+            minRoundTripTime = Math.min(minRoundTripTime, roundTripTime);
+            maxRoundTripTime = Math.max(maxRoundTripTime, roundTripTime);
+        }
+        roundTripTimeSamples++;
+    }
+
     private void maybeSchedulePingServerTask() {
-        maybeSchedulePingServerTask(0);
+        maybeSchedulePingServerTask(pingInterval * 1000L);
     }
 
     /**
      * Cancels any existing periodic ping task if there is one and schedules a new ping task if
      * pingInterval is greater then zero.
      *
-     * @param delta the delta to the last received stanza in seconds
+     * @param delay the delay until the next ping in milliseconds
      */
-    private synchronized void maybeSchedulePingServerTask(int delta) {
+    private synchronized void maybeSchedulePingServerTask(long delay) {
         maybeStopPingServerTask();
         if (pingInterval > 0) {
-            int nextPingIn = pingInterval - delta;
-            LOGGER.fine("Scheduling ServerPingTask in " + nextPingIn + " seconds (pingInterval="
-                            + pingInterval + ", delta=" + delta + ")");
-            nextAutomaticPing = executorService.schedule(pingServerRunnable, nextPingIn, TimeUnit.SECONDS);
+            LOGGER.fine("Scheduling ServerPingTask in " + delay + " milliseconds (pingInterval="
+                            + pingInterval + ")");
+            final int generation = keepAliveGeneration;
+            nextAutomaticPing = keepAliveService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    LOGGER.fine("ServerPingTask run()");
+                    keepAliveDue(generation);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
         }
     }
 
-    private void maybeStopPingServerTask() {
+    private synchronized void maybeStopPingServerTask() {
+        keepAliveGeneration++;
         if (nextAutomaticPing != null) {
-            nextAutomaticPing.cancel(true);
+            nextAutomaticPing.cancel();
             nextAutomaticPing = null;
         }
     }
@@ -335,89 +506,166 @@ public final class PingManager extends Manager {
     /**
      * Ping the server if deemed necessary because automatic server pings are
      * enabled ({@link #setPingInterval(int)}) and the ping interval has expired.
+     * <p>
+     * This method does not block, the ping is sent asynchronously.
+     * </p>
      */
-    public synchronized void pingServerIfNecessary() {
-        final int DELTA = 1000; // 1 seconds
-        final int TRIES = 3; // 3 tries
+    public void pingServerIfNecessary() {
+        final int generation;
+        synchronized (this) {
+            maybeStopPingServerTask();
+            generation = keepAliveGeneration;
+        }
+        keepAliveDue(generation);
+    }
+
+    private void keepAliveDue(final int generation) {
         final XMPPConnection connection = connection();
         if (connection == null) {
             // connection has been collected by GC
-            // which means we can stop the thread by breaking the loop
-            return;
-        }
-        if (pingInterval <= 0) {
-            // Ping has been disabled
             return;
         }
-        long lastStanzaReceived = connection.getLastStanzaReceived();
-        if (lastStanzaReceived > 0) {
-            long now = System.currentTimeMillis();
-            // Delta since the last stanza was received
-            int deltaInSeconds = (int)  ((now - lastStanzaReceived) / 1000);
-            // If the delta is small then the ping interval, then we can defer the ping
-            if (deltaInSeconds < pingInterval) {
-                maybeSchedulePingServerTask(deltaInSeconds);
+        synchronized (this) {
+            if (generation != keepAliveGeneration) {
+                // Rescheduled or stopped in the meantime
                 return;
             }
+            nextAutomaticPing = null;
+            if (pingInterval <= 0) {
+                // Ping has been disabled
+                return;
+            }
+            long lastStanzaReceived = connection.getLastStanzaReceived();
+            if (lastStanzaReceived > 0) {
+                long delta = System.currentTimeMillis() - lastStanzaReceived;
+                // If the delta is small then the ping interval, then we can defer the ping
+                if (delta < pingInterval * 1000L) {
+                    failedKeepAlives = 0;
+                    maybeSchedulePingServerTask(pingInterval * 1000L - delta);
+                    return;
+                }
+            }
+        }
+        if (!connection.isAuthenticated()) {
+            LOGGER.warning("XMPPConnection was not authenticated");
+            return;
         }
-        if (connection.isAuthenticated()) {
-            boolean res = false;
-
-            for (int i = 0; i < TRIES; i++) {
-                if (i != 0) {
-                    try {
-                        Thread.sleep(DELTA);
-                    } catch (InterruptedException e) {
-                        // We received an interrupt
-                        // This only happens if we should stop pinging
+        // Sending may block, e.g. if the writer queue of the connection is full, which must only delay the keepalive
+        // of this connection and not the ones of all other connections.
+        asyncGoDetached(new Runnable() {
+            @Override
+            public void run() {
+                sendKeepAlive(connection, generation);
+            }
+        });
+    }
+
+    private void sendKeepAlive(XMPPConnection connection, final int generation) {
+        final KeepAliveMode keepAliveMode = this.keepAliveMode;
+        final long timeout = connection.getPacketReplyTimeout();
+        SmackFuture<?> future = null;
+        if (keepAliveMode != KeepAliveMode.PING && connection instanceof AbstractXMPPConnection) {
+            AbstractXMPPConnection abstractConnection = (AbstractXMPPConnection) connection;
+            if (keepAliveMode == KeepAliveMode.WHITESPACE) {
+                try {
+                    if (abstractConnection.sendWhitespaceKeepAlive()) {
+                        keepAliveService.whitespaceKeepAliveSent();
+                        keepAliveSucceeded(generation, -1);
                         return;
                     }
                 }
-                try {
-                    res = pingMyServer(false);
-                }
-                catch (InterruptedException | SmackException e) {
-                    // Note that we log the connection here, so that it is not GC'ed between the call to isAuthenticated
-                    // a few lines above and the usage of the connection within pingMyServer(). In order to prevent:
-                    // https://community.igniterealtime.org/thread/59369
-                    LOGGER.log(Level.WARNING, "Exception while pinging server of " + connection, e);
-                    res = false;
-                }
-                // stop when we receive a pong back
-                if (res) {
-                    break;
+                catch (NotConnectedException | InterruptedException e) {
+                    keepAliveFailed(generation, e);
+                    return;
                 }
             }
-            if (!res) {
-                for (PingFailedListener l : pingFailedListeners) {
-                    l.pingFailed();
-                }
-            } else {
-                // Ping was successful, wind-up the periodic task again
-                maybeSchedulePingServerTask();
+            future = abstractConnection.requestAcknowledgementAsync();
+            if (future != null) {
+                keepAliveService.acknowledgementRequestSent();
+                keepAliveService.applyTimeout(future, connection, timeout);
             }
-        } else {
-            LOGGER.warning("XMPPConnection was not authenticated");
         }
+        if (future == null) {
+            keepAliveService.pingSent();
+            future = pingAsync(connection.getXMPPServiceDomain(), timeout);
+        }
+        final long start = System.nanoTime();
+        future.onSuccess(new SuccessCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                keepAliveSucceeded(generation, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }).onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                keepAliveFailed(generation, exception);
+            }
+        });
     }
 
-    private final Runnable pingServerRunnable = new Runnable() {
-        public void run() {
-            LOGGER.fine("ServerPingTask run()");
-            pingServerIfNecessary();
+    private synchronized void keepAliveSucceeded(int generation, long roundTripTime) {
+        if (generation != keepAliveGeneration) {
+            return;
+        }
+        if (roundTripTime >= 0) {
+            recordRoundTripTime(roundTripTime);
         }
-    };
+        failedKeepAlives = 0;
+        // Ping was successful, wind-up the periodic task again
+        maybeSchedulePingServerTask();
+    }
 
-    @Override
-    protected void finalize() throws Throwable {
-        LOGGER.fine("finalizing PingManager: Shutting down executor service");
-        try {
-            executorService.shutdown();
-        } catch (Throwable t) {
-            LOGGER.log(Level.WARNING, "finalize() threw throwable", t);
+    private void keepAliveFailed(int generation, Exception exception) {
+        keepAliveService.keepAliveFailed();
+        synchronized (this) {
+            if (generation != keepAliveGeneration) {
+                return;
+            }
+            // Note that we log the connection here, so that it is not GC'ed between the call to isAuthenticated
+            // and the usage of the connection. In order to prevent:
+            // https://community.igniterealtime.org/thread/59369
+            LOGGER.log(Level.WARNING, "Exception while pinging server of " + connection(), exception);
+            failedKeepAlives++;
+            if (failedKeepAlives < KEEP_ALIVE_TRIES) {
+                maybeSchedulePingServerTask(KEEP_ALIVE_RETRY_DELAY_MILLIS);
+                return;
+            }
+            failedKeepAlives = 0;
         }
-        finally {
-            super.finalize();
+        XMPPConnection connection = connection();
+        if (connection == null) {
+            return;
         }
+        asyncGoDetached(new Runnable() {
+            @Override
+            public void run() {
+                for (PingFailedListener l : pingFailedListeners) {
+                    l.pingFailed();
+                }
+            }
+        });
+    }
+
+    /**
+     * The kind of keepalive sent by the automatic server pings.
+     */
+    public enum KeepAliveMode {
+        /**
+         * Always send an XMPP ping (XEP-0199).
+         */
+        PING,
+
+        /**
+         * Send a Stream Management acknowledgement request if Stream Management is enabled, which is cheaper than an
+         * XMPP ping, otherwise send an XMPP ping. This is the default.
+         */
+        ACKNOWLEDGEMENT_REQUEST,
+
+        /**
+         * Send a whitespace keepalive if supported by the connection, otherwise behave like
+         * {@link #ACKNOWLEDGEMENT_REQUEST}. Whitespace keepalives are not answered, hence a dead connection is only
+         * detected once writing to it fails, and no round trip times are recorded.
+         */
+        WHITESPACE,
     }
 }
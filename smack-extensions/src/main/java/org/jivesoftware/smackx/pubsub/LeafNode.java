@@ -22,6 +22,7 @@ import java.util.List;
 
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackFuture;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.IQ.Type;
 import org.jivesoftware.smack.packet.ExtensionElement;
@@ -200,6 +201,57 @@ public class LeafNode extends Node
         return (List<T>) itemsElem.getItems();
     }
 
+    /**
+     * Get the current items stored in the node asynchronously. This is the non-blocking variant of
+     * {@link #getItems()}.
+     *
+     * @return a future for the list of {@link Item} in the node.
+     */
+    public <T extends Item> SmackFuture<List<T>> getItemsAsync() {
+        PubSub request = createPubsubPacket(Type.get, new GetItemsRequest(getId()));
+        return getItemsAsync(request);
+    }
+
+    /**
+     * Get items persisted on the node, limited to the specified number, asynchronously. This is the non-blocking
+     * variant of {@link #getItems(int)}.
+     *
+     * @param maxItems Maximum number of items to return
+     * @return a future for the list of {@link Item}.
+     */
+    public <T extends Item> SmackFuture<List<T>> getItemsAsync(int maxItems) {
+        PubSub request = createPubsubPacket(Type.get, new GetItemsRequest(getId(), maxItems));
+        return getItemsAsync(request);
+    }
+
+    /**
+     * Get the items specified from the node asynchronously. This is the non-blocking variant of
+     * {@link #getItems(Collection)}.
+     *
+     * @param ids Item ids of the items to retrieve
+     * @return a future for the list of {@link Item} with payload.
+     */
+    public <T extends Item> SmackFuture<List<T>> getItemsAsync(Collection<String> ids) {
+        List<Item> itemList = new ArrayList<Item>(ids.size());
+        for (String id : ids) {
+            itemList.add(new Item(id));
+        }
+        PubSub request = createPubsubPacket(Type.get, new ItemsExtension(ItemsExtension.ItemsElementType.items, getId(), itemList));
+        return getItemsAsync(request);
+    }
+
+    private <T extends Item> SmackFuture<List<T>> getItemsAsync(PubSub request) {
+        SmackFuture<PubSub> future = pubSubManager.getConnection().sendIqRequestAsync(request);
+        return future.thenApply(new SmackFuture.Transformer<PubSub, List<T>>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public List<T> transform(PubSub result) {
+                ItemsExtension itemsElem = result.getExtension(PubSubElementType.ITEMS);
+                return (List<T>) itemsElem.getItems();
+            }
+        });
+    }
+
 	/**
 	 * Publishes an event to the node.  This is an empty event
 	 * with no item.
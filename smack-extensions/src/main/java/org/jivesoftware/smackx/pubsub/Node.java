@@ -25,9 +25,6 @@ import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
-import org.jivesoftware.smack.filter.FlexibleStanzaTypeFilter;
-import org.jivesoftware.smack.filter.OrFilter;
-import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ.Type;
@@ -48,8 +45,23 @@ abstract public class Node
     protected final PubSubManager pubSubManager;
     protected final String id;
 
+	/**
+	 * @deprecated not used anymore, the {@link PubSubManager} routes the events to the listeners added with
+	 *             {@link Node#addItemEventListener(ItemEventListener)}.
+	 */
+	@Deprecated
 	protected ConcurrentHashMap<ItemEventListener<Item>, StanzaListener> itemEventToListenerMap = new ConcurrentHashMap<ItemEventListener<Item>, StanzaListener>();
+	/**
+	 * @deprecated not used anymore, the {@link PubSubManager} routes the events to the listeners added with
+	 *             {@link Node#addItemDeleteListener(ItemDeleteListener)}.
+	 */
+	@Deprecated
 	protected ConcurrentHashMap<ItemDeleteListener, StanzaListener> itemDeleteToListenerMap = new ConcurrentHashMap<ItemDeleteListener, StanzaListener>();
+	/**
+	 * @deprecated not used anymore, the {@link PubSubManager} routes the events to the listeners added with
+	 *             {@link Node#addConfigurationListener(NodeConfigListener)}.
+	 */
+	@Deprecated
 	protected ConcurrentHashMap<NodeConfigListener, StanzaListener> configEventToListenerMap = new ConcurrentHashMap<NodeConfigListener, StanzaListener>();
 
 	/**
@@ -477,12 +489,9 @@ abstract public class Node
 	 * 
 	 * @param listener The handler for the event
 	 */
-	@SuppressWarnings("unchecked")
     public void addItemEventListener(@SuppressWarnings("rawtypes") ItemEventListener listener)
 	{
-		StanzaListener conListener = new ItemEventTranslator(listener); 
-		itemEventToListenerMap.put(listener, conListener);
-		pubSubManager.getConnection().addSyncStanzaListener(conListener, new EventContentFilter(EventElementType.items.toString(), "item"));
+        getEventDispatcher().addItemEventListener(pubSubManager.getServiceJid(), id, listener);
 	}
 
 	/**
@@ -492,10 +501,7 @@ abstract public class Node
 	 */
 	public void removeItemEventListener(@SuppressWarnings("rawtypes") ItemEventListener listener)
 	{
-		StanzaListener conListener = itemEventToListenerMap.remove(listener);
-
-		if (conListener != null)
-			pubSubManager.getConnection().removeSyncStanzaListener(conListener);
+        getEventDispatcher().removeItemEventListener(pubSubManager.getServiceJid(), id, listener);
 	}
 
 	/**
@@ -506,9 +512,7 @@ abstract public class Node
 	 */
 	public void addConfigurationListener(NodeConfigListener listener)
 	{
-		StanzaListener conListener = new NodeConfigTranslator(listener); 
-		configEventToListenerMap.put(listener, conListener);
-		pubSubManager.getConnection().addSyncStanzaListener(conListener, new EventContentFilter(EventElementType.configuration.toString()));
+        getEventDispatcher().addConfigurationListener(pubSubManager.getServiceJid(), id, listener);
 	}
 
 	/**
@@ -518,10 +522,7 @@ abstract public class Node
 	 */
 	public void removeConfigurationListener(NodeConfigListener listener)
 	{
-		StanzaListener conListener = configEventToListenerMap .remove(listener);
-
-		if (conListener != null)
-			pubSubManager.getConnection().removeSyncStanzaListener(conListener);
+        getEventDispatcher().removeConfigurationListener(pubSubManager.getServiceJid(), id, listener);
 	}
 
 	/**
@@ -532,12 +533,7 @@ abstract public class Node
 	 */
 	public void addItemDeleteListener(ItemDeleteListener listener)
 	{
-		StanzaListener delListener = new ItemDeleteTranslator(listener); 
-		itemDeleteToListenerMap.put(listener, delListener);
-		EventContentFilter deleteItem = new EventContentFilter(EventElementType.items.toString(), "retract");
-		EventContentFilter purge = new EventContentFilter(EventElementType.purge.toString());
-
-		pubSubManager.getConnection().addSyncStanzaListener(delListener, new OrFilter(deleteItem, purge));
+        getEventDispatcher().addItemDeleteListener(pubSubManager.getServiceJid(), id, listener);
 	}
 
 	/**
@@ -547,12 +543,13 @@ abstract public class Node
 	 */
 	public void removeItemDeleteListener(ItemDeleteListener listener)
 	{
-		StanzaListener conListener = itemDeleteToListenerMap .remove(listener);
-
-		if (conListener != null)
-			pubSubManager.getConnection().removeSyncStanzaListener(conListener);
+        getEventDispatcher().removeItemDeleteListener(pubSubManager.getServiceJid(), id, listener);
 	}
 
+    private PubSubEventDispatcher getEventDispatcher() {
+        return PubSubEventDispatcher.getInstanceFor(pubSubManager.getConnection());
+    }
+
 	@Override
 	public String toString()
 	{
@@ -597,7 +594,10 @@ abstract public class Node
 	 * user consumption.
 	 * 
 	 * @author Robin Collier
+	 * @deprecated not used anymore, the {@link PubSubManager} routes the events to the
+	 *             listeners added with {@link Node#addItemEventListener(ItemEventListener)}.
 	 */
+	@Deprecated
 	public class ItemEventTranslator implements StanzaListener
 	{
 		@SuppressWarnings("rawtypes")
@@ -625,7 +625,10 @@ abstract public class Node
 	 * user consumption.
 	 * 
 	 * @author Robin Collier
+	 * @deprecated not used anymore, the {@link PubSubManager} routes the events to the
+	 *             listeners added with {@link Node#addItemDeleteListener(ItemDeleteListener)}.
 	 */
+	@Deprecated
 	public class ItemDeleteTranslator implements StanzaListener
 	{
 		private ItemDeleteListener listener;
@@ -670,7 +673,10 @@ abstract public class Node
 	 * user consumption.
 	 * 
 	 * @author Robin Collier
+	 * @deprecated not used anymore, the {@link PubSubManager} routes the events to the
+	 *             listeners added with {@link Node#addConfigurationListener(NodeConfigListener)}.
 	 */
+	@Deprecated
 	public class NodeConfigTranslator implements StanzaListener
 	{
 		private NodeConfigListener listener;
@@ -690,67 +696,4 @@ abstract public class Node
 			listener.handleNodeConfiguration(config);
 		}
 	}
-
-	/**
-	 * Filter for {@link StanzaListener} to filter out events not specific to the 
-	 * event type expected for this node.
-	 * 
-	 * @author Robin Collier
-	 */
-	class EventContentFilter extends FlexibleStanzaTypeFilter<Message>
-	{
-        private final String firstElement;
-        private final String secondElement;
-        private final boolean allowEmpty;
-
-		EventContentFilter(String elementName)
-		{
-            this(elementName, null);
-		}
-
-		EventContentFilter(String firstLevelEelement, String secondLevelElement)
-		{
-			firstElement = firstLevelEelement;
-			secondElement = secondLevelElement;
-            allowEmpty = firstElement.equals(EventElementType.items.toString())
-                            && "item".equals(secondLevelElement);
-		}
-
-        public boolean acceptSpecific(Message message) {
-            EventElement event = EventElement.from(message);
-
-			if (event == null)
-				return false;
-
-			NodeExtension embedEvent = event.getEvent();
-
-			if (embedEvent == null)
-				return false;
-
-			if (embedEvent.getElementName().equals(firstElement))
-			{
-				if (!embedEvent.getNode().equals(getId()))
-					return false;
-
-				if (secondElement == null)
-					return true;
-
-				if (embedEvent instanceof EmbeddedPacketExtension)
-				{
-					List<ExtensionElement> secondLevelList = ((EmbeddedPacketExtension)embedEvent).getExtensions();
-
-                    // XEP-0060 allows no elements on second level for notifications. See schema or
-                    // for example § 4.3:
-                    // "although event notifications MUST include an empty <items/> element;"
-                    if (allowEmpty && secondLevelList.isEmpty()) {
-                        return true;
-                    }
-
-					if (secondLevelList.size() > 0 && secondLevelList.get(0).getElementName().equals(secondElement))
-						return true;
-				}
-			}
-			return false;
-		}
-	}
 }
@@ -0,0 +1,275 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.Manager;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.delay.DelayInformationManager;
+import org.jivesoftware.smackx.pubsub.filter.EventExtensionFilter;
+import org.jivesoftware.smackx.pubsub.listener.ItemDeleteListener;
+import org.jivesoftware.smackx.pubsub.listener.ItemEventListener;
+import org.jivesoftware.smackx.pubsub.listener.NodeConfigListener;
+import org.jivesoftware.smackx.shim.packet.Header;
+import org.jivesoftware.smackx.shim.packet.HeadersExtension;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+
+/**
+ * Dispatches the PubSub events received by a connection to the listeners registered with the {@link Node}s. There is
+ * a single stanza listener per connection, which parses every event only once and routes it by the JID of the PubSub
+ * service and the node id, so that the costs of an event do not depend on the number of nodes with listeners.
+ */
+final class PubSubEventDispatcher extends Manager {
+
+    private static final Logger LOGGER = Logger.getLogger(PubSubEventDispatcher.class.getName());
+
+    private static final Map<XMPPConnection, PubSubEventDispatcher> INSTANCES = new WeakHashMap<>();
+
+    private static final StanzaFilter EVENT_FILTER = new AndFilter(StanzaTypeFilter.MESSAGE,
+                    EventExtensionFilter.INSTANCE);
+
+    static synchronized PubSubEventDispatcher getInstanceFor(XMPPConnection connection) {
+        PubSubEventDispatcher dispatcher = INSTANCES.get(connection);
+        if (dispatcher == null) {
+            dispatcher = new PubSubEventDispatcher(connection);
+            INSTANCES.put(connection, dispatcher);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * The listeners by the node they are registered with. Modifications are guarded by 'this', lookups are not.
+     */
+    private final Map<NodeKey, NodeListeners> nodeListeners = new ConcurrentHashMap<>();
+
+    private PubSubEventDispatcher(XMPPConnection connection) {
+        super(connection);
+        connection.addSyncStanzaListener(new StanzaListener() {
+            @Override
+            public void processPacket(Stanza stanza) {
+                dispatch((Message) stanza);
+            }
+        }, EVENT_FILTER);
+    }
+
+    synchronized void addItemEventListener(BareJid service, String nodeId,
+                    @SuppressWarnings("rawtypes") ItemEventListener listener) {
+        getOrCreateNodeListeners(service, nodeId).itemEventListeners.add(listener);
+    }
+
+    synchronized void removeItemEventListener(BareJid service, String nodeId,
+                    @SuppressWarnings("rawtypes") ItemEventListener listener) {
+        NodeListeners listeners = nodeListeners.get(new NodeKey(service, nodeId));
+        if (listeners != null && listeners.itemEventListeners.remove(listener)) {
+            removeIfEmpty(service, nodeId, listeners);
+        }
+    }
+
+    synchronized void addItemDeleteListener(BareJid service, String nodeId, ItemDeleteListener listener) {
+        getOrCreateNodeListeners(service, nodeId).itemDeleteListeners.add(listener);
+    }
+
+    synchronized void removeItemDeleteListener(BareJid service, String nodeId, ItemDeleteListener listener) {
+        NodeListeners listeners = nodeListeners.get(new NodeKey(service, nodeId));
+        if (listeners != null && listeners.itemDeleteListeners.remove(listener)) {
+            removeIfEmpty(service, nodeId, listeners);
+        }
+    }
+
+    synchronized void addConfigurationListener(BareJid service, String nodeId, NodeConfigListener listener) {
+        getOrCreateNodeListeners(service, nodeId).configurationListeners.add(listener);
+    }
+
+    synchronized void removeConfigurationListener(BareJid service, String nodeId, NodeConfigListener listener) {
+        NodeListeners listeners = nodeListeners.get(new NodeKey(service, nodeId));
+        if (listeners != null && listeners.configurationListeners.remove(listener)) {
+            removeIfEmpty(service, nodeId, listeners);
+        }
+    }
+
+    private NodeListeners getOrCreateNodeListeners(BareJid service, String nodeId) {
+        NodeKey key = new NodeKey(service, nodeId);
+        NodeListeners listeners = nodeListeners.get(key);
+        if (listeners == null) {
+            listeners = new NodeListeners();
+            nodeListeners.put(key, listeners);
+        }
+        return listeners;
+    }
+
+    private void removeIfEmpty(BareJid service, String nodeId, NodeListeners listeners) {
+        if (listeners.itemEventListeners.isEmpty() && listeners.itemDeleteListeners.isEmpty()
+                        && listeners.configurationListeners.isEmpty()) {
+            nodeListeners.remove(new NodeKey(service, nodeId));
+        }
+    }
+
+    private void dispatch(Message message) {
+        Jid from = message.getFrom();
+        if (from == null) {
+            return;
+        }
+        EventElement event = EventElement.from(message);
+        NodeExtension embeddedEvent = event.getEvent();
+        if (embeddedEvent == null || embeddedEvent.getNode() == null) {
+            return;
+        }
+        NodeListeners listeners = nodeListeners.get(new NodeKey(from.asBareJid(), embeddedEvent.getNode()));
+        if (listeners == null) {
+            return;
+        }
+
+        switch (event.getEventType()) {
+        case items:
+            ItemsExtension itemsElement = (ItemsExtension) embeddedEvent;
+            List<? extends ExtensionElement> items = itemsElement.getItems();
+            // XEP-0060 allows notifications with an empty <items/> element, see for example § 4.3.
+            if (items.isEmpty() || items.get(0) instanceof Item) {
+                dispatchPublishedItems(message, itemsElement, listeners);
+            }
+            else if (items.get(0) instanceof RetractItem) {
+                dispatchDeletedItems(message, itemsElement, listeners);
+            }
+            break;
+        case purge:
+            for (ItemDeleteListener listener : listeners.itemDeleteListeners) {
+                try {
+                    listener.handlePurge();
+                }
+                catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Exception in item delete listener", e);
+                }
+            }
+            break;
+        case configuration:
+            ConfigurationEvent configurationEvent = (ConfigurationEvent) embeddedEvent;
+            for (NodeConfigListener listener : listeners.configurationListeners) {
+                try {
+                    listener.handleNodeConfiguration(configurationEvent);
+                }
+                catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Exception in node configuration listener", e);
+                }
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void dispatchPublishedItems(Message message, ItemsExtension itemsElement, NodeListeners listeners) {
+        if (listeners.itemEventListeners.isEmpty()) {
+            return;
+        }
+        // The event is created once and shared by all listeners of the node.
+        ItemPublishEvent publishEvent = new ItemPublishEvent(itemsElement.getNode(), itemsElement.getItems(),
+                        getSubscriptionIds(message), DelayInformationManager.getDelayTimestamp(message));
+        for (ItemEventListener listener : listeners.itemEventListeners) {
+            try {
+                listener.handlePublishedItems(publishEvent);
+            }
+            catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Exception in item event listener", e);
+            }
+        }
+    }
+
+    private static void dispatchDeletedItems(Message message, ItemsExtension itemsElement, NodeListeners listeners) {
+        if (listeners.itemDeleteListeners.isEmpty()) {
+            return;
+        }
+        List<? extends ExtensionElement> retractItems = itemsElement.getItems();
+        List<String> itemIds = new ArrayList<>(retractItems.size());
+        for (ExtensionElement retractItem : retractItems) {
+            itemIds.add(((RetractItem) retractItem).getId());
+        }
+        ItemDeleteEvent deleteEvent = new ItemDeleteEvent(itemsElement.getNode(), itemIds,
+                        getSubscriptionIds(message));
+        for (ItemDeleteListener listener : listeners.itemDeleteListeners) {
+            try {
+                listener.handleDeletedItems(deleteEvent);
+            }
+            catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Exception in item delete listener", e);
+            }
+        }
+    }
+
+    private static List<String> getSubscriptionIds(Stanza stanza) {
+        HeadersExtension headers = HeadersExtension.from(stanza);
+        if (headers == null) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(headers.getHeaders().size());
+        for (Header header : headers.getHeaders()) {
+            values.add(header.getValue());
+        }
+        return values;
+    }
+
+    private static final class NodeListeners {
+        @SuppressWarnings("rawtypes")
+        private final Set<ItemEventListener> itemEventListeners = new CopyOnWriteArraySet<>();
+        private final Set<ItemDeleteListener> itemDeleteListeners = new CopyOnWriteArraySet<>();
+        private final Set<NodeConfigListener> configurationListeners = new CopyOnWriteArraySet<>();
+    }
+
+    private static final class NodeKey {
+        private final BareJid service;
+        private final String nodeId;
+
+        private NodeKey(BareJid service, String nodeId) {
+            this.service = service;
+            this.nodeId = nodeId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * service.hashCode() + nodeId.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof NodeKey)) {
+                return false;
+            }
+            NodeKey otherKey = (NodeKey) other;
+            return service.equals(otherKey.service) && nodeId.equals(otherKey.nodeId);
+        }
+    }
+}
@@ -16,11 +16,17 @@
  */
 package org.jivesoftware.smackx;
 
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
 
 import org.jivesoftware.smack.extensions.ExtensionsInitializer;
+import org.jivesoftware.smack.provider.ExtensionProviderInfo;
+import org.jivesoftware.smack.provider.IQProviderInfo;
+import org.jivesoftware.smack.provider.ProviderFileLoader;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.jivesoftware.smack.util.FileUtils;
 import org.junit.Test;
 
 public class ExtensionsInitializerTest {
@@ -32,4 +38,18 @@ public class ExtensionsInitializerTest {
         assertTrue(exceptions.size() == 0);
     }
 
+    @Test
+    public void providerRegistryShouldMatchProvidersFile() throws Exception {
+        new ExtensionsInitializer().initialize();
+        ProviderFileLoader loader = new ProviderFileLoader(FileUtils.getStreamForUrl(
+                        "classpath:org.jivesoftware.smack.extensions/extensions.providers", null));
+        assertTrue(loader.getLoadingExceptions().isEmpty());
+        for (IQProviderInfo info : loader.getIQProviderInfo()) {
+            assertNotNull(ProviderManager.getIQProvider(info.getElementName(), info.getNamespace()));
+        }
+        for (ExtensionProviderInfo info : loader.getExtensionProviderInfo()) {
+            assertNotNull(ProviderManager.getExtensionProvider(info.getElementName(), info.getNamespace()));
+        }
+    }
+
 }
@@ -17,7 +17,9 @@
 package org.jivesoftware.smackx.caps;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -32,6 +34,7 @@ import org.jivesoftware.smack.util.stringencoder.StringEncoder;
 import org.jivesoftware.smackx.InitExtensions;
 import org.jivesoftware.smackx.caps.cache.EntityCapsPersistentCache;
 import org.jivesoftware.smackx.caps.cache.SimpleDirectoryPersistentCache;
+import org.jivesoftware.smackx.caps.cache.SingleFilePersistentCache;
 import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.xdata.FormField;
 import org.jivesoftware.smackx.xdata.packet.DataForm;
@@ -61,6 +64,50 @@ public class EntityCapsManagerTest extends InitExtensions {
         testSimpleDirectoryCache(Base32.getStringEncoder());
     }
 
+    @Test
+    public void testSingleFileCache() throws IOException, InterruptedException {
+        File file = new File(createTempDirectory(), "entitycaps");
+        SingleFilePersistentCache cache = new SingleFilePersistentCache(file);
+
+        DiscoverInfo di = createComplexSamplePacket();
+        CapsVersionAndHash versionAndHash = EntityCapsManager.generateVerificationString(di, StringUtils.SHA1);
+        String nodeVer = di.getNode() + "#" + versionAndHash.version;
+        String otherNodeVer = "http://other.example.org#" + versionAndHash.version;
+        cache.addDiscoverInfoByNodePersistent(nodeVer, di);
+        DiscoverInfo otherDi = new DiscoverInfo(di);
+        otherDi.setStanzaId("disco2");
+        cache.addDiscoverInfoByNodePersistent(otherNodeVer, otherDi);
+        cache.flush();
+        assertEquals(2, cache.size());
+        assertEquals("Identical payloads must be stored once", 1, cache.getPayloadCount());
+
+        // Load the cache from the file
+        cache = new SingleFilePersistentCache(file);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getPayloadCount());
+        assertNull(cache.lookup("http://unknown.example.org#foo"));
+        DiscoverInfo restoredDi = cache.lookup(otherNodeVer);
+        assertNotNull(restoredDi);
+        assertEquals(otherNodeVer, restoredDi.getNode());
+        assertEquals(di.getFeatures().size(), restoredDi.getFeatures().size());
+        assertEquals(di.getIdentities().size(), restoredDi.getIdentities().size());
+        assertEquals(versionAndHash.version,
+                        EntityCapsManager.generateVerificationString(restoredDi, StringUtils.SHA1).version);
+
+        cache.emptyCache();
+        cache.flush();
+        assertNull(cache.lookup(nodeVer));
+        assertEquals(0, new SingleFilePersistentCache(file).size());
+    }
+
+    @Test
+    public void testVerificationFailuresAreCounted() throws XmppStringprepException {
+        long verificationFailures = EntityCapsManager.getVerificationFailures();
+        DiscoverInfo di = createComplexSamplePacket();
+        assertFalse(EntityCapsManager.verifyDiscoverInfoVersion("invalid", StringUtils.SHA1, di));
+        assertEquals(verificationFailures + 1, EntityCapsManager.getVerificationFailures());
+    }
+
     @Test
     public void testVerificationDuplicateFeatures() throws XmppStringprepException {
         DiscoverInfo di = createMalformedDiscoverInfo();
@@ -0,0 +1,289 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.disco;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.TopLevelStreamElement;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smackx.caps.EntityCapsManager;
+import org.jivesoftware.smackx.caps.packet.CapsExtension;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.junit.Test;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.JidTestUtil;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class ServiceDiscoveryManagerTest {
+
+    /**
+     * The verification string of the example of XEP-0115 § 5.2, see {@link #createExodusResponse(DiscoverInfo)}.
+     */
+    private static final String EXODUS_VER = "QgayPKawpkPSDYmwT/WM94uAlu0=";
+
+    @Test
+    public void concurrentLookupsShareOneRequest() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+
+        SmackFuture<DiscoverInfo> first = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, "node");
+        SmackFuture<DiscoverInfo> second = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, "node");
+        SmackFuture<DiscoverInfo> otherNode = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, "other");
+        assertEquals(2, sdm.getSentDiscoverInfoRequests());
+        assertEquals(1, sdm.getCoalescedDiscoverInfoRequests());
+
+        DiscoverInfo request = connection.getSentPacket();
+        assertEquals("node", request.getNode());
+        DiscoverInfo response = new DiscoverInfo();
+        response.setType(IQ.Type.result);
+        response.setStanzaId(request.getStanzaId());
+        response.setFrom(request.getTo());
+        response.setNode(request.getNode());
+        connection.processStanza(response);
+
+        DiscoverInfo firstInfo = first.get(5, TimeUnit.SECONDS);
+        DiscoverInfo secondInfo = second.get(5, TimeUnit.SECONDS);
+        assertEquals(response.toXML().toString(), firstInfo.toXML().toString());
+        assertEquals(response.toXML().toString(), secondInfo.toXML().toString());
+        assertFalse(otherNode.isDone());
+
+        // Once the request completed, a new lookup sends a new request.
+        sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, "node");
+        assertEquals(3, sdm.getSentDiscoverInfoRequests());
+    }
+
+    @Test
+    public void coalescedLookupsGetDistinctInstances() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+
+        SmackFuture<DiscoverInfo> first = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null);
+        SmackFuture<DiscoverInfo> second = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null);
+        assertEquals(1, sdm.getCoalescedDiscoverInfoRequests());
+
+        DiscoverInfo request = connection.getSentPacket();
+        DiscoverInfo response = new DiscoverInfo();
+        response.setType(IQ.Type.result);
+        response.setStanzaId(request.getStanzaId());
+        response.setFrom(request.getTo());
+        connection.processStanza(response);
+
+        DiscoverInfo firstInfo = first.get(5, TimeUnit.SECONDS);
+        DiscoverInfo secondInfo = second.get(5, TimeUnit.SECONDS);
+        assertNotSame(firstInfo, secondInfo);
+        assertNotSame(response, firstInfo);
+        assertNotSame(response, secondInfo);
+    }
+
+    @Test
+    public void lookupsOfEntitiesWithTheSameCapsShareOneRequest() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+        Jid first = JidCreate.from("first@example.org/res");
+        Jid second = JidCreate.from("second@example.org/res");
+        String node = "http://example.org/verified";
+        announceCaps(connection, node, EXODUS_VER, first, second);
+
+        SmackFuture<DiscoverInfo> firstFuture = sdm.discoverInfoAsync(first);
+        SmackFuture<DiscoverInfo> secondFuture = sdm.discoverInfoAsync(second);
+        assertEquals(1, sdm.getSentDiscoverInfoRequests());
+        assertEquals(1, sdm.getCoalescedDiscoverInfoRequests());
+
+        DiscoverInfo request = nextDiscoverInfoRequest(connection);
+        assertEquals(first, request.getTo());
+        assertEquals(node + '#' + EXODUS_VER, request.getNode());
+        connection.processStanza(createExodusResponse(request));
+
+        DiscoverInfo firstInfo = firstFuture.get(5, TimeUnit.SECONDS);
+        DiscoverInfo secondInfo = secondFuture.get(5, TimeUnit.SECONDS);
+        assertNotSame(firstInfo, secondInfo);
+        assertEquals(4, secondInfo.getFeatures().size());
+        assertEquals(1, sdm.getSentDiscoverInfoRequests());
+    }
+
+    @Test
+    public void lookupsFallBackToTheEntityIfTheSharedResultIsNotVerified() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+        Jid first = JidCreate.from("first@example.org/res");
+        Jid second = JidCreate.from("second@example.org/res");
+        String node = "http://example.org/unverified";
+        // The version does not match the responses, hence they can not be verified.
+        String ver = "AAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+        announceCaps(connection, node, ver, first, second);
+
+        SmackFuture<DiscoverInfo> firstFuture = sdm.discoverInfoAsync(first);
+        SmackFuture<DiscoverInfo> secondFuture = sdm.discoverInfoAsync(second);
+        assertEquals(1, sdm.getSentDiscoverInfoRequests());
+
+        DiscoverInfo request = nextDiscoverInfoRequest(connection);
+        assertEquals(first, request.getTo());
+        connection.processStanza(createExodusResponse(request));
+        firstFuture.get(5, TimeUnit.SECONDS);
+
+        // The second entity is asked itself.
+        request = nextDiscoverInfoRequest(connection);
+        assertEquals(second, request.getTo());
+        assertEquals(node + '#' + ver, request.getNode());
+        assertEquals(2, sdm.getSentDiscoverInfoRequests());
+        assertFalse(secondFuture.isDone());
+        connection.processStanza(createExodusResponse(request));
+        assertEquals(second, secondFuture.get(5, TimeUnit.SECONDS).getFrom());
+    }
+
+    private static DiscoverInfo createExodusResponse(DiscoverInfo request) {
+        DiscoverInfo response = new DiscoverInfo();
+        response.setType(IQ.Type.result);
+        response.setStanzaId(request.getStanzaId());
+        response.setFrom(request.getTo());
+        response.setNode(request.getNode());
+        response.addIdentity(new DiscoverInfo.Identity("client", "Exodus 0.9.1", "pc"));
+        response.addFeature("http://jabber.org/protocol/caps");
+        response.addFeature("http://jabber.org/protocol/disco#info");
+        response.addFeature("http://jabber.org/protocol/disco#items");
+        response.addFeature("http://jabber.org/protocol/muc");
+        return response;
+    }
+
+    private static void announceCaps(DummyConnection connection, String node, String ver, Jid... jids)
+                    throws Exception {
+        EntityCapsManager.getInstanceFor(connection);
+        for (Jid jid : jids) {
+            Presence presence = new Presence(Presence.Type.available);
+            presence.setFrom(jid);
+            presence.addExtension(new CapsExtension(node, ver, "sha-1"));
+            connection.processStanza(presence);
+        }
+        // The caps of the presences are recorded asynchronously.
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Jid jid : jids) {
+            while (EntityCapsManager.getNodeVerHashByJid(jid) == null) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Caps of " + jid + " were not recorded");
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static DiscoverInfo nextDiscoverInfoRequest(DummyConnection connection) {
+        while (true) {
+            TopLevelStreamElement element = connection.getSentPacket();
+            if (element instanceof DiscoverInfo) {
+                return (DiscoverInfo) element;
+            }
+        }
+    }
+
+    @Test
+    public void errorResponsesAreCached() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+        sdm.setFailedRequestsExpirationTime(60 * 1000);
+
+        SmackFuture<DiscoverInfo> future = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null);
+        DiscoverInfo request = connection.getSentPacket();
+        connection.processStanza(IQ.createErrorResponse(request, XMPPError.Condition.service_unavailable));
+        XMPPErrorException error = null;
+        try {
+            future.getOrThrow();
+            fail("Expected an XMPPErrorException");
+        }
+        catch (XMPPErrorException e) {
+            error = e;
+        }
+
+        try {
+            sdm.discoverInfo(JidTestUtil.FULL_JID_1_RESOURCE_1, null);
+            fail("Expected an XMPPErrorException");
+        }
+        catch (XMPPErrorException e) {
+            assertSame(error, e);
+        }
+        assertEquals(1, sdm.getSentDiscoverInfoRequests());
+        assertEquals(1, sdm.getFailedRequestsCacheHits());
+
+        sdm.clearFailedRequests();
+        future = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null);
+        assertFalse(future.isDone());
+        assertEquals(2, sdm.getSentDiscoverInfoRequests());
+    }
+
+    @Test
+    public void errorResponsesAreNotCachedByDefault() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+
+        SmackFuture<DiscoverInfo> future = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null);
+        DiscoverInfo request = connection.getSentPacket();
+        connection.processStanza(IQ.createErrorResponse(request, XMPPError.Condition.service_unavailable));
+        try {
+            future.getOrThrow();
+            fail("Expected an XMPPErrorException");
+        }
+        catch (XMPPErrorException e) {
+        }
+
+        future = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null);
+        assertFalse(future.isDone());
+        assertEquals(2, sdm.getSentDiscoverInfoRequests());
+        assertEquals(0, sdm.getFailedRequestsCacheHits());
+    }
+
+    @Test
+    public void availablePresenceClearsCachedErrors() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+        sdm.setFailedRequestsExpirationTime(60 * 1000);
+
+        SmackFuture<DiscoverInfo> future = sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null);
+        DiscoverInfo request = connection.getSentPacket();
+        connection.processStanza(IQ.createErrorResponse(request, XMPPError.Condition.service_unavailable));
+        try {
+            future.getOrThrow();
+            fail("Expected an XMPPErrorException");
+        }
+        catch (XMPPErrorException e) {
+        }
+        assertTrue(sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null).isDone());
+
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        connection.processStanza(presence);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sdm.discoverInfoAsync(JidTestUtil.FULL_JID_1_RESOURCE_1, null).isDone()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Cached error was not cleared by the available presence");
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(2, sdm.getSentDiscoverInfoRequests());
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smackx.muc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.MessageListener;
+import org.jivesoftware.smack.PresenceListener;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
+import org.jivesoftware.smackx.muc.packet.MUCInitialPresence;
+import org.jivesoftware.smackx.muc.packet.MUCItem;
+import org.jivesoftware.smackx.muc.packet.MUCUser;
+import org.junit.Test;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.EntityFullJid;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.jid.parts.Resourcepart;
+
+public class MultiUserChatTest {
+
+    @Test
+    public void stanzasAreRoutedToTheirRoom() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MultiUserChatManager manager = MultiUserChatManager.getInstanceFor(connection);
+        MultiUserChat first = enter(connection, manager, JidCreate.entityBareFrom("first@muc.example.org"));
+        MultiUserChat second = enter(connection, manager, JidCreate.entityBareFrom("second@muc.example.org"));
+
+        final List<Message> messages = addMessageListener(first);
+        final List<Presence> presences = new CopyOnWriteArrayList<>();
+        first.addParticipantListener(new PresenceListener() {
+            @Override
+            public void processPresence(Presence presence) {
+                presences.add(presence);
+            }
+        });
+
+        Message message = groupchatMessage(first.getRoom(), "hello");
+        connection.processStanza(message);
+        connection.processStanza(groupchatMessage(second.getRoom(), "other room"));
+        EntityFullJid occupant = JidCreate.entityFullFrom(first.getRoom(), Resourcepart.from("other"));
+        connection.processStanza(occupantPresence(occupant, false));
+
+        assertSame(message, first.nextMessage(5000));
+        assertEquals("other room", second.nextMessage(5000).getBody());
+        assertNull(first.pollMessage());
+        waitFor(presences, 1);
+        assertEquals(1, messages.size());
+        assertEquals(occupant, presences.get(0).getFrom());
+        assertTrue(first.getOccupants().contains(occupant));
+        assertEquals(1, second.getOccupants().size());
+
+        first.leave();
+        Presence leavePresence = connection.getSentPacket(5);
+        assertEquals(Presence.Type.unavailable, leavePresence.getType());
+        // Stanzas are processed in order, so once the message of the second room arrived, the message of the left
+        // room would have been routed.
+        connection.processStanza(groupchatMessage(first.getRoom(), "after leave"));
+        connection.processStanza(groupchatMessage(second.getRoom(), "second"));
+        assertEquals("second", second.nextMessage(5000).getBody());
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void messageBufferIsBounded() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MultiUserChatManager manager = MultiUserChatManager.getInstanceFor(connection);
+        MultiUserChat muc = manager.getMultiUserChat(JidCreate.entityBareFrom("bounded@muc.example.org"));
+        enter(connection, muc, muc.getEnterConfigurationBuilder(Resourcepart.from("nick")).bufferMessages(2).build());
+        final List<Message> messages = addMessageListener(muc);
+
+        for (int i = 0; i < 3; i++) {
+            connection.processStanza(groupchatMessage(muc.getRoom(), "message " + i));
+        }
+        waitFor(messages, 3);
+        assertEquals(2, muc.getBufferedMessageCount());
+        assertEquals(2, manager.getBufferedMessageCount());
+        assertEquals(1, manager.getDroppedBufferedMessageCount());
+        assertEquals("message 1", muc.pollMessage().getBody());
+        assertEquals("message 2", muc.nextMessage(5000).getBody());
+        assertNull(muc.pollMessage());
+    }
+
+    @Test
+    public void messageBufferCanBeDisabled() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MultiUserChatManager manager = MultiUserChatManager.getInstanceFor(connection);
+        manager.setDefaultMessageBufferSize(0);
+        MultiUserChat muc = enter(connection, manager, JidCreate.entityBareFrom("unbuffered@muc.example.org"));
+        final List<Message> messages = addMessageListener(muc);
+
+        connection.processStanza(groupchatMessage(muc.getRoom(), "hello"));
+        waitFor(messages, 1);
+        assertEquals(1, messages.size());
+        assertEquals(0, muc.getBufferedMessageCount());
+        try {
+            muc.pollMessage();
+            fail("Expected an IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void joinRoomsBoundsJoinsInFlight() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MultiUserChatManager manager = MultiUserChatManager.getInstanceFor(connection);
+        Map<EntityBareJid, MucEnterConfiguration> rooms = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            MultiUserChat muc = manager.getMultiUserChat(JidCreate.entityBareFrom("bulk" + i + "@muc.example.org"));
+            rooms.put(muc.getRoom(), muc.getEnterConfigurationBuilder(Resourcepart.from("nick")).build());
+        }
+
+        Map<EntityBareJid, SmackFuture<Presence>> results = manager.joinRooms(rooms, 2);
+        assertEquals(new ArrayList<>(rooms.keySet()), new ArrayList<>(results.keySet()));
+        Stanza sent = connection.getSentPacket(5);
+        if (sent instanceof DiscoverInfo) {
+            // Both rooms in flight share the verification of the MUC service.
+            answerMucServiceDiscoInfo(connection, (DiscoverInfo) sent);
+            sent = connection.getSentPacket(5);
+        }
+        Presence firstJoin = (Presence) sent;
+        Presence secondJoin = connection.getSentPacket(5);
+        assertNull(connection.getSentPacket(1));
+
+        connection.processStanza(occupantPresence(firstJoin.getTo().asEntityFullJidIfPossible(), true));
+        Presence thirdJoin = connection.getSentPacket(5);
+        connection.processStanza(occupantPresence(secondJoin.getTo().asEntityFullJidIfPossible(), true));
+        connection.processStanza(occupantPresence(thirdJoin.getTo().asEntityFullJidIfPossible(), true));
+
+        for (Map.Entry<EntityBareJid, SmackFuture<Presence>> result : results.entrySet()) {
+            Presence selfPresence = result.getValue().get(5, TimeUnit.SECONDS);
+            assertEquals(result.getKey(), selfPresence.getFrom().asEntityBareJidIfPossible());
+            assertTrue(manager.getMultiUserChat(result.getKey()).isJoined());
+        }
+    }
+
+    @Test
+    public void occupantsAreIndexed() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MultiUserChatManager manager = MultiUserChatManager.getInstanceFor(connection);
+        MultiUserChat muc = enter(connection, manager, JidCreate.entityBareFrom("indexed@muc.example.org"));
+        final List<Presence> presences = new CopyOnWriteArrayList<>();
+        muc.addParticipantListener(new PresenceListener() {
+            @Override
+            public void processPresence(Presence presence) {
+                presences.add(presence);
+            }
+        });
+
+        EntityFullJid alice = JidCreate.entityFullFrom(muc.getRoom(), Resourcepart.from("alice"));
+        EntityFullJid bob = JidCreate.entityFullFrom(muc.getRoom(), Resourcepart.from("bob"));
+        EntityFullJid bobMobile = JidCreate.entityFullFrom(muc.getRoom(), Resourcepart.from("bob-mobile"));
+        connection.processStanza(occupantPresence(alice, MUCAffiliation.owner, MUCRole.moderator,
+                        JidCreate.from("alice@example.org/desktop")));
+        connection.processStanza(occupantPresence(bob, MUCAffiliation.member, MUCRole.participant,
+                        JidCreate.from("bob@example.org/desktop")));
+        connection.processStanza(occupantPresence(bobMobile, MUCAffiliation.member, MUCRole.visitor,
+                        JidCreate.from("bob@example.org/mobile")));
+        // Bob gets voice on his second device.
+        connection.processStanza(occupantPresence(bobMobile, MUCAffiliation.member, MUCRole.participant,
+                        JidCreate.from("bob@example.org/mobile")));
+        waitFor(presences, 4);
+
+        assertEquals(4, muc.getOccupantsCount());
+        assertEquals(MUCRole.participant, muc.getOccupant(bobMobile).getRole());
+        // Our own occupant is a participant too.
+        assertEquals(3, muc.getOccupantsWithRole(MUCRole.participant).size());
+        assertEquals(0, muc.getOccupantsWithRole(MUCRole.visitor).size());
+        assertEquals(2, muc.getOccupantsWithAffiliation(MUCAffiliation.member).size());
+        assertEquals(new HashSet<>(Arrays.asList(bob, bobMobile)),
+                        new HashSet<>(muc.getOccupantsByRealJid(JidCreate.from("bob@example.org"))));
+
+        // The moderators are known locally, so the room is not queried.
+        List<Occupant> moderators = muc.getModerators();
+        assertEquals(1, moderators.size());
+        assertEquals(Resourcepart.from("alice"), moderators.get(0).getNick());
+        assertNull(connection.getSentPacket(0));
+
+        Presence unavailable = new Presence(Presence.Type.unavailable);
+        unavailable.setFrom(bob);
+        connection.processStanza(unavailable);
+        waitFor(presences, 5);
+        assertNull(muc.getOccupant(bob));
+        assertEquals(2, muc.getOccupantsWithRole(MUCRole.participant).size());
+        assertEquals(Arrays.asList(bobMobile), muc.getOccupantsByRealJid(JidCreate.from("bob@example.org")));
+    }
+
+    private static List<Message> addMessageListener(MultiUserChat muc) {
+        final List<Message> messages = new CopyOnWriteArrayList<>();
+        muc.addMessageListener(new MessageListener() {
+            @Override
+            public void processMessage(Message message) {
+                messages.add(message);
+            }
+        });
+        return messages;
+    }
+
+    static MultiUserChat enter(DummyConnection connection, MultiUserChatManager manager, EntityBareJid room)
+                    throws Exception {
+        MultiUserChat muc = manager.getMultiUserChat(room);
+        return enter(connection, muc, muc.getEnterConfigurationBuilder(Resourcepart.from("nick")).build());
+    }
+
+    static MultiUserChat enter(DummyConnection connection, MultiUserChat muc, MucEnterConfiguration conf)
+                    throws Exception {
+        EntityBareJid room = muc.getRoom();
+        Resourcepart nickname = Resourcepart.from("nick");
+        SmackFuture<Presence> future = muc.joinAsync(conf);
+        Stanza sent = connection.getSentPacket(5);
+        if (sent instanceof DiscoverInfo) {
+            answerMucServiceDiscoInfo(connection, (DiscoverInfo) sent);
+            sent = connection.getSentPacket(5);
+        }
+        Presence joinPresence = (Presence) sent;
+        assertEquals(JidCreate.entityFullFrom(room, nickname), joinPresence.getTo());
+        connection.processStanza(occupantPresence(JidCreate.entityFullFrom(room, nickname), true));
+        future.get(5, TimeUnit.SECONDS);
+        assertTrue(muc.isJoined());
+        // The self-presence is routed to the room asynchronously.
+        for (int i = 0; i < 500 && muc.getOccupantsCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        return muc;
+    }
+
+    static void answerMucServiceDiscoInfo(DummyConnection connection, DiscoverInfo request) {
+        DiscoverInfo response = new DiscoverInfo();
+        response.setType(IQ.Type.result);
+        response.setStanzaId(request.getStanzaId());
+        response.setFrom(request.getTo());
+        response.addFeature(MUCInitialPresence.NAMESPACE);
+        connection.processStanza(response);
+    }
+
+    static Presence occupantPresence(EntityFullJid occupant, boolean self) {
+        Presence presence = occupantPresence(occupant, MUCAffiliation.none, MUCRole.participant, null);
+        if (self) {
+            MUCUser.from(presence).addStatusCode(MUCUser.Status.PRESENCE_TO_SELF_110);
+        }
+        return presence;
+    }
+
+    static Presence occupantPresence(EntityFullJid occupant, MUCAffiliation affiliation, MUCRole role, Jid realJid) {
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setFrom(occupant);
+        MUCUser mucUser = new MUCUser();
+        mucUser.setItem(new MUCItem(affiliation, role, null, null, realJid, null, null));
+        presence.addExtension(mucUser);
+        return presence;
+    }
+
+    static Message groupchatMessage(EntityBareJid room, String body) throws Exception {
+        Message message = new Message();
+        message.setType(Message.Type.groupchat);
+        message.setFrom(JidCreate.entityFullFrom(room, Resourcepart.from("other")));
+        message.setBody(body);
+        return message;
+    }
+
+    static void waitFor(List<?> list, int size) throws InterruptedException {
+        for (int i = 0; i < 500 && list.size() < size; i++) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.jivesoftware.smackx.ping;
 import static org.jivesoftware.smack.test.util.CharsequenceEquals.equalsCharSequence;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -186,6 +187,42 @@ public class PingTest extends InitExtensions {
         assertFalse(res);
     }
 
+    @Test
+    public void checkPingToServerRecordsRoundTripTime() throws Exception {
+        ThreadedDummyConnection con = getAuthentiactedDummyConnection();
+        PingManager pinger = PingManager.getInstanceFor(con);
+        assertEquals(-1, pinger.getLastRoundTripTime());
+
+        assertTrue(pinger.pingMyServer());
+
+        assertEquals(1, pinger.getRoundTripTimeSamples());
+        assertTrue(pinger.getLastRoundTripTime() >= 0);
+        assertEquals(pinger.getLastRoundTripTime(), pinger.getSmoothedRoundTripTime());
+        assertEquals(pinger.getLastRoundTripTime(), pinger.getMinRoundTripTime());
+        assertEquals(pinger.getLastRoundTripTime(), pinger.getMaxRoundTripTime());
+    }
+
+    @Test
+    public void checkAutomaticPingIsSentByKeepAliveService() throws Exception {
+        DummyConnection con = getAuthenticatedDummyConnectionWithoutIqReplies();
+        PingManager pinger = PingManager.getInstanceFor(con);
+        long pings = KeepAliveService.getInstance().getPings();
+
+        pinger.setPingInterval(1);
+
+        Ping ping = null;
+        Stanza stanza;
+        while (ping == null && (stanza = con.getSentPacket(5)) != null) {
+            if (stanza instanceof Ping) {
+                ping = (Ping) stanza;
+            }
+        }
+        pinger.setPingInterval(-1);
+        assertNotNull(ping);
+        assertThat(con.getXMPPServiceDomain(), equalsCharSequence(ping.getTo()));
+        assertTrue(KeepAliveService.getInstance().getPings() > pings);
+    }
+
     @Test
     public void checkSuccessfulDiscoRequest() throws Exception {
         ThreadedDummyConnection con = getAuthentiactedDummyConnection();
@@ -17,15 +17,27 @@
 package org.jivesoftware.smackx.pubsub;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import org.jivesoftware.smack.DummyConnection;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.ThreadedDummyConnection;
 import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.pubsub.ItemsExtension.ItemsElementType;
+import org.jivesoftware.smackx.pubsub.listener.ItemDeleteListener;
+import org.jivesoftware.smackx.pubsub.listener.ItemEventListener;
 import org.jivesoftware.smackx.pubsub.packet.PubSub;
 import org.junit.Test;
 import org.jxmpp.jid.DomainBareJid;
+import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 
@@ -55,4 +67,72 @@ public class PubSubManagerTest {
         assertEquals("http://jabber.org/protocol/pubsub#owner", pubSubDeleteRequest.getChildElementNamespace());
         assertEquals("pubsub", pubSubDeleteRequest.getChildElementName());
     }
+
+    @Test
+    public void eventsAreRoutedToTheirNode() throws Exception {
+        DummyConnection con = DummyConnection.newConnectedDummyConnection();
+        DomainBareJid otherService = JidCreate.domainBareFrom("pubsub.other.org");
+        PubSubManager mgr = new PubSubManager(con, DUMMY_PUBSUB_SERVICE);
+        PubSubManager otherMgr = new PubSubManager(con, otherService);
+
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        LeafNode news = new LeafNode(mgr, "news");
+        news.addItemEventListener(new ItemEventListener<Item>() {
+            @Override
+            public void handlePublishedItems(ItemPublishEvent<Item> items) {
+                events.add("news published " + items.getItems().get(0).getId());
+            }
+        });
+        news.addItemDeleteListener(new ItemDeleteListener() {
+            @Override
+            public void handleDeletedItems(ItemDeleteEvent items) {
+                events.add("news deleted " + items.getItemIds().get(0));
+            }
+
+            @Override
+            public void handlePurge() {
+                events.add("news purged");
+            }
+        });
+        // The same node id on another service and another node id on the same service.
+        new LeafNode(otherMgr, "news").addItemEventListener(new ItemEventListener<Item>() {
+            @Override
+            public void handlePublishedItems(ItemPublishEvent<Item> items) {
+                events.add("other service published");
+            }
+        });
+        ItemEventListener<Item> sportsListener = new ItemEventListener<Item>() {
+            @Override
+            public void handlePublishedItems(ItemPublishEvent<Item> items) {
+                events.add("sports published");
+            }
+        };
+        LeafNode sports = new LeafNode(mgr, "sports");
+        sports.addItemEventListener(sportsListener);
+
+        con.processStanza(eventMessage(DUMMY_PUBSUB_SERVICE, new EventElement(EventElementType.items,
+                        new ItemsExtension(ItemsElementType.items, "news", Arrays.asList(new Item("1"))))));
+        con.processStanza(eventMessage(DUMMY_PUBSUB_SERVICE, new EventElement(EventElementType.items,
+                        new ItemsExtension(ItemsElementType.items, "news", Arrays.asList(new RetractItem("1"))))));
+        con.processStanza(eventMessage(DUMMY_PUBSUB_SERVICE, new EventElement(EventElementType.purge,
+                        new NodeExtension(PubSubElementType.PURGE_EVENT, "news"))));
+        sports.removeItemEventListener(sportsListener);
+        con.processStanza(eventMessage(DUMMY_PUBSUB_SERVICE, new EventElement(EventElementType.items,
+                        new ItemsExtension(ItemsElementType.items, "sports", Collections.<Item>emptyList()))));
+        con.processStanza(eventMessage(otherService, new EventElement(EventElementType.items,
+                        new ItemsExtension(ItemsElementType.items, "news", Arrays.asList(new Item("2"))))));
+
+        assertEquals("news published 1", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("news deleted 1", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("news purged", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("other service published", events.poll(5, TimeUnit.SECONDS));
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static Message eventMessage(Jid from, EventElement event) {
+        Message message = new Message();
+        message.setFrom(from);
+        message.addExtension(event);
+        return message;
+    }
 }
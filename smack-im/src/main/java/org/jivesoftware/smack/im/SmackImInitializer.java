@@ -17,6 +17,7 @@
 package org.jivesoftware.smack.im;
 
 import org.jivesoftware.smack.initializer.UrlInitializer;
+import org.jivesoftware.smack.provider.ProviderRegistry;
 
 public class SmackImInitializer extends UrlInitializer {
 
@@ -25,6 +26,11 @@ public class SmackImInitializer extends UrlInitializer {
         return "classpath:org.jivesoftware.smack.im/smackim.providers";
     }
 
+    @Override
+    protected ProviderRegistry getProviderRegistry() {
+        return new SmackImProviderRegistry();
+    }
+
     @Override
     protected String getConfigUrl() {
         return "classpath:org.jivesoftware.smack.im/smackim.xml";
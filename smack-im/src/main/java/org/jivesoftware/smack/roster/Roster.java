@@ -25,7 +25,6 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
@@ -39,6 +38,7 @@ import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackFuture;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.SmackException.FeatureNotSupportedException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
@@ -148,16 +148,28 @@ public final class Roster extends Manager {
      */
     private final Map<BareJid, RosterEntry> entries = new ConcurrentHashMap<>();
 
-    private final Set<RosterEntry> unfiledEntries = new CopyOnWriteArraySet<>();
-    private final Set<RosterListener> rosterListeners = new LinkedHashSet<>();
+    /**
+     * Index from the JID of a roster entry to the names of the groups the entry belongs to. The sets are never
+     * modified, they are replaced whenever the groups of an entry change.
+     */
+    private final Map<BareJid, Set<String>> entryGroupNames = new ConcurrentHashMap<>();
+
+    private final Set<RosterEntry> unfiledEntries = Collections.newSetFromMap(
+                    new ConcurrentHashMap<RosterEntry, Boolean>());
+
+    /**
+     * The roster listeners. Events are fired to a snapshot of the listeners, without holding
+     * {@link #rosterListenersAndEntriesLock}.
+     */
+    private final Set<RosterListener> rosterListeners = new CopyOnWriteArraySet<>();
 
     private final Set<PresenceEventListener> presenceEventListeners = new CopyOnWriteArraySet<>();
 
     /**
-     * A map of JIDs to another Map of Resourceparts to Presences. The 'inner' map may contain
+     * A map of JIDs to their presences by Resourcepart. The presences may contain
      * {@link Resourcepart#EMPTY} if there are no other Presences available.
      */
-    private final Map<BareJid, Map<Resourcepart, Presence>> presenceMap = new ConcurrentHashMap<>();
+    private final Map<BareJid, UserPresences> presenceMap = new ConcurrentHashMap<>();
 
     /**
      * Like {@link presenceMap} but for presences of entities not in our Roster.
@@ -165,7 +177,7 @@ public final class Roster extends Manager {
     // TODO Ideally we want here to use a LRU cache like Map which will evict all superfluous items
     // if their maximum size is lowered below the current item count. LruCache does not provide
     // this.
-    private final LruCache<BareJid, Map<Resourcepart, Presence>> nonRosterPresenceMap = new LruCache<>(
+    private final LruCache<BareJid, UserPresences> nonRosterPresenceMap = new LruCache<>(
                     defaultNonRosterPresenceMapMaxSize);
 
     /**
@@ -174,8 +186,8 @@ public final class Roster extends Manager {
     private final Set<RosterLoadedListener> rosterLoadedListeners = new LinkedHashSet<>();
 
     /**
-     * Mutually exclude roster listener invocation and changing the {@link entries} map. Also used
-     * to synchronize access to either the roster listeners or the entries map.
+     * Mutually exclude adding a roster listener in
+     * {@link #getEntriesAndAddListener(RosterListener, RosterEntries)} and changing the {@link entries} map.
      */
     private final Object rosterListenersAndEntriesLock = new Object();
 
@@ -327,13 +339,13 @@ public final class Roster extends Manager {
     }
 
     /**
-     * Retrieve the user presences (a map from resource to {@link Presence}) for a given XMPP entity represented by their bare JID.
+     * Retrieve the user presences (by resource) for a given XMPP entity represented by their bare JID.
      *
      * @param entity the entity
      * @return the user presences
      */
-    private Map<Resourcepart, Presence> getPresencesInternal(BareJid entity) {
-        Map<Resourcepart, Presence> entityPresences = presenceMap.get(entity);
+    private UserPresences getPresencesInternal(BareJid entity) {
+        UserPresences entityPresences = presenceMap.get(entity);
         if (entityPresences == null) {
             entityPresences = nonRosterPresenceMap.get(entity);
         }
@@ -341,15 +353,23 @@ public final class Roster extends Manager {
     }
 
     /**
-     * Retrieve the user presences (a map from resource to {@link Presence}) for a given XMPP entity represented by their bare JID.
+     * Retrieve the user presences (by resource) for a given XMPP entity represented by their bare JID.
      *
      * @param entity the entity
      * @return the user presences
      */
-    private synchronized Map<Resourcepart, Presence> getOrCreatePresencesInternal(BareJid entity) {
-        Map<Resourcepart, Presence> entityPresences = getPresencesInternal(entity);
+    private UserPresences getOrCreatePresencesInternal(BareJid entity) {
+        UserPresences entityPresences = getPresencesInternal(entity);
+        if (entityPresences != null) {
+            return entityPresences;
+        }
+        return createPresencesInternal(entity);
+    }
+
+    private synchronized UserPresences createPresencesInternal(BareJid entity) {
+        UserPresences entityPresences = getPresencesInternal(entity);
         if (entityPresences == null) {
-            entityPresences = new ConcurrentHashMap<>();
+            entityPresences = new UserPresences();
             if (contains(entity)) {
                 presenceMap.put(entity, entityPresences);
             }
@@ -401,6 +421,34 @@ public final class Roster extends Manager {
      * @throws InterruptedException 
      */
     public void reload() throws NotLoggedInException, NotConnectedException, InterruptedException{
+        reload(null);
+    }
+
+    /**
+     * Reload the roster asynchronously. The returned future is completed with this roster once it is reloaded, i.e.
+     * after the {@link RosterLoadedListener}s have been invoked, or exceptionally if reloading the roster failed.
+     *
+     * @return a future for the reloaded roster.
+     * @see #reload()
+     */
+    public SmackFuture<Roster> reloadAsync() {
+        SmackFuture<Roster> future = new SmackFuture<>();
+        try {
+            reload(future);
+        }
+        catch (NotLoggedInException | NotConnectedException e) {
+            future.completeExceptionally(e);
+        }
+        catch (InterruptedException e) {
+            // Keep the interrupted status, as the exception is only delivered via the future.
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void reload(final SmackFuture<Roster> future) throws NotLoggedInException, NotConnectedException,
+                    InterruptedException {
         final XMPPConnection connection = getAuthenticatedConnectionOrThrow();
 
         RosterPacket packet = new RosterPacket();
@@ -408,7 +456,7 @@ public final class Roster extends Manager {
             packet.setVersion(rosterStore.getRosterVersion());
         }
         rosterState = RosterState.loading;
-        connection.sendIqWithResponseCallback(packet, new RosterResultListener(), new ExceptionCallback() {
+        connection.sendIqWithResponseCallback(packet, new RosterResultListener(future), new ExceptionCallback() {
             @Override
             public void processException(Exception exception) {
                 rosterState = RosterState.uninitialized;
@@ -422,6 +470,9 @@ public final class Roster extends Manager {
                 for (RosterLoadedListener listener : rosterLoadedListeners) {
                     listener.onRosterLoadingFailed(exception);
                 }
+                if (future != null) {
+                    future.completeExceptionally(exception);
+                }
             }
         });
     }
@@ -496,9 +547,7 @@ public final class Roster extends Manager {
      * @see #getEntriesAndAddListener(RosterListener, RosterEntries)
      */
     public boolean addRosterListener(RosterListener rosterListener) {
-        synchronized (rosterListenersAndEntriesLock) {
-            return rosterListeners.add(rosterListener);
-        }
+        return rosterListeners.add(rosterListener);
     }
 
     /**
@@ -509,9 +558,7 @@ public final class Roster extends Manager {
      * @return true if the listener was active and got removed.
      */
     public boolean removeRosterListener(RosterListener rosterListener) {
-        synchronized (rosterListenersAndEntriesLock) {
-            return rosterListeners.remove(rosterListener);
-        }
+        return rosterListeners.remove(rosterListener);
     }
 
     /**
@@ -739,19 +786,22 @@ public final class Roster extends Manager {
      * @return the number of entries in the roster.
      */
     public int getEntryCount() {
-        return getEntries().size();
+        return entries.size();
     }
 
     /**
      * Add a roster listener and invoke the roster entries with all entries of the roster.
      * <p>
-     * The method guarantees that the listener is only invoked after
-     * {@link RosterEntries#rosterEntries(Collection)} has been invoked, and that all roster events
-     * that happen while <code>rosterEntires(Collection) </code> is called are queued until the
-     * method returns.
+     * The method guarantees that the entries are not changed while
+     * {@link RosterEntries#rosterEntries(Collection)} is called, and that the listener is invoked for
+     * all changes which are not part of the entries. Roster listeners are invoked without holding the
+     * lock which guards the entries, hence an event of a change which raced with this method may be
+     * delivered to the listener although the change is already part of the entries. Listeners must
+     * therefore tolerate events for entries they already know, e.g. an added entry which is already
+     * contained in the entries.
      * </p>
      * <p>
-     * This guarantee makes this the ideal method to e.g. populate a UI element with the roster while
+     * This makes this the ideal method to e.g. populate a UI element with the roster while
      * installing a {@link RosterListener} to listen for subsequent roster events.
      * </p>
      *
@@ -893,60 +943,14 @@ public final class Roster extends Manager {
      *         or if no presence information is available..
      */
     public Presence getPresence(BareJid jid) {
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(jid);
-        if (userPresences == null) {
-            Presence presence = new Presence(Presence.Type.unavailable);
+        UserPresences userPresences = getPresencesInternal(jid);
+        Presence presence = userPresences != null ? userPresences.getBestPresence() : null;
+        if (presence == null) {
+            presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(jid);
             return presence;
         }
-        else {
-            // Find the resource with the highest priority
-            // Might be changed to use the resource with the highest availability instead.
-            Presence presence = null;
-            // This is used in case no available presence is found
-            Presence unavailable = null;
-
-            for (Resourcepart resource : userPresences.keySet()) {
-                Presence p = userPresences.get(resource);
-                if (!p.isAvailable()) {
-                    unavailable = p;
-                    continue;
-                }
-                // Chose presence with highest priority first.
-                if (presence == null || p.getPriority() > presence.getPriority()) {
-                    presence = p;
-                }
-                // If equal priority, choose "most available" by the mode value.
-                else if (p.getPriority() == presence.getPriority()) {
-                    Presence.Mode pMode = p.getMode();
-                    // Default to presence mode of available.
-                    if (pMode == null) {
-                        pMode = Presence.Mode.available;
-                    }
-                    Presence.Mode presenceMode = presence.getMode();
-                    // Default to presence mode of available.
-                    if (presenceMode == null) {
-                        presenceMode = Presence.Mode.available;
-                    }
-                    if (pMode.compareTo(presenceMode) < 0) {
-                        presence = p;
-                    }
-                }
-            }
-            if (presence == null) {
-                if (unavailable != null) {
-                    return unavailable.clone();
-                }
-                else {
-                    presence = new Presence(Presence.Type.unavailable);
-                    presence.setFrom(jid);
-                    return presence;
-                }
-            }
-            else {
-                return presence.clone();
-            }
-        }
+        return presence.clone();
     }
 
     /**
@@ -961,7 +965,7 @@ public final class Roster extends Manager {
     public Presence getPresenceResource(FullJid userWithResource) {
         BareJid key = userWithResource.asBareJid();
         Resourcepart resource = userWithResource.getResourcepart();
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(key);
+        UserPresences userPresences = getPresencesInternal(key);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(userWithResource);
@@ -989,7 +993,7 @@ public final class Roster extends Manager {
      *         presence information is available.
      */
     public List<Presence> getAllPresences(BareJid bareJid) {
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(bareJid);
+        UserPresences userPresences = getPresencesInternal(bareJid);
         List<Presence> res;
         if (userPresences == null) {
             // Create an unavailable presence if none was found
@@ -997,7 +1001,7 @@ public final class Roster extends Manager {
             unavailable.setFrom(bareJid);
             res = new ArrayList<>(Arrays.asList(unavailable));
         } else {
-            res = new ArrayList<>(userPresences.values().size());
+            res = new ArrayList<>();
             for (Presence presence : userPresences.values()) {
                 res.add(presence.clone());
             }
@@ -1037,7 +1041,7 @@ public final class Roster extends Manager {
      */
     public List<Presence> getPresences(BareJid jid) {
         List<Presence> res;
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(jid);
+        UserPresences userPresences = getPresencesInternal(jid);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(jid);
@@ -1147,9 +1151,9 @@ public final class Roster extends Manager {
     private void setOfflinePresencesAndResetLoaded() {
         Presence packetUnavailable;
         outerloop: for (Jid user : presenceMap.keySet()) {
-            Map<Resourcepart, Presence> resources = presenceMap.get(user);
+            UserPresences resources = presenceMap.get(user);
             if (resources != null) {
-                for (Resourcepart resource : resources.keySet()) {
+                for (Resourcepart resource : resources.resources()) {
                     packetUnavailable = new Presence(Presence.Type.unavailable);
                     EntityBareJid bareUserJid = user.asEntityBareJidIfPossible();
                     if (bareUserJid == null) {
@@ -1185,17 +1189,15 @@ public final class Roster extends Manager {
      */
     private void fireRosterChangedEvent(final Collection<Jid> addedEntries, final Collection<Jid> updatedEntries,
                     final Collection<Jid> deletedEntries) {
-        synchronized (rosterListenersAndEntriesLock) {
-            for (RosterListener listener : rosterListeners) {
-                if (!addedEntries.isEmpty()) {
-                    listener.entriesAdded(addedEntries);
-                }
-                if (!updatedEntries.isEmpty()) {
-                    listener.entriesUpdated(updatedEntries);
-                }
-                if (!deletedEntries.isEmpty()) {
-                    listener.entriesDeleted(deletedEntries);
-                }
+        for (RosterListener listener : rosterListeners) {
+            if (!addedEntries.isEmpty()) {
+                listener.entriesAdded(addedEntries);
+            }
+            if (!updatedEntries.isEmpty()) {
+                listener.entriesUpdated(updatedEntries);
+            }
+            if (!deletedEntries.isEmpty()) {
+                listener.entriesDeleted(deletedEntries);
             }
         }
     }
@@ -1206,10 +1208,8 @@ public final class Roster extends Manager {
      * @param presence the presence change.
      */
     private void fireRosterPresenceEvent(final Presence presence) {
-        synchronized (rosterListenersAndEntriesLock) {
-            for (RosterListener listener : rosterListeners) {
-                listener.presenceChanged(presence);
-            }
+        for (RosterListener listener : rosterListeners) {
+            listener.presenceChanged(presence);
         }
     }
 
@@ -1245,11 +1245,8 @@ public final class Roster extends Manager {
         }
 
         // Add the entry/user to the groups
-        List<String> newGroupNames = new ArrayList<String>();
-        for (String groupName : item.getGroupNames()) {
-            // Add the group name to the list.
-            newGroupNames.add(groupName);
-
+        Set<String> newGroupNames = new HashSet<String>(item.getGroupNames());
+        for (String groupName : newGroupNames) {
             // Add the entry to the group.
             RosterGroup group = getGroup(groupName);
             if (group == null) {
@@ -1260,37 +1257,64 @@ public final class Roster extends Manager {
             group.addEntryLocal(entry);
         }
 
-        // Remove user from the remaining groups.
-        List<String> oldGroupNames = new ArrayList<String>();
-        for (RosterGroup group: getGroups()) {
-            oldGroupNames.add(group.getName());
-        }
-        oldGroupNames.removeAll(newGroupNames);
-
-        for (String groupName : oldGroupNames) {
-            RosterGroup group = getGroup(groupName);
-            group.removeEntryLocal(entry);
-            if (group.getEntryCount() == 0) {
-                groups.remove(groupName);
-            }
+        // Remove user from the remaining groups, the index tells which groups the user belonged to.
+        Set<String> oldGroupNames = entryGroupNames.put(item.getJid(), Collections.unmodifiableSet(newGroupNames));
+        if (oldGroupNames != null) {
+            removeFromGroups(entry, oldGroupNames, newGroupNames);
         }
     }
 
     private void deleteEntry(Collection<Jid> deletedEntries, RosterEntry entry) {
         BareJid user = entry.getJid();
-        entries.remove(user);
+        synchronized (rosterListenersAndEntriesLock) {
+            entries.remove(user);
+        }
         unfiledEntries.remove(entry);
         // Move the presences from the presenceMap to the nonRosterPresenceMap.
         move(user, presenceMap, nonRosterPresenceMap);
         deletedEntries.add(user);
 
-        for (Entry<String,RosterGroup> e: groups.entrySet()) {
-            RosterGroup group = e.getValue();
+        Set<String> oldGroupNames = entryGroupNames.remove(user);
+        if (oldGroupNames != null) {
+            removeFromGroups(entry, oldGroupNames, Collections.<String>emptySet());
+        }
+    }
+
+    private void removeFromGroups(RosterEntry entry, Set<String> groupNames, Set<String> retainedGroupNames) {
+        for (String groupName : groupNames) {
+            if (retainedGroupNames.contains(groupName)) {
+                continue;
+            }
+            RosterGroup group = getGroup(groupName);
+            if (group == null) {
+                continue;
+            }
             group.removeEntryLocal(entry);
             if (group.getEntryCount() == 0) {
-                groups.remove(e.getKey());
+                groups.remove(groupName);
+            }
+        }
+    }
+
+    /**
+     * Get the groups the roster entry with the given JID belongs to.
+     *
+     * @param jid the JID of the roster entry.
+     * @return the groups of the entry.
+     */
+    List<RosterGroup> getGroupsOf(BareJid jid) {
+        Set<String> groupNames = entryGroupNames.get(jid);
+        if (groupNames == null) {
+            return new ArrayList<RosterGroup>(0);
+        }
+        List<RosterGroup> res = new ArrayList<RosterGroup>(groupNames.size());
+        for (String groupName : groupNames) {
+            RosterGroup group = getGroup(groupName);
+            if (group != null) {
+                res.add(group);
             }
         }
+        return res;
     }
 
     /**
@@ -1317,8 +1341,8 @@ public final class Roster extends Manager {
      * @param from the map to move presences from
      * @param to the map to move presences to
      */
-    private static void move(BareJid entity, Map<BareJid, Map<Resourcepart, Presence>> from, Map<BareJid, Map<Resourcepart, Presence>> to) {
-        Map<Resourcepart, Presence> presences = from.remove(entity);
+    private static void move(BareJid entity, Map<BareJid, UserPresences> from, Map<BareJid, UserPresences> to) {
+        UserPresences presences = from.remove(entity);
         if (presences != null && !presences.isEmpty()) {
             to.put(entity, presences);
         }
@@ -1417,7 +1441,7 @@ public final class Roster extends Manager {
             }
 
             BareJid key = from != null ? from.asBareJid() : null;
-            Map<Resourcepart, Presence> userPresences;
+            UserPresences userPresences;
 
             // If an "available" presence, add it to the presence map. Each presence
             // map will hold for a particular user a map with the presence
@@ -1426,10 +1450,8 @@ public final class Roster extends Manager {
             case available:
                 // Get the user presence map
                 userPresences = getOrCreatePresencesInternal(key);
-                // See if an offline presence was being stored in the map. If so, remove
-                // it since we now have an online presence.
-                userPresences.remove(Resourcepart.EMPTY);
-                // Add the new presence, using the resources as a key.
+                // Add the new presence, using the resources as a key. An offline presence stored
+                // for the user is removed, since we now have an online presence.
                 userPresences.put(fromResource, presence);
                 // If the user is in the roster, fire an event.
                 if (contains(key)) {
@@ -1449,8 +1471,7 @@ public final class Roster extends Manager {
                     userPresences.put(Resourcepart.EMPTY, presence);
                 }
                 // Otherwise, this is a normal offline presence.
-                else if (presenceMap.get(key) != null) {
-                    userPresences = presenceMap.get(key);
+                else if ((userPresences = presenceMap.get(key)) != null) {
                     // Store the offline presence, as it may include extra information
                     // such as the user being on vacation.
                     userPresences.put(fromResource, presence);
@@ -1487,11 +1508,9 @@ public final class Roster extends Manager {
                     break;
                 }
                 userPresences = getOrCreatePresencesInternal(key);
-                // Any other presence data is invalidated by the error packet.
-                userPresences.clear();
-
-                // Set the new presence using the empty resource as a key.
-                userPresences.put(Resourcepart.EMPTY, presence);
+                // Any other presence data is invalidated by the error packet. Set the new presence
+                // using the empty resource as a key.
+                userPresences.reset(presence);
                 // If the user is in the roster, fire an event.
                 if (contains(key)) {
                     fireRosterPresenceEvent(presence);
@@ -1521,6 +1540,15 @@ public final class Roster extends Manager {
      */
     private class RosterResultListener implements StanzaListener {
 
+        /**
+         * The future to complete once the roster was loaded, may be <code>null</code>.
+         */
+        private final SmackFuture<Roster> future;
+
+        private RosterResultListener(SmackFuture<Roster> future) {
+            this.future = future;
+        }
+
         @Override
         public void processPacket(Stanza packet) {
             final XMPPConnection connection = connection();
@@ -1552,9 +1580,17 @@ public final class Roster extends Manager {
                 for (RosterEntry entry : entries.values()) {
                     toDelete.add(entry.getJid());
                 }
-                toDelete.removeAll(addedEntries);
-                toDelete.removeAll(updatedEntries);
-                toDelete.removeAll(unchangedEntries);
+                // Iterate over the collections instead of using removeAll(), which may invoke
+                // contains() of the lists for every entry.
+                for (Jid jid : addedEntries) {
+                    toDelete.remove(jid);
+                }
+                for (Jid jid : updatedEntries) {
+                    toDelete.remove(jid);
+                }
+                for (Jid jid : unchangedEntries) {
+                    toDelete.remove(jid);
+                }
                 for (Jid user : toDelete) {
                     deleteEntry(deletedEntries, entries.get(user));
                 }
@@ -1576,12 +1612,15 @@ public final class Roster extends Manager {
                     // The roster store was corrupted. Reset the store and reload the roster without using a roster version.
                     rosterStore.resetStore();
                     try {
-                        reload();
+                        reload(future);
                     } catch (NotLoggedInException | NotConnectedException
                             | InterruptedException e) {
                         LOGGER.log(Level.FINE,
                                 "Exception while trying to load the roster after the roster store was corrupted",
                                 e);
+                        if (future != null) {
+                            future.completeExceptionally(e);
+                        }
                     }
                     return;
                 }
@@ -1613,6 +1652,10 @@ public final class Roster extends Manager {
             catch (Exception e) {
                 LOGGER.log(Level.WARNING, "RosterLoadedListener threw exception", e);
             }
+
+            if (future != null) {
+                future.complete(Roster.this);
+            }
         }
     }
 
@@ -17,7 +17,6 @@
 
 package org.jivesoftware.smack.roster;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -142,15 +141,8 @@ public final class RosterEntry extends Manager {
      * @return an iterator for the groups this entry belongs to.
      */
     public List<RosterGroup> getGroups() {
-        List<RosterGroup> results = new ArrayList<RosterGroup>();
-        // Loop through all roster groups and find the ones that contain this
-        // entry. This algorithm should be fine
-        for (RosterGroup group: roster.getGroups()) {
-            if (group.contains(this)) {
-                results.add(group);
-            }
-        }
-        return results;
+        // The roster maintains an index of the groups of every entry.
+        return roster.getGroupsOf(getJid());
     }
 
     /**
@@ -18,9 +18,9 @@
 package org.jivesoftware.smack.roster;
 
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import org.jivesoftware.smack.Manager;
 import org.jivesoftware.smack.XMPPConnection;
@@ -29,6 +29,7 @@ import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.roster.packet.RosterPacket;
+import org.jxmpp.jid.BareJid;
 import org.jxmpp.jid.Jid;
 
 /**
@@ -40,7 +41,10 @@ import org.jxmpp.jid.Jid;
 public class RosterGroup extends Manager {
 
     private final String name;
-    private final Set<RosterEntry> entries;
+    /**
+     * The entries of this group by their JID.
+     */
+    private final Map<BareJid, RosterEntry> entries;
 
     /**
      * Creates a new roster group instance.
@@ -51,7 +55,7 @@ public class RosterGroup extends Manager {
     RosterGroup(String name, XMPPConnection connection) {
         super(connection);
         this.name = name;
-        entries = new LinkedHashSet<RosterEntry>();
+        entries = new LinkedHashMap<BareJid, RosterEntry>();
     }
 
     /**
@@ -77,7 +81,7 @@ public class RosterGroup extends Manager {
      */
     public void setName(String name) throws NotConnectedException, NoResponseException, XMPPErrorException, InterruptedException {
         synchronized (entries) {
-            for (RosterEntry entry : entries) {
+            for (RosterEntry entry : entries.values()) {
                 RosterPacket packet = new RosterPacket();
                 packet.setType(IQ.Type.set);
                 RosterPacket.Item item = RosterEntry.toRosterItem(entry);
@@ -107,7 +111,7 @@ public class RosterGroup extends Manager {
      */
     public List<RosterEntry> getEntries() {
         synchronized (entries) {
-            return new ArrayList<RosterEntry>(entries);
+            return new ArrayList<RosterEntry>(entries.values());
         }
     }
 
@@ -124,15 +128,10 @@ public class RosterGroup extends Manager {
         }
         // Roster entries never include a resource so remove the resource
         // if it's a part of the XMPP address.
-        user = user.asBareJid();
+        BareJid bareJid = user.asBareJid();
         synchronized (entries) {
-            for (RosterEntry entry : entries) {
-                if (entry.getJid().equals(user)) {
-                    return entry;
-                }
-            }
+            return entries.get(bareJid);
         }
-        return null;
     }
 
     /**
@@ -143,7 +142,7 @@ public class RosterGroup extends Manager {
      */
     public boolean contains(RosterEntry entry) {
         synchronized (entries) {
-            return entries.contains(entry);
+            return entries.containsKey(entry.getJid());
         }
     }
 
@@ -172,7 +171,7 @@ public class RosterGroup extends Manager {
     public void addEntry(RosterEntry entry) throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
         // Only add the entry if it isn't already in the list.
         synchronized (entries) {
-            if (!entries.contains(entry)) {
+            if (!entries.containsKey(entry.getJid())) {
                 RosterPacket packet = new RosterPacket();
                 packet.setType(IQ.Type.set);
                 RosterPacket.Item item = RosterEntry.toRosterItem(entry);
@@ -203,7 +202,7 @@ public class RosterGroup extends Manager {
         // to take place the entry will exist in the group until a packet is received from the 
         // server.
         synchronized (entries) {
-            if (entries.contains(entry)) {
+            if (entries.containsKey(entry.getJid())) {
                 RosterPacket packet = new RosterPacket();
                 packet.setType(IQ.Type.set);
                 RosterPacket.Item item = RosterEntry.toRosterItem(entry);
@@ -218,17 +217,15 @@ public class RosterGroup extends Manager {
     void addEntryLocal(RosterEntry entry) {
         // Update the entry if it is already in the list
         synchronized (entries) {
-            entries.remove(entry);
-            entries.add(entry);
+            entries.remove(entry.getJid());
+            entries.put(entry.getJid(), entry);
         }
     }
 
     void removeEntryLocal(RosterEntry entry) {
          // Only remove the entry if it's in the entry list.
         synchronized (entries) {
-            if (entries.contains(entry)) {
-                entries.remove(entry);
-            }
+            entries.remove(entry.getJid());
         }
     }
 }
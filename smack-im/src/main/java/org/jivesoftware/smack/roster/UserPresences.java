@@ -0,0 +1,153 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jivesoftware.smack.packet.Presence;
+import org.jxmpp.jid.parts.Resourcepart;
+
+/**
+ * The presences of an XMPP entity, i.e. of a bare JID, by resource. The presence which {@link Roster#getPresence}
+ * returns for the entity is determined whenever the presences change, so that looking it up does not require to
+ * compare the presences of all resources.
+ * <p>
+ * The presences may be read concurrently, but they are changed by the presence listener of the roster only.
+ * </p>
+ */
+final class UserPresences {
+
+    private final Map<Resourcepart, Presence> presences = new ConcurrentHashMap<>();
+
+    /**
+     * The available presence with the highest priority and the "most available" mode, or, if there is no available
+     * presence, an unavailable one. <code>null</code> if there are no presences.
+     */
+    private volatile Presence bestPresence;
+
+    Presence get(Resourcepart resource) {
+        return presences.get(resource);
+    }
+
+    Collection<Presence> values() {
+        return presences.values();
+    }
+
+    Set<Resourcepart> resources() {
+        return presences.keySet();
+    }
+
+    boolean isEmpty() {
+        return presences.isEmpty();
+    }
+
+    Presence getBestPresence() {
+        return bestPresence;
+    }
+
+    /**
+     * Set the presence of the given resource. Available presences replace the offline presence of the entity, which
+     * is stored as presence of the empty resource.
+     *
+     * @param resource the resource.
+     * @param presence the presence.
+     */
+    synchronized void put(Resourcepart resource, Presence presence) {
+        if (presence.isAvailable()) {
+            presences.remove(Resourcepart.EMPTY);
+        }
+        presences.put(resource, presence);
+        updateBestPresence(presence);
+    }
+
+    /**
+     * Replace all presences with the given presence of the empty resource.
+     *
+     * @param presence the presence.
+     */
+    synchronized void reset(Presence presence) {
+        presences.clear();
+        presences.put(Resourcepart.EMPTY, presence);
+        bestPresence = presence;
+    }
+
+    private void updateBestPresence(Presence presence) {
+        Presence best = bestPresence;
+        if (best == null || best.getFrom() == null || best.getFrom().equals(presence.getFrom())) {
+            // The previous best presence may have been replaced, determine the best presence from scratch.
+            bestPresence = determineBestPresence();
+        }
+        else if (isBetter(presence, best)) {
+            bestPresence = presence;
+        }
+        else if (!best.isAvailable() && !presence.isAvailable()) {
+            // Like before, report the most recent unavailable presence if there is no available one.
+            bestPresence = presence;
+        }
+    }
+
+    private Presence determineBestPresence() {
+        Presence best = null;
+        // This is used in case no available presence is found
+        Presence unavailable = null;
+        for (Presence presence : presences.values()) {
+            if (!presence.isAvailable()) {
+                unavailable = presence;
+            }
+            else if (best == null || isBetter(presence, best)) {
+                best = presence;
+            }
+        }
+        return best != null ? best : unavailable;
+    }
+
+    /**
+     * Check if the given presence is better than the current best presence. Available presences are better than
+     * unavailable ones. Of two available presences, the one with the higher priority is better. If both have the same
+     * priority, then the one with the "most available" presence mode is better. In order, that's
+     * {@link Presence.Mode#chat free to chat}, {@link Presence.Mode#available available}, {@link Presence.Mode#away
+     * away}, {@link Presence.Mode#xa extended away}, and {@link Presence.Mode#dnd do not disturb}.
+     *
+     * @param presence the presence.
+     * @param best the current best presence.
+     * @return true if the presence is better than the current best presence.
+     */
+    private static boolean isBetter(Presence presence, Presence best) {
+        if (!presence.isAvailable()) {
+            return false;
+        }
+        if (!best.isAvailable()) {
+            return true;
+        }
+        if (presence.getPriority() != best.getPriority()) {
+            return presence.getPriority() > best.getPriority();
+        }
+        return modeOf(presence).compareTo(modeOf(best)) < 0;
+    }
+
+    private static Presence.Mode modeOf(Presence presence) {
+        Presence.Mode mode = presence.getMode();
+        // Default to presence mode of available.
+        if (mode == null) {
+            mode = Presence.Mode.available;
+        }
+        return mode;
+    }
+}
@@ -0,0 +1,439 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster.rosterstore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket;
+import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
+import org.jivesoftware.smack.roster.provider.RosterPacketProvider;
+import org.jivesoftware.smack.util.ChecksummedRecords;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jxmpp.jid.Jid;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Stores roster entries as specified by RFC 6121 for roster versioning in a single, append-only journal file.
+ * <p>
+ * Every change of the roster, e.g. a roster push, appends one record to the journal, which contains the new roster
+ * version. All entries are kept in an in-memory index, which is loaded with a single read of the journal when the
+ * store is opened. Once the journal contains more outdated than current records, it is compacted by writing a new
+ * journal with one record per entry, which replaces the old one atomically. Resetting the entries, e.g. after a
+ * full roster result, is also done by writing a new journal.
+ * </p>
+ * <p>
+ * Every record is protected by a checksum. If the application crashed while a record was written, then the journal
+ * is truncated to the last complete record when it is opened. Since every record contains the roster version, the
+ * store is still consistent, the server just sends the roster changes since the older version.
+ * </p>
+ * <p>
+ * By default, records are written to the operating system, which protects them against crashes of the application.
+ * {@link #setSyncWrites(boolean)} makes the store also wait until the records were written to the storage device.
+ * Use {@link #importFrom(RosterStore, File)} to migrate the entries of an existing roster store, like a
+ * {@link DirectoryRosterStore}.
+ * </p>
+ */
+public final class JournaledRosterStore implements RosterStore {
+
+    private static final Logger LOGGER = Logger.getLogger(JournaledRosterStore.class.getName());
+
+    private static final byte[] MAGIC = { 'S', 'R', 'J', '1' };
+
+    private static final byte RECORD_ADD = 'A';
+    private static final byte RECORD_REMOVE = 'R';
+    private static final byte RECORD_VERSION = 'V';
+
+    /**
+     * The journal is not compacted as long as it contains no more outdated records than this.
+     */
+    private static final int MIN_OUTDATED_RECORDS_FOR_COMPACTION = 1024;
+
+    private final File file;
+
+    // The following fields are guarded by 'this'.
+
+    /**
+     * The XML of the roster entries by the string representation of their bare JID.
+     */
+    private final Map<String, String> entries = new LinkedHashMap<>();
+
+    private String version = "";
+
+    private int records;
+
+    private long length;
+
+    private boolean syncWrites;
+
+    private JournaledRosterStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a new roster store on disk. An existing file is replaced.
+     *
+     * @param file the journal file of the store.
+     * @return A {@link JournaledRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static JournaledRosterStore init(File file) {
+        JournaledRosterStore store = new JournaledRosterStore(file);
+        if (store.resetEntries(Collections.<Item>emptyList(), "")) {
+            return store;
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Opens a roster store.
+     *
+     * @param file the journal file of the store.
+     * @return A {@link JournaledRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static JournaledRosterStore open(File file) {
+        JournaledRosterStore store = new JournaledRosterStore(file);
+        try {
+            if (store.load()) {
+                return store;
+            }
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not open roster store " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new roster store on disk, which contains the entries and the roster version of the given store. This
+     * allows to migrate e.g. from a {@link DirectoryRosterStore}. The given store is not modified. If it could not be
+     * loaded, then the new store is empty.
+     *
+     * @param rosterStore the roster store to import the entries from.
+     * @param file the journal file of the new store.
+     * @return A {@link JournaledRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static JournaledRosterStore importFrom(RosterStore rosterStore, File file) {
+        JournaledRosterStore store = new JournaledRosterStore(file);
+        List<Item> items = rosterStore.getEntries();
+        String version = rosterStore.getRosterVersion();
+        if (items == null || version == null) {
+            items = Collections.emptyList();
+            version = "";
+        }
+        if (store.resetEntries(items, version)) {
+            return store;
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Set if the store waits until changes were written to the storage device. The default is <code>false</code>.
+     *
+     * @param syncWrites true if the store should wait until changes were written to the storage device.
+     */
+    public synchronized void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    @Override
+    public synchronized List<Item> getEntries() {
+        List<Item> items = new ArrayList<>(entries.size());
+        if (entries.isEmpty()) {
+            return items;
+        }
+        // Parse all entries with a single parser.
+        StringBuilder sb = new StringBuilder();
+        sb.append("<query>");
+        for (String itemXml : entries.values()) {
+            sb.append(itemXml);
+        }
+        sb.append("</query>");
+        try {
+            XmlPullParser parser = PacketParserUtils.getParserFor(sb.toString());
+            while (true) {
+                int eventType = parser.next();
+                if (eventType == XmlPullParser.START_TAG && RosterPacket.Item.ELEMENT.equals(parser.getName())) {
+                    items.add(RosterPacketProvider.parseItem(parser));
+                }
+                else if (eventType == XmlPullParser.END_DOCUMENT) {
+                    break;
+                }
+            }
+        }
+        catch (XmlPullParserException | IOException | IllegalArgumentException e) {
+            // Signal the corrupt store by returning null.
+            LOGGER.log(Level.SEVERE, "Exception while parsing roster entries", e);
+            return null;
+        }
+        return items;
+    }
+
+    @Override
+    public synchronized Item getEntry(Jid bareJid) {
+        String itemXml = entries.get(bareJid.toString());
+        if (itemXml == null) {
+            return null;
+        }
+        try {
+            XmlPullParser parser = PacketParserUtils.getParserFor(itemXml);
+            return RosterPacketProvider.parseItem(parser);
+        }
+        catch (XmlPullParserException | IOException | IllegalArgumentException e) {
+            LOGGER.log(Level.SEVERE, "Exception while parsing roster entry", e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized String getRosterVersion() {
+        return version;
+    }
+
+    @Override
+    public synchronized boolean addEntry(Item item, String version) {
+        String jid = item.getJid().toString();
+        String itemXml = item.toXML().toString();
+        try {
+            append(RECORD_ADD, version, jid, itemXml);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not add roster entry to " + file, e);
+            return false;
+        }
+        entries.put(jid, itemXml);
+        this.version = version;
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeEntry(Jid bareJid, String version) {
+        String jid = bareJid.toString();
+        try {
+            append(RECORD_REMOVE, version, jid, null);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not remove roster entry from " + file, e);
+            return false;
+        }
+        entries.remove(jid);
+        this.version = version;
+        maybeCompact();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean resetEntries(Collection<Item> items, String version) {
+        Map<String, String> newEntries = new LinkedHashMap<>(items.size());
+        for (Item item : items) {
+            newEntries.put(item.getJid().toString(), item.toXML().toString());
+        }
+        try {
+            writeJournal(newEntries, version);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write roster store " + file, e);
+            return false;
+        }
+        entries.clear();
+        entries.putAll(newEntries);
+        this.version = version;
+        return true;
+    }
+
+    @Override
+    public synchronized void resetStore() {
+        resetEntries(Collections.<Item>emptyList(), "");
+    }
+
+    /**
+     * Compact the journal, so that it contains exactly one record per roster entry.
+     *
+     * @return true if successful.
+     */
+    public synchronized boolean compact() {
+        try {
+            writeJournal(entries, version);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not compact roster store " + file, e);
+            return false;
+        }
+        return true;
+    }
+
+    private void maybeCompact() {
+        // The journal contains one record per entry and one for the version when it was compacted.
+        int outdatedRecords = records - entries.size() - 1;
+        if (outdatedRecords > MIN_OUTDATED_RECORDS_FOR_COMPACTION && outdatedRecords > entries.size()) {
+            compact();
+        }
+    }
+
+    private boolean load() throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        long validLength = ChecksummedRecords.read(file, MAGIC, new ChecksummedRecords.RecordHandler() {
+            @Override
+            public void handleRecord(ByteBuffer payload) throws UnsupportedEncodingException {
+                applyRecord(payload);
+                records++;
+            }
+        });
+        if (validLength < 0) {
+            return false;
+        }
+        if (validLength < file.length()) {
+            LOGGER.warning("Roster store " + file + " contains an incomplete record, truncating it to the last"
+                            + " complete record");
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(validLength);
+            }
+            finally {
+                randomAccessFile.close();
+            }
+        }
+        length = validLength;
+        return true;
+    }
+
+    private void applyRecord(ByteBuffer payload) throws UnsupportedEncodingException {
+        byte type = payload.get();
+        String recordVersion = ChecksummedRecords.readString(payload);
+        // Read the whole record before applying it.
+        switch (type) {
+        case RECORD_ADD:
+            String jid = ChecksummedRecords.readString(payload);
+            String itemXml = ChecksummedRecords.readString(payload);
+            entries.put(jid, itemXml);
+            break;
+        case RECORD_REMOVE:
+            entries.remove(ChecksummedRecords.readString(payload));
+            break;
+        case RECORD_VERSION:
+            break;
+        default:
+            LOGGER.warning("Ignoring unknown record of type " + type + " in roster store " + file);
+            return;
+        }
+        if (recordVersion != null) {
+            version = recordVersion;
+        }
+    }
+
+    private void append(byte type, String version, String jid, String itemXml) throws IOException {
+        byte[] record = toRecord(type, version, jid, itemXml);
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            if (out.getChannel().size() != length) {
+                // Do not append to a journal which was modified or removed by someone else.
+                throw new IOException("Roster store " + file + " was modified externally");
+            }
+            out.write(record);
+            if (syncWrites) {
+                out.getFD().sync();
+            }
+        }
+        finally {
+            out.close();
+        }
+        length += record.length;
+        records++;
+    }
+
+    /**
+     * Write a new journal containing the given entries and replace the existing journal atomically.
+     */
+    private void writeJournal(Map<String, String> entries, String version) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        long newLength = 0;
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+            buffer.write(MAGIC);
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                buffer.write(toRecord(RECORD_ADD, null, entry.getKey(), entry.getValue()));
+                if (buffer.size() >= 64 * 1024) {
+                    newLength += flush(buffer, out);
+                }
+            }
+            buffer.write(toRecord(RECORD_VERSION, version, null, null));
+            newLength += flush(buffer, out);
+            if (syncWrites) {
+                out.getFD().sync();
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            // Some platforms, e.g. Windows, can not replace an existing file with renameTo().
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " with " + tmpFile);
+            }
+        }
+        length = newLength;
+        records = entries.size() + 1;
+    }
+
+    private static int flush(ByteArrayOutputStream buffer, FileOutputStream out) throws IOException {
+        int size = buffer.size();
+        buffer.writeTo(out);
+        buffer.reset();
+        return size;
+    }
+
+    private static byte[] toRecord(byte type, String version, String jid, String itemXml) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeByte(type);
+        ChecksummedRecords.writeString(payload, version);
+        if (jid != null) {
+            ChecksummedRecords.writeString(payload, jid);
+        }
+        if (itemXml != null) {
+            ChecksummedRecords.writeString(payload, itemXml);
+        }
+        payload.flush();
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(
+                        ChecksummedRecords.RECORD_HEADER_SIZE + payloadBytes.size());
+        ChecksummedRecords.writeRecord(record, payloadBytes.toByteArray());
+        return record.toByteArray();
+    }
+}
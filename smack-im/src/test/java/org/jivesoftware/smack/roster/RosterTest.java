@@ -504,6 +504,76 @@ public class RosterTest extends InitSmackIm {
         assertSame("Wrong number of roster entries.", 4, roster.getEntries().size());
     }
 
+    /**
+     * Test that the presence of a contact is the available presence with the highest priority, and that it is
+     * updated when presences of the contact's resources change.
+     */
+    @Test
+    public void testPresenceOfContactWithMultipleResources() throws Throwable {
+        initRoster();
+        final BareJid romeo = JidCreate.entityBareFrom("romeo@example.net");
+
+        processPresence(presence("romeo@example.net/orchard", Presence.Type.available, 1, Presence.Mode.away));
+        processPresence(presence("romeo@example.net/balcony", Presence.Type.available, 5, Presence.Mode.away));
+        processPresence(presence("romeo@example.net/garden", Presence.Type.available, 5, Presence.Mode.chat));
+        assertEquals(JidCreate.from("romeo@example.net/garden"), roster.getPresence(romeo).getFrom());
+        assertEquals(3, roster.getAvailablePresences(romeo).size());
+
+        processPresence(presence("romeo@example.net/garden", Presence.Type.unavailable, 0, null));
+        assertEquals(JidCreate.from("romeo@example.net/balcony"), roster.getPresence(romeo).getFrom());
+
+        processPresence(presence("romeo@example.net/balcony", Presence.Type.unavailable, 0, null));
+        processPresence(presence("romeo@example.net/orchard", Presence.Type.unavailable, 0, null));
+        Presence presence = roster.getPresence(romeo);
+        assertFalse(presence.isAvailable());
+        assertEquals(romeo, presence.getFrom().asBareJid());
+        assertTrue(roster.getAvailablePresences(romeo).isEmpty());
+    }
+
+    /**
+     * Test that the groups of an entry are updated when a roster push moves the entry to another group.
+     */
+    @Test
+    public void testGroupsOfEntryAfterRosterPush() throws Throwable {
+        initRoster();
+        final BareJid romeo = JidCreate.entityBareFrom("romeo@example.net");
+        rosterListener.reset();
+
+        final RosterPacket rosterPush = new RosterPacket();
+        rosterPush.setType(Type.set);
+        rosterPush.setTo(connection.getUser());
+        final Item item = new Item(romeo, "Romeo");
+        item.setItemType(ItemType.both);
+        item.addGroupName("Lovers");
+        item.addGroupName("Montagues");
+        rosterPush.addRosterItem(item);
+        connection.processStanza(rosterPush);
+        rosterListener.waitUntilInvocationOrTimeout();
+
+        final RosterEntry entry = roster.getEntry(romeo);
+        assertEquals(2, entry.getGroups().size());
+        assertNull("The empty group should have been removed", roster.getGroup("Friends"));
+        assertSame(entry, roster.getGroup("Lovers").getEntry(romeo));
+        assertTrue(roster.getGroup("Montagues").contains(entry));
+        assertEquals(2, roster.getGroupCount());
+        assertEquals(3, roster.getEntryCount());
+    }
+
+    private static Presence presence(String from, Presence.Type type, int priority, Presence.Mode mode)
+                    throws XmppStringprepException {
+        Presence presence = new Presence(type);
+        presence.setFrom(JidCreate.from(from));
+        presence.setPriority(priority);
+        presence.setMode(mode);
+        return presence;
+    }
+
+    private void processPresence(Presence presence) {
+        rosterListener.reset();
+        connection.processStanza(presence);
+        rosterListener.waitUntilInvocationOrTimeout();
+    }
+
     /**
      * Remove all roster entries by iterating trough {@link Roster#getEntries()}
      * and simulating receiving roster pushes from the server.
@@ -0,0 +1,159 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.roster.rosterstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.roster.packet.RosterPacket.Item;
+import org.jivesoftware.smack.roster.packet.RosterPacket.ItemType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.JidTestUtil;
+import org.jxmpp.jid.impl.JidCreate;
+
+/**
+ * Tests the implementation of {@link JournaledRosterStore}.
+ */
+public class JournaledRosterStoreTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testStoreUninitialized() throws IOException {
+        File file = new File(tmpFolder.newFolder(), "roster");
+        assertNull(JournaledRosterStore.open(file));
+        assertNull(JournaledRosterStore.open(tmpFolder.newFile()));
+    }
+
+    @Test
+    public void testStoreInitializedEmpty() throws IOException {
+        File file = new File(tmpFolder.newFolder(), "roster");
+        JournaledRosterStore store = JournaledRosterStore.init(file);
+        assertNotNull("Initialization returns store", store);
+        assertEquals("", store.getRosterVersion());
+        assertEquals(0, store.getEntries().size());
+
+        store = JournaledRosterStore.open(file);
+        assertNotNull(store);
+        assertEquals("", store.getRosterVersion());
+        assertEquals(0, store.getEntries().size());
+    }
+
+    @Test
+    public void testChangesArePersisted() throws IOException {
+        File file = new File(tmpFolder.newFolder(), "roster");
+        JournaledRosterStore store = JournaledRosterStore.init(file);
+        BareJid userName = JidTestUtil.DUMMY_AT_EXAMPLE_ORG;
+
+        Item item = new Item(userName, "Ursula Example");
+        item.addGroupName("users");
+        item.addGroupName("examples");
+        item.setSubscriptionPending(true);
+        item.setItemType(ItemType.none);
+        item.setApproved(true);
+        assertTrue(store.addEntry(item, "1"));
+        assertTrue(store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Other"), "2"));
+        assertTrue(store.removeEntry(JidTestUtil.BARE_JID_1, "3"));
+
+        store = JournaledRosterStore.open(file);
+        assertNotNull(store);
+        assertEquals("3", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+        assertNull(store.getEntry(JidTestUtil.BARE_JID_1));
+        Item storedItem = store.getEntry(userName);
+        assertNotNull(storedItem);
+        assertEquals(item.getName(), storedItem.getName());
+        assertEquals(item.getGroupNames(), storedItem.getGroupNames());
+        assertEquals(item.getItemType(), storedItem.getItemType());
+        assertEquals(item.isSubscriptionPending(), storedItem.isSubscriptionPending());
+        assertEquals(item.isApproved(), storedItem.isApproved());
+    }
+
+    @Test
+    public void testIncompleteRecordIsDiscarded() throws IOException {
+        File file = new File(tmpFolder.newFolder(), "roster");
+        JournaledRosterStore store = JournaledRosterStore.init(file);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_1, null), "1");
+        long length = file.length();
+        store.addEntry(new Item(JidTestUtil.BARE_JID_2, null), "2");
+
+        // Simulate a crash while the last record was written.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - 3);
+        randomAccessFile.close();
+
+        store = JournaledRosterStore.open(file);
+        assertNotNull(store);
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+        assertEquals(length, file.length());
+
+        // The store can be appended to after the incomplete record was discarded.
+        assertTrue(store.addEntry(new Item(JidTestUtil.BARE_JID_2, null), "2"));
+        store = JournaledRosterStore.open(file);
+        assertEquals("2", store.getRosterVersion());
+        assertEquals(2, store.getEntries().size());
+    }
+
+    @Test
+    public void testJournalIsCompacted() throws IOException {
+        File file = new File(tmpFolder.newFolder(), "roster");
+        JournaledRosterStore store = JournaledRosterStore.init(file);
+        long maxLength = 0;
+        for (int i = 0; i < 5000; i++) {
+            store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Name " + i), Integer.toString(i));
+            maxLength = Math.max(maxLength, file.length());
+        }
+        // Without compaction, the journal would contain 5000 records.
+        assertTrue(maxLength < 2000 * new Item(JidTestUtil.BARE_JID_1, "Name 0").toXML().length());
+
+        store = JournaledRosterStore.open(file);
+        assertEquals("4999", store.getRosterVersion());
+        assertEquals("Name 4999", store.getEntry(JidTestUtil.BARE_JID_1).getName());
+    }
+
+    @Test
+    public void testImportFromDirectoryRosterStore() throws IOException {
+        DirectoryRosterStore directoryRosterStore = DirectoryRosterStore.init(tmpFolder.newFolder());
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(new Item(JidCreate.bareFrom("contact" + i + "@example.org"), "Contact " + i));
+        }
+        directoryRosterStore.resetEntries(items, "v100");
+
+        File file = new File(tmpFolder.newFolder(), "roster");
+        JournaledRosterStore store = JournaledRosterStore.importFrom(directoryRosterStore, file);
+        assertNotNull(store);
+
+        store = JournaledRosterStore.open(file);
+        assertEquals("v100", store.getRosterVersion());
+        assertEquals(100, store.getEntries().size());
+        assertEquals("Contact 42", store.getEntry(JidCreate.bareFrom("contact42@example.org")).getName());
+    }
+}
@@ -17,6 +17,7 @@
 package org.jivesoftware.smack.legacy;
 
 import org.jivesoftware.smack.initializer.UrlInitializer;
+import org.jivesoftware.smack.provider.ProviderRegistry;
 
 public class LegacyInitializer extends UrlInitializer {
 
@@ -24,4 +25,9 @@ public class LegacyInitializer extends UrlInitializer {
     protected String getProvidersUrl() {
         return "classpath:org.jivesoftware.smack.legacy/legacy.providers";
     }
+
+    @Override
+    protected ProviderRegistry getProviderRegistry() {
+        return new LegacyProviderRegistry();
+    }
 }
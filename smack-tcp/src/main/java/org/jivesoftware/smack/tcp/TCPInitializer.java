@@ -17,6 +17,7 @@
 package org.jivesoftware.smack.tcp;
 
 import org.jivesoftware.smack.initializer.UrlInitializer;
+import org.jivesoftware.smack.provider.ProviderRegistry;
 
 public class TCPInitializer extends UrlInitializer {
 
@@ -25,4 +26,9 @@ public class TCPInitializer extends UrlInitializer {
         return "classpath:org.jivesoftware.smack.tcp/smacktcp.providers";
     }
 
+    @Override
+    protected ProviderRegistry getProviderRegistry() {
+        return new TCPProviderRegistry();
+    }
+
 }
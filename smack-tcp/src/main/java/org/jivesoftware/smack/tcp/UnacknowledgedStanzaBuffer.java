@@ -0,0 +1,200 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Stanza;
+
+/**
+ * The Stream Management resend buffer: the stanzas which were sent to the server but not yet acknowledged by it, in
+ * the order they were sent. Every stanza is accounted with the number of bytes it occupied on the wire.
+ * <p>
+ * The buffer grows and shrinks as required. {@link #add(Stanza, int)} never blocks, since the thread writing the
+ * stream must not wait for acknowledgements which may only arrive after the stanzas it holds were written. Instead
+ * the threads sending stanzas wait in {@link #awaitCapacity(long)} before they queue a stanza for writing, or check
+ * {@link #isFull()} if they must not wait.
+ * </p>
+ * <p>
+ * The limits are checked before a stanza is queued, but the stanza is added once it is written. Hence the buffer may
+ * still exceed its limits by the stanzas which are in the writer queue at that time, the stanzas of senders which
+ * passed the check concurrently, and the stanzas sent by the I/O threads or resent after a stream resumption, which
+ * are not subject to the check.
+ * </p>
+ * <p>
+ * The buffer also decides when an acknowledgement request should be sent proactively, i.e. once a quarter of its
+ * limits was sent since the last request, or, as checked periodically by the connection, if it is not empty and the
+ * last request was sent a while ago.
+ * </p>
+ */
+final class UnacknowledgedStanzaBuffer {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The interval in milliseconds after which an acknowledgement request is due if stanzas are unacknowledged.
+     */
+    static final long ACK_REQUEST_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final long ACK_REQUEST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(ACK_REQUEST_INTERVAL_MILLIS);
+
+    private final int maxStanzas;
+
+    private final long maxBytes;
+
+    private final int ackRequestStanzas;
+
+    private final long ackRequestBytes;
+
+    // The following fields are guarded by 'this'.
+    private Stanza[] stanzas = new Stanza[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+    private int head;
+    private int count;
+    private long bytes;
+    private int stanzasSinceAckRequest;
+    private long bytesSinceAckRequest;
+    private long lastAckRequest = System.nanoTime();
+
+    UnacknowledgedStanzaBuffer(int maxStanzas, long maxBytes) {
+        this.maxStanzas = maxStanzas;
+        this.maxBytes = maxBytes;
+        ackRequestStanzas = Math.max(1, maxStanzas / 4);
+        ackRequestBytes = Math.max(1, maxBytes / 4);
+    }
+
+    /**
+     * Add a stanza which is about to be put on the wire.
+     *
+     * @param stanza the stanza.
+     * @param size the number of bytes the stanza occupies on the wire, or <code>0</code> if unknown.
+     * @return true if an acknowledgement request should be sent.
+     */
+    synchronized boolean add(Stanza stanza, int size) {
+        if (count == stanzas.length) {
+            resize(stanzas.length * 2);
+        }
+        int tail = (head + count) % stanzas.length;
+        stanzas[tail] = stanza;
+        sizes[tail] = size;
+        count++;
+        bytes += size;
+
+        stanzasSinceAckRequest++;
+        bytesSinceAckRequest += size;
+        return stanzasSinceAckRequest >= ackRequestStanzas || bytesSinceAckRequest >= ackRequestBytes;
+    }
+
+    /**
+     * Check if an acknowledgement request should be sent because the buffer is not empty and the last request was sent
+     * at least {@link #ACK_REQUEST_INTERVAL_MILLIS} ago. This is checked periodically by the connection, so that the
+     * stanzas get acknowledged even if no further stanzas are sent.
+     *
+     * @return true if an acknowledgement request should be sent.
+     */
+    synchronized boolean isAckRequestDue() {
+        return count > 0 && System.nanoTime() - lastAckRequest >= ACK_REQUEST_INTERVAL_NANOS;
+    }
+
+    /**
+     * Signal that an acknowledgement request was put on the wire.
+     */
+    synchronized void ackRequested() {
+        stanzasSinceAckRequest = 0;
+        bytesSinceAckRequest = 0;
+        lastAckRequest = System.nanoTime();
+    }
+
+    /**
+     * Remove the oldest stanza, i.e. the next stanza acknowledged by the server.
+     *
+     * @return the oldest stanza or <code>null</code> if the buffer is empty.
+     */
+    synchronized Stanza poll() {
+        if (count == 0) {
+            return null;
+        }
+        Stanza stanza = stanzas[head];
+        stanzas[head] = null;
+        bytes -= sizes[head];
+        head = (head + 1) % stanzas.length;
+        count--;
+        if (count < stanzas.length / 4 && stanzas.length > INITIAL_CAPACITY) {
+            // Release the memory of a burst once it was acknowledged.
+            resize(stanzas.length / 2);
+        }
+        notifyAll();
+        return stanza;
+    }
+
+    /**
+     * Remove all stanzas and add them to the given collection.
+     *
+     * @param collection the collection the stanzas are added to.
+     */
+    synchronized void drainTo(Collection<? super Stanza> collection) {
+        Stanza stanza;
+        while ((stanza = poll()) != null) {
+            collection.add(stanza);
+        }
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized boolean isFull() {
+        return count >= maxStanzas || bytes >= maxBytes;
+    }
+
+    /**
+     * Wait until the buffer is within its limits.
+     *
+     * @param timeout the maximum time to wait in milliseconds.
+     * @return true if the buffer is within its limits, false if the timeout elapsed.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    synchronized boolean awaitCapacity(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (isFull()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private void resize(int newCapacity) {
+        Stanza[] newStanzas = new Stanza[newCapacity];
+        int[] newSizes = new int[newCapacity];
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % stanzas.length;
+            newStanzas[i] = stanzas[index];
+            newSizes[i] = sizes[index];
+        }
+        stanzas = newStanzas;
+        sizes = newSizes;
+        head = 0;
+    }
+}
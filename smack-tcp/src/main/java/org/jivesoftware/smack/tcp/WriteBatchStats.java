@@ -0,0 +1,217 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import java.util.Arrays;
+
+/**
+ * A snapshot of the statistics about the batches of stream elements an {@link XMPPTCPConnection} wrote to the
+ * network. A batch is the set of stream elements which got written out with a single flush.
+ *
+ * @see XMPPTCPConnection#getWriteBatchStats()
+ */
+public final class WriteBatchStats {
+
+    /**
+     * The number of buckets of the batch size histogram.
+     */
+    public static final int HISTOGRAM_BUCKETS = 8;
+
+    private final long batchCount;
+    private final long elementCount;
+    private final long byteCount;
+    private final int maxBatchElements;
+    private final int maxBatchBytes;
+    private final long sizeLimitedBatchCount;
+    private final long latencyLimitedBatchCount;
+    private final long[] batchSizeHistogram;
+
+    private WriteBatchStats(Recorder recorder) {
+        batchCount = recorder.batchCount;
+        elementCount = recorder.elementCount;
+        byteCount = recorder.byteCount;
+        maxBatchElements = recorder.maxBatchElements;
+        maxBatchBytes = recorder.maxBatchBytes;
+        sizeLimitedBatchCount = recorder.sizeLimitedBatchCount;
+        latencyLimitedBatchCount = recorder.latencyLimitedBatchCount;
+        batchSizeHistogram = recorder.batchSizeHistogram.clone();
+    }
+
+    /**
+     * Get the number of batches written.
+     *
+     * @return the number of batches.
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Get the number of stream elements written.
+     *
+     * @return the number of stream elements.
+     */
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Get the number of bytes written. If the connection writes via a {@link java.io.Writer}, e.g. because a debugger
+     * is enabled, then this is the number of chars.
+     *
+     * @return the number of bytes.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Get the maximum number of stream elements in a single batch.
+     *
+     * @return the maximum number of stream elements in a batch.
+     */
+    public int getMaxBatchElements() {
+        return maxBatchElements;
+    }
+
+    /**
+     * Get the maximum number of bytes of a single batch.
+     *
+     * @return the maximum number of bytes of a batch.
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Get the average number of stream elements per batch.
+     *
+     * @return the average number of stream elements per batch.
+     */
+    public double getAverageBatchElements() {
+        return batchCount == 0 ? 0 : (double) elementCount / batchCount;
+    }
+
+    /**
+     * Get the average number of bytes per batch.
+     *
+     * @return the average number of bytes per batch.
+     */
+    public double getAverageBatchBytes() {
+        return batchCount == 0 ? 0 : (double) byteCount / batchCount;
+    }
+
+    /**
+     * Get the number of batches which were written because they reached the maximum batch size.
+     *
+     * @return the number of size limited batches.
+     * @see XMPPTCPConnectionConfiguration#getWriteBatchMaxBytes()
+     */
+    public long getSizeLimitedBatchCount() {
+        return sizeLimitedBatchCount;
+    }
+
+    /**
+     * Get the number of batches which were written because the maximum write latency elapsed.
+     *
+     * @return the number of latency limited batches.
+     * @see XMPPTCPConnectionConfiguration#getWriteBatchMaxLatencyMicros()
+     */
+    public long getLatencyLimitedBatchCount() {
+        return latencyLimitedBatchCount;
+    }
+
+    /**
+     * Get the histogram of the number of stream elements per batch. Bucket <code>i</code> counts the batches with
+     * 2<sup>i</sup> to 2<sup>i+1</sup>-1 elements, the last bucket also counts all larger batches.
+     *
+     * @return the batch size histogram with {@link #HISTOGRAM_BUCKETS} buckets.
+     */
+    public long[] getBatchSizeHistogram() {
+        return batchSizeHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBatchStats(batches=" + batchCount + ", elements=" + elementCount + ", bytes=" + byteCount
+                        + ", maxBatchElements=" + maxBatchElements + ", maxBatchBytes=" + maxBatchBytes
+                        + ", sizeLimited=" + sizeLimitedBatchCount + ", latencyLimited=" + latencyLimitedBatchCount
+                        + ", histogram=" + Arrays.toString(batchSizeHistogram) + ')';
+    }
+
+    /**
+     * The reason why a batch was written.
+     */
+    enum FlushReason {
+        /**
+         * There were no further stream elements to write, or the batch must not be delayed.
+         */
+        idle,
+
+        /**
+         * The batch reached its maximum size.
+         */
+        size,
+
+        /**
+         * The maximum write latency elapsed.
+         */
+        latency,
+    }
+
+    /**
+     * Records the written batches of a connection. Batches are recorded by the single thread writing the connection,
+     * snapshots may be taken by any thread.
+     */
+    static final class Recorder {
+        private long batchCount;
+        private long elementCount;
+        private long byteCount;
+        private int maxBatchElements;
+        private int maxBatchBytes;
+        private long sizeLimitedBatchCount;
+        private long latencyLimitedBatchCount;
+        private final long[] batchSizeHistogram = new long[HISTOGRAM_BUCKETS];
+
+        synchronized void recordBatch(int elements, int bytes, FlushReason flushReason) {
+            if (elements == 0) {
+                return;
+            }
+            batchCount++;
+            elementCount += elements;
+            byteCount += bytes;
+            maxBatchElements = Math.max(maxBatchElements, elements);
+            maxBatchBytes = Math.max(maxBatchBytes, bytes);
+            switch (flushReason) {
+            case size:
+                sizeLimitedBatchCount++;
+                break;
+            case latency:
+                latencyLimitedBatchCount++;
+                break;
+            default:
+                break;
+            }
+            int bucket = 31 - Integer.numberOfLeadingZeros(elements);
+            batchSizeHistogram[Math.min(bucket, HISTOGRAM_BUCKETS - 1)]++;
+        }
+
+        synchronized WriteBatchStats snapshot() {
+            return new WriteBatchStats(this);
+        }
+    }
+}
@@ -18,12 +18,16 @@ package org.jivesoftware.smack.tcp;
 
 import org.jivesoftware.smack.AbstractConnectionListener;
 import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ChannelSelectedCallback;
 import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.ConnectionConfiguration.DnssecMode;
 import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
+import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackReactor;
 import org.jivesoftware.smack.SmackException.AlreadyConnectedException;
 import org.jivesoftware.smack.SmackException.AlreadyLoggedInException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
@@ -71,13 +75,17 @@ import org.jivesoftware.smack.sm.provider.ParseStreamManagement;
 import org.jivesoftware.smack.packet.Nonza;
 import org.jivesoftware.smack.packet.XMPPError;
 import org.jivesoftware.smack.proxy.ProxyInfo;
+import org.jivesoftware.smack.tcp.WriteBatchStats.FlushReason;
 import org.jivesoftware.smack.util.ArrayBlockingQueueWithShutdown;
 import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smack.util.DNSUtil;
+import org.jivesoftware.smack.util.HashedWheelTimer;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.TLSUtils;
+import org.jivesoftware.smack.util.Utf8OutputBuffer;
 import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.jivesoftware.smack.util.XmppElementSplitter;
 import org.jivesoftware.smack.util.dns.HostAddress;
 import org.jivesoftware.smack.util.dns.SmackDaneProvider;
 import org.jivesoftware.smack.util.dns.SmackDaneVerifier;
@@ -93,6 +101,10 @@ import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
@@ -113,6 +125,11 @@ import java.lang.reflect.Constructor;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -123,16 +140,17 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
@@ -152,11 +170,27 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     private static final int QUEUE_SIZE = 500;
     private static final Logger LOGGER = Logger.getLogger(XMPPTCPConnection.class.getName());
 
+    /**
+     * A single space, which is allowed between top level stream elements and used as keepalive.
+     */
+    private static final Element WHITESPACE_KEEPALIVE = new Element() {
+        @Override
+        public CharSequence toXML() {
+            return " ";
+        }
+    };
+
     /**
      * The socket which is used for this connection.
      */
     private Socket socket;
 
+    /**
+     * The output stream the packet writer writes the UTF-8 encoded stream elements to, bypassing {@link #writer}.
+     * <code>null</code> if the elements have to be written via {@link #writer}, e.g. because a debugger observes it.
+     */
+    private OutputStream outputStream;
+
     /**
      * 
      */
@@ -174,6 +208,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     protected PacketReader packetReader;
 
+    /**
+     * The transport used instead of the reader and writer threads if the Smack reactor is enabled.
+     */
+    private ReactorTransport reactorTransport;
+
     private final SynchronizationPoint<Exception> initalOpenStreamSend = new SynchronizationPoint<>(
                     this, "initial open stream element send to server");
 
@@ -211,6 +250,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     private BundleAndDeferCallback bundleAndDeferCallback = defaultBundleAndDeferCallback;
 
+    private final WriteBatchStats.Recorder writeBatchRecorder = new WriteBatchStats.Recorder();
+
     private static boolean useSmDefault = true;
 
     private static boolean useSmResumptionDefault = true;
@@ -261,7 +302,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     private long clientHandledStanzasCount = 0;
 
-    private BlockingQueue<Stanza> unacknowledgedStanzas;
+    private UnacknowledgedStanzaBuffer unacknowledgedStanzas;
 
     /**
      * Set to true if Stream Management was at least once enabled for this connection.
@@ -283,6 +324,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     private final Map<String, StanzaListener> stanzaIdAcknowledgedListeners = new ConcurrentHashMap<String, StanzaListener>();
 
+    /**
+     * The futures of {@link #requestAcknowledgementAsync()}, completed by the next received acknowledgement.
+     */
+    private final Queue<SmackFuture<Void>> pendingAckFutures = new ConcurrentLinkedQueue<>();
+
     /**
      * Predicates that determine if an stream management ack should be requested from the server.
      * <p>
@@ -501,6 +547,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
         LOGGER.finer("PacketReader has been shut down");
 
+        completePendingAckFutures(new NotConnectedException());
+
         try {
                 socket.close();
         } catch (Exception e) {
@@ -524,6 +572,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         usingTLS = false;
         reader = null;
         writer = null;
+        outputStream = null;
 
         maybeCompressFeaturesReceived.init();
         compressSyncPoint.init();
@@ -537,6 +586,59 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         packetWriter.sendStreamElement(element);
     }
 
+    /**
+     * Sends the specified stanza to the server.
+     * <p>
+     * If Stream Management is enabled and the resend buffer exceeds its limits, then the calling thread waits until
+     * the server acknowledged enough stanzas, as long as the stream is established or can be resumed. Use
+     * {@link #trySendStanza(Stanza)} in order to send without waiting, and {@link #isSmResendBufferFull()} to query the
+     * state of the resend buffer.
+     * </p>
+     *
+     * @param stanza the stanza to send.
+     * @throws NotConnectedException if the connection is not connected, or was closed while waiting and can not be
+     *         resumed.
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     * @see XMPPTCPConnectionConfiguration.Builder#setSmResendBufferMaxStanzas(int)
+     */
+    @Override
+    public void sendStanza(Stanza stanza) throws NotConnectedException, InterruptedException {
+        awaitSmResendBufferCapacity();
+        super.sendStanza(stanza);
+    }
+
+    /**
+     * Sends the specified stanza to the server, unless the Stream Management resend buffer exceeds its limits. Unlike
+     * {@link #sendStanza(Stanza)}, this never waits for the server to acknowledge previously sent stanzas, which allows
+     * the caller to apply its own backpressure, e.g. by dropping or coalescing stanzas.
+     *
+     * @param stanza the stanza to send.
+     * @return true if the stanza was sent, false if it was not sent because the resend buffer is full.
+     * @throws NotConnectedException if the connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @see #isSmResendBufferFull()
+     */
+    public boolean trySendStanza(Stanza stanza) throws NotConnectedException, InterruptedException {
+        if (isSmResendBufferFull()) {
+            return false;
+        }
+        super.sendStanza(stanza);
+        return true;
+    }
+
+    /**
+     * Wait until the Stream Management resend buffer is within its limits. The I/O threads never wait, as they process
+     * the acknowledgements.
+     */
+    private void awaitSmResendBufferCapacity() throws NotConnectedException, InterruptedException {
+        UnacknowledgedStanzaBuffer unacknowledgedStanzas;
+        while ((unacknowledgedStanzas = this.unacknowledgedStanzas) != null && !isIoThread()
+                        && !unacknowledgedStanzas.awaitCapacity(getPacketReplyTimeout())) {
+            // Keep waiting while the stream is alive or resumable, as its stanzas will be acknowledged eventually.
+            packetWriter.throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
+        }
+    }
+
     @Override
     protected void sendStanzaInternal(Stanza packet) throws NotConnectedException, InterruptedException {
         packetWriter.sendStreamElement(packet);
@@ -550,6 +652,17 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
     }
 
+    @Override
+    protected void processStanza(Stanza stanza) throws InterruptedException {
+        final ReactorTransport reactorTransport = this.reactorTransport;
+        if (config.isSmackReactorEnabled() && reactorTransport != null && reactorTransport.isOwningReactorThread()) {
+            // The reactor thread is shared by many connections and must never block.
+            reactorTransport.processIncomingStanza(stanza);
+            return;
+        }
+        super.processStanza(stanza);
+    }
+
     private void connectUsingConfiguration() throws ConnectionException, IOException {
         List<HostAddress> failedAddresses = populateHostAddresses();
         SocketFactory socketFactory = config.getSocketFactory();
@@ -613,6 +726,45 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         throw ConnectionException.from(failedAddresses);
     }
 
+    /**
+     * Connect a socket channel for the Smack reactor. Proxies and custom socket factories are not supported by the
+     * reactor, which is enforced by {@link XMPPTCPConnectionConfiguration}.
+     */
+    private void connectUsingConfigurationWithReactor() throws ConnectionException, IOException, InterruptedException {
+        List<HostAddress> failedAddresses = populateHostAddresses();
+        int timeout = config.getConnectTimeout();
+        for (HostAddress hostAddress : hostAddresses) {
+            String host = hostAddress.getFQDN();
+            int port = hostAddress.getPort();
+            for (InetAddress inetAddress : hostAddress.getInetAddresses()) {
+                final String inetAddressAndPort = inetAddress + " at port " + port;
+                LOGGER.finer("Trying to establish TCP connection to " + inetAddressAndPort);
+                // The channel is connected in blocking mode, as this is the easiest way to honor the
+                // connect timeout. It is switched to non-blocking mode before it is handed to the reactor.
+                SocketChannel channel = SocketChannel.open();
+                try {
+                    channel.socket().connect(new InetSocketAddress(inetAddress, port), timeout);
+                    channel.configureBlocking(false);
+                } catch (Exception e) {
+                    hostAddress.setException(inetAddress, e);
+                    channel.close();
+                    continue;
+                }
+                LOGGER.finer("Established TCP connection to " + inetAddressAndPort);
+                socket = channel.socket();
+                reactorTransport = new ReactorTransport(channel);
+                this.host = host;
+                this.port = port;
+                return;
+            }
+            failedAddresses.add(hostAddress);
+        }
+        // There are no more host addresses to try
+        // throw an exception and report all tried
+        // HostAddresses in the exception
+        throw ConnectionException.from(failedAddresses);
+    }
+
     /**
      * Initializes the connection by creating a stanza(/packet) reader and writer and opening a
      * XMPP stream to the server.
@@ -621,12 +773,17 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * @throws SmackException if the server failes to respond back or if there is anther error.
      * @throws IOException 
      */
-    private void initConnection() throws IOException {
+    private void initConnection() throws IOException, InterruptedException {
         boolean isFirstInitialization = packetReader == null || packetWriter == null;
         compressionHandler = null;
 
-        // Set the reader and writer instance variables
-        initReaderAndWriter();
+        if (config.isSmackReactorEnabled()) {
+            // The reactor reads and writes the socket channel directly, there is no reader and writer
+            reactorTransport.register();
+        } else {
+            // Set the reader and writer instance variables
+            initReaderAndWriter();
+        }
 
         if (isFirstInitialization) {
             packetWriter = new PacketWriter();
@@ -661,6 +818,9 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
         // If debugging is enabled, we open a window and write out all network traffic.
         initDebugger();
+
+        // The debugger observes the writer, so only bypass it if there is no debugger.
+        outputStream = debugger == null ? os : null;
     }
 
     /**
@@ -678,10 +838,6 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * @throws Exception if an exception occurs.
      */
     private void proceedTLSReceived() throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException, NoSuchProviderException, UnrecoverableKeyException, KeyManagementException, SmackException {
-        SSLContext context = this.config.getCustomSSLContext();
-        KeyStore ks = null;
-        KeyManager[] kms = null;
-        PasswordCallback pcb = null;
         SmackDaneVerifier daneVerifier = null;
 
         if (config.getDnssecMode() == DnssecMode.needsDnssecAndDane) {
@@ -695,6 +851,41 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
         }
 
+        SSLContext context = getSSLContext(daneVerifier);
+
+        Socket plain = socket;
+        // Secure the plain connection
+        socket = context.getSocketFactory().createSocket(plain,
+                host, plain.getPort(), true);
+
+        final SSLSocket sslSocket = (SSLSocket) socket;
+        // Immediately set the enabled SSL protocols and ciphers. See SMACK-712 why this is
+        // important (at least on certain platforms) and it seems to be a good idea anyways to
+        // prevent an accidental implicit handshake.
+        TLSUtils.setEnabledProtocolsAndCiphers(sslSocket, config.getEnabledSSLProtocols(), config.getEnabledSSLCiphers());
+
+        // Initialize the reader and writer with the new secured version
+        initReaderAndWriter();
+
+        // Proceed to do the handshake
+        sslSocket.startHandshake();
+
+        if (daneVerifier != null) {
+            daneVerifier.finish(sslSocket);
+        }
+
+        verifyHostname(sslSocket.getSession());
+
+        // Set that TLS was successful
+        usingTLS = true;
+    }
+
+    private SSLContext getSSLContext(SmackDaneVerifier daneVerifier) throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException, NoSuchProviderException, UnrecoverableKeyException, KeyManagementException {
+        SSLContext context = this.config.getCustomSSLContext();
+        KeyStore ks = null;
+        KeyManager[] kms = null;
+        PasswordCallback pcb = null;
+
         if (context == null) {
             final String keyStoreType = config.getKeystoreType();
             final CallbackHandler callbackHandler = config.getCallbackHandler();
@@ -773,37 +964,16 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 context.init(kms, customTrustManagers, secureRandom);
             }
         }
+        return context;
+    }
 
-        Socket plain = socket;
-        // Secure the plain connection
-        socket = context.getSocketFactory().createSocket(plain,
-                host, plain.getPort(), true);
-
-        final SSLSocket sslSocket = (SSLSocket) socket;
-        // Immediately set the enabled SSL protocols and ciphers. See SMACK-712 why this is
-        // important (at least on certain platforms) and it seems to be a good idea anyways to
-        // prevent an accidental implicit handshake.
-        TLSUtils.setEnabledProtocolsAndCiphers(sslSocket, config.getEnabledSSLProtocols(), config.getEnabledSSLCiphers());
-
-        // Initialize the reader and writer with the new secured version
-        initReaderAndWriter();
-
-        // Proceed to do the handshake
-        sslSocket.startHandshake();
-
-        if (daneVerifier != null) {
-            daneVerifier.finish(sslSocket);
-        }
-
+    private void verifyHostname(SSLSession session) throws CertificateException {
         final HostnameVerifier verifier = getConfiguration().getHostnameVerifier();
         if (verifier == null) {
                 throw new IllegalStateException("No HostnameVerifier set. Use connectionConfiguration.setHostnameVerifier() to configure.");
-        } else if (!verifier.verify(getXMPPServiceDomain().toString(), sslSocket.getSession())) {
+        } else if (!verifier.verify(getXMPPServiceDomain().toString(), session)) {
             throw new CertificateException("Hostname verification of certificate failed. Certificate does not authenticate " + getXMPPServiceDomain());
         }
-
-        // Set that TLS was successful
-        usingTLS = true;
     }
 
     /**
@@ -845,7 +1015,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * @throws InterruptedException 
      */
     private void maybeEnableCompression() throws NotConnectedException, NoResponseException, SmackException, InterruptedException {
-        if (!config.isCompressionEnabled()) {
+        if (!config.isCompressionEnabled() || reactorTransport != null) {
+            // The reactor does not support stream compression, which is also rejected by the configuration.
             return;
         }
         maybeCompressFeaturesReceived.checkIfSuccessOrWait();
@@ -881,7 +1052,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         closingStreamReceived.init();
         // Establishes the TCP connection to the server and does setup the reader and writer. Throws an exception if
         // there is an error establishing the connection
-        connectUsingConfiguration();
+        if (config.isSmackReactorEnabled()) {
+            connectUsingConfigurationWithReactor();
+        } else {
+            connectUsingConfiguration();
+        }
 
         // We connected successfully to the servers TCP port
         initConnection();
@@ -921,6 +1096,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     protected void setWriter(Writer writer) {
         this.writer = writer;
+        this.outputStream = null;
     }
 
     @Override
@@ -973,6 +1149,10 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
         String id = getStreamId();
         sendNonza(new StreamOpen(to, from, id));
+        if (config.isSmackReactorEnabled()) {
+            reactorTransport.resetSplitter();
+            return;
+        }
         try {
             packetReader.parser = PacketParserUtils.newXmppParser(reader);
         }
@@ -981,319 +1161,988 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
     }
 
-    protected class PacketReader {
-
-        XmlPullParser parser;
+    /**
+     * Performs the network I/O of the connection on the shared {@link SmackReactor}, instead of using dedicated reader
+     * and writer threads. The incoming data is split into top level stream elements, which are then processed by
+     * {@link PacketReader#parseTopLevelStreamElement(XmlPullParser)}, just like elements read by the reader thread.
+     * The outgoing elements are taken from the queue of the {@link PacketWriter}. All state of the transport is only
+     * accessed by the reactor thread owning the channel.
+     */
+    private final class ReactorTransport implements ChannelSelectedCallback {
 
-        private volatile boolean done;
+        /**
+         * The maximum number of bytes waiting to be written to the channel. Further elements are kept in the
+         * writer queue until the channel becomes writable again.
+         */
+        private static final int MAX_PENDING_OUTGOING_BYTES = 64 * 1024;
 
         /**
-         * Initializes the reader in order to be used. The reader is initialized during the
-         * first connection and when reconnecting due to an abruptly disconnection.
+         * The number of characters of serialized elements after which they get encoded into an outgoing buffer.
          */
-        void init() {
-            done = false;
+        private static final int OUTGOING_BATCH_SIZE = 16 * 1024;
 
-            Async.go(new Runnable() {
-                public void run() {
-                    parsePackets();
-                }
-            }, "Smack Packet Reader (" + getConnectionCounter() + ")");
-         }
+        private final SmackReactor reactor = SmackReactor.getInstance();
+
+        private final SocketChannel channel;
+
+        private final XmppElementSplitter splitter;
 
         /**
-         * Shuts the stanza(/packet) reader down. This method simply sets the 'done' flag to true.
+         * Elements sent by the reactor thread itself. Those are written before the elements of the writer queue, as
+         * the reactor thread must never block on the writer queue.
          */
-        void shutdown() {
-            done = true;
-        }
+        private final Deque<Element> reactorThreadElements = new ArrayDeque<>();
+
+        private final Deque<ByteBuffer> pendingOutgoingBuffers = new ArrayDeque<>();
 
         /**
-         * Parse top-level packets in order to process them further.
-         *
-         * @param thread the thread that is being used by the reader to parse incoming packets.
+         * Stanzas which were not accepted by the saturated incoming stanza processing. Reading from the channel is
+         * paused while there are deferred stanzas, hence there are never more than the stanzas of a single read.
          */
-        private void parsePackets() {
-            try {
-                initalOpenStreamSend.checkIfSuccessOrWait();
-                int eventType = parser.getEventType();
-                while (!done) {
-                    switch (eventType) {
-                    case XmlPullParser.START_TAG:
-                        final String name = parser.getName();
-                        switch (name) {
-                        case Message.ELEMENT:
-                        case IQ.IQ_ELEMENT:
-                        case Presence.ELEMENT:
-                            try {
-                                parseAndProcessStanza(parser);
-                            } finally {
-                                clientHandledStanzasCount = SMUtils.incrementHeight(clientHandledStanzasCount);
-                            }
-                            break;
-                        case "stream":
-                            // We found an opening stream.
-                            if ("jabber:client".equals(parser.getNamespace(null))) {
-                                streamId = parser.getAttributeValue("", "id");
-                                String reportedServerDomain = parser.getAttributeValue("", "from");
-                                assert(config.getXMPPServiceDomain().equals(reportedServerDomain));
-                            }
-                            break;
-                        case "error":
-                            throw new StreamErrorException(PacketParserUtils.parseStreamError(parser));
-                        case "features":
-                            parseFeatures(parser);
-                            break;
-                        case "proceed":
-                            try {
-                                // Secure the connection by negotiating TLS
-                                proceedTLSReceived();
-                                // Send a new opening stream to the server
-                                openStream();
-                            }
-                            catch (Exception e) {
-                                // We report any failure regarding TLS in the second stage of XMPP
-                                // connection establishment, namely the SASL authentication
-                                saslFeatureReceived.reportFailure(new SmackException(e));
-                                throw e;
-                            }
-                            break;
-                        case "failure":
-                            String namespace = parser.getNamespace(null);
-                            switch (namespace) {
-                            case "urn:ietf:params:xml:ns:xmpp-tls":
-                                // TLS negotiation has failed. The server will close the connection
-                                // TODO Parse failure stanza
-                                throw new SmackException("TLS negotiation has failed");
-                            case "http://jabber.org/protocol/compress":
-                                // Stream compression has been denied. This is a recoverable
-                                // situation. It is still possible to authenticate and
-                                // use the connection but using an uncompressed connection
-                                // TODO Parse failure stanza
-                                compressSyncPoint.reportFailure(new SmackException(
-                                                "Could not establish compression"));
-                                break;
-                            case SaslStreamElements.NAMESPACE:
-                                // SASL authentication has failed. The server may close the connection
-                                // depending on the number of retries
-                                final SASLFailure failure = PacketParserUtils.parseSASLFailure(parser);
-                                getSASLAuthentication().authenticationFailed(failure);
-                                break;
-                            }
-                            break;
-                        case Challenge.ELEMENT:
-                            // The server is challenging the SASL authentication made by the client
-                            String challengeData = parser.nextText();
-                            getSASLAuthentication().challengeReceived(challengeData);
-                            break;
-                        case Success.ELEMENT:
-                            Success success = new Success(parser.nextText());
-                            // We now need to bind a resource for the connection
-                            // Open a new stream and wait for the response
-                            openStream();
-                            // The SASL authentication with the server was successful. The next step
-                            // will be to bind the resource
-                            getSASLAuthentication().authenticated(success);
-                            break;
-                        case Compressed.ELEMENT:
-                            // Server confirmed that it's possible to use stream compression. Start
-                            // stream compression
-                            // Initialize the reader and writer with the new compressed version
-                            initReaderAndWriter();
-                            // Send a new opening stream to the server
-                            openStream();
-                            // Notify that compression is being used
-                            compressSyncPoint.reportSuccess();
-                            break;
-                        case Enabled.ELEMENT:
-                            Enabled enabled = ParseStreamManagement.enabled(parser);
-                            if (enabled.isResumeSet()) {
-                                smSessionId = enabled.getId();
-                                if (StringUtils.isNullOrEmpty(smSessionId)) {
-                                    XMPPError.Builder builder = XMPPError.getBuilder(XMPPError.Condition.bad_request);
-                                    builder.setDescriptiveEnText("Stream Management 'enabled' element with resume attribute but without session id received");
-                                    XMPPErrorException xmppException = new XMPPErrorException(
-                                                    builder);
-                                    smEnabledSyncPoint.reportFailure(xmppException);
-                                    throw xmppException;
-                                }
-                                smServerMaxResumptimTime = enabled.getMaxResumptionTime();
-                            } else {
-                                // Mark this a non-resumable stream by setting smSessionId to null
-                                smSessionId = null;
-                            }
-                            clientHandledStanzasCount = 0;
-                            smWasEnabledAtLeastOnce = true;
-                            smEnabledSyncPoint.reportSuccess();
-                            LOGGER.fine("Stream Management (XEP-198): succesfully enabled");
-                            break;
-                        case Failed.ELEMENT:
-                            Failed failed = ParseStreamManagement.failed(parser);
-                            XMPPError.Builder xmppError = XMPPError.getBuilder(failed.getXMPPErrorCondition());
-                            XMPPException xmppException = new XMPPErrorException(xmppError);
-                            // If only XEP-198 would specify different failure elements for the SM
-                            // enable and SM resume failure case. But this is not the case, so we
-                            // need to determine if this is a 'Failed' response for either 'Enable'
-                            // or 'Resume'.
-                            if (smResumedSyncPoint.requestSent()) {
-                                smResumedSyncPoint.reportFailure(xmppException);
-                            }
-                            else {
-                                if (!smEnabledSyncPoint.requestSent()) {
-                                    throw new IllegalStateException("Failed element received but SM was not previously enabled");
-                                }
-                                smEnabledSyncPoint.reportFailure(xmppException);
-                                // Report success for last lastFeaturesReceived so that in case a
-                                // failed resumption, we can continue with normal resource binding.
-                                // See text of XEP-198 5. below Example 11.
-                                lastFeaturesReceived.reportSuccess();
-                            }
-                            break;
-                        case Resumed.ELEMENT:
-                            Resumed resumed = ParseStreamManagement.resumed(parser);
-                            if (!smSessionId.equals(resumed.getPrevId())) {
-                                throw new StreamIdDoesNotMatchException(smSessionId, resumed.getPrevId());
-                            }
-                            // Mark SM as enabled and resumption as successful.
-                            smResumedSyncPoint.reportSuccess();
-                            smEnabledSyncPoint.reportSuccess();
-                            // First, drop the stanzas already handled by the server
-                            processHandledCount(resumed.getHandledCount());
-                            // Then re-send what is left in the unacknowledged queue
-                            List<Stanza> stanzasToResend = new ArrayList<>(unacknowledgedStanzas.size());
-                            unacknowledgedStanzas.drainTo(stanzasToResend);
-                            for (Stanza stanza : stanzasToResend) {
-                                sendStanzaInternal(stanza);
-                            }
-                            // If there where stanzas resent, then request a SM ack for them.
-                            // Writer's sendStreamElement() won't do it automatically based on
-                            // predicates.
-                            if (!stanzasToResend.isEmpty()) {
-                                requestSmAcknowledgementInternal();
-                            }
-                            LOGGER.fine("Stream Management (XEP-198): Stream resumed");
-                            break;
-                        case AckAnswer.ELEMENT:
-                            AckAnswer ackAnswer = ParseStreamManagement.ackAnswer(parser);
-                            processHandledCount(ackAnswer.getHandledCount());
-                            break;
-                        case AckRequest.ELEMENT:
-                            ParseStreamManagement.ackRequest(parser);
-                            if (smEnabledSyncPoint.wasSuccessful()) {
-                                sendSmAcknowledgementInternal();
-                            } else {
-                                LOGGER.warning("SM Ack Request received while SM is not enabled");
-                            }
-                            break;
-                         default:
-                             LOGGER.warning("Unknown top level stream element: " + name);
-                             break;
-                        }
-                        break;
-                    case XmlPullParser.END_TAG:
-                        if (parser.getName().equals("stream")) {
-                            if (!parser.getNamespace().equals("http://etherx.jabber.org/streams")) {
-                                LOGGER.warning(XMPPTCPConnection.this +  " </stream> but different namespace " + parser.getNamespace());
-                                break;
-                            }
+        private final Deque<Stanza> deferredIncomingStanzas = new ArrayDeque<>();
 
-                            // Check if the queue was already shut down before reporting success on closing stream tag
-                            // received. This avoids a race if there is a disconnect(), followed by a connect(), which
-                            // did re-start the queue again, causing this writer to assume that the queue is not
-                            // shutdown, which results in a call to disconnect().
-                            final boolean queueWasShutdown = packetWriter.queue.isShutdown();
-                            closingStreamReceived.reportSuccess();
-
-                            if (queueWasShutdown) {
-                                // We received a closing stream element *after* we initiated the
-                                // termination of the session by sending a closing stream element to
-                                // the server first
-                                return;
-                            } else {
-                                // We received a closing stream element from the server without us
-                                // sending a closing stream element first. This means that the
-                                // server wants to terminate the session, therefore disconnect
-                                // the connection
-                                LOGGER.info(XMPPTCPConnection.this
-                                                + " received closing </stream> element."
-                                                + " Server wants to terminate the connection, calling disconnect()");
-                                disconnect();
-                            }
-                        }
-                        break;
-                    case XmlPullParser.END_DOCUMENT:
-                        // END_DOCUMENT only happens in an error case, as otherwise we would see a
-                        // closing stream element before.
-                        throw new SmackException(
-                                        "Parser got END_DOCUMENT event. This could happen e.g. if the server closed the connection without sending a closing stream element");
+        private final Runnable resumeReadingTask = new Runnable() {
+            @Override
+            public void run() {
+                // Invoked by the thread processing the incoming stanzas, hand over to the reactor thread.
+                reactor.execute(selectionKey, new Runnable() {
+                    @Override
+                    public void run() {
+                        resumeReading();
                     }
-                    eventType = parser.next();
-                }
-            }
-            catch (Exception e) {
-                closingStreamReceived.reportFailure(e);
-                // The exception can be ignored if the the connection is 'done'
-                // or if the it was caused because the socket got closed
-                if (!(done || packetWriter.queue.isShutdown())) {
-                    // Close the connection and notify connection listeners of the
-                    // error.
-                    notifyConnectionError(e);
-                }
+                });
             }
-        }
-    }
-
-    protected class PacketWriter {
-        public static final int QUEUE_SIZE = XMPPTCPConnection.QUEUE_SIZE;
+        };
 
-        private final ArrayBlockingQueueWithShutdown<Element> queue = new ArrayBlockingQueueWithShutdown<Element>(
-                        QUEUE_SIZE, true);
+        private final Utf8OutputBuffer outgoingBatch = new Utf8OutputBuffer(OUTGOING_BATCH_SIZE);
 
         /**
-         * Needs to be protected for unit testing purposes.
+         * The number of stream elements in {@link #outgoingBatch}, used for the {@link WriteBatchStats}.
          */
-        protected SynchronizationPoint<NoResponseException> shutdownDone = new SynchronizationPoint<NoResponseException>(
-                        XMPPTCPConnection.this, "shutdown completed");
+        private int outgoingBatchElements;
 
-        /**
-         * If set, the stanza(/packet) writer is shut down
-         */
-        protected volatile Long shutdownTimestamp = null;
+        private final AtomicBoolean writeRequested = new AtomicBoolean();
 
-        private volatile boolean instantShutdown;
+        private SelectionKey selectionKey;
 
-        /**
-         * True if some preconditions are given to start the bundle and defer mechanism.
-         * <p>
-         * This will likely get set to true right after the start of the writer thread, because
-         * {@link #nextStreamElement()} will check if {@link queue} is empty, which is probably the case, and then set
-         * this field to true.
-         * </p>
-         */
-        private boolean shouldBundleAndDefer;
+        private ByteBuffer incomingBuffer = ByteBuffer.allocate(16 * 1024);
 
-        /** 
-        * Initializes the writer in order to be used. It is called at the first connection and also 
-        * is invoked if the connection is disconnected by an error.
-        */ 
-        void init() {
-            shutdownDone.init();
-            shutdownTimestamp = null;
+        private ByteBuffer decryptedBuffer;
 
-            if (unacknowledgedStanzas != null) {
-                // It's possible that there are new stanzas in the writer queue that
-                // came in while we were disconnected but resumable, drain those into
-                // the unacknowledged queue so that they get resent now
-                drainWriterQueueToUnacknowledgedStanzas();
-            }
+        private SSLEngine sslEngine;
 
-            queue.start();
-            Async.go(new Runnable() {
-                @Override
-                public void run() {
-                    writePackets();
-                }
-            }, "Smack Packet Writer (" + getConnectionCounter() + ")");
+        private boolean tlsHandshakeInProgress;
+
+        private int pendingOutgoingBytes;
+
+        private boolean inputClosed;
+
+        private boolean readPaused;
+
+        private boolean shutdownRequested;
+
+        private boolean failed;
+
+        private boolean inCallback;
+
+        private ReactorTransport(SocketChannel channel) {
+            this.channel = channel;
+            splitter = new XmppElementSplitter(new XmppElementSplitter.Callback() {
+                @Override
+                public void onStreamOpen(String streamOpen) throws Exception {
+                    packetReader.parseTopLevelStreamElement(splitter.getParserForStreamOpen());
+                }
+
+                @Override
+                public void onTopLevelElement(String element) throws Exception {
+                    packetReader.parseTopLevelStreamElement(splitter.getParserFor(element));
+                }
+
+                @Override
+                public void onStreamClose() throws Exception {
+                    inputClosed = true;
+                    packetReader.closingStreamElementReceived();
+                }
+            });
+        }
+
+        private void register() throws ClosedChannelException, InterruptedException {
+            selectionKey = reactor.registerWithSelector(channel, SelectionKey.OP_READ, this);
+        }
+
+        private boolean isOwningReactorThread() {
+            return selectionKey != null && reactor.isOwningReactorThread(selectionKey);
+        }
+
+        private void openInitialStream() {
+            reactor.execute(selectionKey, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        openStream();
+                        initalOpenStreamSend.reportSuccess();
+                        processOutput();
+                    }
+                    catch (Exception e) {
+                        handleException(e);
+                    }
+                }
+            });
+        }
+
+        private void resetSplitter() {
+            splitter.reset();
+        }
+
+        private void sendFromReactorThread(Element element) {
+            reactorThreadElements.add(element);
+            if (!inCallback) {
+                try {
+                    processOutput();
+                }
+                catch (Exception e) {
+                    handleException(e);
+                }
+            }
+        }
+
+        /**
+         * Request the reactor to write the elements of the writer queue.
+         */
+        private void requestWrite() {
+            if (isOwningReactorThread()) {
+                if (!inCallback) {
+                    try {
+                        processOutput();
+                    }
+                    catch (Exception e) {
+                        handleException(e);
+                    }
+                }
+                // Otherwise the output is processed once the callback is finished.
+                return;
+            }
+            if (!writeRequested.compareAndSet(false, true)) {
+                // There is already a pending write request.
+                return;
+            }
+            reactor.execute(selectionKey, new Runnable() {
+                @Override
+                public void run() {
+                    writeRequested.set(false);
+                    try {
+                        processOutput();
+                    }
+                    catch (Exception e) {
+                        handleException(e);
+                    }
+                }
+            });
+        }
+
+        private void shutdownOutput(final boolean instant) {
+            reactor.execute(selectionKey, new Runnable() {
+                @Override
+                public void run() {
+                    if (instant || failed || !channel.isOpen()) {
+                        if (instant && isSmEnabled()) {
+                            // Drain all remaining stanzas into the unacknowledgedStanzas queue, so that
+                            // they get resent once the stream is resumed.
+                            drainToUnacknowledgedStanzas();
+                        }
+                        packetWriter.shutdownDone.reportSuccess();
+                        return;
+                    }
+                    shutdownRequested = true;
+                    try {
+                        // Flush out the rest of the queue.
+                        Element element;
+                        while ((element = reactorThreadElements.poll()) != null) {
+                            outgoingBatch.append(element);
+                        }
+                        while ((element = packetWriter.queue.poll()) != null) {
+                            outgoingBatch.append(element);
+                        }
+                        // Close the stream.
+                        outgoingBatch.append("</stream:stream>");
+                        enqueueOutgoingBatch(FlushReason.idle);
+                        processOutput();
+                    }
+                    catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Exception writing closing stream element", e);
+                        packetWriter.shutdownDone.reportSuccess();
+                    }
+                }
+            });
+        }
+
+        private void processIncomingStanza(Stanza stanza) {
+            if (deferredIncomingStanzas.isEmpty() && offerStanza(stanza)) {
+                return;
+            }
+            deferredIncomingStanzas.add(stanza);
+            if (readPaused) {
+                return;
+            }
+            // Stop reading until the incoming stanza processing caught up.
+            readPaused = true;
+            if (selectionKey.isValid()) {
+                selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+            }
+            whenIncomingStanzasAccepted(resumeReadingTask);
+        }
+
+        private void resumeReading() {
+            if (failed || !channel.isOpen()) {
+                return;
+            }
+            Stanza stanza;
+            while ((stanza = deferredIncomingStanzas.peek()) != null) {
+                if (!offerStanza(stanza)) {
+                    whenIncomingStanzasAccepted(resumeReadingTask);
+                    return;
+                }
+                deferredIncomingStanzas.poll();
+            }
+            readPaused = false;
+            if (inCallback) {
+                // OP_READ is re-armed once the callback is finished.
+                return;
+            }
+            try {
+                // Re-arms OP_READ.
+                processOutput();
+            }
+            catch (Exception e) {
+                handleException(e);
+            }
+        }
+
+        private void drainToUnacknowledgedStanzas() {
+            for (Element element : reactorThreadElements) {
+                if (element instanceof Stanza) {
+                    unacknowledgedStanzas.add((Stanza) element, 0);
+                }
+            }
+            reactorThreadElements.clear();
+            packetWriter.drainWriterQueueToUnacknowledgedStanzas();
+        }
+
+        @Override
+        public void onChannelSelected(SelectableChannel selectedChannel, SelectionKey selectedKey) {
+            inCallback = true;
+            try {
+                if (selectedKey.isReadable()) {
+                    read();
+                }
+                processOutput();
+            }
+            catch (Exception e) {
+                handleException(e);
+            }
+            finally {
+                inCallback = false;
+            }
+        }
+
+        private void handleException(Exception e) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            if (selectionKey.isValid()) {
+                selectionKey.interestOps(0);
+            }
+            if (sslEngine != null && !usingTLS) {
+                // We report any failure regarding TLS in the second stage of XMPP
+                // connection establishment, namely the SASL authentication
+                saslFeatureReceived.reportFailure(new SmackException(e));
+            }
+            if (shutdownRequested) {
+                packetWriter.shutdownDone.reportSuccess();
+            }
+            packetReader.handleReaderException(e);
+        }
+
+        private void read() throws Exception {
+            if (inputClosed || readPaused) {
+                return;
+            }
+            int bytesRead = channel.read(incomingBuffer);
+            if (bytesRead < 0) {
+                throw new SmackException(
+                                "The server closed the connection without sending a closing stream element");
+            }
+
+            if (sslEngine == null) {
+                incomingBuffer.flip();
+                splitter.write(incomingBuffer);
+                incomingBuffer.clear();
+                return;
+            }
+
+            if (tlsHandshakeInProgress) {
+                driveTlsHandshake();
+                if (tlsHandshakeInProgress) {
+                    return;
+                }
+            }
+            while (incomingBuffer.position() > 0 && unwrap()) {
+                // Post handshake messages, like a TLS 1.3 key update, may require a response.
+                wrapWhileNeeded();
+            }
+        }
+
+        private void startTls() throws Exception {
+            SSLContext context = getSSLContext(null);
+            sslEngine = context.createSSLEngine(host, port);
+            sslEngine.setUseClientMode(true);
+            TLSUtils.setEnabledProtocolsAndCiphers(sslEngine, config.getEnabledSSLProtocols(), config.getEnabledSSLCiphers());
+            decryptedBuffer = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
+            tlsHandshakeInProgress = true;
+            sslEngine.beginHandshake();
+            // Send the client hello, the rest of the handshake is driven by the data received from the server.
+            wrapWhileNeeded();
+        }
+
+        private void driveTlsHandshake() throws Exception {
+            while (tlsHandshakeInProgress) {
+                switch (sslEngine.getHandshakeStatus()) {
+                case NEED_TASK:
+                case NEED_WRAP:
+                    wrapWhileNeeded();
+                    break;
+                case NEED_UNWRAP:
+                    if (!unwrap()) {
+                        // Wait for more data from the server.
+                        return;
+                    }
+                    break;
+                default:
+                    tlsHandshakeFinished();
+                    break;
+                }
+            }
+        }
+
+        private void tlsHandshakeFinished() throws Exception {
+            tlsHandshakeInProgress = false;
+            verifyHostname(sslEngine.getSession());
+            // Set that TLS was successful
+            usingTLS = true;
+            // Send a new opening stream to the server
+            openStream();
+        }
+
+        private void wrapWhileNeeded() throws SSLException {
+            while (true) {
+                switch (sslEngine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = sslEngine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    wrap(ByteBuffer.allocate(0));
+                    break;
+                default:
+                    return;
+                }
+            }
+        }
+
+        private void wrap(ByteBuffer data) throws SSLException {
+            do {
+                ByteBuffer out = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+                SSLEngineResult result = sslEngine.wrap(data, out);
+                out.flip();
+                if (out.hasRemaining()) {
+                    pendingOutgoingBuffers.add(out);
+                    pendingOutgoingBytes += out.remaining();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("TLS engine closed");
+                }
+            } while (data.hasRemaining());
+        }
+
+        /**
+         * Unwrap the received TLS data and feed the result into the splitter.
+         *
+         * @return true if progress was made and unwrap should be called again.
+         * @throws Exception
+         */
+        private boolean unwrap() throws Exception {
+            incomingBuffer.flip();
+            try {
+                SSLEngineResult result = sslEngine.unwrap(incomingBuffer, decryptedBuffer);
+                switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    return false;
+                case BUFFER_OVERFLOW:
+                    ByteBuffer newDecryptedBuffer = ByteBuffer.allocate(decryptedBuffer.capacity()
+                                    + sslEngine.getSession().getApplicationBufferSize());
+                    decryptedBuffer.flip();
+                    newDecryptedBuffer.put(decryptedBuffer);
+                    decryptedBuffer = newDecryptedBuffer;
+                    return true;
+                case CLOSED:
+                    throw new SSLException("TLS engine closed");
+                default:
+                    break;
+                }
+                if (decryptedBuffer.position() > 0) {
+                    decryptedBuffer.flip();
+                    splitter.write(decryptedBuffer);
+                    decryptedBuffer.clear();
+                }
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+            finally {
+                incomingBuffer.compact();
+                if (!incomingBuffer.hasRemaining()) {
+                    // The buffer is to small to hold a complete TLS record.
+                    ByteBuffer newIncomingBuffer = ByteBuffer.allocate(incomingBuffer.capacity()
+                                    + sslEngine.getSession().getPacketBufferSize());
+                    incomingBuffer.flip();
+                    newIncomingBuffer.put(incomingBuffer);
+                    incomingBuffer = newIncomingBuffer;
+                }
+            }
+        }
+
+        private void processOutput() throws IOException {
+            if (failed || !channel.isOpen()) {
+                return;
+            }
+            if (!tlsHandshakeInProgress && !shutdownRequested) {
+                fillOutgoingBuffers();
+            }
+
+            if (!pendingOutgoingBuffers.isEmpty()) {
+                ByteBuffer[] buffers = pendingOutgoingBuffers.toArray(new ByteBuffer[pendingOutgoingBuffers.size()]);
+                long bytesWritten = channel.write(buffers);
+                pendingOutgoingBytes -= bytesWritten;
+                while (!pendingOutgoingBuffers.isEmpty() && !pendingOutgoingBuffers.peek().hasRemaining()) {
+                    outgoingBatch.recycle(pendingOutgoingBuffers.poll());
+                }
+            }
+
+            if (shutdownRequested && pendingOutgoingBuffers.isEmpty()) {
+                packetWriter.shutdownDone.reportSuccess();
+            }
+
+            int interestOps = 0;
+            if (!inputClosed && !readPaused) {
+                interestOps |= SelectionKey.OP_READ;
+            }
+            if (!pendingOutgoingBuffers.isEmpty()) {
+                // Wait until the channel becomes writable again.
+                interestOps |= SelectionKey.OP_WRITE;
+            }
+            if (selectionKey.interestOps() != interestOps) {
+                selectionKey.interestOps(interestOps);
+            }
+        }
+
+        private void fillOutgoingBuffers() throws IOException {
+            while (pendingOutgoingBytes < MAX_PENDING_OUTGOING_BYTES) {
+                Element element = reactorThreadElements.poll();
+                if (element == null) {
+                    element = packetWriter.queue.poll();
+                    if (element == null) {
+                        break;
+                    }
+                }
+
+                Stanza packet = null;
+                if (element instanceof Stanza) {
+                    packet = (Stanza) element;
+                }
+                else if (element instanceof Enable) {
+                    // The client needs to add messages to the unacknowledged stanzas queue
+                    // right after it sent 'enabled'. Stanza will be added once
+                    // unacknowledgedStanzas is not null.
+                    unacknowledgedStanzas = newUnacknowledgedStanzaBuffer();
+                }
+
+                final int previousSize = outgoingBatch.size();
+                outgoingBatch.append(element);
+                outgoingBatchElements++;
+                if (unacknowledgedStanzas != null) {
+                    if (packet != null) {
+                        // It is important the we put the stanza in the unacknowledged stanza queue before we put
+                        // it on the wire. The batch is only put on the wire by this thread once it is enqueued.
+                        if (unacknowledgedStanzas.add(packet, outgoingBatch.size() - previousSize)) {
+                            // Proactively request an ack, so that the unacknowledged stanzas get released
+                            outgoingBatch.append(AckRequest.INSTANCE);
+                            outgoingBatchElements++;
+                            unacknowledgedStanzas.ackRequested();
+                        }
+                    }
+                    else if (element instanceof AckRequest) {
+                        unacknowledgedStanzas.ackRequested();
+                    }
+                }
+
+                if (outgoingBatch.size() >= OUTGOING_BATCH_SIZE) {
+                    enqueueOutgoingBatch(FlushReason.size);
+                }
+
+                if (packet != null) {
+                    firePacketSendingListeners(packet);
+                }
+            }
+            enqueueOutgoingBatch(FlushReason.idle);
+        }
+
+        private void enqueueOutgoingBatch(FlushReason flushReason) throws IOException {
+            if (outgoingBatch.isEmpty()) {
+                return;
+            }
+            writeBatchRecorder.recordBatch(outgoingBatchElements, outgoingBatch.size(), flushReason);
+            outgoingBatchElements = 0;
+            // Hand over the encoded bytes without copying them. The byte array is recycled once it was written.
+            ByteBuffer data = outgoingBatch.detach();
+            if (sslEngine == null) {
+                pendingOutgoingBuffers.add(data);
+                pendingOutgoingBytes += data.remaining();
+            } else {
+                wrap(data);
+                outgoingBatch.recycle(data);
+            }
+        }
+    }
+
+    protected class PacketReader {
+
+        XmlPullParser parser;
+
+        private volatile boolean done;
+
+        private volatile Thread thread;
+
+        /**
+         * Initializes the reader in order to be used. The reader is initialized during the
+         * first connection and when reconnecting due to an abruptly disconnection.
+         */
+        void init() {
+            done = false;
+
+            if (config.isSmackReactorEnabled()) {
+                // The reactor parses the incoming top level stream elements, see ReactorTransport
+                return;
+            }
+
+            Async.go(new Runnable() {
+                public void run() {
+                    parsePackets();
+                }
+            }, "Smack Packet Reader (" + getConnectionCounter() + ")");
+         }
+
+        private boolean isReaderThread() {
+            return thread == Thread.currentThread();
+        }
+
+        /**
+         * Shuts the stanza(/packet) reader down. This method simply sets the 'done' flag to true.
+         */
+        void shutdown() {
+            done = true;
+        }
+
+        /**
+         * Parse top-level packets in order to process them further.
+         *
+         * @param thread the thread that is being used by the reader to parse incoming packets.
+         */
+        private void parsePackets() {
+            thread = Thread.currentThread();
+            try {
+                initalOpenStreamSend.checkIfSuccessOrWait();
+                int eventType = parser.getEventType();
+                while (!done) {
+                    switch (eventType) {
+                    case XmlPullParser.START_TAG:
+                        parseTopLevelStreamElement(parser);
+                        break;
+                    case XmlPullParser.END_TAG:
+                        if (parser.getName().equals("stream")) {
+                            if (!parser.getNamespace().equals("http://etherx.jabber.org/streams")) {
+                                LOGGER.warning(XMPPTCPConnection.this +  " </stream> but different namespace " + parser.getNamespace());
+                                break;
+                            }
+
+                            if (closingStreamElementReceived()) {
+                                return;
+                            }
+                        }
+                        break;
+                    case XmlPullParser.END_DOCUMENT:
+                        // END_DOCUMENT only happens in an error case, as otherwise we would see a
+                        // closing stream element before.
+                        throw new SmackException(
+                                        "Parser got END_DOCUMENT event. This could happen e.g. if the server closed the connection without sending a closing stream element");
+                    }
+                    eventType = parser.next();
+                }
+            }
+            catch (Exception e) {
+                handleReaderException(e);
+            }
+        }
+
+        /**
+         * Parse and process the top level stream element the parser is positioned at.
+         *
+         * @param parser the parser positioned at the start tag of the element.
+         * @throws Exception
+         */
+        private void parseTopLevelStreamElement(XmlPullParser parser) throws Exception {
+            final String name = parser.getName();
+            switch (name) {
+            case Message.ELEMENT:
+            case IQ.IQ_ELEMENT:
+            case Presence.ELEMENT:
+                try {
+                    parseAndProcessStanza(parser);
+                } finally {
+                    clientHandledStanzasCount = SMUtils.incrementHeight(clientHandledStanzasCount);
+                }
+                break;
+            case "stream":
+                // We found an opening stream.
+                if ("jabber:client".equals(parser.getNamespace(null))) {
+                    streamId = parser.getAttributeValue("", "id");
+                    String reportedServerDomain = parser.getAttributeValue("", "from");
+                    assert(config.getXMPPServiceDomain().equals(reportedServerDomain));
+                }
+                break;
+            case "error":
+                throw new StreamErrorException(PacketParserUtils.parseStreamError(parser));
+            case "features":
+                parseFeatures(parser);
+                break;
+            case "proceed":
+                try {
+                    if (config.isSmackReactorEnabled()) {
+                        // The TLS handshake is driven by the reactor, which sends a new opening stream to the
+                        // server once the handshake is finished
+                        reactorTransport.startTls();
+                    } else {
+                        // Secure the connection by negotiating TLS
+                        proceedTLSReceived();
+                        // Send a new opening stream to the server
+                        openStream();
+                    }
+                }
+                catch (Exception e) {
+                    // We report any failure regarding TLS in the second stage of XMPP
+                    // connection establishment, namely the SASL authentication
+                    saslFeatureReceived.reportFailure(new SmackException(e));
+                    throw e;
+                }
+                break;
+            case "failure":
+                String namespace = parser.getNamespace(null);
+                switch (namespace) {
+                case "urn:ietf:params:xml:ns:xmpp-tls":
+                    // TLS negotiation has failed. The server will close the connection
+                    // TODO Parse failure stanza
+                    throw new SmackException("TLS negotiation has failed");
+                case "http://jabber.org/protocol/compress":
+                    // Stream compression has been denied. This is a recoverable
+                    // situation. It is still possible to authenticate and
+                    // use the connection but using an uncompressed connection
+                    // TODO Parse failure stanza
+                    compressSyncPoint.reportFailure(new SmackException(
+                                    "Could not establish compression"));
+                    break;
+                case SaslStreamElements.NAMESPACE:
+                    // SASL authentication has failed. The server may close the connection
+                    // depending on the number of retries
+                    final SASLFailure failure = PacketParserUtils.parseSASLFailure(parser);
+                    getSASLAuthentication().authenticationFailed(failure);
+                    break;
+                }
+                break;
+            case Challenge.ELEMENT:
+                // The server is challenging the SASL authentication made by the client
+                String challengeData = parser.nextText();
+                getSASLAuthentication().challengeReceived(challengeData);
+                break;
+            case Success.ELEMENT:
+                Success success = new Success(parser.nextText());
+                // We now need to bind a resource for the connection
+                // Open a new stream and wait for the response
+                openStream();
+                // The SASL authentication with the server was successful. The next step
+                // will be to bind the resource
+                getSASLAuthentication().authenticated(success);
+                break;
+            case Compressed.ELEMENT:
+                // Server confirmed that it's possible to use stream compression. Start
+                // stream compression
+                // Initialize the reader and writer with the new compressed version
+                initReaderAndWriter();
+                // Send a new opening stream to the server
+                openStream();
+                // Notify that compression is being used
+                compressSyncPoint.reportSuccess();
+                break;
+            case Enabled.ELEMENT:
+                Enabled enabled = ParseStreamManagement.enabled(parser);
+                if (enabled.isResumeSet()) {
+                    smSessionId = enabled.getId();
+                    if (StringUtils.isNullOrEmpty(smSessionId)) {
+                        XMPPError.Builder builder = XMPPError.getBuilder(XMPPError.Condition.bad_request);
+                        builder.setDescriptiveEnText("Stream Management 'enabled' element with resume attribute but without session id received");
+                        XMPPErrorException xmppException = new XMPPErrorException(
+                                        builder);
+                        smEnabledSyncPoint.reportFailure(xmppException);
+                        throw xmppException;
+                    }
+                    smServerMaxResumptimTime = enabled.getMaxResumptionTime();
+                } else {
+                    // Mark this a non-resumable stream by setting smSessionId to null
+                    smSessionId = null;
+                }
+                clientHandledStanzasCount = 0;
+                smWasEnabledAtLeastOnce = true;
+                smEnabledSyncPoint.reportSuccess();
+                LOGGER.fine("Stream Management (XEP-198): succesfully enabled");
+                break;
+            case Failed.ELEMENT:
+                Failed failed = ParseStreamManagement.failed(parser);
+                XMPPError.Builder xmppError = XMPPError.getBuilder(failed.getXMPPErrorCondition());
+                XMPPException xmppException = new XMPPErrorException(xmppError);
+                // If only XEP-198 would specify different failure elements for the SM
+                // enable and SM resume failure case. But this is not the case, so we
+                // need to determine if this is a 'Failed' response for either 'Enable'
+                // or 'Resume'.
+                if (smResumedSyncPoint.requestSent()) {
+                    smResumedSyncPoint.reportFailure(xmppException);
+                }
+                else {
+                    if (!smEnabledSyncPoint.requestSent()) {
+                        throw new IllegalStateException("Failed element received but SM was not previously enabled");
+                    }
+                    smEnabledSyncPoint.reportFailure(xmppException);
+                    // Report success for last lastFeaturesReceived so that in case a
+                    // failed resumption, we can continue with normal resource binding.
+                    // See text of XEP-198 5. below Example 11.
+                    lastFeaturesReceived.reportSuccess();
+                }
+                break;
+            case Resumed.ELEMENT:
+                Resumed resumed = ParseStreamManagement.resumed(parser);
+                if (!smSessionId.equals(resumed.getPrevId())) {
+                    throw new StreamIdDoesNotMatchException(smSessionId, resumed.getPrevId());
+                }
+                // Mark SM as enabled and resumption as successful.
+                smResumedSyncPoint.reportSuccess();
+                smEnabledSyncPoint.reportSuccess();
+                // First, drop the stanzas already handled by the server
+                processHandledCount(resumed.getHandledCount());
+                // Then re-send what is left in the unacknowledged queue
+                List<Stanza> stanzasToResend = new ArrayList<>(unacknowledgedStanzas.size());
+                unacknowledgedStanzas.drainTo(stanzasToResend);
+                for (Stanza stanza : stanzasToResend) {
+                    sendStanzaInternal(stanza);
+                }
+                // If there where stanzas resent, then request a SM ack for them.
+                // Writer's sendStreamElement() won't do it automatically based on
+                // predicates.
+                if (!stanzasToResend.isEmpty()) {
+                    requestSmAcknowledgementInternal();
+                }
+                LOGGER.fine("Stream Management (XEP-198): Stream resumed");
+                break;
+            case AckAnswer.ELEMENT:
+                AckAnswer ackAnswer = ParseStreamManagement.ackAnswer(parser);
+                processHandledCount(ackAnswer.getHandledCount());
+                completePendingAckFutures(null);
+                break;
+            case AckRequest.ELEMENT:
+                ParseStreamManagement.ackRequest(parser);
+                if (smEnabledSyncPoint.wasSuccessful()) {
+                    sendSmAcknowledgementInternal();
+                } else {
+                    LOGGER.warning("SM Ack Request received while SM is not enabled");
+                }
+                break;
+             default:
+                 LOGGER.warning("Unknown top level stream element: " + name);
+                 break;
+            }
+        }
+
+        /**
+         * Handle the closing stream element of the server.
+         *
+         * @return true if the closing stream element was received after we initiated the termination of the session.
+         */
+        private boolean closingStreamElementReceived() {
+            // Check if the queue was already shut down before reporting success on closing stream tag
+            // received. This avoids a race if there is a disconnect(), followed by a connect(), which
+            // did re-start the queue again, causing this writer to assume that the queue is not
+            // shutdown, which results in a call to disconnect().
+            final boolean queueWasShutdown = packetWriter.queue.isShutdown();
+            closingStreamReceived.reportSuccess();
+
+            if (queueWasShutdown) {
+                // We received a closing stream element *after* we initiated the
+                // termination of the session by sending a closing stream element to
+                // the server first
+                return true;
+            }
+            // We received a closing stream element from the server without us
+            // sending a closing stream element first. This means that the
+            // server wants to terminate the session, therefore disconnect
+            // the connection
+            LOGGER.info(XMPPTCPConnection.this
+                            + " received closing </stream> element."
+                            + " Server wants to terminate the connection, calling disconnect()");
+            if (config.isSmackReactorEnabled()) {
+                // Disconnecting waits for the reactor to flush the outgoing data, so it must not
+                // happen on the reactor thread.
+                asyncGo(new Runnable() {
+                    @Override
+                    public void run() {
+                        disconnect();
+                    }
+                });
+            } else {
+                disconnect();
+            }
+            return false;
+        }
+
+        private void handleReaderException(final Exception e) {
+            closingStreamReceived.reportFailure(e);
+            // The exception can be ignored if the the connection is 'done'
+            // or if the it was caused because the socket got closed
+            if (!(done || packetWriter.queue.isShutdown())) {
+                // Close the connection and notify connection listeners of the
+                // error.
+                if (config.isSmackReactorEnabled()) {
+                    // Notifying the connection error shuts the connection down, which must not happen
+                    // on the reactor thread.
+                    asyncGo(new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyConnectionError(e);
+                        }
+                    });
+                } else {
+                    notifyConnectionError(e);
+                }
+            }
+        }
+    }
+
+    protected class PacketWriter {
+        public static final int QUEUE_SIZE = XMPPTCPConnection.QUEUE_SIZE;
+
+        /**
+         * The initial size of the buffer of encoded stream elements. The buffer is written out once it exceeds this
+         * size, even if further elements are queued.
+         */
+        private static final int OUTGOING_BUFFER_SIZE = 8 * 1024;
+
+        private final ArrayBlockingQueueWithShutdown<Element> queue = new ArrayBlockingQueueWithShutdown<Element>(
+                        QUEUE_SIZE, true);
+
+        /**
+         * Needs to be protected for unit testing purposes.
+         */
+        protected SynchronizationPoint<NoResponseException> shutdownDone = new SynchronizationPoint<NoResponseException>(
+                        XMPPTCPConnection.this, "shutdown completed");
+
+        /**
+         * If set, the stanza(/packet) writer is shut down
+         */
+        protected volatile Long shutdownTimestamp = null;
+
+        private volatile boolean instantShutdown;
+
+        /**
+         * True if some preconditions are given to start the bundle and defer mechanism.
+         * <p>
+         * This will likely get set to true right after the start of the writer thread, because
+         * {@link #nextStreamElement()} will check if {@link queue} is empty, which is probably the case, and then set
+         * this field to true.
+         * </p>
+         */
+        private boolean shouldBundleAndDefer;
+
+        /**
+         * The buffer the stream elements are encoded into if they are written to {@link #outputStream}. Only accessed
+         * by the writer thread.
+         */
+        private final Utf8OutputBuffer outgoingBuffer;
+
+        /**
+         * The size in bytes at which {@link #outgoingBuffer} is written out to the socket, even if it is not yet
+         * flushed.
+         */
+        private final int outgoingBufferWriteThreshold;
+
+        private final boolean writeCoalescingEnabled = config.isWriteCoalescingEnabled();
+
+        private final int writeBatchMaxBytes = config.getWriteBatchMaxBytes();
+
+        private final long writeBatchMaxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(config.getWriteBatchMaxLatencyMicros());
+
+        // The following fields describe the batch of written, but not yet flushed, stream elements. They are only
+        // accessed by the writer thread.
+        private int batchElements;
+        private int batchBytes;
+        private long batchDeadline;
+
+        /**
+         * True if a Stream Management acknowledgement request is appended to the current batch once it is flushed. A
+         * single request at the end of a batch covers all stanzas of the batch.
+         */
+        private boolean batchAckRequested;
+
+        PacketWriter() {
+            outgoingBufferWriteThreshold = writeCoalescingEnabled ? Math.max(OUTGOING_BUFFER_SIZE, writeBatchMaxBytes)
+                            : OUTGOING_BUFFER_SIZE;
+            outgoingBuffer = new Utf8OutputBuffer(outgoingBufferWriteThreshold);
+        }
+
+        /** 
+        * Initializes the writer in order to be used. It is called at the first connection and also 
+        * is invoked if the connection is disconnected by an error.
+        */ 
+        void init() {
+            shutdownDone.init();
+            shutdownTimestamp = null;
+
+            if (unacknowledgedStanzas != null) {
+                // It's possible that there are new stanzas in the writer queue that
+                // came in while we were disconnected but resumable, drain those into
+                // the unacknowledged queue so that they get resent now
+                drainWriterQueueToUnacknowledgedStanzas();
+            }
+
+            queue.start();
+
+            if (config.isSmackReactorEnabled()) {
+                // The reactor writes the queued elements, see ReactorTransport
+                reactorTransport.openInitialStream();
+                return;
+            }
+
+            Async.go(new Runnable() {
+                @Override
+                public void run() {
+                    writePackets();
+                }
+            }, "Smack Packet Writer (" + getConnectionCounter() + ")");
         }
 
         private boolean done() {
@@ -1321,6 +2170,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
          */
         protected void sendStreamElement(Element element) throws NotConnectedException, InterruptedException {
             throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
+            if (config.isSmackReactorEnabled() && reactorTransport.isOwningReactorThread()) {
+                // The reactor thread must never block on the queue, which could only be drained by itself
+                reactorTransport.sendFromReactorThread(element);
+                return;
+            }
             try {
                 queue.put(element);
             }
@@ -1333,6 +2187,9 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 // If the method above did not throw, then the sending thread was interrupted
                 throw e;
             }
+            if (config.isSmackReactorEnabled()) {
+                reactorTransport.requestWrite();
+            }
         }
 
         /**
@@ -1344,6 +2201,9 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             instantShutdown = instant;
             queue.shutdown();
             shutdownTimestamp = System.currentTimeMillis();
+            if (config.isSmackReactorEnabled()) {
+                reactorTransport.shutdownOutput(instant);
+            }
             try {
                 shutdownDone.checkIfSuccessOrWait();
             }
@@ -1353,9 +2213,9 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
 
         /**
-         * Maybe return the next available element from the queue for writing. If the queue is shut down <b>or</b> a
-         * spurious interrupt occurs, <code>null</code> is returned. So it is important to check the 'done' condition in
-         * that case.
+         * Maybe return the next available element from the queue for writing. If the queue is shut down, a
+         * spurious interrupt occurs <b>or</b> the deadline of the current write batch elapsed, <code>null</code> is
+         * returned. So it is important to check the 'done' condition in that case.
          *
          * @return the next element for writing or null.
          */
@@ -1366,7 +2226,13 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
             Element packet = null;
             try {
-                packet = queue.take();
+                if (writeCoalescingEnabled && hasPendingBatch()) {
+                    // Wait for further elements only until the oldest element of the batch must be flushed.
+                    packet = queue.poll(batchDeadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                else {
+                    packet = queue.take();
+                }
             }
             catch (InterruptedException e) {
                 if (!queue.isShutdown()) {
@@ -1377,8 +2243,102 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             return packet;
         }
 
+        private boolean hasPendingBatch() {
+            return batchElements > 0 || batchAckRequested;
+        }
+
+        private void startBatchIfRequired() {
+            if (!hasPendingBatch()) {
+                batchDeadline = System.nanoTime() + writeBatchMaxLatencyNanos;
+            }
+        }
+
+        private void writeElement(Element element) throws IOException {
+            startBatchIfRequired();
+            final OutputStream outputStream = XMPPTCPConnection.this.outputStream;
+            final CharSequence xml = element.toXML();
+            final int size = encode(xml, outputStream);
+            final UnacknowledgedStanzaBuffer unacknowledgedStanzas = XMPPTCPConnection.this.unacknowledgedStanzas;
+            if (unacknowledgedStanzas != null) {
+                if (element instanceof Stanza) {
+                    // It is important the we put the stanza in the unacknowledged stanza queue before we put it on
+                    // the wire. Encoding the stanza does not put it on the wire yet.
+                    if (unacknowledgedStanzas.add((Stanza) element, size)) {
+                        // Proactively request an ack at the end of the batch, so that the unacknowledged stanzas get
+                        // released
+                        batchAckRequested = true;
+                    }
+                }
+                else if (element instanceof AckRequest) {
+                    unacknowledgedStanzas.ackRequested();
+                }
+            }
+            writeEncoded(xml, size, outputStream);
+            batchElements++;
+        }
+
+        private void write(CharSequence xml) throws IOException {
+            final OutputStream outputStream = XMPPTCPConnection.this.outputStream;
+            writeEncoded(xml, encode(xml, outputStream), outputStream);
+        }
+
+        /**
+         * Encode the given XML into {@link #outgoingBuffer}, unless it has to be written via {@link #writer}.
+         *
+         * @return the size of the XML in bytes, or in chars if it has to be written via {@link #writer}.
+         */
+        private int encode(CharSequence xml, OutputStream outputStream) {
+            if (outputStream == null) {
+                return xml.length();
+            }
+            final int previousSize = outgoingBuffer.size();
+            outgoingBuffer.append(xml);
+            return outgoingBuffer.size() - previousSize;
+        }
+
+        private void writeEncoded(CharSequence xml, int size, OutputStream outputStream) throws IOException {
+            batchBytes += size;
+            if (outputStream == null) {
+                if (xml instanceof XmlStringBuilder) {
+                    ((XmlStringBuilder) xml).write(writer);
+                }
+                else {
+                    writer.write(xml.toString());
+                }
+                return;
+            }
+            if (outgoingBuffer.size() >= outgoingBufferWriteThreshold) {
+                outgoingBuffer.writeTo(outputStream);
+            }
+        }
+
+        private void flush(FlushReason flushReason) throws IOException {
+            if (batchAckRequested) {
+                batchAckRequested = false;
+                writeElement(AckRequest.INSTANCE);
+            }
+            writeBatchRecorder.recordBatch(batchElements, batchBytes, flushReason);
+            batchElements = 0;
+            batchBytes = 0;
+
+            final OutputStream outputStream = XMPPTCPConnection.this.outputStream;
+            if (outputStream == null) {
+                writer.flush();
+                return;
+            }
+            if (!outgoingBuffer.isEmpty()) {
+                outgoingBuffer.writeTo(outputStream);
+            }
+            outputStream.flush();
+        }
+
         private void writePackets() {
             Exception writerException = null;
+            // Discard what could not be written to a previous stream.
+            outgoingBuffer.reset();
+            batchElements = 0;
+            batchBytes = 0;
+            batchAckRequested = false;
             try {
                 openStream();
                 initalOpenStreamSend.reportSuccess();
@@ -1386,6 +2346,10 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 while (!done()) {
                     Element element = nextStreamElement();
                     if (element == null) {
+                        if (hasPendingBatch() && !done()) {
+                            // The maximum write latency of the current batch elapsed.
+                            flush(FlushReason.latency);
+                        }
                         continue;
                     }
 
@@ -1423,39 +2387,32 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                         // The client needs to add messages to the unacknowledged stanzas queue
                         // right after it sent 'enabled'. Stanza will be added once
                         // unacknowledgedStanzas is not null.
-                        unacknowledgedStanzas = new ArrayBlockingQueue<>(QUEUE_SIZE);
-                    }
-                    // Check if the stream element should be put to the unacknowledgedStanza
-                    // queue. Note that we can not do the put() in sendStanzaInternal() and the
-                    // packet order is not stable at this point (sendStanzaInternal() can be
-                    // called concurrently).
-                    if (unacknowledgedStanzas != null && packet != null) {
-                        // If the unacknowledgedStanza queue is nearly full, request an new ack
-                        // from the server in order to drain it
-                        if (unacknowledgedStanzas.size() == 0.8 * XMPPTCPConnection.QUEUE_SIZE) {
-                            writer.write(AckRequest.INSTANCE.toXML().toString());
-                            writer.flush();
-                        }
-                        try {
-                            // It is important the we put the stanza in the unacknowledged stanza
-                            // queue before we put it on the wire
-                            unacknowledgedStanzas.put(packet);
-                        }
-                        catch (InterruptedException e) {
-                            throw new IllegalStateException(e);
-                        }
+                        unacknowledgedStanzas = newUnacknowledgedStanzaBuffer();
                     }
 
-                    CharSequence elementXml = element.toXML();
-                    if (elementXml instanceof XmlStringBuilder) {
-                        ((XmlStringBuilder) elementXml).write(writer);
+                    final boolean coalescing = writeCoalescingEnabled && isAuthenticated();
+                    if (coalescing && element instanceof AckRequest) {
+                        // Instead of one acknowledgement request per stanza, e.g. because of the request ack
+                        // predicates, send a single request at the end of the batch.
+                        startBatchIfRequired();
+                        batchAckRequested = true;
                     }
                     else {
-                        writer.write(elementXml.toString());
+                        writeElement(element);
                     }
 
-                    if (queue.isEmpty()) {
-                        writer.flush();
+                    if (!coalescing) {
+                        // Flush once the queue is empty. Coalescing is only used once the connection is
+                        // authenticated, as stream negotiation is a sequence of request/response round trips.
+                        if (queue.isEmpty() || batchAckRequested) {
+                            flush(FlushReason.idle);
+                        }
+                    }
+                    else if (batchBytes >= writeBatchMaxBytes) {
+                        flush(FlushReason.size);
+                    }
+                    else if (System.nanoTime() - batchDeadline >= 0) {
+                        flush(FlushReason.latency);
                     }
                     if (packet != null) {
                         firePacketSendingListeners(packet);
@@ -1466,9 +2423,9 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                     try {
                         while (!queue.isEmpty()) {
                             Element packet = queue.remove();
-                            writer.write(packet.toXML().toString());
+                            writeElement(packet);
                         }
-                        writer.flush();
+                        flush(FlushReason.idle);
                     }
                     catch (Exception e) {
                         LOGGER.log(Level.WARNING,
@@ -1478,8 +2435,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
                     // Close the stream.
                     try {
-                        writer.write("</stream:stream>");
-                        writer.flush();
+                        write("</stream:stream>");
+                        flush(FlushReason.idle);
                     }
                     catch (Exception e) {
                         LOGGER.log(Level.WARNING, "Exception writing closing stream element", e);
@@ -1520,7 +2477,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             queue.drainTo(elements);
             for (Element element : elements) {
                 if (element instanceof Stanza) {
-                    unacknowledgedStanzas.add((Stanza) element);
+                    unacknowledgedStanzas.add((Stanza) element, 0);
                 }
             }
         }
@@ -1646,6 +2603,52 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         packetWriter.sendStreamElement(AckRequest.INSTANCE);
     }
 
+    @Override
+    public SmackFuture<Void> requestAcknowledgementAsync() {
+        if (!isSmEnabled()) {
+            return null;
+        }
+        final SmackFuture<Void> future = new SmackFuture<>();
+        pendingAckFutures.add(future);
+        future.onError(new ExceptionCallback() {
+            @Override
+            public void processException(Exception exception) {
+                // E.g. completed by the caller because of a timeout, in which case it would otherwise stay queued
+                // until the next acknowledgement.
+                pendingAckFutures.remove(future);
+            }
+        });
+        try {
+            requestSmAcknowledgementInternal();
+        }
+        catch (NotConnectedException | InterruptedException e) {
+            pendingAckFutures.remove(future);
+            future.completeExceptionally(e);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return future;
+    }
+
+    @Override
+    public boolean sendWhitespaceKeepAlive() throws NotConnectedException, InterruptedException {
+        packetWriter.sendStreamElement(WHITESPACE_KEEPALIVE);
+        return true;
+    }
+
+    private void completePendingAckFutures(Exception exception) {
+        SmackFuture<Void> future;
+        while ((future = pendingAckFutures.poll()) != null) {
+            if (exception == null) {
+                future.complete(null);
+            }
+            else {
+                future.completeExceptionally(exception);
+            }
+        }
+    }
+
     /**
      * Send a unconditional Stream Management acknowledgment to the server.
      * <p>
@@ -1763,6 +2766,39 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         return smEnabledSyncPoint.wasSuccessful();
     }
 
+    /**
+     * Get the number of stanzas which were sent but not yet acknowledged by the server. Senders should expect to be
+     * throttled once this reaches {@link XMPPTCPConnectionConfiguration#getSmResendBufferMaxStanzas()}.
+     *
+     * @return the number of unacknowledged stanzas, or <code>0</code> if Stream Management is not enabled.
+     */
+    public int getUnacknowledgedStanzasCount() {
+        final UnacknowledgedStanzaBuffer unacknowledgedStanzas = this.unacknowledgedStanzas;
+        return unacknowledgedStanzas == null ? 0 : unacknowledgedStanzas.size();
+    }
+
+    /**
+     * Check if the Stream Management resend buffer exceeds its limits, i.e. if {@link #sendStanza(Stanza)} waits for
+     * the server to acknowledge stanzas and {@link #trySendStanza(Stanza)} does not send stanzas.
+     *
+     * @return true if the resend buffer is full, false if it is not or Stream Management is not enabled.
+     */
+    public boolean isSmResendBufferFull() {
+        final UnacknowledgedStanzaBuffer unacknowledgedStanzas = this.unacknowledgedStanzas;
+        return unacknowledgedStanzas != null && unacknowledgedStanzas.isFull();
+    }
+
+    /**
+     * Get the size in bytes of the stanzas which were sent but not yet acknowledged by the server. Senders should
+     * expect to be throttled once this reaches {@link XMPPTCPConnectionConfiguration#getSmResendBufferMaxBytes()}.
+     *
+     * @return the size of the unacknowledged stanzas in bytes, or <code>0</code> if Stream Management is not enabled.
+     */
+    public long getUnacknowledgedStanzasBytes() {
+        final UnacknowledgedStanzaBuffer unacknowledgedStanzas = this.unacknowledgedStanzas;
+        return unacknowledgedStanzas == null ? 0 : unacknowledgedStanzas.getBytes();
+    }
+
     /**
      * Returns true if the stream was successfully resumed with help of Stream Management.
      * 
@@ -1777,6 +2813,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * 
      * @return true if disconnected but resumption possible.
      */
+    @Override
     public boolean isDisconnectedButSmResumptionPossible() {
         return disconnectedButResumeable && isSmResumptionPossible();
     }
@@ -1809,6 +2846,55 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
     }
 
+    private UnacknowledgedStanzaBuffer newUnacknowledgedStanzaBuffer() {
+        UnacknowledgedStanzaBuffer buffer = new UnacknowledgedStanzaBuffer(config.getSmResendBufferMaxStanzas(),
+                        config.getSmResendBufferMaxBytes());
+        scheduleAckRequestCheck(buffer);
+        return buffer;
+    }
+
+    /**
+     * Periodically check if an acknowledgement request is due for the given resend buffer, so that the stanzas of an
+     * idle connection get acknowledged too. The check stops once the buffer was replaced or dropped, or the stream can
+     * no longer be resumed.
+     */
+    private void scheduleAckRequestCheck(final UnacknowledgedStanzaBuffer buffer) {
+        HashedWheelTimer.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (unacknowledgedStanzas != buffer) {
+                    return;
+                }
+                if (!isConnected() && !isDisconnectedButSmResumptionPossible()) {
+                    // The stream was closed and can not be resumed, hence its stanzas are never acknowledged.
+                    return;
+                }
+                if (isConnected() && isSmEnabled() && buffer.isAckRequestDue()) {
+                    // Never write on the shared timer thread, as the writer queue may be full.
+                    asyncGoDetached(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                requestSmAcknowledgementInternal();
+                            }
+                            catch (NotConnectedException | InterruptedException e) {
+                                LOGGER.log(Level.FINE, "Could not request Stream Management acknowledgement", e);
+                            }
+                        }
+                    });
+                }
+                scheduleAckRequestCheck(buffer);
+            }
+        }, UnacknowledgedStanzaBuffer.ACK_REQUEST_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isIoThread() {
+        if (config.isSmackReactorEnabled()) {
+            return reactorTransport.isOwningReactorThread();
+        }
+        return packetReader.isReaderThread();
+    }
+
     /**
      * Drop the stream management state. Sets {@link #smSessionId} and
      * {@link #unacknowledgedStanzas} to <code>null</code>.
@@ -1929,4 +3015,15 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         this.bundleAndDeferCallback = bundleAndDeferCallback;
     }
 
+    /**
+     * Get the statistics about the batches of stream elements this connection wrote to the network. The statistics
+     * are not reset when the connection reconnects.
+     *
+     * @return a snapshot of the write batch statistics.
+     * @see XMPPTCPConnectionConfiguration.Builder#setWriteBatchMaxLatencyMicros(long)
+     */
+    public WriteBatchStats getWriteBatchStats() {
+        return writeBatchRecorder.snapshot();
+    }
+
 }
@@ -17,6 +17,8 @@
 package org.jivesoftware.smack.tcp;
 
 import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.SmackReactor;
+import org.jivesoftware.smack.packet.Stanza;
 
 /**
  * A connection configuration for XMPP connections over TCP (the common case).
@@ -41,6 +43,25 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     public static int DEFAULT_CONNECT_TIMEOUT = 30000;
 
+    /**
+     * The default maximum size of a batch of coalesced writes in bytes. Preinitialized with 16384 (16 KiB). If this
+     * value is changed, new Builder instances will use the new value as default.
+     */
+    public static int DEFAULT_WRITE_BATCH_MAX_BYTES = 16 * 1024;
+
+    /**
+     * The default maximum number of unacknowledged stanzas held for a Stream Management resend. Preinitialized with
+     * 1000. If this value is changed, new Builder instances will use the new value as default.
+     */
+    public static int DEFAULT_SM_RESEND_BUFFER_MAX_STANZAS = 1000;
+
+    /**
+     * The default maximum size in bytes of the unacknowledged stanzas held for a Stream Management resend.
+     * Preinitialized with 1048576 (1 MiB). If this value is changed, new Builder instances will use the new value as
+     * default.
+     */
+    public static int DEFAULT_SM_RESEND_BUFFER_MAX_BYTES = 1024 * 1024;
+
     private final boolean compressionEnabled;
 
     /**
@@ -48,10 +69,43 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     private final int connectTimeout;
 
+    private final boolean smackReactorEnabled;
+
+    private final int writeBatchMaxBytes;
+
+    private final long writeBatchMaxLatencyMicros;
+
+    private final int smResendBufferMaxStanzas;
+
+    private final int smResendBufferMaxBytes;
+
     private XMPPTCPConnectionConfiguration(Builder builder) {
         super(builder);
         compressionEnabled = builder.compressionEnabled;
         connectTimeout = builder.connectTimeout;
+        smackReactorEnabled = builder.smackReactorEnabled;
+        writeBatchMaxBytes = builder.writeBatchMaxBytes;
+        writeBatchMaxLatencyMicros = builder.writeBatchMaxLatencyMicros;
+        smResendBufferMaxStanzas = builder.smResendBufferMaxStanzas;
+        smResendBufferMaxBytes = builder.smResendBufferMaxBytes;
+
+        if (smackReactorEnabled) {
+            if (getProxyInfo() != null) {
+                throw new IllegalArgumentException("Proxies are not supported if the Smack reactor is used");
+            }
+            if (getSocketFactory() != null) {
+                throw new IllegalArgumentException("Custom socket factories are not supported if the Smack reactor is used");
+            }
+            if (getDnssecMode() == DnssecMode.needsDnssecAndDane) {
+                throw new IllegalArgumentException("DANE is not supported if the Smack reactor is used");
+            }
+            if (compressionEnabled) {
+                throw new IllegalArgumentException("Stream compression is not supported if the Smack reactor is used");
+            }
+            if (isDebuggerEnabled()) {
+                throw new IllegalArgumentException("The debugger is not supported if the Smack reactor is used");
+            }
+        }
     }
 
     /**
@@ -76,6 +130,67 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
         return connectTimeout;
     }
 
+    /**
+     * Returns true if the connection is going to use the shared {@link SmackReactor} for its I/O instead of dedicated
+     * reader and writer threads. By default the reactor is not used.
+     *
+     * @return true if the connection is going to use the Smack reactor.
+     */
+    public boolean isSmackReactorEnabled() {
+        return smackReactorEnabled;
+    }
+
+    /**
+     * Returns true if outgoing stream elements are coalesced into batches which are written with a single flush. See
+     * {@link Builder#setWriteBatchMaxLatencyMicros(long)}.
+     *
+     * @return true if write coalescing is enabled.
+     */
+    public boolean isWriteCoalescingEnabled() {
+        return writeBatchMaxLatencyMicros > 0;
+    }
+
+    /**
+     * The maximum size of a batch of coalesced writes in bytes. Defaults to {@link #DEFAULT_WRITE_BATCH_MAX_BYTES}.
+     *
+     * @return the maximum batch size in bytes.
+     */
+    public int getWriteBatchMaxBytes() {
+        return writeBatchMaxBytes;
+    }
+
+    /**
+     * The maximum time in microseconds an outgoing stream element is held back in order to coalesce it with further
+     * elements. <code>0</code>, the default, disables write coalescing.
+     *
+     * @return the maximum write latency in microseconds.
+     */
+    public long getWriteBatchMaxLatencyMicros() {
+        return writeBatchMaxLatencyMicros;
+    }
+
+    /**
+     * The maximum number of unacknowledged stanzas held for a Stream Management resend. Defaults to
+     * {@link #DEFAULT_SM_RESEND_BUFFER_MAX_STANZAS}.
+     *
+     * @return the maximum number of unacknowledged stanzas.
+     * @see Builder#setSmResendBufferMaxStanzas(int)
+     */
+    public int getSmResendBufferMaxStanzas() {
+        return smResendBufferMaxStanzas;
+    }
+
+    /**
+     * The maximum size in bytes of the unacknowledged stanzas held for a Stream Management resend. Defaults to
+     * {@link #DEFAULT_SM_RESEND_BUFFER_MAX_BYTES}.
+     *
+     * @return the maximum size of the unacknowledged stanzas in bytes.
+     * @see Builder#setSmResendBufferMaxBytes(int)
+     */
+    public int getSmResendBufferMaxBytes() {
+        return smResendBufferMaxBytes;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -87,6 +202,11 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
     public static final class Builder extends ConnectionConfiguration.Builder<Builder, XMPPTCPConnectionConfiguration> {
         private boolean compressionEnabled = false;
         private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private boolean smackReactorEnabled = false;
+        private int writeBatchMaxBytes = DEFAULT_WRITE_BATCH_MAX_BYTES;
+        private long writeBatchMaxLatencyMicros = 0;
+        private int smResendBufferMaxStanzas = DEFAULT_SM_RESEND_BUFFER_MAX_STANZAS;
+        private int smResendBufferMaxBytes = DEFAULT_SM_RESEND_BUFFER_MAX_BYTES;
 
         private Builder() {
         }
@@ -116,6 +236,107 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
             return this;
         }
 
+        /**
+         * Sets if the connection is going to use the shared {@link SmackReactor} for its I/O. If enabled, the
+         * connection does not use dedicated reader and writer threads, instead the network I/O of all connections
+         * using the reactor is multiplexed over the few reactor threads. This allows a large number of connections to
+         * be handled by a single process.
+         * <p>
+         * Proxies, custom socket factories, DANE ({@link DnssecMode#needsDnssecAndDane}), stream compression and the
+         * debugger are not supported if the reactor is used. {@link #build()} throws an
+         * {@link IllegalArgumentException} if one of them is configured together with the reactor, so that the
+         * connection never connects differently from what was configured. Note that the debugger is enabled by default
+         * if {@link org.jivesoftware.smack.SmackConfiguration#DEBUG} is set, use
+         * {@link #setDebuggerEnabled(boolean)} to disable it for connections using the reactor.
+         * </p>
+         *
+         * @param smackReactorEnabled if the connection is going to use the Smack reactor.
+         * @return a reference to this object.
+         */
+        public Builder setSmackReactorEnabled(boolean smackReactorEnabled) {
+            this.smackReactorEnabled = smackReactorEnabled;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of a batch of coalesced writes in bytes. Once a batch reaches this size, it is written
+         * out without waiting for further stream elements. Only used if write coalescing is enabled.
+         *
+         * @param writeBatchMaxBytes the maximum batch size in bytes.
+         * @return a reference to this object.
+         * @see #setWriteBatchMaxLatencyMicros(long)
+         */
+        public Builder setWriteBatchMaxBytes(int writeBatchMaxBytes) {
+            if (writeBatchMaxBytes <= 0) {
+                throw new IllegalArgumentException("writeBatchMaxBytes must be greater than 0");
+            }
+            this.writeBatchMaxBytes = writeBatchMaxBytes;
+            return this;
+        }
+
+        /**
+         * Set the maximum time in microseconds an outgoing stream element is held back in order to coalesce it with
+         * further elements. A value greater than <code>0</code> enables write coalescing: instead of flushing every
+         * time the outgoing queue runs empty, the writer gathers the queued stream elements into one batch and flushes
+         * it once it reached {@link #setWriteBatchMaxBytes(int) the maximum batch size} or the oldest element of the
+         * batch was held back for the given time. This reduces the number of system calls and TLS records under load,
+         * at the cost of up to the given latency.
+         * <p>
+         * Stream negotiation is never held back. The Stream Management acknowledgement requests of a batch are merged
+         * into a single request at the end of the batch. Write coalescing is not used if the Smack reactor is enabled,
+         * as the reactor already batches all elements queued at the time the socket becomes writable.
+         * </p>
+         *
+         * @param writeBatchMaxLatencyMicros the maximum write latency in microseconds, or <code>0</code> to disable
+         *        write coalescing.
+         * @return a reference to this object.
+         */
+        public Builder setWriteBatchMaxLatencyMicros(long writeBatchMaxLatencyMicros) {
+            if (writeBatchMaxLatencyMicros < 0) {
+                throw new IllegalArgumentException("writeBatchMaxLatencyMicros must not be negative");
+            }
+            this.writeBatchMaxLatencyMicros = writeBatchMaxLatencyMicros;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of unacknowledged stanzas held for a Stream Management resend.
+         * <p>
+         * If Stream Management is enabled, every sent stanza is held until the server acknowledged it. Acknowledgements
+         * are requested proactively once a quarter of the limits was sent since the last request. Once the limits are
+         * exceeded, {@link XMPPTCPConnection#sendStanza(Stanza)} waits until the server acknowledged enough stanzas,
+         * while {@link XMPPTCPConnection#trySendStanza(Stanza)} does not send the stanza. The thread writing to the
+         * network is never blocked.
+         * </p>
+         *
+         * @param smResendBufferMaxStanzas the maximum number of unacknowledged stanzas.
+         * @return a reference to this object.
+         * @see #setSmResendBufferMaxBytes(int)
+         */
+        public Builder setSmResendBufferMaxStanzas(int smResendBufferMaxStanzas) {
+            if (smResendBufferMaxStanzas <= 0) {
+                throw new IllegalArgumentException("smResendBufferMaxStanzas must be greater than 0");
+            }
+            this.smResendBufferMaxStanzas = smResendBufferMaxStanzas;
+            return this;
+        }
+
+        /**
+         * Set the maximum size in bytes of the unacknowledged stanzas held for a Stream Management resend. The size
+         * of a stanza is the number of bytes it occupied on the wire.
+         *
+         * @param smResendBufferMaxBytes the maximum size of the unacknowledged stanzas in bytes.
+         * @return a reference to this object.
+         * @see #setSmResendBufferMaxStanzas(int)
+         */
+        public Builder setSmResendBufferMaxBytes(int smResendBufferMaxBytes) {
+            if (smResendBufferMaxBytes <= 0) {
+                throw new IllegalArgumentException("smResendBufferMaxBytes must be greater than 0");
+            }
+            this.smResendBufferMaxBytes = smResendBufferMaxBytes;
+            return this;
+        }
+
         @Override
         protected Builder getThis() {
             return this;
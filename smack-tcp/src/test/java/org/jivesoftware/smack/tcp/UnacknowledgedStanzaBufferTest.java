@@ -0,0 +1,88 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.junit.Test;
+
+public class UnacknowledgedStanzaBufferTest {
+
+    @Test
+    public void shouldGrowAndKeepOrder() {
+        UnacknowledgedStanzaBuffer buffer = new UnacknowledgedStanzaBuffer(1000, 1000000);
+        List<Stanza> stanzas = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Message message = new Message();
+            stanzas.add(message);
+            buffer.add(message, 10);
+            // Interleave removals, so that the ring wraps around.
+            if (i % 3 == 0) {
+                assertSame(stanzas.remove(0), buffer.poll());
+            }
+        }
+        assertEquals(stanzas.size(), buffer.size());
+        assertEquals(10 * stanzas.size(), buffer.getBytes());
+
+        List<Stanza> drained = new ArrayList<>();
+        buffer.drainTo(drained);
+        assertEquals(stanzas, drained);
+        assertEquals(0, buffer.getBytes());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void shouldApplyLimitsAndRequestAcks() throws InterruptedException {
+        UnacknowledgedStanzaBuffer buffer = new UnacknowledgedStanzaBuffer(8, 1000);
+        // An ack is requested once a quarter of the stanza limit was sent since the last request.
+        assertFalse(buffer.add(new Message(), 10));
+        assertTrue(buffer.add(new Message(), 10));
+        buffer.ackRequested();
+        // An ack is requested once a quarter of the byte limit was sent since the last request.
+        assertTrue(buffer.add(new Message(), 250));
+        buffer.ackRequested();
+
+        assertFalse(buffer.isFull());
+        assertTrue(buffer.add(new Message(), 800));
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.awaitCapacity(1));
+
+        buffer.poll();
+        buffer.poll();
+        assertTrue(buffer.isFull());
+        buffer.poll();
+        assertTrue(buffer.awaitCapacity(1));
+    }
+
+    @Test
+    public void shouldOnlyRequestAcksPeriodicallyIfNotEmpty() {
+        UnacknowledgedStanzaBuffer buffer = new UnacknowledgedStanzaBuffer(8, 1000);
+        assertFalse(buffer.isAckRequestDue());
+        buffer.add(new Message(), 10);
+        // The interval did not elapse since the buffer was created.
+        assertFalse(buffer.isAckRequestDue());
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.jivesoftware.smack.tcp.WriteBatchStats.FlushReason;
+import org.junit.Test;
+
+public class WriteBatchStatsTest {
+
+    @Test
+    public void shouldRecordBatches() {
+        WriteBatchStats.Recorder recorder = new WriteBatchStats.Recorder();
+        recorder.recordBatch(1, 100, FlushReason.idle);
+        recorder.recordBatch(3, 300, FlushReason.latency);
+        recorder.recordBatch(1000, 16384, FlushReason.size);
+        // Batches without stream elements are ignored.
+        recorder.recordBatch(0, 0, FlushReason.idle);
+
+        WriteBatchStats stats = recorder.snapshot();
+        assertEquals(3, stats.getBatchCount());
+        assertEquals(1004, stats.getElementCount());
+        assertEquals(16784, stats.getByteCount());
+        assertEquals(1000, stats.getMaxBatchElements());
+        assertEquals(16384, stats.getMaxBatchBytes());
+        assertEquals(1, stats.getSizeLimitedBatchCount());
+        assertEquals(1, stats.getLatencyLimitedBatchCount());
+        assertArrayEquals(new long[] { 1, 1, 0, 0, 0, 0, 0, 1 }, stats.getBatchSizeHistogram());
+    }
+}
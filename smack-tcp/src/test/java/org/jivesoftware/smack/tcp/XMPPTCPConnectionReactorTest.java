@@ -0,0 +1,340 @@
+/**
+ *
+ * Copyright 2016 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.ConnectionConfiguration.DnssecMode;
+import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.DNSUtil;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.dns.DNSResolver;
+import org.jivesoftware.smack.util.dns.HostAddress;
+import org.jivesoftware.smack.util.dns.SRVRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * Tests the Smack reactor transport of {@link XMPPTCPConnection} against a scripted server on a loopback socket.
+ */
+public class XMPPTCPConnectionReactorTest {
+
+    private static final String SERVER_STREAM_OPEN = "<?xml version='1.0' encoding='UTF-8'?>"
+                    + "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'"
+                    + " from='example.org' id='reactor-test' version='1.0'>";
+
+    private static final String SASL_FEATURES = "<stream:features>"
+                    + "<mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'><mechanism>PLAIN</mechanism></mechanisms>"
+                    + "</stream:features>";
+
+    private static final String STARTTLS_FEATURES = "<stream:features>"
+                    + "<starttls xmlns='urn:ietf:params:xml:ns:xmpp-tls'><required/></starttls>"
+                    + "</stream:features>";
+
+    private static final char[] KEY_STORE_PASSWORD = "smacktest".toCharArray();
+
+    private ServerSocket serverSocket;
+
+    private ExecutorService server;
+
+    @BeforeClass
+    public static void setUpResolver() {
+        if (DNSUtil.getDNSResolver() == null) {
+            DNSUtil.setDNSResolver(new HostAddressResolver());
+        }
+    }
+
+    @Before
+    public void bindServerSocket() throws IOException {
+        serverSocket = new ServerSocket();
+        // A small receive buffer makes the reactor wait for the channel to become writable while sending large stanzas.
+        serverSocket.setReceiveBufferSize(8 * 1024);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void closeServerSocket() throws IOException {
+        server.shutdownNow();
+        serverSocket.close();
+    }
+
+    @Test
+    public void shouldSplitPartialReadsAndResumePartialWrites() throws Exception {
+        char[] bodyChars = new char[4 * 1024 * 1024];
+        Arrays.fill(bodyChars, 'a');
+        final String body = new String(bodyChars);
+        Future<String> script = server.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setTcpNoDelay(true);
+                    ServerStream stream = new ServerStream(socket);
+                    stream.readStreamOpen();
+                    // Cut the stream open and the features at arbitrary positions.
+                    stream.writeInChunks(SERVER_STREAM_OPEN + SASL_FEATURES, 7);
+                    String message = stream.readUntil("</message>");
+                    stream.readUntil("</stream:stream>");
+                    stream.write("</stream:stream>");
+                    // The client closes the socket once it received the closing stream element.
+                    assertTrue(stream.isEndOfStream());
+                    return message;
+                }
+            }
+        });
+
+        XMPPTCPConnection connection = new XMPPTCPConnection(
+                        newConfigurationBuilder().setSecurityMode(SecurityMode.disabled).build());
+        connection.connect();
+        assertTrue(connection.isConnected());
+        assertFalse(connection.isSecureConnection());
+        assertEquals("reactor-test", connection.getStreamId());
+
+        connection.sendStanza(new Message("juliet@example.org", body));
+        connection.disconnect();
+        assertFalse(connection.isConnected());
+
+        String message = script.get(10, TimeUnit.SECONDS);
+        assertTrue(message.contains("<body>" + body + "</body>"));
+    }
+
+    @Test
+    public void shouldNegotiateStartTlsWithSslEngine() throws Exception {
+        KeyStore keyStore = loadKeyStore();
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD);
+        final SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
+                        TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+
+        Future<Void> script = server.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try (Socket socket = serverSocket.accept()) {
+                    ServerStream plainStream = new ServerStream(socket);
+                    plainStream.readStreamOpen();
+                    plainStream.write(SERVER_STREAM_OPEN + STARTTLS_FEATURES);
+                    plainStream.readUntil("</starttls>");
+                    plainStream.write("<proceed xmlns='urn:ietf:params:xml:ns:xmpp-tls'/>");
+
+                    SSLSocket sslSocket = (SSLSocket) serverContext.getSocketFactory().createSocket(socket,
+                                    socket.getInetAddress().getHostAddress(), socket.getPort(), false);
+                    sslSocket.setUseClientMode(false);
+                    sslSocket.startHandshake();
+                    ServerStream secureStream = new ServerStream(sslSocket);
+                    secureStream.readStreamOpen();
+                    // Every chunk becomes its own TLS record, which the client has to unwrap one by one.
+                    secureStream.writeInChunks(SERVER_STREAM_OPEN + SASL_FEATURES, 7);
+                    secureStream.readUntil("</stream:stream>");
+                    secureStream.write("</stream:stream>");
+                    return null;
+                }
+            }
+        });
+
+        XMPPTCPConnection connection = new XMPPTCPConnection(newConfigurationBuilder()
+                        .setSecurityMode(SecurityMode.required)
+                        .setCustomSSLContext(clientContext)
+                        .setHostnameVerifier(new HostnameVerifier() {
+                            @Override
+                            public boolean verify(String hostname, SSLSession session) {
+                                return "example.org".equals(hostname);
+                            }
+                        })
+                        .build());
+        connection.connect();
+        assertTrue(connection.isConnected());
+        assertTrue(connection.isSecureConnection());
+
+        connection.disconnect();
+        assertFalse(connection.isConnected());
+        script.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldShutDownIfServerClosesSocket() throws Exception {
+        Future<Void> script = server.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try (Socket socket = serverSocket.accept()) {
+                    ServerStream stream = new ServerStream(socket);
+                    stream.readStreamOpen();
+                    stream.write(SERVER_STREAM_OPEN + SASL_FEATURES);
+                    return null;
+                }
+            }
+        });
+
+        XMPPTCPConnection connection = new XMPPTCPConnection(
+                        newConfigurationBuilder().setSecurityMode(SecurityMode.disabled).build());
+        final CountDownLatch closedOnError = new CountDownLatch(1);
+        connection.addConnectionListener(new AbstractConnectionListener() {
+            @Override
+            public void connectionClosedOnError(Exception e) {
+                closedOnError.countDown();
+            }
+        });
+        connection.connect();
+        script.get(10, TimeUnit.SECONDS);
+
+        assertTrue(closedOnError.await(10, TimeUnit.SECONDS));
+        assertFalse(connection.isConnected());
+    }
+
+    private XMPPTCPConnectionConfiguration.Builder newConfigurationBuilder() throws XmppStringprepException {
+        return XMPPTCPConnectionConfiguration.builder()
+                        .setXmppDomain("example.org")
+                        .setHost(InetAddress.getLoopbackAddress().getHostAddress())
+                        .setPort(serverSocket.getLocalPort())
+                        .setSmackReactorEnabled(true);
+    }
+
+    private static KeyStore loadKeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = XMPPTCPConnectionReactorTest.class.getResourceAsStream("reactor-test.jks");
+        try {
+            keyStore.load(in, KEY_STORE_PASSWORD);
+        }
+        finally {
+            in.close();
+        }
+        return keyStore;
+    }
+
+    /**
+     * The server side of a stream. The client sends nothing after its STARTTLS request until it received the proceed
+     * element, hence no TLS data is consumed by the plain stream when the socket is upgraded.
+     */
+    private static final class ServerStream {
+
+        private final InputStream in;
+
+        private final OutputStream out;
+
+        private final StringBuilder received = new StringBuilder();
+
+        private final byte[] buffer = new byte[8 * 1024];
+
+        private ServerStream(Socket socket) throws IOException {
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        private String readStreamOpen() throws IOException {
+            return readUntil("<stream:stream") + readUntil(">");
+        }
+
+        /**
+         * Read until the given terminator was received.
+         *
+         * @param terminator the terminator.
+         * @return the received data up to and including the terminator.
+         * @throws IOException if an I/O error occurred or the stream ended before the terminator was received.
+         */
+        private String readUntil(String terminator) throws IOException {
+            int searchFrom = 0;
+            while (true) {
+                int index = received.indexOf(terminator, searchFrom);
+                if (index >= 0) {
+                    int end = index + terminator.length();
+                    String result = received.substring(0, end);
+                    received.delete(0, end);
+                    return result;
+                }
+                searchFrom = Math.max(0, received.length() - terminator.length());
+                int count = in.read(buffer);
+                if (count < 0) {
+                    throw new EOFException("Stream ended before '" + terminator + "' was received");
+                }
+                // The client only sends ASCII in these tests, therefore chunks never split a character.
+                received.append(new String(buffer, 0, count, StringUtils.UTF8));
+            }
+        }
+
+        private boolean isEndOfStream() throws IOException {
+            return received.length() == 0 && in.read() < 0;
+        }
+
+        private void write(String string) throws IOException {
+            out.write(StringUtils.toBytes(string));
+            out.flush();
+        }
+
+        private void writeInChunks(String string, int chunkSize) throws IOException, InterruptedException {
+            byte[] bytes = StringUtils.toBytes(string);
+            for (int i = 0; i < bytes.length; i += chunkSize) {
+                out.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+                out.flush();
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Resolves host names with the default implementation and never finds any SRV records.
+     */
+    private static final class HostAddressResolver extends DNSResolver {
+
+        private HostAddressResolver() {
+            super(false);
+        }
+
+        @Override
+        protected List<SRVRecord> lookupSRVRecords0(String name, List<HostAddress> failedAddresses,
+                        DnssecMode dnssecMode) {
+            return Collections.emptyList();
+        }
+    }
+}